@@ -0,0 +1,73 @@
+package com.rohit.ThreadSafeChat.Benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.transport.WireFormat;
+
+/**
+ * Encoding and decoding a routed text with each framed wire format: Java
+ * serialization against the binary codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({ "SERIALIZED_FRAMES", "BINARY_FRAMES" })
+    public WireFormat wireFormat;
+
+    @Param({ "64" })
+    public int textLength;
+
+    private MessageCodec codec;
+    private Message message;
+    private ByteBuffer encodeBuffer;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = wireFormat.getCodec();
+        StringBuilder text = new StringBuilder(textLength);
+        while (text.length() < textLength)
+            text.append('x');
+        message = new Message.Builder().withMessageType(MessageType.RECEIVE_TEXT).withSenderId("alice")
+                .withReceiverId("bob").withText(text.toString()).withSequenceNumber(42L)
+                .withTimestamp(System.currentTimeMillis()).build();
+        encodeBuffer = ByteBuffer.allocate(64 * 1024);
+        codec.encode(message, encodeBuffer);
+        encodeBuffer.flip();
+        encoded = ByteBuffer.allocate(encodeBuffer.remaining());
+        encoded.put(encodeBuffer).flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        encodeBuffer.clear();
+        codec.encode(message, encodeBuffer);
+        return encodeBuffer;
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded.duplicate());
+    }
+}
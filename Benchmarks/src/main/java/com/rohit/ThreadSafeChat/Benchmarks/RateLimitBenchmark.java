@@ -0,0 +1,67 @@
+package com.rohit.ThreadSafeChat.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.RateLimits;
+import com.rohit.ThreadSafeChat.Server.connection.TokenBuckets;
+
+/**
+ * The rate limit check every request goes through: the buckets of a single
+ * connection, and those of a user whose connections are read by four threads
+ * at once. The limit is high enough that most requests get a token.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimitBenchmark {
+    private static final RateLimits LIMITS = RateLimits.parse(
+            "SEND_TEXT_REQUEST=100000000/1000,USER_LOGIN_REQUEST=1/5");
+
+    @State(Scope.Thread)
+    public static class ConnectionState {
+        private TokenBuckets buckets;
+
+        @Setup
+        public void setUp() {
+            buckets = new TokenBuckets(LIMITS);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class UserState {
+        private TokenBuckets buckets;
+
+        @Setup
+        public void setUp() {
+            buckets = new TokenBuckets(LIMITS);
+        }
+    }
+
+    @Benchmark
+    public boolean connection(ConnectionState state) {
+        return state.buckets.tryAcquire(MessageType.SEND_TEXT_REQUEST, System.nanoTime());
+    }
+
+    @Benchmark
+    @Group("user")
+    @GroupThreads(4)
+    public boolean user(UserState state) {
+        return state.buckets.tryAcquire(MessageType.SEND_TEXT_REQUEST, System.nanoTime());
+    }
+}
@@ -0,0 +1,77 @@
+package com.rohit.ThreadSafeChat.Benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.model.User;
+import com.rohit.ThreadSafeChat.Server.registry.LoginResult;
+import com.rohit.ThreadSafeChat.Server.registry.UserRegistry;
+
+/**
+ * The {@link UserRegistry} as every listener thread uses it: looking up the
+ * receiver of each text while other connections log in and off.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    private static final int USERS = Constants.MAX_USERS_SUPPORTED;
+
+    private UserRegistry userRegistry;
+    private String[] userIds;
+    private SinkConnection[] connections;
+
+    @Setup
+    public void setUp() {
+        ServerConfig config = new ServerConfig.Builder().build();
+        userRegistry = new UserRegistry(USERS);
+        userIds = new String[USERS];
+        connections = new SinkConnection[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            connections[i] = new SinkConnection(config);
+            userRegistry.register(userIds[i]);
+            if (i % 2 == 0)
+                userRegistry.login(userIds[i], connections[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public Object lookUpReceiver() {
+        User user = userRegistry.get(userIds[ThreadLocalRandom.current().nextInt(USERS)]);
+        return user == null ? null : user.getConnection();
+    }
+
+    /**
+     * Logs one of the users who start logged off in and straight off again.
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public boolean logInAndOff() {
+        int i = ThreadLocalRandom.current().nextInt(USERS / 2) * 2 + 1;
+        if (userRegistry.login(userIds[i], connections[i]) != LoginResult.OK)
+            return false;
+        return userRegistry.logoff(userIds[i], connections[i]);
+    }
+}
@@ -0,0 +1,84 @@
+package com.rohit.ThreadSafeChat.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.exception.InvalidRequestMessageException;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+
+/**
+ * A {@code SEND_TEXT_REQUEST} through {@link RequestHandler#processMessage}:
+ * receiver lookup, numbering, queueing for the receiver and the response to
+ * the sender, with both connections encoding into memory. Every thread sends
+ * between its own pair of users over a shared handler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        final ServerConfig config = new ServerConfig.Builder().build();
+        final RequestHandler handler = new RequestHandler.Builder().build();
+        final AtomicInteger pairs = new AtomicInteger(0);
+    }
+
+    @State(Scope.Thread)
+    public static class Pair {
+        SinkConnection sender;
+        String senderId;
+        String receiverId;
+
+        @Setup
+        public void setUp(Server server) throws InvalidRequestMessageException {
+            int pair = server.pairs.getAndIncrement();
+            senderId = "sender" + pair;
+            receiverId = "receiver" + pair;
+            sender = new SinkConnection(server.config);
+            SinkConnection receiver = new SinkConnection(server.config);
+            for (String userId : new String[] { senderId, receiverId })
+                server.handler.processMessage(new Message.Builder()
+                        .withMessageType(MessageType.USER_REGISTRATION_REQUEST).withSenderId(userId).build(), sender);
+            server.handler.processMessage(new Message.Builder().withMessageType(MessageType.USER_LOGIN_REQUEST)
+                    .withSenderId(senderId).build(), sender);
+            server.handler.processMessage(new Message.Builder().withMessageType(MessageType.USER_LOGIN_REQUEST)
+                    .withSenderId(receiverId).build(), receiver);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void sendText(Server server, Pair pair) throws InvalidRequestMessageException {
+        route(server, pair);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sendTextContended(Server server, Pair pair) throws InvalidRequestMessageException {
+        route(server, pair);
+    }
+
+    private static void route(Server server, Pair pair) throws InvalidRequestMessageException {
+        server.handler.processMessage(new Message.Builder().withMessageType(MessageType.SEND_TEXT_REQUEST)
+                .withSenderId(pair.senderId).withReceiverId(pair.receiverId)
+                .withText("a short text of a typical size").build(), pair.sender);
+    }
+}
@@ -0,0 +1,61 @@
+package com.rohit.ThreadSafeChat.Benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * A connection without a socket. Queued messages are encoded into a reused
+ * buffer on the queueing thread, as the writer would, and received texts are
+ * acknowledged straight away, as a fast client would.
+ */
+class SinkConnection extends ClientConnection {
+    private final MessageCodec codec = new BinaryMessageCodec();
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long bytesWritten;
+
+    SinkConnection(ServerConfig config) {
+        super(config, new ServerMetrics());
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    protected void onMessageQueued() {
+        Message message;
+        while ((message = outboundQueue.poll()) != null) {
+            buffer.clear();
+            try {
+                codec.encode(message, buffer);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            bytesWritten += buffer.position();
+            if (message.getMessageType() == MessageType.RECEIVE_TEXT)
+                getDeliveryWindow().acknowledge(message.getSenderId(), message.getSequenceNumber());
+        }
+    }
+
+    @Override
+    protected boolean canBlock() {
+        return false;
+    }
+}
@@ -1,24 +1,27 @@
 package com.rohit.ThreadSafeChat.Client;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.util.concurrent.Phaser;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rohit.ThreadSafeChat.Client.api.ChatClient;
 import com.rohit.ThreadSafeChat.Client.listener.ClientListener;
 import com.rohit.ThreadSafeChat.Client.model.ClientState;
 import com.rohit.ThreadSafeChat.Client.util.ErrorMessages;
 import com.rohit.ThreadSafeChat.Common.model.Message;
-import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.transport.WireFormat;
 
 /**
- * Entry point to create new Clients.
+ * Entry point to create new Clients. Commands are sent through a
+ * {@link ChatClient} one at a time, waiting for each response before reading
+ * the next command.
  * 
  * @author Rohit Mazumder.(mazumder.rohit7@gmail.com)
  */
@@ -26,10 +29,8 @@ public class Client {
     private static final Logger LOGGER = LoggerFactory.getLogger(Client.class);
     private static final BufferedReader BUFFERED_READER = new BufferedReader(new InputStreamReader(System.in));
 
-    private static Socket socket;
-    private static ObjectOutputStream objectOutputStream;
-    private static ObjectInputStream objectInputStream;
-    private static Phaser phaser;
+    private static ChatClient chatClient;
+    private static ClientListener clientListener;
 
     private static ClientState clientState;
 
@@ -41,8 +42,8 @@ public class Client {
         String hostname = args[0];
         int port = Integer.parseInt(args[1]);
 
-        phaser = new Phaser(1);
         clientState = new ClientState();
+        clientListener = new ClientListener(clientState);
         connectToServerSocket(hostname, port);
 
         try {
@@ -79,6 +80,49 @@ public class Client {
                     throw new IOException(ErrorMessages.INVALID_TEXT_SEND_ARGS);
                 String receiverId = args[0].substring(1);
                 sendMessage(receiverId, args[1]);
+            } else if (args[0].equals("create") || args[0].equals("join") || args[0].equals("leave")) {
+                if (args.length != 2 || args[1].charAt(0) != '#')
+                    throw new IOException(ErrorMessages.INVALID_ROOM_ARGS);
+                sendRoomRequest(args[0], args[1].substring(1));
+            } else if (args[0].equals("history")) {
+                if (args.length < 2 || args.length > 4 || args[1].charAt(0) != '@')
+                    throw new IOException(ErrorMessages.INVALID_HISTORY_ARGS);
+                try {
+                    requestHistory(args[1].substring(1), args.length > 2 ? Integer.valueOf(args[2]) : null,
+                            args.length > 3 ? Long.valueOf(args[3]) : null);
+                } catch (NumberFormatException e) {
+                    throw new IOException(ErrorMessages.INVALID_HISTORY_ARGS);
+                }
+            } else if (args[0].equals("search")) {
+                boolean hasOffset = args.length > 1 && args[1].startsWith("+");
+                if (args.length < (hasOffset ? 3 : 2))
+                    throw new IOException(ErrorMessages.INVALID_SEARCH_ARGS);
+                try {
+                    search(String.join(" ", Arrays.copyOfRange(args, hasOffset ? 2 : 1, args.length)),
+                            hasOffset ? Long.valueOf(args[1].substring(1)) : null);
+                } catch (NumberFormatException e) {
+                    throw new IOException(ErrorMessages.INVALID_SEARCH_ARGS);
+                }
+            } else if (args[0].equals("watch") || args[0].equals("unwatch")) {
+                if (args.length != 2 || args[1].charAt(0) != '@')
+                    throw new IOException(ErrorMessages.INVALID_WATCH_ARGS);
+                sendPresenceRequest(args[0], args[1].substring(1));
+            } else if (args[0].equals("file")) {
+                if (args.length != 3 || args[1].charAt(0) != '@')
+                    throw new IOException(ErrorMessages.INVALID_FILE_ARGS);
+                sendFile(args[1].substring(1), new File(args[2]));
+            } else if (args[0].equals("accept") || args[0].equals("cancel")) {
+                if (args.length != (args[0].equals("accept") ? 3 : 2))
+                    throw new IOException(ErrorMessages.INVALID_TRANSFER_ARGS);
+                try {
+                    sendTransferRequest(Long.parseLong(args[1]), args.length > 2 ? new File(args[2]) : null);
+                } catch (NumberFormatException e) {
+                    throw new IOException(ErrorMessages.INVALID_TRANSFER_ARGS);
+                }
+            } else if (args[0].charAt(0) == '#') {
+                if (args.length != 2)
+                    throw new IOException(ErrorMessages.INVALID_ROOM_TEXT_SEND_ARGS);
+                sendRoomMessage(args[0].substring(1), args[1]);
             } else if (args[0].equals("logoff")) {
                 logoff();
             } else {
@@ -100,10 +144,8 @@ public class Client {
             LOGGER.error(ErrorMessages.IN_LOGIN_QUEUE);
             return;
         }
-        
-        Message registrationRequest = new Message.Builder().withMessageType(MessageType.USER_REGISTRATION_REQUEST)
-                .withSenderId(username).build();
-        sendRequestToServer(registrationRequest);
+
+        awaitResponse(chatClient.register(username));
 	}
 
 	private static void connectToServerSocket(String hostname, int port) {
@@ -114,11 +156,8 @@ public class Client {
 
         LOGGER.info("Attempting to connect to server socket ...");
         try {
-            socket = new Socket(hostname, port);
-            objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-            objectInputStream = new ObjectInputStream(socket.getInputStream());
+            chatClient = ChatClient.connect(hostname, port, WireFormat.fromSystemProperties(), clientListener);
             clientState.setIsConnected(true);
-            (new Thread(new ClientListener(phaser, objectInputStream, clientState))).start();
             LOGGER.info("Connected successfully to server socket !");
         } catch (IOException e) {
             LOGGER.error(ErrorMessages.FAILED_TO_CONNECT_TO_SERVER, e);
@@ -139,9 +178,7 @@ public class Client {
             return;
         }
 
-        Message loginRequest = new Message.Builder().withMessageType(MessageType.USER_LOGIN_REQUEST)
-                .withSenderId(username).build();
-        sendRequestToServer(loginRequest);
+        awaitResponse(chatClient.login(username));
     }
 
 	public static void sendMessage(String receiverId, String text) {
@@ -152,11 +189,86 @@ public class Client {
             LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
             return;
         }
-        
-        Message textMessage = new Message.Builder().withText(text).withSenderId(clientState.getUserId())
-                .withReceiverId(receiverId).withMessageType(MessageType.SEND_TEXT_REQUEST).build();
 
-        sendRequestToServer(textMessage);
+        awaitResponse(chatClient.sendText(receiverId, text));
+    }
+
+    private static void sendRoomRequest(String command, String roomName) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        if (command.equals("create"))
+            awaitResponse(chatClient.createRoom(roomName));
+        else if (command.equals("join"))
+            awaitResponse(chatClient.joinRoom(roomName));
+        else
+            awaitResponse(chatClient.leaveRoom(roomName));
+    }
+
+    public static void sendRoomMessage(String roomName, String text) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        awaitResponse(chatClient.sendRoomText(roomName, text));
+    }
+
+    private static void sendPresenceRequest(String command, String peerId) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        if (command.equals("watch"))
+            awaitResponse(chatClient.subscribePresence(peerId));
+        else
+            awaitResponse(chatClient.unsubscribePresence(peerId));
+    }
+
+    private static void sendFile(String receiverId, File file) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        awaitResponse(chatClient.sendFile(receiverId, file));
+    }
+
+    /**
+     * @param target where an accepted file is written, or {@code null} to
+     *               cancel the transfer.
+     */
+    private static void sendTransferRequest(long transferId, File target) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        if (target != null)
+            awaitResponse(chatClient.acceptFile(transferId, target));
+        else
+            awaitResponse(chatClient.cancelFile(transferId));
+    }
+
+    private static void requestHistory(String peerId, Integer pageSize, Long beforeSequence) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        awaitResponse(chatClient.history(peerId, pageSize, beforeSequence));
+    }
+
+    private static void search(String query, Long offset) {
+        if (!clientState.getIsLoggedIn()) {
+            LOGGER.error(ErrorMessages.NOT_LOGGED_IN);
+            return;
+        }
+
+        awaitResponse(chatClient.search(query, null, offset));
     }
 
     private static void logoff() {
@@ -169,56 +281,24 @@ public class Client {
             return;
         }
 
-        Message logoffRequest = new Message.Builder().withMessageType(MessageType.USER_LOGOFF_REQUEST)
-                .withSenderId(clientState.getUserId()).build();
-        sendRequestToServer(logoffRequest);
+        awaitResponse(chatClient.logoff());
     }
-    
-    private static void sendRequestToServer(Message request) {
-    	try {
-            objectOutputStream.writeObject(request);
-            objectOutputStream.flush();
-            clientState.setIsWaitingForResponse(true);
-            phaser.arriveAndAwaitAdvance();
-        } catch (IOException e) {
-            LOGGER.error(e.getMessage(), e);
+
+    private static void awaitResponse(CompletableFuture<Message> response) {
+        try {
+            clientListener.onMessage(response.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error(e.getCause().getMessage(), e.getCause());
         }
-	}
+    }
 
     private static void closeConnections() {
         LOGGER.warn("Closing Connections ...");
-        closeObjectInputStreamIfNotNull();
-        closeObjectOutputStreamIfNotNull();
-        closeSocketIfNotNull();
-        phaser.arriveAndDeregister();
+        if (chatClient != null)
+            chatClient.close();
         LOGGER.info("Connections terminated successfully!\n You may close the window now!");
     }
 
-    private static void closeObjectOutputStreamIfNotNull() {
-        if (objectOutputStream != null)
-            try {
-                objectOutputStream.close();
-            } catch (IOException e) {
-                LOGGER.error("Failed to close object output stream", e);
-            }
-    }
-
-    private static void closeObjectInputStreamIfNotNull() {
-        if (objectInputStream != null)
-            try {
-                objectInputStream.close();
-            } catch (IOException e) {
-                LOGGER.error("Failed to close object input stream", e);
-            }
-    }
-
-    private static void closeSocketIfNotNull() {
-        if (socket != null)
-            try {
-                socket.close();
-            } catch (IOException e) {
-                LOGGER.error("Failed to close socket", e);
-            }
-    }
-
 }
@@ -0,0 +1,700 @@
+package com.rohit.ThreadSafeChat.Client.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.io.CompressionStats;
+import com.rohit.ThreadSafeChat.Common.io.FileChunk;
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+import com.rohit.ThreadSafeChat.Common.transport.MessageTransport;
+import com.rohit.ThreadSafeChat.Common.transport.WireFormat;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+
+/**
+ * Asynchronous connection to a chat server. Every request is tagged with a
+ * correlation id and answered through a future, completed by the response
+ * echoing that id, so any number of requests can be in flight over one
+ * socket. Requests are queued for a single writer thread, which writes out
+ * whatever has queued up with one flush; callers only wait while
+ * {@value #MAX_QUEUED_REQUESTS} requests are still unwritten.
+ *
+ * Responses and everything else the server sends are read on one reader
+ * thread. Futures are completed there too, so their callbacks must not block.
+ * Received private texts are acknowledged automatically, one cumulative ack
+ * per conversation every {@value #ACK_DELAY_MILLIS} ms or every
+ * {@value #ACK_BATCH_SIZE} texts.
+ *
+ * Over framed wire formats the client offers to compress large messages as
+ * soon as it connects, and does so once the server has accepted. The
+ * threshold is set with the {@value Constants#COMPRESSION_THRESHOLD_PROPERTY}
+ * system property; 0 turns compression off.
+ *
+ * Pings from the server, sent when the client has been quiet for a while,
+ * are answered right away and never reach the listener.
+ *
+ * Over framed wire formats files can be sent to other users on the same
+ * server. An offered file is uploaded as soon as the server has answered,
+ * in chunks the writer thread sends straight from the file, as far as the
+ * window the server acknowledges allows. A file the client accepts is
+ * written to disk on the reader thread and acknowledged the same way. The
+ * listener gets the {@code FILE_ACK} for the last byte of a file once it has
+ * been sent or received in full, but none of those in between.
+ */
+public class ChatClient implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(ChatClient.class);
+    private static final int MAX_QUEUED_REQUESTS = 4096;
+    private static final int MAX_WRITE_BATCH = 64;
+    private static final long ACK_DELAY_MILLIS = 200;
+    private static final int ACK_BATCH_SIZE = 64;
+    private static final int FILE_CHUNK_BYTES = 64 * 1024 - Frames.FILE_DATA_HEADER_LENGTH;
+    private static final AtomicInteger clientCount = new AtomicInteger(0);
+
+    /**
+     * A file being sent. Chunks are only queued on the ack thread.
+     */
+    private static final class Upload {
+        private final long transferId;
+        private final File file;
+        private final long fileSize;
+        private final long windowBytes;
+        private long sent;
+        private volatile long acknowledged;
+
+        private Upload(long transferId, File file, long fileSize, long windowBytes) {
+            this.transferId = transferId;
+            this.file = file;
+            this.fileSize = fileSize;
+            this.windowBytes = windowBytes;
+        }
+    }
+
+    /**
+     * A file being received, only ever touched by the reader thread once
+     * accepted.
+     */
+    private static final class Download {
+        private final long transferId;
+        private final File file;
+        private final FileChannel channel;
+        private final long fileSize;
+        private long windowBytes;
+        private long received;
+        private long acknowledged;
+
+        private Download(long transferId, File file, FileChannel channel, long fileSize) {
+            this.transferId = transferId;
+            this.file = file;
+            this.channel = channel;
+            this.fileSize = fileSize;
+        }
+    }
+
+    private final SocketChannel socketChannel;
+    private final WireFormat wireFormat;
+    private final MessageTransport transport;
+    private final CompressionStats compressionStats;
+    private final int compressionThreshold;
+    private final MessageListener listener;
+    private final ConcurrentMap<Long, CompletableFuture<Message>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong(1);
+    private final BlockingQueue<Message> outboundQueue = new ArrayBlockingQueue<Message>(MAX_QUEUED_REQUESTS);
+    private final ConcurrentMap<String, Long> pendingAcks = new ConcurrentHashMap<String, Long>();
+    private final AtomicBoolean isAckFlushScheduled = new AtomicBoolean(false);
+    private final AtomicInteger unacknowledgedTexts = new AtomicInteger(0);
+    private final ConcurrentMap<Long, Message> fileOffers = new ConcurrentHashMap<Long, Message>();
+    private final ConcurrentMap<Long, Upload> uploads = new ConcurrentHashMap<Long, Upload>();
+    private final ConcurrentMap<Long, Download> downloads = new ConcurrentHashMap<Long, Download>();
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final ScheduledExecutorService ackExecutor;
+    private final Thread writerThread;
+    private final Thread readerThread;
+    private final Runnable ackFlush = new Runnable() {
+        public void run() {
+            flushAcks();
+        }
+    };
+    private volatile String userId;
+    private volatile String sessionToken;
+
+    private ChatClient(SocketChannel socketChannel, WireFormat wireFormat, MessageTransport transport,
+            CompressionStats compressionStats, MessageListener listener) {
+        this.socketChannel = socketChannel;
+        this.wireFormat = wireFormat;
+        this.transport = transport;
+        this.compressionStats = compressionStats;
+        this.compressionThreshold = Integer.getInteger(Constants.COMPRESSION_THRESHOLD_PROPERTY,
+                Constants.DEFAULT_COMPRESSION_THRESHOLD);
+        this.listener = listener;
+        final int id = clientCount.getAndIncrement();
+        this.ackExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "chat-client-" + id + "-acks");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeRequests();
+            }
+        }, "chat-client-" + id + "-writer");
+        this.readerThread = new Thread(new Runnable() {
+            public void run() {
+                readMessages();
+            }
+        }, "chat-client-" + id + "-reader");
+        writerThread.setDaemon(true);
+        readerThread.setDaemon(true);
+    }
+
+    public static ChatClient connect(String hostname, int port, WireFormat wireFormat, MessageListener listener)
+            throws IOException {
+        SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(hostname, port));
+        try {
+            CompressionStats compressionStats = new CompressionStats();
+            ChatClient client = new ChatClient(socketChannel, wireFormat,
+                    wireFormat.open(socketChannel, compressionStats), compressionStats, listener);
+            client.writerThread.start();
+            client.readerThread.start();
+            if (wireFormat.isFramed() && client.compressionThreshold > 0)
+                client.request(new Message.Builder().withMessageType(MessageType.CAPABILITIES_REQUEST)
+                        .withText(Frames.DEFLATE).build());
+            return client;
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the user logged in over this connection, or {@code null}.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the token to resume the session with, should the connection be
+     *         lost, or {@code null} if the server holds no sessions.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public boolean isClosed() {
+        return isClosed.get();
+    }
+
+    /**
+     * @return counts of the frames this client compressed and decompressed.
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public CompletableFuture<Message> register(String userId) {
+        return request(new Message.Builder().withMessageType(MessageType.USER_REGISTRATION_REQUEST)
+                .withSenderId(userId).build());
+    }
+
+    public CompletableFuture<Message> login(String userId) {
+        return request(new Message.Builder().withMessageType(MessageType.USER_LOGIN_REQUEST).withSenderId(userId)
+                .build());
+    }
+
+    /**
+     * Takes over the session the user had on a connection which was lost,
+     * instead of logging in again. Messages the server held for the user are
+     * passed to the listener once the response has arrived.
+     *
+     * @param sessionToken the last token the lost connection's client got.
+     */
+    public CompletableFuture<Message> resume(String userId, String sessionToken) {
+        return request(new Message.Builder().withMessageType(MessageType.SESSION_RESUME_REQUEST)
+                .withSenderId(userId).withSessionToken(sessionToken).build());
+    }
+
+    public CompletableFuture<Message> logoff() {
+        return request(new Message.Builder().withMessageType(MessageType.USER_LOGOFF_REQUEST).withSenderId(userId)
+                .build());
+    }
+
+    public CompletableFuture<Message> sendText(String receiverId, String text) {
+        return request(new Message.Builder().withMessageType(MessageType.SEND_TEXT_REQUEST).withSenderId(userId)
+                .withReceiverId(receiverId).withText(text).build());
+    }
+
+    public CompletableFuture<Message> createRoom(String roomName) {
+        return request(new Message.Builder().withMessageType(MessageType.ROOM_CREATE_REQUEST).withSenderId(userId)
+                .withReceiverId(roomName).build());
+    }
+
+    public CompletableFuture<Message> joinRoom(String roomName) {
+        return request(new Message.Builder().withMessageType(MessageType.ROOM_JOIN_REQUEST).withSenderId(userId)
+                .withReceiverId(roomName).build());
+    }
+
+    public CompletableFuture<Message> leaveRoom(String roomName) {
+        return request(new Message.Builder().withMessageType(MessageType.ROOM_LEAVE_REQUEST).withSenderId(userId)
+                .withReceiverId(roomName).build());
+    }
+
+    public CompletableFuture<Message> sendRoomText(String roomName, String text) {
+        return request(new Message.Builder().withMessageType(MessageType.SEND_ROOM_TEXT_REQUEST)
+                .withSenderId(userId).withReceiverId(roomName).withText(text).build());
+    }
+
+    /**
+     * Asks for a page of the conversation with another user. The texts arrive
+     * at the listener before the returned future completes.
+     *
+     * @param pageSize       or {@code null} for the server's maximum.
+     * @param beforeSequence or {@code null} for the latest texts.
+     */
+    public CompletableFuture<Message> history(String peerId, Integer pageSize, Long beforeSequence) {
+        return request(new Message.Builder().withMessageType(MessageType.HISTORY_REQUEST).withSenderId(userId)
+                .withReceiverId(peerId).withPageSize(pageSize).withSequenceNumber(beforeSequence).build());
+    }
+
+    /**
+     * Searches the private texts of this user for those holding every word of
+     * the query, best first. The texts arrive at the listener as
+     * {@code SEARCH_RESULT}s before the returned future completes, and the
+     * response carries the offset of the next page if there is one.
+     *
+     * @param pageSize or {@code null} for the server's maximum.
+     * @param offset   or {@code null} for the best texts.
+     */
+    public CompletableFuture<Message> search(String query, Integer pageSize, Long offset) {
+        return request(new Message.Builder().withMessageType(MessageType.SEARCH_REQUEST).withSenderId(userId)
+                .withText(query).withPageSize(pageSize).withSequenceNumber(offset).build());
+    }
+
+    /**
+     * Subscribes to the presence of another user. Right behind the response,
+     * the listener gets a {@code PRESENCE_UPDATE} from that user telling
+     * whether it is {@value Constants#PRESENCE_ONLINE} or
+     * {@value Constants#PRESENCE_OFFLINE}, and another whenever that changes.
+     * Subscriptions end when the client logs off.
+     */
+    public CompletableFuture<Message> subscribePresence(String peerId) {
+        return request(new Message.Builder().withMessageType(MessageType.PRESENCE_SUBSCRIBE_REQUEST)
+                .withSenderId(userId).withReceiverId(peerId).build());
+    }
+
+    public CompletableFuture<Message> unsubscribePresence(String peerId) {
+        return request(new Message.Builder().withMessageType(MessageType.PRESENCE_UNSUBSCRIBE_REQUEST)
+                .withSenderId(userId).withReceiverId(peerId).build());
+    }
+
+    /**
+     * Offers a file to another user, and uploads it once the server has
+     * answered. The receiver is told the id of the transfer, which the
+     * response also carries, and has to accept it before it gets the file.
+     * The file must not change until the upload is through.
+     */
+    public CompletableFuture<Message> sendFile(String receiverId, final File file) {
+        if (!wireFormat.isFramed() || !file.isFile()) {
+            CompletableFuture<Message> response = new CompletableFuture<Message>();
+            response.completeExceptionally(new IOException(wireFormat.isFramed() ? "No such file " + file
+                    : "Files cannot be sent over " + wireFormat));
+            return response;
+        }
+        final long fileSize = file.length();
+        Message offer = new Message.Builder().withMessageType(MessageType.FILE_OFFER_REQUEST).withSenderId(userId)
+                .withReceiverId(receiverId).withText(file.getName()).withByteCount(fileSize).build();
+        // Applied on the reader thread before anyone waiting on the response
+        // sees it, and before any ack for the upload can arrive.
+        return request(offer).thenApply(new Function<Message, Message>() {
+            public Message apply(Message response) {
+                if (response.getStatus() == Status.OK && response.getTransferId() != null
+                        && response.getByteCount() != null) {
+                    Upload upload = new Upload(response.getTransferId(), file, fileSize, response.getByteCount());
+                    uploads.put(upload.transferId, upload);
+                    schedulePump(upload);
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Accepts a file offered to the user, which the server then sends right
+     * behind the response. It is written to the target as it arrives.
+     */
+    public CompletableFuture<Message> acceptFile(long transferId, File target) {
+        Message offer = fileOffers.remove(transferId);
+        if (offer == null || offer.getByteCount() == null) {
+            CompletableFuture<Message> response = new CompletableFuture<Message>();
+            response.completeExceptionally(new IOException("No file transfer " + transferId + " has been offered"));
+            return response;
+        }
+        try {
+            FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            downloads.put(transferId, new Download(transferId, target, channel, offer.getByteCount()));
+        } catch (IOException e) {
+            fileOffers.put(transferId, offer);
+            CompletableFuture<Message> response = new CompletableFuture<Message>();
+            response.completeExceptionally(e);
+            return response;
+        }
+        return request(new Message.Builder().withMessageType(MessageType.FILE_ACCEPT_REQUEST).withSenderId(userId)
+                .withTransferId(transferId).build());
+    }
+
+    /**
+     * Cancels a file being sent or received, or declines one offered. What
+     * has been received of it is deleted.
+     */
+    public CompletableFuture<Message> cancelFile(long transferId) {
+        dropTransfer(transferId);
+        return request(new Message.Builder().withMessageType(MessageType.FILE_CANCEL_REQUEST).withSenderId(userId)
+                .withTransferId(transferId).build());
+    }
+
+    /**
+     * Asks the server for a {@code PONG}, to check the connection is alive or
+     * keep it from being closed as idle.
+     */
+    public CompletableFuture<Message> ping() {
+        return request(new Message.Builder().withMessageType(MessageType.PING).withSenderId(userId).build());
+    }
+
+    /**
+     * Queues a request, waiting only if too many requests are still unwritten.
+     *
+     * @return a future completed with the response, or failed once the
+     *         connection is closed before the response arrives.
+     */
+    public CompletableFuture<Message> request(Message request) {
+        CompletableFuture<Message> response = new CompletableFuture<Message>();
+        if (isClosed.get()) {
+            response.completeExceptionally(new IOException("Connection is closed"));
+            return response;
+        }
+        long correlationId = nextCorrelationId.getAndIncrement();
+        request.setCorrelationId(correlationId);
+        pendingRequests.put(correlationId, response);
+        try {
+            outboundQueue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendingRequests.remove(correlationId);
+            response.completeExceptionally(e);
+            return response;
+        }
+        if (isClosed.get() && pendingRequests.remove(correlationId, response))
+            response.completeExceptionally(new IOException("Connection is closed"));
+        return response;
+    }
+
+    public void close() {
+        close(null);
+    }
+
+    private void close(IOException cause) {
+        if (!isClosed.compareAndSet(false, true))
+            return;
+        writerThread.interrupt();
+        ackExecutor.shutdownNow();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close message transport", e);
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close socket", e);
+        }
+        for (Long transferId : downloads.keySet())
+            dropTransfer(transferId);
+        IOException failure = cause != null ? cause : new IOException("Connection is closed");
+        for (Long correlationId : pendingRequests.keySet()) {
+            CompletableFuture<Message> response = pendingRequests.remove(correlationId);
+            if (response != null)
+                response.completeExceptionally(failure);
+        }
+        listener.onClosed(cause);
+    }
+
+    private void writeRequests() {
+        List<Message> batch = new ArrayList<Message>(MAX_WRITE_BATCH);
+        try {
+            while (!isClosed.get()) {
+                batch.add(outboundQueue.take());
+                outboundQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+                transport.writeMessages(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // Closed.
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    private void readMessages() {
+        while (!isClosed.get()) {
+            try {
+                Message message = transport.readMessage();
+                if (message != null)
+                    dispatch(message);
+            } catch (MalformedMessageException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                close(isClosed.get() ? null : e);
+            }
+        }
+    }
+
+    private void dispatch(Message message) {
+        MessageType type = message.getMessageType();
+        if (message instanceof FileChunk) {
+            receiveChunk((FileChunk) message);
+            return;
+        }
+        if (type == MessageType.PING) {
+            // Never waits on the reader thread. Should the queue be full, the
+            // requests in it will show the server the client is there.
+            outboundQueue.offer(new Message.Builder().withMessageType(MessageType.PONG).withSenderId(userId).build());
+            return;
+        }
+        if ((type == MessageType.LOGIN_RESPONSE || type == MessageType.SESSION_RESUME_RESPONSE)
+                && message.getStatus() == Status.OK) {
+            userId = message.getReceiverId();
+            sessionToken = message.getSessionToken();
+        } else if (type == MessageType.LOGOFF_RESPONSE && message.getStatus() == Status.OK) {
+            userId = null;
+            sessionToken = null;
+        } else if (type == MessageType.CAPABILITIES_RESPONSE && message.getText() != null
+                && Arrays.asList(message.getText().split(",")).contains(Frames.DEFLATE)) {
+            transport.enableCompression(compressionThreshold);
+        } else if (type == MessageType.FILE_ACCEPT_RESPONSE && message.getTransferId() != null) {
+            Download download = downloads.get(message.getTransferId());
+            if (download != null && message.getStatus() == Status.OK && message.getByteCount() != null) {
+                download.windowBytes = message.getByteCount();
+                if (download.fileSize == 0)
+                    completeDownload(download);
+            } else if (download != null) {
+                dropTransfer(download.transferId);
+            }
+        } else if (type == MessageType.FILE_OFFER && message.getTransferId() != null) {
+            fileOffers.put(message.getTransferId(), message);
+        } else if (type == MessageType.FILE_CANCELLED && message.getTransferId() != null) {
+            dropTransfer(message.getTransferId());
+        } else if (type == MessageType.FILE_ACK) {
+            if (!acknowledgeUpload(message))
+                return;
+        }
+        if (message.getCorrelationId() != null) {
+            CompletableFuture<Message> response = pendingRequests.remove(message.getCorrelationId());
+            if (response != null) {
+                response.complete(message);
+                return;
+            }
+        }
+        if (message.getMessageType() == MessageType.RECEIVE_TEXT)
+            acknowledge(message);
+        listener.onMessage(message);
+    }
+
+    /**
+     * Takes the server's acknowledgement of an upload, and sends more of the
+     * file or, once all of it has been acknowledged, forgets the upload.
+     *
+     * @return {@code true} if the whole file has been acknowledged.
+     */
+    private boolean acknowledgeUpload(Message ack) {
+        Upload upload = ack.getTransferId() == null ? null : uploads.get(ack.getTransferId());
+        if (upload == null || ack.getByteCount() == null)
+            return false;
+        upload.acknowledged = ack.getByteCount();
+        if (upload.acknowledged < upload.fileSize) {
+            schedulePump(upload);
+            return false;
+        }
+        uploads.remove(upload.transferId, upload);
+        return true;
+    }
+
+    private void schedulePump(final Upload upload) {
+        try {
+            ackExecutor.execute(new Runnable() {
+                public void run() {
+                    pump(upload);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed.
+        }
+    }
+
+    /**
+     * Queues chunks of an upload as far as its window allows, the last one
+     * to fit short if need be so that the server acknowledges the window.
+     */
+    private void pump(Upload upload) {
+        while (upload.sent < upload.fileSize && uploads.get(upload.transferId) == upload) {
+            long window = upload.windowBytes - (upload.sent - upload.acknowledged);
+            int length = (int) Math.min(Math.min(FILE_CHUNK_BYTES, upload.fileSize - upload.sent), window);
+            if (length <= 0)
+                return;
+            try {
+                outboundQueue.put(new FileChunk(upload.transferId, upload.file.toPath(), upload.sent, length));
+            } catch (InterruptedException e) {
+                return;
+            }
+            upload.sent += length;
+        }
+    }
+
+    /**
+     * Writes a chunk of a download to disk and acknowledges it whenever half
+     * the window is unacknowledged, and once the whole file is in. A chunk out
+     * of turn cancels the transfer.
+     */
+    private void receiveChunk(FileChunk chunk) {
+        Download download = downloads.get(chunk.getTransferId());
+        if (download == null)
+            return;
+        if (chunk.getOffset() != download.received || download.received + chunk.getLength() > download.fileSize) {
+            logger.warn("Cancelling transfer {} which sent a chunk out of turn", download.transferId);
+            cancelFile(download.transferId);
+            return;
+        }
+        try {
+            ByteBuffer data = chunk.getData();
+            while (data.hasRemaining())
+                download.channel.write(data, download.received + chunk.getLength() - data.remaining());
+        } catch (IOException e) {
+            logger.error("Could not write transfer " + download.transferId + " to " + download.file, e);
+            cancelFile(download.transferId);
+            return;
+        }
+        download.received += chunk.getLength();
+        if (download.received == download.fileSize)
+            completeDownload(download);
+        else if (download.received - download.acknowledged >= download.windowBytes / 2)
+            acknowledgeDownload(download);
+    }
+
+    private Message acknowledgeDownload(Download download) {
+        download.acknowledged = download.received;
+        final Message ack = new Message.Builder().withMessageType(MessageType.FILE_ACK).withSenderId(userId)
+                .withTransferId(download.transferId).withByteCount(download.received).build();
+        try {
+            // Queued behind the text acks, so the reader never waits.
+            ackExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        outboundQueue.put(ack);
+                    } catch (InterruptedException e) {
+                        // Closed.
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed.
+        }
+        return ack;
+    }
+
+    private void completeDownload(Download download) {
+        Message ack = acknowledgeDownload(download);
+        downloads.remove(download.transferId, download);
+        try {
+            download.channel.close();
+        } catch (IOException e) {
+            logger.error("Could not close " + download.file, e);
+        }
+        listener.onMessage(ack);
+    }
+
+    /**
+     * Forgets a transfer, deleting what has been received of it.
+     */
+    private void dropTransfer(long transferId) {
+        fileOffers.remove(transferId);
+        uploads.remove(transferId);
+        Download download = downloads.remove(transferId);
+        if (download == null)
+            return;
+        try {
+            download.channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close " + download.file, e);
+        }
+        if (!download.file.delete())
+            logger.debug("Failed to delete {}", download.file);
+    }
+
+    /**
+     * Remembers the highest sequence number received from the sender, to be
+     * acknowledged with the next flush.
+     */
+    private void acknowledge(Message message) {
+        if (message.getSequenceNumber() == null || message.getSenderId() == null)
+            return;
+        Long pending = pendingAcks.get(message.getSenderId());
+        if (pending == null || pending < message.getSequenceNumber())
+            pendingAcks.put(message.getSenderId(), message.getSequenceNumber());
+        if (unacknowledgedTexts.incrementAndGet() >= ACK_BATCH_SIZE) {
+            unacknowledgedTexts.set(0);
+            ackExecutor.execute(ackFlush);
+        } else if (isAckFlushScheduled.compareAndSet(false, true)) {
+            ackExecutor.schedule(ackFlush, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues the pending acks behind any requests. Acks are never answered, so
+     * they carry no correlation id.
+     */
+    private void flushAcks() {
+        isAckFlushScheduled.set(false);
+        unacknowledgedTexts.set(0);
+        for (Map.Entry<String, Long> entry : pendingAcks.entrySet()) {
+            Message ack = new Message.Builder().withMessageType(MessageType.DELIVERY_ACK).withSenderId(userId)
+                    .withReceiverId(entry.getKey()).withSequenceNumber(entry.getValue()).build();
+            try {
+                outboundQueue.put(ack);
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendingAcks.remove(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.rohit.ThreadSafeChat.Client.api;
+
+import java.io.IOException;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Receives what a {@link ChatClient}'s server sends on its own. Called on the
+ * client's reader thread, so it must not block.
+ */
+public interface MessageListener {
+    /**
+     * Called for every message which does not answer a request: received
+     * texts, history entries, and the login response of a queued login once
+     * it has gone through.
+     */
+    void onMessage(Message message);
+
+    /**
+     * Called once, when the connection is closed.
+     *
+     * @param cause why the connection was lost, or {@code null} if it was
+     *              closed by the client.
+     */
+    void onClosed(IOException cause);
+}
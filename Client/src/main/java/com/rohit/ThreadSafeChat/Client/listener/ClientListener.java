@@ -1,57 +1,43 @@
 package com.rohit.ThreadSafeChat.Client.listener;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.SocketException;
-import java.util.concurrent.Phaser;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rohit.ThreadSafeChat.Client.api.MessageListener;
 import com.rohit.ThreadSafeChat.Client.model.ClientState;
 import com.rohit.ThreadSafeChat.Common.model.Message;
 import com.rohit.ThreadSafeChat.Common.model.Status;
 
 /**
- * This class listens to the server.
+ * This class displays what the server sends: the responses to the user's
+ * requests, and texts and login results which arrive on their own.
  * 
  * @author Rohit Mazumder.(mazumder.rohit7@gmail.com)
  */
-public class ClientListener implements Runnable {
+public class ClientListener implements MessageListener {
     private static Logger logger = LoggerFactory.getLogger(ClientListener.class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
 
-    private ObjectInputStream objectInputStream;
-    private Phaser phaser;
     private ClientState clientState;
 
-    public ClientListener(Phaser phaser, ObjectInputStream objectInputStream, ClientState clientState) {
-        this.phaser = phaser;
+    public ClientListener(ClientState clientState) {
         this.clientState = clientState;
-        this.objectInputStream = objectInputStream;
     }
 
-    public void run() {
-        try {
-            while (clientState.getIsConnected()) {
-                listenToServer();
-            }
-        } finally {
-            phaser.arriveAndDeregister();
-        }
+    public void onMessage(Message message) {
+        processMessage(message);
     }
 
-    private void listenToServer() {
-        try {
-            Message messageReceived = null;
-            messageReceived = (Message) this.objectInputStream.readObject();
-            if (messageReceived != null)
-                processMessage(messageReceived);
-        } catch (SocketException e) {
-            clientState.setIsConnected(false);
-            logger.error(e.getMessage(), e);
-        } catch (IOException | ClassNotFoundException e) {
-            logger.error(e.getMessage(), e);
-        }
+    public void onClosed(IOException cause) {
+        clientState.setIsConnected(false);
+        if (cause != null)
+            logger.error(cause.getMessage(), cause);
     }
 
     private void processMessage(Message message) {
@@ -60,24 +46,58 @@ public class ClientListener implements Runnable {
         	processRegistrationResponse(message);
         	break;
         case LOGIN_RESPONSE:
+        case SESSION_RESUME_RESPONSE:
             processLoginResponse(message);
             break;
         case SEND_TEXT_RESPONSE:
+        case ROOM_CREATE_RESPONSE:
+        case ROOM_JOIN_RESPONSE:
+        case ROOM_LEAVE_RESPONSE:
+        case SEND_ROOM_TEXT_RESPONSE:
+        case PRESENCE_SUBSCRIBE_RESPONSE:
+        case PRESENCE_UNSUBSCRIBE_RESPONSE:
+        case FILE_OFFER_RESPONSE:
+        case FILE_ACCEPT_RESPONSE:
+        case FILE_CANCEL_RESPONSE:
             processTextResponse(message);
             break;
         case RECEIVE_TEXT:
             displayText(message);
             break;
+        case RECEIVE_ROOM_TEXT:
+            displayRoomText(message);
+            break;
+        case PRESENCE_UPDATE:
+            displayPresence(message);
+            break;
+        case FILE_OFFER:
+            displayFileOffer(message);
+            break;
+        case FILE_ACK:
+            System.out.println(" * Transfer " + message.getTransferId() + " is through, " + message.getByteCount()
+                    + " bytes");
+            break;
+        case FILE_CANCELLED:
+            System.out.println(" * " + message.getText());
+            break;
+        case HISTORY_TEXT:
+            displayHistoryText(message);
+            break;
+        case HISTORY_RESPONSE:
+            processHistoryResponse(message);
+            break;
+        case SEARCH_RESULT:
+            displayHistoryText(message);
+            break;
+        case SEARCH_RESPONSE:
+            processSearchResponse(message);
+            break;
         case LOGOFF_RESPONSE:
             processLogoffResponse(message);
             break;
         default:
             logger.error("Failed to understand server response :(");
         }
-
-        if (clientState.getIsWaitingForResponse()) {
-            phaser.arrive();
-        }
     }
 
     private void processRegistrationResponse(Message message) {
@@ -89,7 +109,53 @@ public class ClientListener implements Runnable {
 	}
 
 	private void displayText(Message message) {
-        System.out.println(" > " + message.toString());
+        System.out.println(" > " + formatTime(message) + message.toString());
+    }
+
+    private void displayRoomText(Message message) {
+        System.out.println(" > #" + message.getReceiverId() + " " + formatTime(message) + message.toString());
+    }
+
+    private void displayPresence(Message message) {
+        System.out.println(" * " + formatTime(message) + message.getSenderId() + " is " + message.getText());
+    }
+
+    private void displayFileOffer(Message message) {
+        System.out.println(" * " + formatTime(message) + message.getSenderId() + " offers " + message.getText()
+                + " (" + message.getByteCount() + " bytes) as transfer " + message.getTransferId()
+                + ": accept " + message.getTransferId() + " <path> or cancel " + message.getTransferId());
+    }
+
+    private void displayHistoryText(Message message) {
+        System.out.println(" [" + message.getSequenceNumber() + "] " + formatTime(message) + message.getSenderId()
+                + " -> " + message.getReceiverId() + " : " + message.getText());
+    }
+
+    private static String formatTime(Message message) {
+        if (message.getTimestamp() == null)
+            return "";
+        return TIME_FORMAT.format(Instant.ofEpochMilli(message.getTimestamp())) + " ";
+    }
+
+    private void processHistoryResponse(Message message) {
+        if (message.getStatus() != Status.OK) {
+            logger.error(message.getText());
+        } else if (message.getSequenceNumber() != null && message.getSequenceNumber() > 1) {
+            logger.info(message.getText() + ", older texts come before " + message.getSequenceNumber());
+        } else {
+            logger.info(message.getText());
+        }
+    }
+
+    private void processSearchResponse(Message message) {
+        if (message.getStatus() != Status.OK) {
+            logger.error(message.getText());
+        } else if (message.getSequenceNumber() != null) {
+            logger.info(message.getText() + ", more with search +" + message.getSequenceNumber()
+                    + " and the same words");
+        } else {
+            logger.info(message.getText());
+        }
     }
 
     private void processTextResponse(Message message) {
@@ -110,6 +176,7 @@ public class ClientListener implements Runnable {
             clientState.setIsInLoginQueue(true);
             logger.error(message.getText());
         } else {
+            clientState.setIsInLoginQueue(false);
             logger.error(message.getText());
         }
     }
@@ -3,13 +3,12 @@ package com.rohit.ThreadSafeChat.Client.model;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientState {
-    private AtomicBoolean isConnected, isLoggedIn, isWaitingForResponse, isInLoginQueue;
+    private AtomicBoolean isConnected, isLoggedIn, isInLoginQueue;
     private String userId;
 
     public ClientState() {
         this.isConnected = new AtomicBoolean(false);
         this.isLoggedIn = new AtomicBoolean(false);
-        this.isWaitingForResponse = new AtomicBoolean(false);
         this.isInLoginQueue = new AtomicBoolean(false);
         this.setUserId(null);
     }
@@ -31,14 +30,6 @@ public class ClientState {
         ;
     }
 
-    public boolean getIsWaitingForResponse() {
-        return isWaitingForResponse.get();
-    }
-
-    public void setIsWaitingForResponse(boolean value) {
-        this.isWaitingForResponse.set(value);
-    }
-
     public boolean getIsInLoginQueue() {
         return isInLoginQueue.get();
     }
@@ -5,6 +5,13 @@ public class ErrorMessages {
     public static final String INVALID_TEXT_SEND_ARGS = "Invalid arguments: The correct format is @<username> <text>";
     public static final String INVALID_LOGIN_ARGS = "Invalid arguments: The correct format is login <username>";
     public static final String INVALID_REGISTER_ARGS = "Invalid arguments: The correct format is register <username>";
+    public static final String INVALID_ROOM_ARGS = "Invalid arguments: The correct format is create|join|leave #<room>";
+    public static final String INVALID_ROOM_TEXT_SEND_ARGS = "Invalid arguments: The correct format is #<room> <text>";
+    public static final String INVALID_HISTORY_ARGS = "Invalid arguments: The correct format is history @<username> [<count> [<before>]]";
+    public static final String INVALID_WATCH_ARGS = "Invalid arguments: The correct format is watch|unwatch @<username>";
+    public static final String INVALID_SEARCH_ARGS = "Invalid arguments: The correct format is search [+<offset>] <word> [<word> ...]";
+    public static final String INVALID_FILE_ARGS = "Invalid arguments: The correct format is file @<username> <path>";
+    public static final String INVALID_TRANSFER_ARGS = "Invalid arguments: The correct format is accept <transfer> <path> or cancel <transfer>";
     public static final String INVALID_INPUT = "Error: Invalid input";
 
     public static final String NOT_CONNECTED_TO_SERVER = "Not connected to server socket: Run connect <hostname> <port>";
@@ -0,0 +1,255 @@
+package com.rohit.ThreadSafeChat.Common.codec;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+
+/**
+ * Compact, versioned binary encoding of a {@link Message}:
+ * 
+ * <pre>
+ * version    : 1 byte
+ * type       : 1 byte, MessageType ordinal + 1, 0 when absent
+ * status     : 1 byte, Status ordinal + 1, 0 when absent
+ * field mask : 2 bytes, one bit per optional field present below
+ * fields     : in bit order, strings as an unsigned varint byte length
+ *              followed by UTF-8 bytes, numbers as unsigned varints
+ * </pre>
+ * 
+ * Enum constants are written by ordinal, so new constants must only ever be
+ * appended. Strings are UTF-8 encoded straight into the target buffer, so
+ * encoding allocates nothing.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final byte VERSION = 1;
+
+    private static final int TEXT = 1;
+    private static final int SENDER_ID = 1 << 1;
+    private static final int RECEIVER_ID = 1 << 2;
+    private static final int SEQUENCE_NUMBER = 1 << 3;
+    private static final int PAGE_SIZE = 1 << 4;
+    private static final int TIMESTAMP = 1 << 5;
+    private static final int CORRELATION_ID = 1 << 6;
+    private static final int SESSION_TOKEN = 1 << 7;
+    private static final int TRANSFER_ID = 1 << 8;
+    private static final int BYTE_COUNT = 1 << 9;
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private static final ThreadLocal<byte[]> DECODE_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[1024];
+        }
+    };
+
+    public void encode(Message message, ByteBuffer buffer) throws IOException {
+        int fieldMask = 0;
+        if (message.getText() != null)
+            fieldMask |= TEXT;
+        if (message.getSenderId() != null)
+            fieldMask |= SENDER_ID;
+        if (message.getReceiverId() != null)
+            fieldMask |= RECEIVER_ID;
+        if (message.getSequenceNumber() != null)
+            fieldMask |= SEQUENCE_NUMBER;
+        if (message.getPageSize() != null)
+            fieldMask |= PAGE_SIZE;
+        if (message.getTimestamp() != null)
+            fieldMask |= TIMESTAMP;
+        if (message.getCorrelationId() != null)
+            fieldMask |= CORRELATION_ID;
+        if (message.getSessionToken() != null)
+            fieldMask |= SESSION_TOKEN;
+        if (message.getTransferId() != null)
+            fieldMask |= TRANSFER_ID;
+        if (message.getByteCount() != null)
+            fieldMask |= BYTE_COUNT;
+
+        buffer.put(VERSION);
+        buffer.put(message.getMessageType() == null ? 0 : (byte) (message.getMessageType().ordinal() + 1));
+        buffer.put(message.getStatus() == null ? 0 : (byte) (message.getStatus().ordinal() + 1));
+        buffer.putShort((short) fieldMask);
+        putString(buffer, message.getText());
+        putString(buffer, message.getSenderId());
+        putString(buffer, message.getReceiverId());
+        if (message.getSequenceNumber() != null)
+            putVarLong(buffer, message.getSequenceNumber());
+        if (message.getPageSize() != null)
+            putVarInt(buffer, message.getPageSize());
+        if (message.getTimestamp() != null)
+            putVarLong(buffer, message.getTimestamp());
+        if (message.getCorrelationId() != null)
+            putVarLong(buffer, message.getCorrelationId());
+        putString(buffer, message.getSessionToken());
+        if (message.getTransferId() != null)
+            putVarLong(buffer, message.getTransferId());
+        if (message.getByteCount() != null)
+            putVarLong(buffer, message.getByteCount());
+    }
+
+    public Message decode(ByteBuffer buffer) throws IOException {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION)
+                throw new MalformedMessageException("Unsupported message version " + version);
+            Message message = new Message();
+            message.setMessageType(enumAt(MESSAGE_TYPES, buffer.get()));
+            message.setStatus(enumAt(STATUSES, buffer.get()));
+            int fieldMask = buffer.getShort();
+            if ((fieldMask & TEXT) != 0)
+                message.setText(getString(buffer));
+            if ((fieldMask & SENDER_ID) != 0)
+                message.setSenderId(getString(buffer));
+            if ((fieldMask & RECEIVER_ID) != 0)
+                message.setReceiverId(getString(buffer));
+            if ((fieldMask & SEQUENCE_NUMBER) != 0)
+                message.setSequenceNumber(getVarLong(buffer));
+            if ((fieldMask & PAGE_SIZE) != 0)
+                message.setPageSize(getVarInt(buffer));
+            if ((fieldMask & TIMESTAMP) != 0)
+                message.setTimestamp(getVarLong(buffer));
+            if ((fieldMask & CORRELATION_ID) != 0)
+                message.setCorrelationId(getVarLong(buffer));
+            if ((fieldMask & SESSION_TOKEN) != 0)
+                message.setSessionToken(getString(buffer));
+            if ((fieldMask & TRANSFER_ID) != 0)
+                message.setTransferId(getVarLong(buffer));
+            if ((fieldMask & BYTE_COUNT) != 0)
+                message.setByteCount(getVarLong(buffer));
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new MalformedMessageException("Truncated message");
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null)
+            return;
+        putVarInt(buffer, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    // Unpaired surrogate, replaced like String.getBytes does.
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    i++;
+                    length += 4;
+                } else {
+                    length += 1;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static String getString(ByteBuffer buffer) throws MalformedMessageException {
+        int length = getVarInt(buffer);
+        if (length > buffer.remaining())
+            throw new MalformedMessageException("String length " + length + " exceeds message");
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] scratch = DECODE_SCRATCH.get();
+        if (scratch.length < length) {
+            scratch = new byte[Integer.highestOneBit(length) << 1];
+            DECODE_SCRATCH.set(scratch);
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static <T> T enumAt(T[] values, byte code) throws MalformedMessageException {
+        int index = (code & 0xFF) - 1;
+        if (index < 0)
+            return null;
+        if (index >= values.length)
+            throw new MalformedMessageException("Unknown constant " + code);
+        return values[index];
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) throws MalformedMessageException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new MalformedMessageException("Negative length");
+                return value;
+            }
+        }
+        throw new MalformedMessageException("Malformed varint");
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) throws MalformedMessageException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new MalformedMessageException("Malformed varint");
+    }
+}
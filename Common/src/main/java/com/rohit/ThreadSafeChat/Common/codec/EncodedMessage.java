@@ -0,0 +1,139 @@
+package com.rohit.ThreadSafeChat.Common.codec;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.rohit.ThreadSafeChat.Common.io.FrameWriter;
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+
+/**
+ * A read-only message whose frame body has been encoded once up front, so the
+ * same bytes can be queued for any number of connections. A
+ * {@link FrameWriter} using the same codec copies the bytes instead of
+ * encoding the message again; anything else sees an ordinary message.
+ */
+public final class EncodedMessage extends Message {
+    private static final long serialVersionUID = 4721265377059460171L;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final transient MessageCodec codec;
+    private final transient ByteBuffer body;
+
+    private EncodedMessage(Message message, MessageCodec codec, ByteBuffer body) {
+        super.setText(message.getText());
+        super.setSenderId(message.getSenderId());
+        super.setReceiverId(message.getReceiverId());
+        super.setMessageType(message.getMessageType());
+        super.setStatus(message.getStatus());
+        super.setSequenceNumber(message.getSequenceNumber());
+        super.setPageSize(message.getPageSize());
+        super.setTimestamp(message.getTimestamp());
+        super.setCorrelationId(message.getCorrelationId());
+        super.setSessionToken(message.getSessionToken());
+        super.setTransferId(message.getTransferId());
+        super.setByteCount(message.getByteCount());
+        this.codec = codec;
+        this.body = body;
+    }
+
+    /**
+     * @throws IOException if the message cannot be encoded or does not fit in a
+     *                     frame.
+     */
+    public static EncodedMessage encode(Message message, MessageCodec codec) throws IOException {
+        int maxBodyLength = Constants.MAX_FRAME_LENGTH - Frames.HEADER_LENGTH;
+        ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        while (true) {
+            try {
+                codec.encode(message, buffer);
+                ByteBuffer body = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.position()));
+                return new EncodedMessage(message, codec, body.asReadOnlyBuffer());
+            } catch (BufferOverflowException e) {
+                if (buffer.capacity() >= maxBodyLength)
+                    throw new IOException("Message exceeds maximum frame length of " + Constants.MAX_FRAME_LENGTH);
+                buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, maxBodyLength));
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the body can be written as is by a writer using the
+     *         given codec.
+     */
+    public boolean isEncodedWith(MessageCodec codec) {
+        return this.codec != null && this.codec == codec;
+    }
+
+    /**
+     * @return an independent read-only view of the encoded body.
+     */
+    public ByteBuffer getBody() {
+        return body.duplicate();
+    }
+
+    @Override
+    public void setText(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setSenderId(String senderId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setReceiverId(String receiverId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setMessageType(MessageType messageType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStatus(Status status) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setSequenceNumber(Long sequenceNumber) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPageSize(Integer pageSize) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTimestamp(Long timestamp) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setCorrelationId(Long correlationId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setSessionToken(String sessionToken) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTransferId(Long transferId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setByteCount(Long byteCount) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,26 @@
+package com.rohit.ThreadSafeChat.Common.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Converts a {@link Message} to and from the body of a single length-prefixed
+ * frame. Implementations must be stateless so one instance can be shared by all
+ * connections.
+ */
+public interface MessageCodec {
+    /**
+     * Writes the message at the buffer's position.
+     * 
+     * @throws java.nio.BufferOverflowException if the buffer is too small. The
+     *                                          buffer position is then undefined.
+     */
+    void encode(Message message, ByteBuffer buffer) throws IOException;
+
+    /**
+     * Reads a message from the bytes between the buffer's position and limit.
+     */
+    Message decode(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.rohit.ThreadSafeChat.Common.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Encodes every message with its own Java serialization stream, so that frames
+ * can be decoded independently of each other.
+ */
+public class SerializationMessageCodec implements MessageCodec {
+
+    public void encode(Message message, ByteBuffer buffer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+            objectOutputStream.writeObject(message);
+        }
+        buffer.put(bytes.toByteArray());
+    }
+
+    public Message decode(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Message) objectInputStream.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new MalformedMessageException(e.getMessage());
+        }
+    }
+}
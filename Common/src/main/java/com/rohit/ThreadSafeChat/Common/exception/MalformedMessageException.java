@@ -0,0 +1,16 @@
+package com.rohit.ThreadSafeChat.Common.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a single message cannot be decoded. The stream it was read from is
+ * still positioned at the next message, so the connection can carry on.
+ */
+public class MalformedMessageException extends IOException {
+    private static final long serialVersionUID = 4915016405542305411L;
+
+    public MalformedMessageException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+
+/**
+ * Pool of direct {@link ByteBuffer}s in power of two size classes. Buffers are
+ * only allocated when a class runs dry and are kept for reuse when released,
+ * up to a fixed number of bytes per class. The free lists are array backed, so
+ * acquiring and releasing a buffer allocates nothing.
+ */
+public class BufferPool {
+    public static final int DEFAULT_MIN_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_MAX_RETAINED_BYTES_PER_CLASS = 16 << 20;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_MIN_BUFFER_SIZE,
+            Constants.MAX_FRAME_LENGTH, DEFAULT_MAX_RETAINED_BYTES_PER_CLASS);
+
+    private final int minBufferSize;
+    private final int maxBufferSize;
+    private final ArrayBlockingQueue<ByteBuffer>[] freeLists;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minBufferSize, int maxBufferSize, int maxRetainedBytesPerClass) {
+        this.minBufferSize = roundUpToPowerOfTwo(minBufferSize);
+        this.maxBufferSize = roundUpToPowerOfTwo(Math.max(maxBufferSize, this.minBufferSize));
+        int classes = Integer.numberOfTrailingZeros(this.maxBufferSize)
+                - Integer.numberOfTrailingZeros(this.minBufferSize) + 1;
+        this.freeLists = new ArrayBlockingQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            int size = this.minBufferSize << i;
+            freeLists[i] = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, maxRetainedBytesPerClass / size));
+        }
+    }
+
+    /**
+     * @return the pool shared by every connection in the JVM.
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @return a cleared buffer with a capacity of at least {@code minCapacity}.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > maxBufferSize)
+            throw new IllegalArgumentException("Requested " + minCapacity + " bytes, pool maximum is " + maxBufferSize);
+        int sizeClass = sizeClassOf(minCapacity);
+        ByteBuffer buffer = freeLists[sizeClass].poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(minBufferSize << sizeClass);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)}. The caller must not
+     * touch it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null)
+            return;
+        buffer.clear();
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if ((minBufferSize << sizeClass) == buffer.capacity())
+            freeLists[sizeClass].offer(buffer);
+    }
+
+    private int sizeClassOf(int capacity) {
+        int size = roundUpToPowerOfTwo(Math.max(capacity, minBufferSize));
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(minBufferSize);
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        int highestOneBit = Integer.highestOneBit(value);
+        return highestOneBit == value ? value : highestOneBit << 1;
+    }
+}
@@ -0,0 +1,89 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of compressed frames, the bytes they saved and the time spent
+ * deflating and inflating them. One instance may be shared by any number of
+ * connections. Recording is lock-free and allocation-free.
+ */
+public class CompressionStats {
+    private final LongAdder framesDeflated = new LongAdder();
+    private final LongAdder framesNotDeflated = new LongAdder();
+    private final LongAdder framesInflated = new LongAdder();
+    private final LongAdder bytesBeforeDeflate = new LongAdder();
+    private final LongAdder bytesAfterDeflate = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    /**
+     * @param compressedLength or -1 if the body would not have shrunk, and was
+     *                         sent as it was.
+     */
+    public void recordDeflate(int bodyLength, int compressedLength, long nanos) {
+        deflateNanos.add(nanos);
+        if (compressedLength < 0) {
+            framesNotDeflated.increment();
+            return;
+        }
+        framesDeflated.increment();
+        bytesBeforeDeflate.add(bodyLength);
+        bytesAfterDeflate.add(compressedLength);
+    }
+
+    public void recordInflate(long nanos) {
+        framesInflated.increment();
+        inflateNanos.add(nanos);
+    }
+
+    public long getFramesDeflated() {
+        return framesDeflated.sum();
+    }
+
+    /**
+     * @return frames which were large enough to be compressed, but would not
+     *         have shrunk.
+     */
+    public long getFramesNotDeflated() {
+        return framesNotDeflated.sum();
+    }
+
+    public long getFramesInflated() {
+        return framesInflated.sum();
+    }
+
+    public long getBytesBeforeDeflate() {
+        return bytesBeforeDeflate.sum();
+    }
+
+    public long getBytesAfterDeflate() {
+        return bytesAfterDeflate.sum();
+    }
+
+    /**
+     * @return time spent deflating, including frames which did not shrink.
+     */
+    public long getDeflateNanos() {
+        return deflateNanos.sum();
+    }
+
+    public long getInflateNanos() {
+        return inflateNanos.sum();
+    }
+
+    /**
+     * @return compressed size over original size of the deflated frames, or 1
+     *         if none were.
+     */
+    public double getCompressionRatio() {
+        long before = bytesBeforeDeflate.sum();
+        return before == 0 ? 1 : (double) bytesAfterDeflate.sum() / before;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("deflated=%d notDeflated=%d inflated=%d ratio=%.3f deflateMillis=%d inflateMillis=%d",
+                getFramesDeflated(), getFramesNotDeflated(), getFramesInflated(), getCompressionRatio(),
+                getDeflateNanos() / 1000000, getInflateNanos() / 1000000);
+    }
+}
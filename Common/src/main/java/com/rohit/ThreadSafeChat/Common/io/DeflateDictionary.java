@@ -0,0 +1,29 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Preset dictionary both ends deflate frame bodies with, so that even a single
+ * frame compresses well. It holds what large chat messages tend to be made of:
+ * the class descriptors of serialized messages, pasted logs and stack traces,
+ * and common English, the most frequent last as deflate favours short
+ * distances. Changing it breaks the wire format.
+ */
+final class DeflateDictionary {
+    private static final String TEXT = "java.lang.Integer java.lang.Number java.lang.Long java.lang.Enum "
+            + "java.lang.String com.rohit.ThreadSafeChat.Common.model.Status "
+            + "com.rohit.ThreadSafeChat.Common.model.MessageType com.rohit.ThreadSafeChat.Common.model.Message "
+            + "correlationIdmessageTypepageSizereceiverIdsenderIdsequenceNumbersessionTokenstatustexttimestamp "
+            + "https://www. http:// .com/ .html .json .xml .java .log DEBUG TRACE FATAL "
+            + "Caused by: java.lang.NullPointerException java.lang.IllegalStateException java.io.IOException "
+            + "Exception in thread \"main\" ... more\n\tat org.\n\tat com.\n\tat java.\n\tat sun. "
+            + "2026-01-01T00:00:00.000Z 00:00:00,000 [main] WARN  ERROR INFO  "
+            + "could you please have a look at this when you get a chance, thanks! "
+            + "I think we should also about what which would there their they this that with from have "
+            + "will your you and for are not but the of to in is it a ";
+
+    static final byte[] BYTES = TEXT.getBytes(StandardCharsets.UTF_8);
+
+    private DeflateDictionary() {
+    }
+}
@@ -0,0 +1,97 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+
+/**
+ * A {@code FILE_DATA} message: a piece of a file on its way between users,
+ * which travels in a frame of its own rather than being encoded.
+ *
+ * A chunk to be sent only names a region of a file. A {@link FrameWriter}
+ * opens the file once it comes to the chunk and has the region written
+ * straight from it to the socket, so the bytes never pass through the heap; a
+ * chunk whose file is gone by then is skipped. A received chunk is a view of
+ * the {@link FrameReader}'s buffer, only valid until the next message is
+ * taken from the reader.
+ */
+public final class FileChunk extends Message {
+    private static final long serialVersionUID = -6087523102637591208L;
+
+    private final long offset;
+    private final int length;
+    private final transient Path file;
+    private final transient ByteBuffer data;
+
+    /**
+     * @param file whose bytes from {@code offset} on are sent.
+     */
+    public FileChunk(long transferId, Path file, long offset, int length) {
+        this(transferId, offset, length, file, null);
+    }
+
+    FileChunk(long transferId, long offset, ByteBuffer data) {
+        this(transferId, offset, data.remaining(), null, data);
+    }
+
+    private FileChunk(long transferId, long offset, int length, Path file, ByteBuffer data) {
+        setMessageType(MessageType.FILE_DATA);
+        setTransferId(transferId);
+        this.offset = offset;
+        this.length = length;
+        this.file = file;
+        this.data = data;
+    }
+
+    /**
+     * @return where the chunk starts in the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the bytes of a received chunk, or {@code null} for one to be
+     *         sent.
+     */
+    public ByteBuffer getData() {
+        return data == null ? null : data.duplicate();
+    }
+
+    /**
+     * @return the file of a chunk to be sent, open for reading.
+     * @throws java.nio.file.NoSuchFileException if the file is gone.
+     */
+    FileChannel open() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Writes as much of the chunk past the bytes already written as the
+     * channel accepts.
+     *
+     * @return the number of bytes written, possibly zero.
+     * @throws EOFException if the file has become too short to hold the chunk.
+     */
+    long transferTo(FileChannel source, long written, WritableByteChannel target) throws IOException {
+        long position = offset + written;
+        long count = length - written;
+        long transferred = target instanceof TransferTarget
+                ? ((TransferTarget) target).transferFrom(source, position, count)
+                : source.transferTo(position, count, target);
+        if (transferred == 0 && source.size() < position + count)
+            throw new EOFException("File ended before its chunk at " + offset);
+        return transferred;
+    }
+}
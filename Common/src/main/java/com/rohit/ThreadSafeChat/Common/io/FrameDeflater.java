@@ -0,0 +1,79 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses frame bodies of at least a threshold length. Each body is
+ * deflated on its own against the {@link DeflateDictionary}, so frames can be
+ * inflated in any order, but the {@link Deflater} and its scratch arrays are
+ * reused for every frame of a connection. Bodies which would not shrink are
+ * left as they are.
+ *
+ * Not thread-safe.
+ */
+final class FrameDeflater {
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final int threshold;
+    private final CompressionStats stats;
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    FrameDeflater(int threshold, CompressionStats stats) {
+        this.threshold = threshold;
+        this.stats = stats;
+    }
+
+    /**
+     * Deflates the remaining bytes of the body into {@link #getOutput()},
+     * leaving the body's position as it was.
+     *
+     * @return the compressed length, or -1 if the body is below the threshold
+     *         or would not shrink by more than the length its compressed frame
+     *         has to carry.
+     */
+    int deflate(ByteBuffer body) {
+        int length = body.remaining();
+        if (length < threshold || length <= Frames.HEADER_LENGTH + 1)
+            return -1;
+        long startTime = System.nanoTime();
+        byte[] bytes;
+        int offset;
+        if (body.hasArray()) {
+            bytes = body.array();
+            offset = body.arrayOffset() + body.position();
+        } else {
+            if (input.length < length)
+                input = new byte[length];
+            body.duplicate().get(input, 0, length);
+            bytes = input;
+            offset = 0;
+        }
+        int maxCompressed = length - Frames.HEADER_LENGTH - 1;
+        if (output.length < maxCompressed)
+            output = new byte[maxCompressed];
+        deflater.reset();
+        deflater.setDictionary(DeflateDictionary.BYTES);
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed < maxCompressed)
+            compressed += deflater.deflate(output, compressed, maxCompressed - compressed);
+        if (!deflater.finished())
+            compressed = -1;
+        stats.recordDeflate(length, compressed, System.nanoTime() - startTime);
+        return compressed;
+    }
+
+    byte[] getOutput() {
+        return output;
+    }
+
+    /**
+     * Frees the native memory held by the deflater. It must not be used
+     * afterwards.
+     */
+    void end() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,77 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+
+/**
+ * Restores frame bodies compressed by a {@link FrameDeflater}, reusing one
+ * {@link Inflater} and its scratch arrays for every frame of a connection.
+ *
+ * Not thread-safe.
+ */
+final class FrameInflater {
+    private final Inflater inflater = new Inflater();
+    private final int maxBodyLength;
+    private final CompressionStats stats;
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    FrameInflater(int maxBodyLength, CompressionStats stats) {
+        this.maxBodyLength = maxBodyLength;
+        this.stats = stats;
+    }
+
+    /**
+     * @param body the original length followed by the deflated bytes, all of
+     *             which are consumed.
+     * @return the original body, valid until the next call.
+     * @throws MalformedMessageException if the body cannot be inflated to the
+     *                                   length it claims.
+     */
+    ByteBuffer inflate(ByteBuffer body) throws MalformedMessageException {
+        long startTime = System.nanoTime();
+        if (body.remaining() < Frames.HEADER_LENGTH)
+            throw new MalformedMessageException("Truncated compressed frame");
+        int length = body.getInt();
+        if (length < 0 || length > maxBodyLength)
+            throw new MalformedMessageException("Invalid uncompressed length " + length);
+        int compressedLength = body.remaining();
+        if (input.length < compressedLength)
+            input = new byte[compressedLength];
+        body.get(input, 0, compressedLength);
+        if (output.length < length)
+            output = new byte[length];
+        inflater.reset();
+        inflater.setInput(input, 0, compressedLength);
+        int inflated = 0;
+        try {
+            while (!inflater.finished() && inflated < length) {
+                int count = inflater.inflate(output, inflated, length - inflated);
+                if (count == 0) {
+                    if (inflater.needsDictionary())
+                        inflater.setDictionary(DeflateDictionary.BYTES);
+                    else if (inflater.needsInput())
+                        break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new MalformedMessageException("Cannot inflate frame: " + e.getMessage());
+        }
+        if (inflated != length || !inflater.finished())
+            throw new MalformedMessageException("Compressed frame does not inflate to " + length + " bytes");
+        stats.recordInflate(System.nanoTime() - startTime);
+        return ByteBuffer.wrap(output, 0, length);
+    }
+
+    /**
+     * Frees the native memory held by the inflater. It must not be used
+     * afterwards.
+     */
+    void end() {
+        inflater.end();
+    }
+}
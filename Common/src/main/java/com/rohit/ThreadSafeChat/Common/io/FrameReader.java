@@ -0,0 +1,145 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Reassembles length-prefixed frames from a channel into a pooled direct
+ * buffer. Works with blocking and non-blocking channels alike: bytes are pulled
+ * in with {@link #readFrom(ReadableByteChannel)} and complete frames are taken
+ * out with {@link #nextMessage()}. The buffer only grows while a frame larger
+ * than it is pending and shrinks back once that frame has been consumed.
+ * Compressed frames are inflated into a scratch array before being decoded.
+ * Frames of file data are not decoded at all but returned as a
+ * {@link FileChunk} viewing the buffer, which stays valid until the next call
+ * on the reader.
+ * 
+ * Not thread-safe.
+ */
+public class FrameReader {
+    private final BufferPool bufferPool;
+    private final MessageCodec codec;
+    private final int maxFrameLength;
+    private final CompressionStats compressionStats;
+    private FrameInflater inflater;
+    private ByteBuffer buffer;
+
+    public FrameReader(BufferPool bufferPool, MessageCodec codec, int maxFrameLength) {
+        this(bufferPool, codec, maxFrameLength, new CompressionStats());
+    }
+
+    /**
+     * @param compressionStats where the frames inflated by this reader are
+     *                         counted.
+     */
+    public FrameReader(BufferPool bufferPool, MessageCodec codec, int maxFrameLength,
+            CompressionStats compressionStats) {
+        this.bufferPool = bufferPool;
+        this.codec = codec;
+        this.maxFrameLength = Math.min(maxFrameLength, bufferPool.getMaxBufferSize());
+        this.compressionStats = compressionStats;
+        this.buffer = bufferPool.acquire(bufferPool.getMinBufferSize());
+        this.buffer.flip();
+    }
+
+    /**
+     * Performs a single read from the channel.
+     * 
+     * @return the number of bytes read, possibly zero, or -1 at end of stream.
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        // A large chunk of file data read last may still be viewed until now.
+        if (!buffer.hasRemaining() && buffer.capacity() > bufferPool.getMinBufferSize())
+            resize(bufferPool.getMinBufferSize());
+        // The buffer is kept in read mode: position is the next unread byte and
+        // limit the end of the received data.
+        if (buffer.position() > 0)
+            buffer.compact().flip();
+        int readIndex = buffer.position();
+        buffer.position(buffer.limit()).limit(buffer.capacity());
+        int read;
+        try {
+            read = channel.read(buffer);
+        } finally {
+            buffer.limit(buffer.position()).position(readIndex);
+        }
+        return read;
+    }
+
+    /**
+     * @return the next complete message, or {@code null} if more bytes are
+     *         needed.
+     * @throws MalformedMessageException if the frame body cannot be decoded. The
+     *                                   frame is skipped.
+     * @throws StreamCorruptedException  if the frame header is invalid. The
+     *                                   stream cannot be recovered afterwards.
+     */
+    public Message nextMessage() throws IOException {
+        if (buffer.remaining() < Frames.HEADER_LENGTH)
+            return null;
+        int header = buffer.getInt(buffer.position());
+        boolean isFileData = (header & Frames.FILE_DATA) != 0;
+        int frameLength = Frames.HEADER_LENGTH + (header & ~(Frames.COMPRESSED | Frames.FILE_DATA));
+        if (frameLength < (isFileData ? Frames.FILE_DATA_HEADER_LENGTH : Frames.HEADER_LENGTH)
+                || frameLength > maxFrameLength || (isFileData && (header & Frames.COMPRESSED) != 0))
+            throw new StreamCorruptedException("Invalid frame length " + frameLength);
+        if (buffer.remaining() < frameLength) {
+            if (frameLength > buffer.capacity())
+                resize(frameLength);
+            return null;
+        }
+
+        int frameEnd = buffer.position() + frameLength;
+        int dataEnd = buffer.limit();
+        buffer.position(buffer.position() + Frames.HEADER_LENGTH).limit(frameEnd);
+        if (isFileData) {
+            long transferId = buffer.getLong();
+            long offset = buffer.getLong();
+            FileChunk chunk = new FileChunk(transferId, offset, buffer.slice());
+            buffer.limit(dataEnd).position(frameEnd);
+            return chunk;
+        }
+        try {
+            if ((header & Frames.COMPRESSED) != 0)
+                return codec.decode(getInflater().inflate(buffer));
+            return codec.decode(buffer);
+        } finally {
+            buffer.limit(dataEnd).position(frameEnd);
+            if (!buffer.hasRemaining() && buffer.capacity() > bufferPool.getMinBufferSize())
+                resize(bufferPool.getMinBufferSize());
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool. The reader must not be used afterwards.
+     */
+    public void release() {
+        bufferPool.release(buffer);
+        buffer = null;
+        if (inflater != null)
+            inflater.end();
+    }
+
+    /**
+     * Most connections never see a compressed frame, so the inflater and its
+     * native memory are only set up for the first one.
+     */
+    private FrameInflater getInflater() {
+        if (inflater == null)
+            inflater = new FrameInflater(maxFrameLength - Frames.HEADER_LENGTH, compressionStats);
+        return inflater;
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer resized = bufferPool.acquire(Math.max(capacity, buffer.remaining()));
+        resized.put(buffer).flip();
+        bufferPool.release(buffer);
+        buffer = resized;
+    }
+}
@@ -0,0 +1,253 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+
+import com.rohit.ThreadSafeChat.Common.codec.EncodedMessage;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Encodes messages as length-prefixed frames straight into a pooled direct
+ * buffer and drains that buffer to a channel, coping with partial writes on
+ * non-blocking channels. Several frames may be appended before a flush.
+ * {@link EncodedMessage}s encoded with the same codec are copied as is.
+ * Once compression is enabled, bodies of at least the threshold length are
+ * deflated in place.
+ *
+ * A {@link FileChunk} only has its header appended; its bytes follow from
+ * the file once the frames before it have been flushed, and nothing else is
+ * appended until they have all been written.
+ * 
+ * Not thread-safe.
+ */
+public class FrameWriter {
+    private final BufferPool bufferPool;
+    private final MessageCodec codec;
+    private final int maxFrameLength;
+    private final CompressionStats compressionStats;
+    private FrameDeflater deflater;
+    private ByteBuffer buffer;
+    private FileChunk chunk;
+    private FileChannel chunkSource;
+    private long chunkWritten;
+
+    public FrameWriter(BufferPool bufferPool, MessageCodec codec, int maxFrameLength) {
+        this(bufferPool, codec, maxFrameLength, new CompressionStats());
+    }
+
+    /**
+     * @param compressionStats where the frames deflated by this writer are
+     *                         counted.
+     */
+    public FrameWriter(BufferPool bufferPool, MessageCodec codec, int maxFrameLength,
+            CompressionStats compressionStats) {
+        this.bufferPool = bufferPool;
+        this.codec = codec;
+        this.maxFrameLength = Math.min(maxFrameLength, bufferPool.getMaxBufferSize());
+        this.compressionStats = compressionStats;
+        this.buffer = bufferPool.acquire(bufferPool.getMinBufferSize());
+    }
+
+    /**
+     * Compresses every frame appended from now on whose body is at least
+     * {@code threshold} bytes long. The peer must have accepted
+     * {@value Frames#DEFLATE}. Has no effect if compression is already enabled.
+     */
+    public void enableCompression(int threshold) {
+        if (deflater == null)
+            deflater = new FrameDeflater(threshold, compressionStats);
+    }
+
+    public boolean isEmpty() {
+        return buffer.position() == 0 && chunk == null;
+    }
+
+    /**
+     * Encodes a message behind any frames already pending.
+     * 
+     * @return {@code false} if the frame does not fit behind the pending frames,
+     *         or a chunk of file data is pending, in which case nothing was
+     *         appended and the writer has to be flushed first.
+     * @throws IOException if the message cannot be encoded or its frame would
+     *                     exceed the maximum frame length. Nothing is appended.
+     */
+    public boolean append(Message message) throws IOException {
+        if (chunk != null)
+            return false;
+        if (message instanceof FileChunk)
+            return appendChunk((FileChunk) message);
+        if (message instanceof EncodedMessage && ((EncodedMessage) message).isEncodedWith(codec))
+            return appendEncoded(((EncodedMessage) message).getBody());
+        int frameStart = buffer.position();
+        while (true) {
+            try {
+                // Not even room for the header behind the pending frames.
+                if (buffer.limit() - frameStart < Frames.HEADER_LENGTH)
+                    throw new BufferOverflowException();
+                buffer.position(frameStart + Frames.HEADER_LENGTH);
+                codec.encode(message, buffer);
+                int bodyLength = buffer.position() - frameStart - Frames.HEADER_LENGTH;
+                if (deflater == null || !deflateInPlace(frameStart, bodyLength))
+                    buffer.putInt(frameStart, bodyLength);
+                return true;
+            } catch (BufferOverflowException e) {
+                buffer.position(frameStart);
+                if (frameStart > 0)
+                    return false;
+                if (buffer.capacity() >= maxFrameLength)
+                    throw new IOException("Message exceeds maximum frame length of " + maxFrameLength);
+                grow(Math.min(buffer.capacity() * 2, maxFrameLength));
+            } catch (IOException | RuntimeException e) {
+                buffer.position(frameStart);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Replaces the body just encoded behind the frame start with its compressed
+     * form, which is always shorter, and writes the header.
+     * 
+     * @return {@code false} if the body is left as it is.
+     */
+    private boolean deflateInPlace(int frameStart, int bodyLength) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(frameStart + Frames.HEADER_LENGTH).limit(frameStart + Frames.HEADER_LENGTH + bodyLength);
+        int compressedLength = deflater.deflate(body);
+        if (compressedLength < 0)
+            return false;
+        buffer.position(frameStart);
+        putCompressed(bodyLength, compressedLength);
+        return true;
+    }
+
+    /**
+     * Checks for room as if the body were not going to be compressed, so that a
+     * body is never deflated only to be appended again after a flush.
+     */
+    private boolean appendEncoded(ByteBuffer body) throws IOException {
+        int frameLength = Frames.HEADER_LENGTH + body.remaining();
+        if (frameLength > maxFrameLength)
+            throw new IOException("Message exceeds maximum frame length of " + maxFrameLength);
+        if (buffer.remaining() < frameLength) {
+            if (!isEmpty())
+                return false;
+            grow(frameLength);
+        }
+        int compressedLength = deflater == null ? -1 : deflater.deflate(body);
+        if (compressedLength < 0) {
+            buffer.putInt(body.remaining());
+            buffer.put(body);
+        } else {
+            putCompressed(body.remaining(), compressedLength);
+        }
+        return true;
+    }
+
+    /**
+     * Opens the chunk's file before appending the header, so that a chunk
+     * whose file is gone can still be left out.
+     */
+    private boolean appendChunk(FileChunk fileChunk) throws IOException {
+        int frameLength = Frames.FILE_DATA_HEADER_LENGTH + fileChunk.getLength();
+        if (frameLength > maxFrameLength)
+            throw new IOException("File chunk exceeds maximum frame length of " + maxFrameLength);
+        if (buffer.remaining() < Frames.FILE_DATA_HEADER_LENGTH)
+            return false;
+        try {
+            chunkSource = fileChunk.open();
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        buffer.putInt(Frames.FILE_DATA | (frameLength - Frames.HEADER_LENGTH));
+        buffer.putLong(fileChunk.getTransferId());
+        buffer.putLong(fileChunk.getOffset());
+        chunk = fileChunk;
+        chunkWritten = 0;
+        return true;
+    }
+
+    private void putCompressed(int bodyLength, int compressedLength) {
+        buffer.putInt(Frames.COMPRESSED | (Frames.HEADER_LENGTH + compressedLength));
+        buffer.putInt(bodyLength);
+        buffer.put(deflater.getOutput(), 0, compressedLength);
+    }
+
+    /**
+     * Writes as much of the pending frames as the channel accepts.
+     * 
+     * @return {@code true} if nothing is left pending.
+     */
+    public boolean flushTo(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0)
+                    break;
+            }
+        } finally {
+            buffer.compact();
+        }
+        if (buffer.position() > 0 || (chunk != null && !flushChunkTo(channel)))
+            return false;
+        if (buffer.capacity() > bufferPool.getMinBufferSize())
+            shrink();
+        return true;
+    }
+
+    /**
+     * @return {@code true} once the whole chunk has been written.
+     */
+    private boolean flushChunkTo(WritableByteChannel channel) throws IOException {
+        while (chunkWritten < chunk.getLength()) {
+            long written = chunk.transferTo(chunkSource, chunkWritten, channel);
+            if (written == 0)
+                return false;
+            chunkWritten += written;
+        }
+        closeChunk();
+        return true;
+    }
+
+    private void closeChunk() throws IOException {
+        chunk = null;
+        try {
+            chunkSource.close();
+        } finally {
+            chunkSource = null;
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool, discarding pending frames. The writer must
+     * not be used afterwards.
+     */
+    public void release() {
+        bufferPool.release(buffer);
+        buffer = null;
+        if (deflater != null)
+            deflater.end();
+        if (chunk != null) {
+            try {
+                closeChunk();
+            } catch (IOException e) {
+                // Nothing was written to the file.
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        bufferPool.release(buffer);
+        buffer = bufferPool.acquire(capacity);
+    }
+
+    private void shrink() {
+        bufferPool.release(buffer);
+        buffer = bufferPool.acquire(bufferPool.getMinBufferSize());
+    }
+}
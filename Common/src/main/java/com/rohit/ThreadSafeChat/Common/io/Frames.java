@@ -0,0 +1,29 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+/**
+ * Layout of a frame: a 4 byte big-endian body length followed by the body. The
+ * maximum frame length includes the header.
+ *
+ * The top bit of the length marks a compressed body: the 4 byte length of the
+ * original body followed by its zlib stream, deflated against a preset
+ * dictionary. Readers always understand compressed frames; writers only send
+ * them once the peer has accepted {@value #DEFLATE} in the capabilities
+ * handshake.
+ *
+ * The next bit marks a body which is no message at all but a piece of a file
+ * being transferred: the 8 byte transfer id and the 8 byte offset of the
+ * piece in the file, followed by its bytes as they are. Such frames are never
+ * compressed, and are only sent to peers which asked for the file.
+ */
+public class Frames {
+    public static final int HEADER_LENGTH = 4;
+    public static final int COMPRESSED = 0x80000000;
+    public static final int FILE_DATA = 0x40000000;
+    /** Length of the header of a frame of file data, up to its first byte. */
+    public static final int FILE_DATA_HEADER_LENGTH = HEADER_LENGTH + 16;
+    /** Name of the capability of reading compressed frames. */
+    public static final String DEFLATE = "deflate";
+
+    private Frames() {
+    }
+}
@@ -0,0 +1,21 @@
+package com.rohit.ThreadSafeChat.Common.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel wrapping a socket which can have file regions written to the
+ * socket itself. {@link FileChannel#transferTo} only hands the bytes to the
+ * kernel when writing to a socket's own channel, and copies them through a
+ * buffer for any wrapper around it.
+ */
+public interface TransferTarget extends WritableByteChannel {
+    /**
+     * Writes up to {@code count} bytes of the file, starting at
+     * {@code position}, like {@link FileChannel#transferTo}.
+     *
+     * @return the number of bytes written, possibly zero.
+     */
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+}
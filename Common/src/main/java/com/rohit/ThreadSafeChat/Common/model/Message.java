@@ -8,6 +8,13 @@ public class Message implements Serializable {
     private String senderId, receiverId;
     private MessageType messageType;
     private Status status;
+    private Long sequenceNumber;
+    private Integer pageSize;
+    private Long timestamp;
+    private Long correlationId;
+    private String sessionToken;
+    private Long transferId;
+    private Long byteCount;
 
     public Message() {
 
@@ -19,6 +26,13 @@ public class Message implements Serializable {
         this.receiverId = builder.receiverId;
         this.messageType = builder.messageType;
         this.status = builder.status;
+        this.sequenceNumber = builder.sequenceNumber;
+        this.pageSize = builder.pageSize;
+        this.timestamp = builder.timestamp;
+        this.correlationId = builder.correlationId;
+        this.sessionToken = builder.sessionToken;
+        this.transferId = builder.transferId;
+        this.byteCount = builder.byteCount;
     }
 
     public String getText() {
@@ -41,6 +55,61 @@ public class Message implements Serializable {
         return status;
     }
 
+    /**
+     * @return position of the text in its conversation, or {@code null}.
+     */
+    public Long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return number of entries asked for by a paged request, or {@code null}.
+     */
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return milliseconds since the epoch at which the server accepted the
+     *         text, or {@code null}.
+     */
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the id a client gave a request, echoed in the response to it so
+     *         that many requests can be outstanding at once, or {@code null}.
+     */
+    public Long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return the token a client can resume its session with after losing the
+     *         connection, or {@code null}.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * @return the id the server gave a file transfer, or {@code null}.
+     */
+    public Long getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * @return the size of an offered file, how many of its bytes have been
+     *         received when acknowledging it, or how many may be
+     *         unacknowledged when answering an offer or accept; otherwise
+     *         {@code null}.
+     */
+    public Long getByteCount() {
+        return byteCount;
+    }
+
     public void setText(String text) {
         this.text = text;
     }
@@ -61,6 +130,34 @@ public class Message implements Serializable {
         this.status = status;
     }
 
+    public void setSequenceNumber(Long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public void setCorrelationId(Long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    public void setTransferId(Long transferId) {
+        this.transferId = transferId;
+    }
+
+    public void setByteCount(Long byteCount) {
+        this.byteCount = byteCount;
+    }
+
     @Override
     public String toString() {
         return this.senderId + " : " + this.text;
@@ -71,6 +168,13 @@ public class Message implements Serializable {
         private String text;
         private String senderId, receiverId;
         private Status status;
+        private Long sequenceNumber;
+        private Integer pageSize;
+        private Long timestamp;
+        private Long correlationId;
+        private String sessionToken;
+        private Long transferId;
+        private Long byteCount;
 
         public Builder withText(String text) {
             this.text = text;
@@ -97,6 +201,41 @@ public class Message implements Serializable {
             return this;
         }
 
+        public Builder withSequenceNumber(Long sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+            return this;
+        }
+
+        public Builder withPageSize(Integer pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder withTimestamp(Long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        public Builder withCorrelationId(Long correlationId) {
+            this.correlationId = correlationId;
+            return this;
+        }
+
+        public Builder withSessionToken(String sessionToken) {
+            this.sessionToken = sessionToken;
+            return this;
+        }
+
+        public Builder withTransferId(Long transferId) {
+            this.transferId = transferId;
+            return this;
+        }
+
+        public Builder withByteCount(Long byteCount) {
+            this.byteCount = byteCount;
+            return this;
+        }
+
         public Message build() {
             return new Message(this);
         }
@@ -1,6 +1,65 @@
 package com.rohit.ThreadSafeChat.Common.model;
 
+// BinaryMessageCodec writes ordinals: only ever append new constants.
 public enum MessageType {
     SEND_TEXT_REQUEST, SEND_TEXT_RESPONSE, USER_LOGIN_REQUEST, LOGIN_RESPONSE, RECEIVE_TEXT, USER_LOGOFF_REQUEST,
-    LOGOFF_RESPONSE, USER_REGISTRATION_REQUEST, REGISTRATION_RESPONSE;
+    LOGOFF_RESPONSE, USER_REGISTRATION_REQUEST, REGISTRATION_RESPONSE, ROOM_CREATE_REQUEST, ROOM_CREATE_RESPONSE,
+    ROOM_JOIN_REQUEST, ROOM_JOIN_RESPONSE, ROOM_LEAVE_REQUEST, ROOM_LEAVE_RESPONSE, SEND_ROOM_TEXT_REQUEST,
+    SEND_ROOM_TEXT_RESPONSE, RECEIVE_ROOM_TEXT, HISTORY_REQUEST, HISTORY_TEXT, HISTORY_RESPONSE, DELIVERY_ACK,
+    // Only exchanged between the nodes of a cluster.
+    CLUSTER_HELLO, CLUSTER_REQUEST, CLUSTER_DELIVERY, CLUSTER_ROUTE, CLUSTER_ROUTE_RESPONSE, CLUSTER_STORE,
+    CLUSTER_LOGGED_OFF, CLUSTER_SESSION_CLOSED,
+    // Exchanged with clients again.
+    SESSION_RESUME_REQUEST, SESSION_RESUME_RESPONSE, CAPABILITIES_REQUEST, CAPABILITIES_RESPONSE,
+    PING, PONG, PRESENCE_SUBSCRIBE_REQUEST, PRESENCE_SUBSCRIBE_RESPONSE, PRESENCE_UNSUBSCRIBE_REQUEST,
+    PRESENCE_UNSUBSCRIBE_RESPONSE, PRESENCE_UPDATE, FILE_OFFER_REQUEST, FILE_OFFER_RESPONSE, FILE_OFFER,
+    FILE_ACCEPT_REQUEST, FILE_ACCEPT_RESPONSE, FILE_DATA, FILE_ACK, FILE_CANCEL_REQUEST, FILE_CANCEL_RESPONSE,
+    FILE_CANCELLED, SEARCH_REQUEST, SEARCH_RESULT, SEARCH_RESPONSE;
+
+    /**
+     * @return the type of the response to a request of this type, or
+     *         {@code null} if it is not answered.
+     */
+    public MessageType getResponseType() {
+        switch (this) {
+        case USER_REGISTRATION_REQUEST:
+            return REGISTRATION_RESPONSE;
+        case USER_LOGIN_REQUEST:
+            return LOGIN_RESPONSE;
+        case USER_LOGOFF_REQUEST:
+            return LOGOFF_RESPONSE;
+        case SEND_TEXT_REQUEST:
+            return SEND_TEXT_RESPONSE;
+        case ROOM_CREATE_REQUEST:
+            return ROOM_CREATE_RESPONSE;
+        case ROOM_JOIN_REQUEST:
+            return ROOM_JOIN_RESPONSE;
+        case ROOM_LEAVE_REQUEST:
+            return ROOM_LEAVE_RESPONSE;
+        case SEND_ROOM_TEXT_REQUEST:
+            return SEND_ROOM_TEXT_RESPONSE;
+        case HISTORY_REQUEST:
+            return HISTORY_RESPONSE;
+        case SESSION_RESUME_REQUEST:
+            return SESSION_RESUME_RESPONSE;
+        case CAPABILITIES_REQUEST:
+            return CAPABILITIES_RESPONSE;
+        case PING:
+            return PONG;
+        case PRESENCE_SUBSCRIBE_REQUEST:
+            return PRESENCE_SUBSCRIBE_RESPONSE;
+        case PRESENCE_UNSUBSCRIBE_REQUEST:
+            return PRESENCE_UNSUBSCRIBE_RESPONSE;
+        case FILE_OFFER_REQUEST:
+            return FILE_OFFER_RESPONSE;
+        case FILE_ACCEPT_REQUEST:
+            return FILE_ACCEPT_RESPONSE;
+        case FILE_CANCEL_REQUEST:
+            return FILE_CANCEL_RESPONSE;
+        case SEARCH_REQUEST:
+            return SEARCH_RESPONSE;
+        default:
+            return null;
+        }
+    }
 }
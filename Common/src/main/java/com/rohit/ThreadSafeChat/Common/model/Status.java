@@ -1,5 +1,6 @@
 package com.rohit.ThreadSafeChat.Common.model;
 
+// BinaryMessageCodec writes ordinals: only ever append new constants.
 public enum Status {
-    OK, INVALID_REQUEST, INTERNAL_SERVER_ERROR, REQUEST_QUEUED
+    OK, INVALID_REQUEST, INTERNAL_SERVER_ERROR, REQUEST_QUEUED, RECEIVER_BUSY, SERVER_BUSY, THROTTLED
 }
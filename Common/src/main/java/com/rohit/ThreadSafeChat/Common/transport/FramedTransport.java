@@ -0,0 +1,137 @@
+package com.rohit.ThreadSafeChat.Common.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.io.CompressionStats;
+import com.rohit.ThreadSafeChat.Common.io.FrameReader;
+import com.rohit.ThreadSafeChat.Common.io.FrameWriter;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+
+/**
+ * Blocking transport of length-prefixed frames whose body is produced by a
+ * {@link MessageCodec}. Frames are assembled in pooled direct buffers, so
+ * steady state reads and writes allocate nothing besides the decoded message.
+ * The buffers go back to the pool when the transport is closed.
+ *
+ * Compression is enabled by the next write, so that enabling it never waits
+ * on a writer blocked on the socket.
+ */
+public class FramedTransport implements MessageTransport {
+    private final ByteChannel channel;
+    private final FrameReader frameReader;
+    private final FrameWriter frameWriter;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private volatile int compressionThreshold = 0;
+
+    public FramedTransport(ByteChannel channel, MessageCodec codec) {
+        this(channel, codec, BufferPool.shared());
+    }
+
+    public FramedTransport(ByteChannel channel, MessageCodec codec, BufferPool bufferPool) {
+        this(channel, codec, bufferPool, new CompressionStats());
+    }
+
+    public FramedTransport(ByteChannel channel, MessageCodec codec, BufferPool bufferPool,
+            CompressionStats compressionStats) {
+        this.channel = channel;
+        this.frameReader = new FrameReader(bufferPool, codec, Constants.MAX_FRAME_LENGTH, compressionStats);
+        this.frameWriter = new FrameWriter(bufferPool, codec, Constants.MAX_FRAME_LENGTH, compressionStats);
+    }
+
+    public boolean enableCompression(int threshold) {
+        if (threshold <= 0)
+            return false;
+        compressionThreshold = threshold;
+        return true;
+    }
+
+    public void writeMessage(Message message) throws IOException {
+        writeLock.lock();
+        try {
+            if (isClosed.get())
+                throw new ClosedChannelException();
+            appendFrame(message);
+            flushFrames();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void writeMessages(List<Message> messages) throws IOException {
+        writeLock.lock();
+        try {
+            if (isClosed.get())
+                throw new ClosedChannelException();
+            for (Message message : messages) {
+                appendFrame(message);
+            }
+            flushFrames();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a frame, writing out the pending ones first only if the buffer is
+     * full.
+     */
+    private void appendFrame(Message message) throws IOException {
+        if (compressionThreshold > 0)
+            frameWriter.enableCompression(compressionThreshold);
+        while (!frameWriter.append(message)) {
+            flushFrames();
+        }
+    }
+
+    private void flushFrames() throws IOException {
+        while (!frameWriter.flushTo(channel)) {
+        }
+    }
+
+    public Message readMessage() throws IOException {
+        readLock.lock();
+        try {
+            if (isClosed.get())
+                throw new ClosedChannelException();
+            Message message;
+            while ((message = frameReader.nextMessage()) == null) {
+                if (frameReader.readFrom(channel) < 0)
+                    throw new EOFException("Connection closed by peer");
+            }
+            return message;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        if (!isClosed.compareAndSet(false, true))
+            return;
+        // Closing the channel first wakes up any reader or writer blocked on it,
+        // after which the buffers can safely go back to the pool.
+        channel.close();
+        readLock.lock();
+        try {
+            frameReader.release();
+        } finally {
+            readLock.unlock();
+        }
+        writeLock.lock();
+        try {
+            frameWriter.release();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
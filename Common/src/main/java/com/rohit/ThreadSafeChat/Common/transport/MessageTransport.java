@@ -0,0 +1,32 @@
+package com.rohit.ThreadSafeChat.Common.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Blocking, socket backed channel of {@link Message}s. Reads and writes may
+ * happen on different threads, but writes must not be issued concurrently.
+ */
+public interface MessageTransport extends Closeable {
+    void writeMessage(Message message) throws IOException;
+
+    /**
+     * Writes several messages with as few flushes to the socket as possible.
+     */
+    void writeMessages(List<Message> messages) throws IOException;
+
+    Message readMessage() throws IOException;
+
+    /**
+     * Compresses messages of at least {@code threshold} bytes from the next
+     * write on. Only to be called once the peer has accepted
+     * {@value Frames#DEFLATE}. Never waits for a write in progress.
+     *
+     * @return {@code false} if this transport cannot compress.
+     */
+    boolean enableCompression(int threshold);
+}
@@ -0,0 +1,69 @@
+package com.rohit.ThreadSafeChat.Common.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * Legacy transport which writes messages straight onto a Java object stream.
+ */
+public class ObjectStreamTransport implements MessageTransport {
+    private final ObjectOutputStream objectOutputStream;
+    private final ObjectInputStream objectInputStream;
+
+    public ObjectStreamTransport(Socket socket) throws IOException {
+        // The output stream header has to be flushed before opening the input
+        // stream, otherwise both ends block waiting for each other's header.
+        this.objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.objectOutputStream.flush();
+        this.objectInputStream = new ObjectInputStream(socket.getInputStream());
+    }
+
+    public void writeMessage(Message message) throws IOException {
+        writeObjectAndReset(message);
+        objectOutputStream.flush();
+    }
+
+    public void writeMessages(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            writeObjectAndReset(message);
+        }
+        objectOutputStream.flush();
+    }
+
+    private void writeObjectAndReset(Message message) throws IOException {
+        objectOutputStream.writeObject(message);
+        // Drop the handle table, otherwise every message ever written stays
+        // reachable for the lifetime of the connection.
+        objectOutputStream.reset();
+    }
+
+    public Message readMessage() throws IOException {
+        try {
+            return (Message) objectInputStream.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new MalformedMessageException(e.getMessage());
+        }
+    }
+
+    /**
+     * Object streams have no frames to compress.
+     */
+    public boolean enableCompression(int threshold) {
+        return false;
+    }
+
+    public void close() throws IOException {
+        try {
+            objectInputStream.close();
+        } finally {
+            objectOutputStream.close();
+        }
+    }
+}
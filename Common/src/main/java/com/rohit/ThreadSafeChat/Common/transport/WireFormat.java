@@ -0,0 +1,67 @@
+package com.rohit.ThreadSafeChat.Common.transport;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.codec.SerializationMessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.io.CompressionStats;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+
+/**
+ * Wire formats understood by both client and server. Selected with the
+ * {@value Constants#WIRE_FORMAT_PROPERTY} system property, defaulting to
+ * {@link #BINARY_FRAMES}. {@link #OBJECT_STREAM} is the legacy Java
+ * serialization stream, kept as a fallback.
+ */
+public enum WireFormat {
+    OBJECT_STREAM(null), SERIALIZED_FRAMES(new SerializationMessageCodec()), BINARY_FRAMES(new BinaryMessageCodec());
+
+    private final MessageCodec codec;
+
+    private WireFormat(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return the codec used for frame bodies, or {@code null} if this format is
+     *         not frame based.
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public boolean isFramed() {
+        return codec != null;
+    }
+
+    /**
+     * Opens a transport over a channel in blocking mode.
+     */
+    public MessageTransport open(SocketChannel channel) throws IOException {
+        return open(channel, new CompressionStats());
+    }
+
+    /**
+     * @param compressionStats where compressed frames are counted, if this
+     *                         format is frame based.
+     */
+    public MessageTransport open(SocketChannel channel, CompressionStats compressionStats) throws IOException {
+        if (isFramed())
+            return new FramedTransport(channel, codec, BufferPool.shared(), compressionStats);
+        return new ObjectStreamTransport(channel.socket());
+    }
+
+    public static WireFormat fromSystemProperties() {
+        return fromSystemProperties(BINARY_FRAMES);
+    }
+
+    public static WireFormat fromSystemProperties(WireFormat defaultFormat) {
+        String value = System.getProperty(Constants.WIRE_FORMAT_PROPERTY);
+        if (value == null || value.trim().isEmpty())
+            return defaultFormat;
+        return valueOf(value.trim().toUpperCase());
+    }
+}
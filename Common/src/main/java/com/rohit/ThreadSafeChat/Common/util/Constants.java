@@ -2,4 +2,16 @@ package com.rohit.ThreadSafeChat.Common.util;
 
 public class Constants {
     public static final int MAX_USERS_SUPPORTED = 200;
+
+    public static final String WIRE_FORMAT_PROPERTY = "chat.wire.format";
+    /** Upper bound of a frame, header included. */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    public static final String COMPRESSION_THRESHOLD_PROPERTY = "chat.client.compressionThresholdBytes";
+    /** Length from which frame bodies are compressed by default; 0 never compresses them. */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /** Texts of a {@code PRESENCE_UPDATE}, whose sender is the user it is about. */
+    public static final String PRESENCE_ONLINE = "online";
+    public static final String PRESENCE_OFFLINE = "offline";
 }
@@ -0,0 +1,227 @@
+package com.rohit.ThreadSafeChat.LoadGenerator;
+
+import com.rohit.ThreadSafeChat.Common.transport.WireFormat;
+
+/**
+ * Settings of a load run, read from {@code chat.load.*} system properties.
+ */
+public class LoadConfig {
+    public static final String CONNECTIONS_PROPERTY = "chat.load.connections";
+    public static final String SEND_RATE_PROPERTY = "chat.load.sendRate";
+    public static final String DURATION_SECONDS_PROPERTY = "chat.load.durationSeconds";
+    public static final String WARMUP_SECONDS_PROPERTY = "chat.load.warmupSeconds";
+    public static final String PATTERN_PROPERTY = "chat.load.pattern";
+    public static final String ROOM_SIZE_PROPERTY = "chat.load.roomSize";
+    public static final String TEXT_BYTES_PROPERTY = "chat.load.textBytes";
+    public static final String REPORT_INTERVAL_SECONDS_PROPERTY = "chat.load.reportIntervalSeconds";
+    public static final String CHURN_RATE_PROPERTY = "chat.load.churnRate";
+
+    private final String hostname;
+    private final int[] ports;
+    private final WireFormat wireFormat;
+    private final int connections;
+    private final int sendRate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final TrafficPattern pattern;
+    private final int roomSize;
+    private final int textBytes;
+    private final int reportIntervalSeconds;
+    private final int churnRate;
+
+    private LoadConfig(Builder builder) {
+        this.hostname = builder.hostname;
+        this.ports = builder.ports;
+        this.wireFormat = builder.wireFormat;
+        this.connections = builder.connections;
+        this.sendRate = builder.sendRate;
+        this.durationSeconds = builder.durationSeconds;
+        this.warmupSeconds = builder.warmupSeconds;
+        this.pattern = builder.pattern;
+        this.roomSize = builder.roomSize;
+        this.textBytes = builder.textBytes;
+        this.reportIntervalSeconds = builder.reportIntervalSeconds;
+        this.churnRate = builder.churnRate;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    /**
+     * @return the ports of the servers to connect to, such as the nodes of a
+     *         cluster. Users are spread over them in turn.
+     */
+    public int[] getPorts() {
+        return ports.clone();
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * @return number of simulated users, each with its own connection. Users
+     *         beyond the server's login limit wait in its login queue.
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return texts sent per second, across all users.
+     */
+    public int getSendRate() {
+        return sendRate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return seconds of load at the start of a run which are left out of the
+     *         results.
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public TrafficPattern getPattern() {
+        return pattern;
+    }
+
+    public int getRoomSize() {
+        return roomSize;
+    }
+
+    public int getTextBytes() {
+        return textBytes;
+    }
+
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    /**
+     * @return users logged off and straight back in per second, across all
+     *         users. Each logoff lets in a user waiting in the server's login
+     *         queue, if there is one.
+     */
+    public int getChurnRate() {
+        return churnRate;
+    }
+
+    public static LoadConfig fromSystemProperties(String hostname, int... ports) {
+        Builder builder = new Builder().withHostname(hostname).withPorts(ports);
+        builder.withWireFormat(WireFormat.fromSystemProperties());
+        builder.withConnections(Integer.getInteger(CONNECTIONS_PROPERTY, builder.connections));
+        builder.withSendRate(Integer.getInteger(SEND_RATE_PROPERTY, builder.sendRate));
+        builder.withDurationSeconds(Integer.getInteger(DURATION_SECONDS_PROPERTY, builder.durationSeconds));
+        builder.withWarmupSeconds(Integer.getInteger(WARMUP_SECONDS_PROPERTY, builder.warmupSeconds));
+        String pattern = System.getProperty(PATTERN_PROPERTY);
+        if (pattern != null && !pattern.trim().isEmpty())
+            builder.withPattern(TrafficPattern.valueOf(pattern.trim().toUpperCase()));
+        builder.withRoomSize(Integer.getInteger(ROOM_SIZE_PROPERTY, builder.roomSize));
+        builder.withTextBytes(Integer.getInteger(TEXT_BYTES_PROPERTY, builder.textBytes));
+        builder.withReportIntervalSeconds(
+                Integer.getInteger(REPORT_INTERVAL_SECONDS_PROPERTY, builder.reportIntervalSeconds));
+        builder.withChurnRate(Integer.getInteger(CHURN_RATE_PROPERTY, builder.churnRate));
+        return builder.build();
+    }
+
+    public static class Builder {
+        private String hostname = "localhost";
+        private int[] ports = new int[0];
+        private WireFormat wireFormat = WireFormat.BINARY_FRAMES;
+        private int connections = 100;
+        private int sendRate = 1000;
+        private int durationSeconds = 30;
+        private int warmupSeconds = 5;
+        private TrafficPattern pattern = TrafficPattern.PRIVATE;
+        private int roomSize = 10;
+        private int textBytes = 64;
+        private int reportIntervalSeconds = 5;
+        private int churnRate = 0;
+
+        public Builder withHostname(String hostname) {
+            this.hostname = hostname;
+            return this;
+        }
+
+        public Builder withPorts(int... ports) {
+            this.ports = ports.clone();
+            return this;
+        }
+
+        public Builder withWireFormat(WireFormat wireFormat) {
+            this.wireFormat = wireFormat;
+            return this;
+        }
+
+        public Builder withConnections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        public Builder withSendRate(int sendRate) {
+            this.sendRate = sendRate;
+            return this;
+        }
+
+        public Builder withDurationSeconds(int durationSeconds) {
+            this.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        public Builder withWarmupSeconds(int warmupSeconds) {
+            this.warmupSeconds = warmupSeconds;
+            return this;
+        }
+
+        public Builder withPattern(TrafficPattern pattern) {
+            this.pattern = pattern;
+            return this;
+        }
+
+        public Builder withRoomSize(int roomSize) {
+            this.roomSize = roomSize;
+            return this;
+        }
+
+        public Builder withTextBytes(int textBytes) {
+            this.textBytes = textBytes;
+            return this;
+        }
+
+        public Builder withReportIntervalSeconds(int reportIntervalSeconds) {
+            this.reportIntervalSeconds = reportIntervalSeconds;
+            return this;
+        }
+
+        public Builder withChurnRate(int churnRate) {
+            this.churnRate = churnRate;
+            return this;
+        }
+
+        public LoadConfig build() {
+            if (ports.length == 0)
+                throw new IllegalArgumentException("At least one server port is required");
+            if (connections < 2)
+                throw new IllegalArgumentException("At least two connections are required");
+            if (sendRate < 1)
+                throw new IllegalArgumentException("Send rate must be positive");
+            if (durationSeconds < 1 || warmupSeconds < 0 || warmupSeconds >= durationSeconds)
+                throw new IllegalArgumentException("Warmup must be shorter than the run");
+            if (pattern == TrafficPattern.ROOM && roomSize < 2)
+                throw new IllegalArgumentException("Rooms need at least two members");
+            if (textBytes < 24)
+                throw new IllegalArgumentException("Texts must be at least 24 bytes to carry their send time");
+            if (reportIntervalSeconds < 1)
+                throw new IllegalArgumentException("Report interval must be positive");
+            if (churnRate < 0)
+                throw new IllegalArgumentException("Churn rate must not be negative");
+            return new LoadConfig(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.rohit.ThreadSafeChat.LoadGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+
+/**
+ * Headless load generator. Opens one connection per simulated user, registers
+ * and logs them all in, then sends texts at a fixed overall rate between
+ * random users, privately or to rooms, and reports throughput and latency
+ * percentiles every few seconds and for the whole run. Given several ports,
+ * such as those of the nodes of a cluster, it spreads the users over them.
+ *
+ * Sends are paced by a single driver thread, and latencies are measured from
+ * when each text was due rather than when it went out, so a server that
+ * holds the generator up shows up in the latencies instead of hiding them.
+ * Users beyond the server's login limit land in its admission queue; the
+ * time until they are let in is reported as well. Users can be logged off and
+ * straight back in at a fixed rate too, so that queued users get let in.
+ * 
+ * @author Rohit Mazumder (mazumder.rohit7@gmail.com)
+ */
+public class LoadGenerator {
+    private static Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long DRAIN_MILLIS = 2000;
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final List<SimulatedUser> users = new ArrayList<SimulatedUser>();
+    private final List<SimulatedUser> loggedInUsers = new CopyOnWriteArrayList<SimulatedUser>();
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2)
+            throw new IllegalArgumentException(
+                    "You need to pass the following positional arguments:\n [hostname] [port[,port...]]");
+        String[] portList = args[1].split(",");
+        int[] ports = new int[portList.length];
+        for (int i = 0; i < portList.length; i++)
+            ports[i] = Integer.parseInt(portList[i].trim());
+        new LoadGenerator(LoadConfig.fromSystemProperties(args[0], ports)).run();
+    }
+
+    public void run() throws IOException, InterruptedException, ExecutionException {
+        try {
+            connectUsers();
+            logInUsers();
+            if (config.getPattern() == TrafficPattern.ROOM)
+                enterRooms();
+            drive();
+        } finally {
+            for (SimulatedUser user : users)
+                user.close();
+        }
+    }
+
+    private void connectUsers() throws IOException {
+        String runId = Long.toString(System.currentTimeMillis() % 1000000000L, 36);
+        SimulatedUser.AdmissionListener admissionListener = new SimulatedUser.AdmissionListener() {
+            public void admitted(SimulatedUser user) {
+                loggedInUsers.add(user);
+            }
+        };
+        int[] ports = config.getPorts();
+        for (int i = 0; i < config.getConnections(); i++) {
+            String roomName = config.getPattern() == TrafficPattern.ROOM
+                    ? "load-" + runId + "-" + (i / config.getRoomSize())
+                    : null;
+            SimulatedUser user = new SimulatedUser("load-" + runId + "-" + i, roomName, stats, admissionListener);
+            users.add(user);
+            user.connect(config, ports[i % ports.length]);
+        }
+        logger.info("Opened {} connections to {} on ports {}", users.size(), config.getHostname(),
+                Arrays.toString(ports));
+    }
+
+    /**
+     * Registers every user, then logs them all in with every request in flight
+     * at once.
+     */
+    private void logInUsers() throws InterruptedException, ExecutionException {
+        List<CompletableFuture<Message>> responses = new ArrayList<CompletableFuture<Message>>();
+        for (SimulatedUser user : users)
+            responses.add(user.getClient().register(user.getUserId()));
+        // Users are kept across server restarts, so those of an earlier run
+        // are already registered.
+        int alreadyRegistered = 0;
+        for (CompletableFuture<Message> response : responses) {
+            if (response.get().getStatus() == Status.INVALID_REQUEST)
+                alreadyRegistered++;
+            else if (response.get().getStatus() != Status.OK)
+                logger.warn(response.get().getText());
+        }
+        if (alreadyRegistered > 0)
+            logger.info("{} users were already registered", alreadyRegistered);
+        responses.clear();
+        for (SimulatedUser user : users)
+            responses.add(user.login());
+        int queued = 0;
+        for (int i = 0; i < users.size(); i++) {
+            Status status = responses.get(i).get().getStatus();
+            if (status == Status.OK)
+                loggedInUsers.add(users.get(i));
+            else if (status == Status.REQUEST_QUEUED)
+                queued++;
+            else
+                logger.warn(responses.get(i).get().getText());
+        }
+        logger.info("Logged in {} users, {} are waiting in the login queue", loggedInUsers.size(), queued);
+        if (loggedInUsers.size() < 2)
+            throw new IllegalStateException("Too few users could log in to generate load");
+    }
+
+    private void enterRooms() throws InterruptedException, ExecutionException {
+        List<CompletableFuture<Message>> responses = new ArrayList<CompletableFuture<Message>>();
+        for (SimulatedUser user : loggedInUsers)
+            responses.add(user.enterRoom());
+        for (CompletableFuture<Message> response : responses) {
+            if (response.get().getStatus() != Status.OK)
+                logger.warn(response.get().getText());
+        }
+        logger.info("Users entered rooms of {}", config.getRoomSize());
+    }
+
+    /**
+     * Sends texts at the configured rate until the run is over, catching up in
+     * bursts whenever the driver falls behind schedule.
+     */
+    private void drive() throws InterruptedException {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "load-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int reportIntervalSeconds = config.getReportIntervalSeconds();
+        reporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                stats.report();
+            }
+        }, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+
+        StringBuilder padding = new StringBuilder(config.getTextBytes());
+        while (padding.length() < config.getTextBytes())
+            padding.append('x');
+        String paddingText = padding.toString();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getSendRate();
+        long startNanos = System.nanoTime();
+        long warmupEndNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        boolean isWarmingUp = config.getWarmupSeconds() > 0;
+        long dueNanos = startNanos;
+        long churnIntervalNanos = config.getChurnRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / config.getChurnRate() : 0;
+        long churnDueNanos = config.getChurnRate() > 0 ? startNanos + churnIntervalNanos : endNanos;
+        logger.info("Sending {} texts/s for {} s, the first {} s as warmup", config.getSendRate(),
+                config.getDurationSeconds(), config.getWarmupSeconds());
+        while (dueNanos < endNanos) {
+            long now = System.nanoTime();
+            if (now < dueNanos && now < churnDueNanos) {
+                LockSupport.parkNanos(Math.min(dueNanos, churnDueNanos) - now);
+                continue;
+            }
+            if (isWarmingUp && dueNanos >= warmupEndNanos) {
+                stats.reset(warmupEndNanos);
+                isWarmingUp = false;
+            }
+            while (dueNanos <= now && dueNanos < endNanos) {
+                send(dueNanos, paddingText);
+                dueNanos += intervalNanos;
+            }
+            while (churnDueNanos <= now && churnDueNanos < endNanos) {
+                churn();
+                churnDueNanos += churnIntervalNanos;
+            }
+        }
+        reporter.shutdownNow();
+        stats.report();
+        Thread.sleep(DRAIN_MILLIS);
+        stats.logSummary((endNanos - warmupEndNanos) / 1e9);
+    }
+
+    /**
+     * Logs a random user off and back in. It no longer sends or receives
+     * texts until it is logged in again. At least two users are always left
+     * to send to each other.
+     */
+    private void churn() {
+        if (loggedInUsers.size() <= 2)
+            return;
+        SimulatedUser user = loggedInUsers.remove(ThreadLocalRandom.current().nextInt(loggedInUsers.size()));
+        user.churn();
+    }
+
+    private void send(final long dueNanos, String padding) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<SimulatedUser> candidates = loggedInUsers;
+        SimulatedUser sender = candidates.get(random.nextInt(candidates.size()));
+        SimulatedUser receiver = candidates.get(random.nextInt(candidates.size()));
+        if (receiver == sender)
+            receiver = candidates.get((candidates.indexOf(sender) + 1) % candidates.size());
+        stats.recordSent();
+        sender.send(receiver.getUserId(), SimulatedUser.newText(dueNanos, padding))
+                .whenComplete(new BiConsumer<Message, Throwable>() {
+                    public void accept(Message response, Throwable failure) {
+                        if (failure != null)
+                            stats.recordFailure(dueNanos);
+                        else
+                            stats.recordResponse(dueNanos, response.getStatus());
+                    }
+                });
+    }
+}
@@ -0,0 +1,180 @@
+package com.rohit.ThreadSafeChat.LoadGenerator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Status;
+
+/**
+ * Counts and latency distributions of a load run. Latencies are recorded in
+ * microseconds into HdrHistogram {@link Recorder}s, which any number of
+ * threads can write to without locking; the reporting side swaps out a
+ * histogram per interval and adds it to the totals.
+ */
+public class LoadStats {
+    private static Logger logger = LoggerFactory.getLogger(LoadStats.class);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder responseLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder deliveryLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder queuedLoginWait = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Histogram totalResponseLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalDeliveryLatency = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram totalQueuedLoginWait = new Histogram(SIGNIFICANT_DIGITS);
+    private long totalSent;
+    private long totalAccepted;
+    private long totalRejected;
+    private long totalFailed;
+    private long totalDelivered;
+    private long lastSampleNanos = System.nanoTime();
+    private volatile long measuredFromNanos = lastSampleNanos;
+
+    public void recordSent() {
+        sent.increment();
+    }
+
+    /**
+     * @param dueNanos when the request was due to be sent. Latency is measured
+     *                 from then, so a generator falling behind shows up in it.
+     */
+    public void recordResponse(long dueNanos, Status status) {
+        if (dueNanos - measuredFromNanos < 0)
+            return;
+        responseLatency.recordValue(toMicros(System.nanoTime() - dueNanos));
+        if (status == Status.OK)
+            accepted.increment();
+        else
+            rejected.increment();
+    }
+
+    public void recordFailure(long dueNanos) {
+        if (dueNanos - measuredFromNanos < 0)
+            return;
+        failed.increment();
+    }
+
+    public void recordDelivery(long dueNanos) {
+        if (dueNanos - measuredFromNanos < 0)
+            return;
+        deliveryLatency.recordValue(toMicros(System.nanoTime() - dueNanos));
+        delivered.increment();
+    }
+
+    public void recordQueuedLogin(long waitNanos) {
+        queuedLoginWait.recordValue(toMicros(waitNanos));
+    }
+
+    /**
+     * Forgets everything recorded so far, at the end of the warmup. Responses
+     * and deliveries of texts which were due before {@code measuredFromNanos}
+     * are left out from now on as well.
+     */
+    public void reset(long measuredFromNanos) {
+        lock.lock();
+        try {
+            this.measuredFromNanos = measuredFromNanos;
+            sampleInterval();
+            responseLatency.reset();
+            deliveryLatency.reset();
+            queuedLoginWait.reset();
+            totalResponseLatency.reset();
+            totalDeliveryLatency.reset();
+            totalQueuedLoginWait.reset();
+            totalSent = totalAccepted = totalRejected = totalFailed = totalDelivered = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs the throughput and latencies since the last report, or the reset,
+     * and adds them to the totals.
+     */
+    public void report() {
+        lock.lock();
+        try {
+            double intervalSeconds = (System.nanoTime() - lastSampleNanos) / 1e9;
+            long[] counts = sampleInterval();
+            Histogram response = intervalHistogram(responseLatency, totalResponseLatency);
+            Histogram delivery = intervalHistogram(deliveryLatency, totalDeliveryLatency);
+            intervalHistogram(queuedLoginWait, totalQueuedLoginWait);
+            logger.info(String.format(
+                    "sent %.0f/s, ok %d, rejected %d, failed %d, delivered %.0f/s, "
+                            + "response p50 %.2f ms p99 %.2f ms, delivery p50 %.2f ms p99 %.2f ms",
+                    counts[0] / intervalSeconds, counts[1], counts[2], counts[3], counts[4] / intervalSeconds,
+                    percentileMillis(response, 50), percentileMillis(response, 99),
+                    percentileMillis(delivery, 50), percentileMillis(delivery, 99)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds what was recorded since the last report to the totals, without
+     * logging it, and logs the totals since the end of the warmup.
+     */
+    public void logSummary(double measuredSeconds) {
+        lock.lock();
+        try {
+            sampleInterval();
+            intervalHistogram(responseLatency, totalResponseLatency);
+            intervalHistogram(deliveryLatency, totalDeliveryLatency);
+            intervalHistogram(queuedLoginWait, totalQueuedLoginWait);
+            logger.info(String.format("Sent %d texts in %.1f s (%.0f/s): %d ok, %d rejected, %d failed", totalSent,
+                    measuredSeconds, totalSent / measuredSeconds, totalAccepted, totalRejected, totalFailed));
+            logger.info(String.format("Delivered %d texts (%.0f/s)", totalDelivered,
+                    totalDelivered / measuredSeconds));
+            logLatency("Response latency", totalResponseLatency);
+            logLatency("End-to-end latency", totalDeliveryLatency);
+            if (totalQueuedLoginWait.getTotalCount() > 0)
+                logLatency("Queued login wait", totalQueuedLoginWait);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long[] sampleInterval() {
+        lastSampleNanos = System.nanoTime();
+        long[] counts = { sent.sumThenReset(), accepted.sumThenReset(), rejected.sumThenReset(),
+                failed.sumThenReset(), delivered.sumThenReset() };
+        totalSent += counts[0];
+        totalAccepted += counts[1];
+        totalRejected += counts[2];
+        totalFailed += counts[3];
+        totalDelivered += counts[4];
+        return counts;
+    }
+
+    private Histogram intervalHistogram(Recorder recorder, Histogram total) {
+        Histogram interval = recorder.getIntervalHistogram();
+        total.add(interval);
+        return interval;
+    }
+
+    private static void logLatency(String name, Histogram histogram) {
+        logger.info(String.format("%s over %d samples: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms", name,
+                histogram.getTotalCount(), percentileMillis(histogram, 50), percentileMillis(histogram, 99),
+                percentileMillis(histogram, 99.9), histogram.getMaxValue() / 1000.0));
+    }
+
+    private static double percentileMillis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
@@ -0,0 +1,174 @@
+package com.rohit.ThreadSafeChat.LoadGenerator;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Client.api.ChatClient;
+import com.rohit.ThreadSafeChat.Client.api.MessageListener;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+
+/**
+ * One simulated user with its own connection. Texts carry the
+ * {@link System#nanoTime()} they were due to be sent at, so the receiving user,
+ * running in the same process, can record the end-to-end latency.
+ */
+public class SimulatedUser implements MessageListener {
+    private static Logger logger = LoggerFactory.getLogger(SimulatedUser.class);
+
+    /**
+     * Told when a user waiting in the server's login queue gets logged in, or
+     * a user logged off by {@link SimulatedUser#churn()} gets straight back in.
+     */
+    public interface AdmissionListener {
+        void admitted(SimulatedUser user);
+    }
+
+    private final String userId;
+    private final String roomName;
+    private final LoadStats stats;
+    private final AdmissionListener admissionListener;
+    private ChatClient client;
+    private volatile boolean isLoggedIn;
+    private volatile long queuedAtNanos;
+
+    /**
+     * @param roomName the room to send to, or {@code null} for private texts.
+     */
+    public SimulatedUser(String userId, String roomName, LoadStats stats, AdmissionListener admissionListener) {
+        this.userId = userId;
+        this.roomName = roomName;
+        this.stats = stats;
+        this.admissionListener = admissionListener;
+    }
+
+    public void connect(LoadConfig config, int port) throws IOException {
+        client = ChatClient.connect(config.getHostname(), port, config.getWireFormat(), this);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ChatClient getClient() {
+        return client;
+    }
+
+    public boolean getIsLoggedIn() {
+        return isLoggedIn;
+    }
+
+    /**
+     * Logs the user in, or leaves it waiting in the server's login queue.
+     *
+     * @return a future completed with the login response.
+     */
+    public CompletableFuture<Message> login() {
+        return client.login(userId).thenApply(new Function<Message, Message>() {
+            public Message apply(Message response) {
+                if (response.getStatus() == Status.OK)
+                    isLoggedIn = true;
+                else if (response.getStatus() == Status.REQUEST_QUEUED)
+                    queuedAtNanos = System.nanoTime();
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Logs the user off and straight back in, which lets in the first user
+     * waiting in the server's login queue, and makes this one queue behind the
+     * others if that took the last free slot.
+     */
+    public void churn() {
+        isLoggedIn = false;
+        client.logoff().thenCompose(new Function<Message, CompletableFuture<Message>>() {
+            public CompletableFuture<Message> apply(Message response) {
+                return login();
+            }
+        }).thenAccept(new Consumer<Message>() {
+            public void accept(Message response) {
+                if (response.getStatus() == Status.OK) {
+                    if (roomName != null)
+                        enterRoom();
+                    admissionListener.admitted(SimulatedUser.this);
+                } else if (response.getStatus() != Status.REQUEST_QUEUED) {
+                    logger.warn(response.getText());
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates the user's room, or joins it if another member got there first.
+     */
+    public CompletableFuture<Message> enterRoom() {
+        return client.createRoom(roomName).thenCompose(new Function<Message, CompletableFuture<Message>>() {
+            public CompletableFuture<Message> apply(Message response) {
+                if (response.getStatus() == Status.OK)
+                    return CompletableFuture.completedFuture(response);
+                return client.joinRoom(roomName);
+            }
+        });
+    }
+
+    /**
+     * Sends a text to another user, or to the user's room if it has one.
+     */
+    public CompletableFuture<Message> send(String receiverId, String text) {
+        if (roomName != null)
+            return client.sendRoomText(roomName, text);
+        return client.sendText(receiverId, text);
+    }
+
+    public void onMessage(Message message) {
+        MessageType messageType = message.getMessageType();
+        if (messageType == MessageType.RECEIVE_TEXT || messageType == MessageType.RECEIVE_ROOM_TEXT) {
+            long sentAtNanos = parseSendTime(message.getText());
+            if (sentAtNanos != 0)
+                stats.recordDelivery(sentAtNanos);
+        } else if (messageType == MessageType.LOGIN_RESPONSE && message.getStatus() == Status.OK && !isLoggedIn) {
+            isLoggedIn = true;
+            stats.recordQueuedLogin(System.nanoTime() - queuedAtNanos);
+            if (roomName != null)
+                enterRoom();
+            admissionListener.admitted(this);
+        }
+    }
+
+    public void onClosed(IOException cause) {
+        isLoggedIn = false;
+        if (cause != null)
+            logger.warn("Connection of {} was lost: {}", userId, cause.getMessage());
+    }
+
+    public void close() {
+        if (client != null)
+            client.close();
+    }
+
+    /**
+     * @return a text of the given length starting with the send time.
+     */
+    static String newText(long sentAtNanos, String padding) {
+        String stamp = Long.toString(sentAtNanos) + ':';
+        return stamp + padding.substring(stamp.length());
+    }
+
+    private static long parseSendTime(String text) {
+        int separator = text == null ? -1 : text.indexOf(':');
+        if (separator < 1)
+            return 0;
+        try {
+            return Long.parseLong(text.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.rohit.ThreadSafeChat.LoadGenerator;
+
+/**
+ * Who the simulated users send their texts to.
+ */
+public enum TrafficPattern {
+    /**
+     * Every text goes to one other logged in user, picked at random.
+     */
+    PRIVATE,
+    /**
+     * Users are split into rooms of {@code roomSize} members, and every text
+     * fans out to the rest of the sender's room.
+     */
+    ROOM;
+}
@@ -1,12 +1,36 @@
 package com.rohit.ThreadSafeChat.Server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rohit.ThreadSafeChat.Server.cluster.ClusterNode;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.IdleReaper;
+import com.rohit.ThreadSafeChat.Server.connection.RateLimiter;
+import com.rohit.ThreadSafeChat.Server.connection.WriterPool;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+import com.rohit.ThreadSafeChat.Server.history.HistoryStore;
 import com.rohit.ThreadSafeChat.Server.listener.ServerListener;
+import com.rohit.ThreadSafeChat.Server.metrics.MetricsEndpoint;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.reactor.Reactor;
+import com.rohit.ThreadSafeChat.Server.registry.PresenceRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.SessionRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.TransferRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.UserRegistry;
+import com.rohit.ThreadSafeChat.Server.search.SearchIndex;
+import com.rohit.ThreadSafeChat.Server.store.OfflineMessageStore;
+import com.rohit.ThreadSafeChat.Server.store.RegistrationStore;
+import com.rohit.ThreadSafeChat.Server.util.ServerSockets;
+import com.rohit.ThreadSafeChat.Server.util.VirtualThreads;
 
 public class Server {
     public static Logger logger = LoggerFactory.getLogger(Server.class);
@@ -14,18 +38,87 @@ public class Server {
     public static void main(String[] args) throws IOException {
         if (args.length != 1)
             throw new IllegalArgumentException();
-        int port = Integer.parseInt(args[0]);
-        ServerSocket serverSocket = new ServerSocket(port);
-        logger.info("Server Socket established successfully!");
+        ServerConfig config = ServerConfig.fromSystemProperties(Integer.parseInt(args[0]));
+        ServerMetrics metrics = new ServerMetrics();
+        ClusterNode clusterNode = config.getClusterNodeList().length > 0 ? new ClusterNode(config, metrics) : null;
+        UserRegistry userRegistry = new UserRegistry(config.getMaxLoggedInUsers());
+        RequestHandler requestHandler = new RequestHandler.Builder()
+                .withOfflineMessageStore(OfflineMessageStore.open(config))
+                .withFanOutCodec(config.getWireFormat().getCodec())
+                .withHistoryStore(HistoryStore.open(config))
+                .withMaxHistoryPageSize(config.getMaxHistoryPageSize()).withMetrics(metrics)
+                .withUserRegistry(userRegistry)
+                .withRegistrationStore(RegistrationStore.open(config, userRegistry, metrics))
+                .withAdmissionQueueCapacity(config.getAdmissionQueueCapacity())
+                .withAdmissionTimeoutMillis(TimeUnit.SECONDS.toMillis(config.getAdmissionTimeoutSeconds()))
+                .withAdmissionUpdateIntervalMillis(
+                        TimeUnit.SECONDS.toMillis(config.getAdmissionUpdateIntervalSeconds()))
+                .withClusterNode(clusterNode).withSessionRegistry(SessionRegistry.open(config, metrics))
+                .withCompressionThreshold(config.getCompressionThresholdBytes())
+                .withIdleReaper(IdleReaper.open(config, metrics)).withRateLimiter(RateLimiter.open(config))
+                .withPresenceRegistry(
+                        PresenceRegistry.open(config, userRegistry, config.getWireFormat().getCodec(), metrics))
+                .withTransferRegistry(TransferRegistry.open(config, metrics))
+                .withSearchIndex(SearchIndex.open(config, metrics))
+                .build();
+        logger.info("Starting server in {} mode using {} wire format", config.getExecutionMode(),
+                config.getWireFormat());
+        if (clusterNode != null)
+            clusterNode.start(requestHandler);
+        scheduleStatsLogging(config, metrics);
+        metrics.registerMBean();
+        if (config.getMetricsPort() > 0)
+            MetricsEndpoint.start(config.getMetricsPort(), metrics);
 
+        switch (config.getExecutionMode()) {
+        case REACTOR:
+            new Reactor(config, requestHandler, metrics).serve();
+            break;
+        case VIRTUAL:
+            serveWithThreadPerConnection(config, requestHandler, metrics,
+                    VirtualThreads.newThreadFactory("listener-"), null);
+            break;
+        default:
+            serveWithThreadPerConnection(config, requestHandler, metrics, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable);
+                }
+            }, WriterPool.open(config));
+        }
+    }
+
+    private static void serveWithThreadPerConnection(ServerConfig config, RequestHandler requestHandler,
+            ServerMetrics metrics, ThreadFactory threadFactory, WriterPool writerPool) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
         try {
+            serverSocketChannel.bind(new InetSocketAddress(config.getPort()));
+            logger.info("Server Socket established successfully!");
             while (true) {
-                new Thread(new ServerListener(serverSocket.accept())).start();
+                threadFactory.newThread(new ServerListener(ServerSockets.accept(serverSocketChannel), config,
+                        requestHandler, threadFactory, writerPool, metrics)).start();
             }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         } finally {
-            serverSocket.close();
+            serverSocketChannel.close();
         }
     }
+
+    private static void scheduleStatsLogging(ServerConfig config, final ServerMetrics metrics) {
+        if (config.getStatsIntervalSeconds() <= 0)
+            return;
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "stats-logger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                logger.info("Write stats: {}", metrics.getWriteStats());
+                logger.info("Compression stats: {}", metrics.getCompressionStats());
+            }
+        }, config.getStatsIntervalSeconds(), config.getStatsIntervalSeconds(), TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,535 @@
+package com.rohit.ThreadSafeChat.Server.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.connection.DeliveryWindow;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.registry.ConversationRegistry;
+import com.rohit.ThreadSafeChat.Server.util.ResponseMessages;
+
+/**
+ * This server's place in a cluster of servers listed in the same order in
+ * every node's {@code clusterNodes}. There is no coordinator: the list is the
+ * membership, and every node works out for itself which node owns what by
+ * rendezvous hashing the key over it. A user's home node owns its
+ * registration, its login and its offline mailbox; a conversation's node
+ * numbers its texts and keeps its history; a room's node keeps its members.
+ * Adding a node at the end of the list only moves the keys the new node wins.
+ *
+ * A request from a client of this node which another node owns is forwarded
+ * there, and handled by the ordinary {@link RequestHandler} with a
+ * {@link RemoteSession} standing in for the client. As a user can only be
+ * bound to one connection or session at its home node, a user can only be
+ * logged in once in the whole cluster; the session of a client which lost its
+ * connection is held there too, so it can be resumed through any node. A text
+ * is forwarded to the node of its conversation, which routes it to the
+ * receiver's home node and answers the sender once the outcome comes back,
+ * without a thread waiting for it; the home node delivers it to whichever node
+ * the receiver is connected to, or stores it.
+ *
+ * Links are only accepted from nodes which introduce themselves with the
+ * {@code clusterSecret} every node is configured with.
+ *
+ * Nodes are linked pairwise, one {@link PeerLink} each way. A node is up while
+ * the link to it is. Nothing is replicated: while a node is down, whatever it
+ * owns is unavailable, and clients of this node whose user is homed there are
+ * disconnected so that they log in again once it is back.
+ */
+public class ClusterNode {
+    private static Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final int nodeId;
+    private final InetSocketAddress[] addresses;
+    private final PeerLink[] links;
+    private final AtomicReferenceArray<InboundLink> inboundLinks;
+    private final ConcurrentMap<Long, ClientConnection> localSessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, PendingRoute> pendingRoutes = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final AtomicInteger nodesUp = new AtomicInteger(1);
+    private final ScheduledThreadPoolExecutor routeTimer;
+    private volatile RequestHandler requestHandler;
+
+    public ClusterNode(ServerConfig config, ServerMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.nodeId = config.getNodeId();
+        String[] nodes = config.getClusterNodeList();
+        this.addresses = new InetSocketAddress[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            int separator = nodes[i].lastIndexOf(':');
+            if (separator < 1)
+                throw new IllegalArgumentException("Cluster nodes must be given as host:port, not " + nodes[i]);
+            addresses[i] = new InetSocketAddress(nodes[i].substring(0, separator),
+                    Integer.parseInt(nodes[i].substring(separator + 1)));
+        }
+        this.links = new PeerLink[nodes.length];
+        LinkListener linkListener = new LinkListener();
+        for (int i = 0; i < nodes.length; i++) {
+            if (i != nodeId)
+                links[i] = new PeerLink(nodeId, i, addresses[i], config.getClusterSecret(),
+                        config.getClusterQueueCapacity(), linkListener);
+        }
+        this.inboundLinks = new AtomicReferenceArray<InboundLink>(nodes.length);
+        // Most texts are routed well within the timeout, so cancelled
+        // timeouts are dropped at once rather than left to pile up.
+        this.routeTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cluster-route-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        routeTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts listening for the other nodes and connecting to them. Requests
+     * are handled by the given handler, which must have been built with this
+     * node.
+     */
+    public void start(RequestHandler requestHandler) throws IOException {
+        this.requestHandler = requestHandler;
+        final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(addresses[nodeId].getPort()));
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept(serverSocketChannel);
+            }
+        }, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            if (link == null)
+                continue;
+            Thread writer = new Thread(link, "cluster-link-" + link.getNodeId());
+            writer.setDaemon(true);
+            writer.start();
+        }
+        metrics.registerGauge("cluster_nodes_up", new ServerMetrics.Gauge() {
+            public long read() {
+                return nodesUp.get();
+            }
+        });
+        logger.info("Node {} of {} listening for cluster links on {}", nodeId, addresses.length, addresses[nodeId]);
+    }
+
+    private void accept(ServerSocketChannel serverSocketChannel) {
+        try {
+            while (true) {
+                SocketChannel channel = serverSocketChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                Thread reader = new Thread(new InboundLink(this, channel, config.getClusterQueueCapacity()),
+                        "cluster-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            logger.error("Stopped accepting cluster links", e);
+        }
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    RequestHandler getRequestHandler() {
+        return requestHandler;
+    }
+
+    boolean isPeer(long nodeId) {
+        return nodeId >= 0 && nodeId < addresses.length && nodeId != this.nodeId;
+    }
+
+    /**
+     * @return whether a node introduced itself with the cluster's secret,
+     *         compared in constant time.
+     */
+    boolean isClusterSecret(String secret) {
+        return secret != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                config.getClusterSecret().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the node owning the key, the one scoring highest for it.
+     */
+    public int ownerOf(String key) {
+        long hash = key.hashCode() & 0xffffffffL;
+        int owner = 0;
+        long highestScore = Long.MIN_VALUE;
+        for (int i = 0; i < addresses.length; i++) {
+            long score = mix(((long) i << 32) | hash);
+            if (score > highestScore) {
+                highestScore = score;
+                owner = i;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * The SplitMix64 finaliser, spreading node and key bits over the score.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return whether the user is homed on this node.
+     */
+    public boolean isHome(String userId) {
+        return ownerOf(userId) == nodeId;
+    }
+
+    /**
+     * @return {@code false} if the connection stands in for a client of
+     *         another node.
+     */
+    public boolean isConnectedHere(ClientConnection connection) {
+        return !(connection instanceof RemoteSession);
+    }
+
+    /**
+     * Forwards a client's request to the node owning it, or answers that the
+     * node cannot be reached.
+     *
+     * @return {@code false} if this node owns the request, which must then be
+     *         handled here.
+     */
+    public boolean forward(Message request, ClientConnection connection) {
+        if (connection instanceof RemoteSession)
+            return false;
+        String key = ownerKeyOf(request, connection);
+        if (key == null)
+            return false;
+        int owner = ownerOf(key);
+        if (owner == nodeId)
+            return false;
+        localSessions.putIfAbsent(connection.getConnectionId(), connection);
+        if (!links[owner].forward(connection.getConnectionId(), connection.getUserId(), request))
+            connection.send(newUnavailableResponse(request));
+        return true;
+    }
+
+    /**
+     * Requests are owned by the home of their user, conversation or room.
+     * Presence subscriptions go to the home of the user subscribed to, where
+     * it logs in and off. Those missing what they are about are answered wherever they arrive.
+     */
+    private static String ownerKeyOf(Message request, ClientConnection connection) {
+        switch (request.getMessageType()) {
+        case USER_REGISTRATION_REQUEST:
+        case USER_LOGIN_REQUEST:
+        case USER_LOGOFF_REQUEST:
+        case SESSION_RESUME_REQUEST:
+            return request.getSenderId();
+        case SEND_TEXT_REQUEST:
+            if (request.getSenderId() == null || request.getReceiverId() == null)
+                return null;
+            return ConversationRegistry.keyOf(request.getSenderId(), request.getReceiverId());
+        case HISTORY_REQUEST:
+            if (connection.getUserId() == null || request.getReceiverId() == null)
+                return null;
+            return ConversationRegistry.keyOf(connection.getUserId(), request.getReceiverId());
+        case ROOM_CREATE_REQUEST:
+        case ROOM_JOIN_REQUEST:
+        case ROOM_LEAVE_REQUEST:
+        case SEND_ROOM_TEXT_REQUEST:
+        case PRESENCE_SUBSCRIBE_REQUEST:
+        case PRESENCE_UNSUBSCRIBE_REQUEST:
+            return request.getReceiverId();
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Routes a numbered text to its receiver's home node. Never waits: the
+     * outcome completes once that node answers, or with {@code SERVER_BUSY}
+     * if it is down or has not answered within
+     * {@code clusterRequestTimeoutMillis}. It may complete on a cluster
+     * thread, which must not be held up.
+     *
+     * @return the outcome, carrying a status and a text for the sender, or
+     *         {@code null} if the receiver is homed on this node, and the text
+     *         must be routed here.
+     */
+    public CompletableFuture<Message> route(final Message text) {
+        final int home = ownerOf(text.getReceiverId());
+        if (home == nodeId)
+            return null;
+        final long requestId = nextRequestId.getAndIncrement();
+        final PendingRoute pendingRoute = new PendingRoute(home);
+        pendingRoutes.put(requestId, pendingRoute);
+        if (!links[home].route(requestId, text))
+            pendingRoute.outcome.completeExceptionally(new IOException("Node " + home + " is down"));
+        final ScheduledFuture<?> timeout = routeTimer.schedule(new Runnable() {
+            public void run() {
+                pendingRoute.outcome.completeExceptionally(new TimeoutException(
+                        "No answer within " + config.getClusterRequestTimeoutMillis() + " ms"));
+            }
+        }, config.getClusterRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+        return pendingRoute.outcome.handle(new BiFunction<Message, Throwable, Message>() {
+            public Message apply(Message outcome, Throwable error) {
+                pendingRoutes.remove(requestId);
+                timeout.cancel(false);
+                if (error == null)
+                    return outcome;
+                logger.warn("Could not route a text to {} on node {}: {}", text.getReceiverId(), home,
+                        error.toString());
+                Message unavailable = new Message();
+                setUnavailable(unavailable, text.getReceiverId());
+                return unavailable;
+            }
+        });
+    }
+
+    /**
+     * Sends texts to be stored to the home node of their receiver.
+     *
+     * @return {@code false} if the receiver is homed on this node, and the
+     *         texts must be stored here.
+     */
+    public boolean store(String receiverId, List<Message> texts) {
+        int home = ownerOf(receiverId);
+        if (home == nodeId)
+            return false;
+        int lost = 0;
+        for (Message text : texts) {
+            if (!links[home].store(text))
+                lost++;
+        }
+        if (lost > 0)
+            logger.warn("{} texts to {} were lost as node {} is down", lost, receiverId, home);
+        return true;
+    }
+
+    /**
+     * Tells the other nodes that a client of this node has logged off, so that
+     * it leaves the rooms they own.
+     */
+    public void loggedOff(ClientConnection connection) {
+        if (!(connection instanceof RemoteSession) && localSessions.containsKey(connection.getConnectionId()))
+            broadcast(MessageType.CLUSTER_LOGGED_OFF, connection.getConnectionId());
+    }
+
+    /**
+     * Tells the other nodes that a client of this node has gone away, so that
+     * they release whatever they hold on its behalf.
+     */
+    public void connectionClosed(ClientConnection connection) {
+        if (!(connection instanceof RemoteSession) && localSessions.remove(connection.getConnectionId()) != null)
+            broadcast(MessageType.CLUSTER_SESSION_CLOSED, connection.getConnectionId());
+    }
+
+    private void broadcast(MessageType messageType, long sessionId) {
+        Message control = new Message.Builder().withMessageType(messageType).withSequenceNumber(sessionId).build();
+        for (PeerLink link : links) {
+            if (link != null)
+                link.send(control);
+        }
+    }
+
+    RemoteSession newRemoteSession(int nodeId, long sessionId) {
+        return new RemoteSession(config, metrics, links[nodeId], sessionId);
+    }
+
+    /**
+     * Handles a message from another node which never waits on a third one.
+     */
+    void handle(int fromNodeId, Message header, Message payload) {
+        switch (header.getMessageType()) {
+        case CLUSTER_DELIVERY:
+            handleDelivery(header, payload);
+            break;
+        case CLUSTER_ROUTE:
+            Message outcome = requestHandler.routeForwardedText(payload);
+            outcome.setMessageType(MessageType.CLUSTER_ROUTE_RESPONSE);
+            outcome.setCorrelationId(header.getCorrelationId());
+            if (!links[fromNodeId].send(outcome))
+                logger.debug("Could not answer node {} as it is down", fromNodeId);
+            break;
+        case CLUSTER_ROUTE_RESPONSE:
+            PendingRoute pendingRoute = pendingRoutes.get(header.getCorrelationId());
+            if (pendingRoute != null)
+                pendingRoute.outcome.complete(header);
+            break;
+        case CLUSTER_STORE:
+            requestHandler.storeForwardedTexts(payload.getReceiverId(), Collections.singletonList(payload));
+            break;
+        default:
+            logger.warn("Unexpected {} from node {}", header.getMessageType(), fromNodeId);
+        }
+    }
+
+    /**
+     * Queues a message from the node owning a request on the client's real
+     * connection. Private texts which cannot be queued, or whose client has
+     * gone, are sent back to be stored. Logins, resumed sessions and logoffs a
+     * client's request led to are noted on its connection before it hears of
+     * them.
+     */
+    private void handleDelivery(Message header, Message message) {
+        ClientConnection connection = localSessions.get(header.getSequenceNumber());
+        boolean isTracked = DeliveryWindow.isTracked(message);
+        if (connection == null) {
+            if (isTracked)
+                storeEverywhere(message);
+            return;
+        }
+        switch (header.getPageSize()) {
+        case PeerLink.SEND:
+            if (message.getStatus() == Status.OK && (message.getMessageType() == MessageType.LOGIN_RESPONSE
+                    || message.getMessageType() == MessageType.SESSION_RESUME_RESPONSE)) {
+                connection.setUserId(message.getReceiverId());
+            } else if (message.getStatus() == Status.OK
+                    && message.getMessageType() == MessageType.LOGOFF_RESPONSE) {
+                connection.setUserId(null);
+                requestHandler.leaveAll(connection);
+                loggedOff(connection);
+            }
+            connection.send(message);
+            break;
+        case PeerLink.DELIVER:
+            if (!connection.deliver(message) && isTracked)
+                storeEverywhere(message);
+            break;
+        default:
+            if (!connection.tryDeliver(message) && isTracked)
+                storeEverywhere(message);
+        }
+    }
+
+    /**
+     * Stores a text at its receiver's home, whether that is here or not.
+     */
+    private void storeEverywhere(Message text) {
+        List<Message> texts = Collections.singletonList(text);
+        if (!store(text.getReceiverId(), texts))
+            requestHandler.storeForwardedTexts(text.getReceiverId(), texts);
+    }
+
+    void inboundOpened(InboundLink link) {
+        InboundLink previous = inboundLinks.getAndSet(link.getNodeId(), link);
+        if (previous != null)
+            previous.close();
+    }
+
+    /**
+     * Called once the sessions of the link are gone. Unless the node has
+     * already linked up again, answers to its routing requests will not come,
+     * and the way back to it is dropped as well.
+     */
+    void inboundClosed(InboundLink link) {
+        if (!inboundLinks.compareAndSet(link.getNodeId(), link, null))
+            return;
+        failPendingRoutes(link.getNodeId());
+        if (links[link.getNodeId()] != null)
+            links[link.getNodeId()].reset();
+    }
+
+    private void failPendingRoutes(int downNodeId) {
+        for (PendingRoute pendingRoute : pendingRoutes.values()) {
+            if (pendingRoute.nodeId == downNodeId)
+                pendingRoute.outcome.completeExceptionally(new IOException("Node " + downNodeId + " is down"));
+        }
+    }
+
+    private static Message newUnavailableResponse(Message request) {
+        Message response = new Message();
+        response.setMessageType(responseTypeOf(request.getMessageType()));
+        response.setReceiverId(request.getSenderId());
+        response.setCorrelationId(request.getCorrelationId());
+        setUnavailable(response, request.getReceiverId() != null ? request.getReceiverId() : request.getSenderId());
+        return response;
+    }
+
+    private static void setUnavailable(Message response, String subject) {
+        response.setStatus(Status.SERVER_BUSY);
+        response.setText(String.format(ResponseMessages.NODE_UNAVAILABLE, subject));
+    }
+
+    private static MessageType responseTypeOf(MessageType requestType) {
+        MessageType responseType = requestType.getResponseType();
+        if (responseType == null)
+            throw new IllegalArgumentException(requestType + " is not forwarded");
+        return responseType;
+    }
+
+    private class LinkListener implements PeerLink.Listener {
+        public void linkUp(PeerLink link) {
+            nodesUp.incrementAndGet();
+            logger.info("Cluster link to node {} is up", link.getNodeId());
+        }
+
+        /**
+         * Disconnects the clients whose user is homed on the node, fails
+         * routing requests waiting on it, and settles what was never sent:
+         * texts go back to be stored and forwarded requests are answered.
+         */
+        public void linkDown(PeerLink link, List<Message[]> unsent) {
+            nodesUp.decrementAndGet();
+            int downNodeId = link.getNodeId();
+            failPendingRoutes(downNodeId);
+            for (ClientConnection connection : localSessions.values()) {
+                String userId = connection.getUserId();
+                if (userId != null && ownerOf(userId) == downNodeId)
+                    connection.close();
+            }
+            for (Message[] frames : unsent) {
+                if (frames.length < 2)
+                    continue;
+                if (frames[0].getMessageType() == MessageType.CLUSTER_DELIVERY && DeliveryWindow.isTracked(frames[1]))
+                    storeEverywhere(frames[1]);
+                else if (frames[0].getMessageType() == MessageType.CLUSTER_REQUEST) {
+                    ClientConnection connection = localSessions.get(frames[0].getSequenceNumber());
+                    if (connection != null)
+                        connection.send(newUnavailableResponse(frames[1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * A routing request waiting for the receiver's home node to answer.
+     */
+    private static class PendingRoute {
+        private final int nodeId;
+        private final CompletableFuture<Message> outcome = new CompletableFuture<Message>();
+
+        private PendingRoute(int nodeId) {
+            this.nodeId = nodeId;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.rohit.ThreadSafeChat.Server.cluster;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.transport.FramedTransport;
+import com.rohit.ThreadSafeChat.Common.transport.MessageTransport;
+import com.rohit.ThreadSafeChat.Server.exception.InvalidRequestMessageException;
+
+/**
+ * Inbound half of the link from another node, which must first introduce
+ * itself with the cluster's secret. The reader thread handles deliveries to
+ * this node's clients, texts to route or store, and answers to routing
+ * requests. Requests forwarded from the other node's clients go to a worker
+ * thread which handles them, and the session changes that follow them, in the
+ * order they arrived. Texts among them are routed on without waiting for the
+ * answer, so the worker is never stuck behind one, and the reader, which
+ * completes them, never behind a request.
+ *
+ * The worker keeps a {@link RemoteSession} for every client of the other node
+ * which had a request handled here. When the link goes away so do they, as if
+ * those clients had all disconnected.
+ */
+class InboundLink implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(InboundLink.class);
+    private static final Message[] CLOSED = new Message[0];
+
+    private final ClusterNode clusterNode;
+    private final MessageTransport transport;
+    private final BlockingQueue<Message[]> requests;
+    private final Map<Long, RemoteSession> sessions = new HashMap<Long, RemoteSession>();
+    private int nodeId = -1;
+
+    InboundLink(ClusterNode clusterNode, SocketChannel channel, int queueCapacity) {
+        this.clusterNode = clusterNode;
+        this.transport = new FramedTransport(channel, new BinaryMessageCodec());
+        this.requests = new ArrayBlockingQueue<Message[]>(queueCapacity);
+    }
+
+    int getNodeId() {
+        return nodeId;
+    }
+
+    void close() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.debug("Could not close a cluster link", e);
+        }
+    }
+
+    public void run() {
+        try {
+            Message hello = transport.readMessage();
+            if (hello.getMessageType() != MessageType.CLUSTER_HELLO || hello.getSequenceNumber() == null
+                    || !clusterNode.isPeer(hello.getSequenceNumber())) {
+                logger.warn("Dropping a cluster link which did not introduce itself as a peer");
+                return;
+            }
+            if (!clusterNode.isClusterSecret(hello.getText())) {
+                logger.warn("Dropping a cluster link from {} which did not know the cluster secret",
+                        hello.getSequenceNumber());
+                return;
+            }
+            transport.writeMessage(new Message.Builder().withMessageType(MessageType.CLUSTER_HELLO)
+                    .withSequenceNumber((long) clusterNode.getNodeId()).build());
+            nodeId = hello.getSequenceNumber().intValue();
+            clusterNode.inboundOpened(this);
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    handleRequests();
+                }
+            }, "cluster-worker-" + nodeId);
+            worker.setDaemon(true);
+            worker.start();
+            try {
+                while (true) {
+                    Message header = transport.readMessage();
+                    MessageType type = header.getMessageType();
+                    Message payload = hasPayload(type) ? transport.readMessage() : null;
+                    if (type == MessageType.CLUSTER_REQUEST || type == MessageType.CLUSTER_LOGGED_OFF
+                            || type == MessageType.CLUSTER_SESSION_CLOSED)
+                        requests.put(new Message[] { header, payload });
+                    else
+                        clusterNode.handle(nodeId, header, payload);
+                }
+            } finally {
+                requests.put(CLOSED);
+            }
+        } catch (IOException e) {
+            logger.info("Cluster link from node {} closed: {}", nodeId, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private static boolean hasPayload(MessageType type) {
+        return type == MessageType.CLUSTER_REQUEST || type == MessageType.CLUSTER_DELIVERY
+                || type == MessageType.CLUSTER_ROUTE || type == MessageType.CLUSTER_STORE;
+    }
+
+    private void handleRequests() {
+        try {
+            while (true) {
+                Message[] request = requests.take();
+                if (request == CLOSED)
+                    break;
+                try {
+                    handleRequest(request[0], request[1]);
+                } catch (RuntimeException e) {
+                    logger.error("Could not handle a request from node " + nodeId, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (RemoteSession session : new ArrayList<RemoteSession>(sessions.values()))
+                closeSession(session);
+            sessions.clear();
+            clusterNode.inboundClosed(this);
+        }
+    }
+
+    private void handleRequest(Message header, Message payload) {
+        Long sessionId = header.getSequenceNumber();
+        RemoteSession session = sessions.get(sessionId);
+        switch (header.getMessageType()) {
+        case CLUSTER_REQUEST:
+            if (session == null) {
+                session = clusterNode.newRemoteSession(nodeId, sessionId);
+                sessions.put(sessionId, session);
+            }
+            // Requests pipelined behind a login still come without a user, and
+            // must not undo the login on the node which owns it. Logoffs
+            // clear the user themselves.
+            if (header.getSenderId() != null)
+                session.setUserId(header.getSenderId());
+            try {
+                clusterNode.getRequestHandler().processMessage(payload, session);
+            } catch (InvalidRequestMessageException e) {
+                logger.warn("Node {} forwarded an invalid request", nodeId);
+            }
+            break;
+        case CLUSTER_LOGGED_OFF:
+            if (session != null) {
+                clusterNode.getRequestHandler().leaveAll(session);
+                session.setUserId(null);
+            }
+            break;
+        case CLUSTER_SESSION_CLOSED:
+            if (session != null) {
+                sessions.remove(sessionId);
+                closeSession(session);
+            }
+            break;
+        default:
+            logger.warn("Unexpected {} from node {}", header.getMessageType(), nodeId);
+        }
+    }
+
+    private void closeSession(RemoteSession session) {
+        session.close();
+        clusterNode.getRequestHandler().connectionClosed(session);
+    }
+}
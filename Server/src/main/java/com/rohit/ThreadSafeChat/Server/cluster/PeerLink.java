@@ -0,0 +1,215 @@
+package com.rohit.ThreadSafeChat.Server.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.transport.FramedTransport;
+import com.rohit.ThreadSafeChat.Common.transport.MessageTransport;
+
+/**
+ * Outbound half of the link to another node. A single TCP connection carries
+ * everything this node has for that one, multiplexed by session and request
+ * id: forwarded client requests, deliveries to its clients, and texts to route
+ * or store. Callers only queue; the writer thread takes whatever has piled up,
+ * up to {@value #MAX_BATCH} frames, and writes it with one flush, so the link
+ * batches under load without delaying a lone message. The writer also opens
+ * the connection, introducing this node with the cluster secret and waiting
+ * for the other to let it in, and reopens it after a failure.
+ *
+ * While the link is down nothing is queued and callers are told straight away.
+ * Whatever was still queued when it failed is handed to the {@link Listener}.
+ *
+ * A client message travels behind a CLUSTER_* header frame giving its context:
+ * the id of the client's connection on its own node as
+ * {@code sequenceNumber}, the user logged in over it as {@code senderId}, how
+ * a delivery is to be queued as {@code pageSize}, and the id of a routing
+ * request as {@code correlationId}.
+ */
+class PeerLink implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(PeerLink.class);
+    static final int SEND = 0;
+    static final int DELIVER = 1;
+    static final int TRY_DELIVER = 2;
+    private static final int MAX_BATCH = 256;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    interface Listener {
+        void linkUp(PeerLink link);
+
+        /**
+         * @param unsent header and message pairs, or single control messages,
+         *               which were queued but never written.
+         */
+        void linkDown(PeerLink link, List<Message[]> unsent);
+    }
+
+    private final int localNodeId;
+    private final int nodeId;
+    private final InetSocketAddress address;
+    private final String clusterSecret;
+    private final BlockingQueue<Message[]> queue;
+    private final Listener listener;
+    private volatile boolean isConnected;
+    private volatile MessageTransport transport;
+
+    PeerLink(int localNodeId, int nodeId, InetSocketAddress address, String clusterSecret, int queueCapacity,
+            Listener listener) {
+        this.localNodeId = localNodeId;
+        this.nodeId = nodeId;
+        this.address = address;
+        this.clusterSecret = clusterSecret;
+        this.queue = new ArrayBlockingQueue<Message[]>(queueCapacity);
+        this.listener = listener;
+    }
+
+    int getNodeId() {
+        return nodeId;
+    }
+
+    boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * Hands a message for one of the node's clients back to it.
+     *
+     * @param mode {@link #SEND}, {@link #DELIVER} or {@link #TRY_DELIVER}, after
+     *             the {@code ClientConnection} method the node is to use.
+     */
+    boolean deliver(long sessionId, int mode, Message message) {
+        Message header = new Message.Builder().withMessageType(MessageType.CLUSTER_DELIVERY)
+                .withSequenceNumber(sessionId).withPageSize(mode).build();
+        return offer(header, message);
+    }
+
+    /**
+     * Passes a client's request on to the node owning it.
+     */
+    boolean forward(long sessionId, String userId, Message request) {
+        Message header = new Message.Builder().withMessageType(MessageType.CLUSTER_REQUEST)
+                .withSequenceNumber(sessionId).withSenderId(userId).build();
+        return offer(header, request);
+    }
+
+    /**
+     * Asks the node to route a numbered text to its receiver, which is homed
+     * there. It answers with a {@code CLUSTER_ROUTE_RESPONSE} carrying the
+     * request id.
+     */
+    boolean route(long requestId, Message text) {
+        Message header = new Message.Builder().withMessageType(MessageType.CLUSTER_ROUTE)
+                .withCorrelationId(requestId).build();
+        return offer(header, text);
+    }
+
+    /**
+     * Asks the node to keep a text in the offline mailbox of its receiver.
+     */
+    boolean store(Message text) {
+        return offer(new Message.Builder().withMessageType(MessageType.CLUSTER_STORE).build(), text);
+    }
+
+    boolean send(Message control) {
+        return offer(control);
+    }
+
+    private boolean offer(Message... frames) {
+        return isConnected && queue.offer(frames);
+    }
+
+    /**
+     * Drops the connection, if there is one, so that it is opened afresh. An
+     * empty batch wakes the writer up in case it is idle.
+     */
+    void reset() {
+        MessageTransport current = transport;
+        if (current != null) {
+            closeQuietly(current);
+            queue.offer(new Message[0]);
+        }
+    }
+
+    public void run() {
+        List<Message[]> groups = new ArrayList<Message[]>();
+        List<Message> batch = new ArrayList<Message>();
+        try {
+            while (true) {
+                MessageTransport current = connect();
+                transport = current;
+                isConnected = true;
+                listener.linkUp(this);
+                try {
+                    while (true) {
+                        groups.add(queue.take());
+                        queue.drainTo(groups, MAX_BATCH - 1);
+                        for (Message[] group : groups) {
+                            for (Message frame : group)
+                                batch.add(frame);
+                        }
+                        current.writeMessages(batch);
+                        groups.clear();
+                        batch.clear();
+                    }
+                } catch (IOException e) {
+                    isConnected = false;
+                    transport = null;
+                    closeQuietly(current);
+                    List<Message[]> unsent = new ArrayList<Message[]>(groups);
+                    queue.drainTo(unsent);
+                    groups.clear();
+                    batch.clear();
+                    logger.warn("Cluster link to node {} at {} is down: {}", nodeId, address, e.toString());
+                    listener.linkDown(this, unsent);
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private MessageTransport connect() throws InterruptedException {
+        Message hello = new Message.Builder().withMessageType(MessageType.CLUSTER_HELLO)
+                .withSequenceNumber((long) localNodeId).withText(clusterSecret).build();
+        while (true) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open(address);
+                channel.socket().setTcpNoDelay(true);
+                MessageTransport connected = new FramedTransport(channel, new BinaryMessageCodec());
+                connected.writeMessage(hello);
+                // The node answers once it has let the link in, and closes it
+                // otherwise, so that nothing is sent down a link it dropped.
+                Message answer = connected.readMessage();
+                if (answer.getMessageType() != MessageType.CLUSTER_HELLO)
+                    throw new IOException("Node answered the hello with " + answer.getMessageType());
+                return connected;
+            } catch (IOException e) {
+                logger.debug("Could not connect to node {} at {}: {}", nodeId, address, e.toString());
+                if (channel != null)
+                    closeQuietly(channel);
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Could not close a cluster link", e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.rohit.ThreadSafeChat.Server.cluster;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Stand-in for a client connected to another node, used when this node owns
+ * one of its requests. It can be logged in, join rooms and wait for admission
+ * like any other connection, but whatever is sent to it is written to the link
+ * back to the client's node, which queues it on the real connection.
+ *
+ * A delivery counts as accepted once it is queued on the link. The client's
+ * node sends private texts it cannot queue back to be stored, so they are
+ * redelivered later rather than lost.
+ */
+class RemoteSession extends ClientConnection {
+    private final PeerLink link;
+    private final long sessionId;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    RemoteSession(ServerConfig config, ServerMetrics metrics, PeerLink link, long sessionId) {
+        super(config, metrics);
+        this.link = link;
+        this.sessionId = sessionId;
+    }
+
+    long getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public void send(Message message) {
+        if (!isClosed())
+            link.deliver(sessionId, PeerLink.SEND, message);
+    }
+
+    @Override
+    public boolean deliver(Message message) {
+        return !isClosed() && link.deliver(sessionId, PeerLink.DELIVER, message);
+    }
+
+    @Override
+    public boolean tryDeliver(Message message) {
+        return !isClosed() && link.deliver(sessionId, PeerLink.TRY_DELIVER, message);
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true))
+            metrics.recordConnectionClosed();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed.get();
+    }
+
+    @Override
+    protected void onMessageQueued() {
+    }
+
+    @Override
+    protected boolean canBlock() {
+        return false;
+    }
+}
@@ -0,0 +1,17 @@
+package com.rohit.ThreadSafeChat.Server.config;
+
+/**
+ * What happens to a text routed to a user whose outbound queue is full.
+ */
+public enum BackpressurePolicy {
+    /**
+     * The sender waits for room, up to the configured send timeout, and is told
+     * the receiver is busy if none frees up. Event loop threads never wait, so
+     * in reactor mode this behaves like {@link #FAIL}.
+     */
+    BLOCK,
+    /** The text is discarded without telling the sender. */
+    DROP,
+    /** The sender is immediately told the receiver is busy. */
+    FAIL;
+}
@@ -0,0 +1,16 @@
+package com.rohit.ThreadSafeChat.Server.config;
+
+/**
+ * How the server drives client connections.
+ */
+public enum ExecutionMode {
+    /** One platform thread blocked in a {@code ServerListener} per connection. */
+    THREAD,
+    /**
+     * Same blocking {@code ServerListener}, but run on a virtual thread. Needs
+     * JDK 21 or later.
+     */
+    VIRTUAL,
+    /** A small pool of selector based event loops owning every socket. */
+    REACTOR;
+}
@@ -0,0 +1,116 @@
+package com.rohit.ThreadSafeChat.Server.config;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+
+/**
+ * Rates at which requests of each {@link MessageType} are accepted, written as
+ * comma separated {@code TYPE=rate/burst} entries: {@code rate} requests per
+ * second on average, with up to {@code burst} at once. The burst defaults to
+ * the rate, rounded up. Types without an entry are not limited.
+ *
+ * Each limited type gets a slot, so that buckets only hold state for those.
+ */
+public class RateLimits {
+    public static final RateLimits NONE = new RateLimits(new MessageType[0], new double[0], new int[0]);
+
+    private final int[] slots = new int[MessageType.values().length];
+    private final MessageType[] types;
+    private final long[] intervalNanos;
+    private final long[] toleranceNanos;
+    private final String spec;
+
+    private RateLimits(MessageType[] types, double[] rates, int[] bursts) {
+        Arrays.fill(slots, -1);
+        this.types = types;
+        this.intervalNanos = new long[types.length];
+        this.toleranceNanos = new long[types.length];
+        StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            slots[types[i].ordinal()] = i;
+            intervalNanos[i] = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rates[i]));
+            toleranceNanos[i] = intervalNanos[i] * (bursts[i] - 1);
+            if (i > 0)
+                spec.append(',');
+            spec.append(types[i]).append('=').append(rates[i]).append('/').append(bursts[i]);
+        }
+        this.spec = spec.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if an entry is malformed, names an
+     *                                  unknown type or a type twice, or its
+     *                                  rate or burst is not positive.
+     */
+    public static RateLimits parse(String spec) {
+        if (spec == null || spec.trim().isEmpty())
+            return NONE;
+        String[] entries = spec.split(",");
+        MessageType[] types = new MessageType[entries.length];
+        double[] rates = new double[entries.length];
+        int[] bursts = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i].trim();
+            int equals = entry.indexOf('=');
+            if (equals < 0)
+                throw new IllegalArgumentException("Rate limit " + entry + " is not TYPE=rate/burst");
+            types[i] = MessageType.valueOf(entry.substring(0, equals).trim().toUpperCase());
+            for (int j = 0; j < i; j++) {
+                if (types[j] == types[i])
+                    throw new IllegalArgumentException("Rate of " + types[i] + " is limited twice");
+            }
+            String[] limit = entry.substring(equals + 1).split("/");
+            if (limit.length > 2)
+                throw new IllegalArgumentException("Rate limit " + entry + " is not TYPE=rate/burst");
+            rates[i] = Double.parseDouble(limit[0].trim());
+            bursts[i] = limit.length > 1 ? Integer.parseInt(limit[1].trim()) : (int) Math.ceil(rates[i]);
+            if (!(rates[i] > 0) || bursts[i] < 1)
+                throw new IllegalArgumentException("Rate limit " + entry + " must have a positive rate and burst");
+        }
+        return new RateLimits(types, rates, bursts);
+    }
+
+    public boolean isEmpty() {
+        return types.length == 0;
+    }
+
+    /**
+     * @return the number of limited types.
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * @return the slot of the type, or -1 if it is not limited.
+     */
+    public int slotOf(MessageType type) {
+        return slots[type.ordinal()];
+    }
+
+    public MessageType getType(int slot) {
+        return types[slot];
+    }
+
+    /**
+     * @return the time it takes to earn one request.
+     */
+    public long getIntervalNanos(int slot) {
+        return intervalNanos[slot];
+    }
+
+    /**
+     * @return how far ahead of the average rate requests may run, which is
+     *         what allows a burst.
+     */
+    public long getToleranceNanos(int slot) {
+        return toleranceNanos[slot];
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,937 @@
+package com.rohit.ThreadSafeChat.Server.config;
+
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.transport.WireFormat;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+import com.rohit.ThreadSafeChat.Server.util.VirtualThreads;
+
+/**
+ * Server startup options. The port is passed on the command line, everything
+ * else is read from {@code chat.server.*} system properties.
+ */
+public class ServerConfig {
+    public static final String EXECUTION_MODE_PROPERTY = "chat.server.mode";
+    public static final String EVENT_LOOP_THREADS_PROPERTY = "chat.server.eventLoopThreads";
+    public static final String OUTBOUND_QUEUE_CAPACITY_PROPERTY = "chat.server.outboundQueueCapacity";
+    public static final String BACKPRESSURE_POLICY_PROPERTY = "chat.server.backpressurePolicy";
+    public static final String SEND_TIMEOUT_MILLIS_PROPERTY = "chat.server.sendTimeoutMillis";
+    public static final String MAX_WRITE_BATCH_PROPERTY = "chat.server.maxWriteBatch";
+    public static final String WRITE_LINGER_MICROS_PROPERTY = "chat.server.writeLingerMicros";
+    public static final String WRITER_THREADS_PROPERTY = "chat.server.writerThreads";
+    public static final String WRITE_TIMEOUT_MILLIS_PROPERTY = "chat.server.writeTimeoutMillis";
+    public static final String STATS_INTERVAL_SECONDS_PROPERTY = "chat.server.statsIntervalSeconds";
+    public static final String OFFLINE_STORE_DIR_PROPERTY = "chat.server.offlineStoreDir";
+    public static final String OFFLINE_MESSAGE_TTL_SECONDS_PROPERTY = "chat.server.offlineMessageTtlSeconds";
+    public static final String OFFLINE_MAILBOX_QUOTA_PROPERTY = "chat.server.offlineMailboxQuota";
+    public static final String OFFLINE_SEGMENT_BYTES_PROPERTY = "chat.server.offlineSegmentBytes";
+    public static final String HISTORY_DIR_PROPERTY = "chat.server.historyDir";
+    public static final String HISTORY_SEGMENT_BYTES_PROPERTY = "chat.server.historySegmentBytes";
+    public static final String HISTORY_QUEUE_CAPACITY_PROPERTY = "chat.server.historyQueueCapacity";
+    public static final String HISTORY_READER_THREADS_PROPERTY = "chat.server.historyReaderThreads";
+    public static final String MAX_HISTORY_PAGE_SIZE_PROPERTY = "chat.server.maxHistoryPageSize";
+    public static final String DELIVERY_WINDOW_SIZE_PROPERTY = "chat.server.deliveryWindowSize";
+    public static final String METRICS_PORT_PROPERTY = "chat.server.metricsPort";
+    public static final String MAX_LOGGED_IN_USERS_PROPERTY = "chat.server.maxLoggedInUsers";
+    public static final String ADMISSION_QUEUE_CAPACITY_PROPERTY = "chat.server.admissionQueueCapacity";
+    public static final String ADMISSION_TIMEOUT_SECONDS_PROPERTY = "chat.server.admissionTimeoutSeconds";
+    public static final String ADMISSION_UPDATE_INTERVAL_SECONDS_PROPERTY =
+            "chat.server.admissionUpdateIntervalSeconds";
+    public static final String CLUSTER_NODES_PROPERTY = "chat.server.clusterNodes";
+    public static final String NODE_ID_PROPERTY = "chat.server.nodeId";
+    public static final String CLUSTER_SECRET_PROPERTY = "chat.server.clusterSecret";
+    public static final String CLUSTER_REQUEST_TIMEOUT_MILLIS_PROPERTY = "chat.server.clusterRequestTimeoutMillis";
+    public static final String CLUSTER_QUEUE_CAPACITY_PROPERTY = "chat.server.clusterQueueCapacity";
+    public static final String SESSION_GRACE_SECONDS_PROPERTY = "chat.server.sessionGraceSeconds";
+    public static final String COMPRESSION_THRESHOLD_BYTES_PROPERTY = "chat.server.compressionThresholdBytes";
+    public static final String IDLE_TIMEOUT_SECONDS_PROPERTY = "chat.server.idleTimeoutSeconds";
+    public static final String PING_TIMEOUT_SECONDS_PROPERTY = "chat.server.pingTimeoutSeconds";
+    public static final String RATE_LIMITS_PROPERTY = "chat.server.rateLimits";
+    public static final String USER_RATE_LIMITS_PROPERTY = "chat.server.userRateLimits";
+    public static final String PRESENCE_WINDOW_MILLIS_PROPERTY = "chat.server.presenceWindowMillis";
+    public static final String REGISTRY_DIR_PROPERTY = "chat.server.registryDir";
+    public static final String REGISTRY_COMPACTION_BYTES_PROPERTY = "chat.server.registryCompactionBytes";
+    public static final String FILE_SPOOL_DIR_PROPERTY = "chat.server.fileSpoolDir";
+    public static final String MAX_FILE_BYTES_PROPERTY = "chat.server.maxFileBytes";
+    public static final String FILE_CHUNK_BYTES_PROPERTY = "chat.server.fileChunkBytes";
+    public static final String FILE_WINDOW_BYTES_PROPERTY = "chat.server.fileWindowBytes";
+    public static final String FILE_TRANSFER_TIMEOUT_SECONDS_PROPERTY = "chat.server.fileTransferTimeoutSeconds";
+    public static final String SEARCH_DIR_PROPERTY = "chat.server.searchDir";
+    public static final String SEARCH_QUEUE_CAPACITY_PROPERTY = "chat.server.searchQueueCapacity";
+    public static final String SEARCH_FLUSH_DOCS_PROPERTY = "chat.server.searchFlushDocs";
+    public static final String SEARCH_FLUSH_MILLIS_PROPERTY = "chat.server.searchFlushMillis";
+    public static final String SEARCH_MERGE_FACTOR_PROPERTY = "chat.server.searchMergeFactor";
+
+    private final int port;
+    private final ExecutionMode executionMode;
+    private final int eventLoopThreads;
+    private final WireFormat wireFormat;
+    private final int outboundQueueCapacity;
+    private final BackpressurePolicy backpressurePolicy;
+    private final long sendTimeoutMillis;
+    private final int maxWriteBatch;
+    private final long writeLingerMicros;
+    private final int writerThreads;
+    private final long writeTimeoutMillis;
+    private final int statsIntervalSeconds;
+    private final String offlineStoreDir;
+    private final long offlineMessageTtlSeconds;
+    private final int offlineMailboxQuota;
+    private final int offlineSegmentBytes;
+    private final String historyDir;
+    private final int historySegmentBytes;
+    private final int historyQueueCapacity;
+    private final int historyReaderThreads;
+    private final int maxHistoryPageSize;
+    private final int deliveryWindowSize;
+    private final int metricsPort;
+    private final int maxLoggedInUsers;
+    private final int admissionQueueCapacity;
+    private final long admissionTimeoutSeconds;
+    private final int admissionUpdateIntervalSeconds;
+    private final String clusterNodes;
+    private final int nodeId;
+    private final String clusterSecret;
+    private final long clusterRequestTimeoutMillis;
+    private final int clusterQueueCapacity;
+    private final long sessionGraceSeconds;
+    private final int compressionThresholdBytes;
+    private final long idleTimeoutSeconds;
+    private final long pingTimeoutSeconds;
+    private final RateLimits rateLimits;
+    private final RateLimits userRateLimits;
+    private final long presenceWindowMillis;
+    private final String registryDir;
+    private final long registryCompactionBytes;
+    private final String fileSpoolDir;
+    private final long maxFileBytes;
+    private final int fileChunkBytes;
+    private final int fileWindowBytes;
+    private final long fileTransferTimeoutSeconds;
+    private final String searchDir;
+    private final int searchQueueCapacity;
+    private final int searchFlushDocs;
+    private final long searchFlushMillis;
+    private final int searchMergeFactor;
+
+    private ServerConfig(Builder builder) {
+        this.port = builder.port;
+        this.executionMode = builder.executionMode;
+        this.eventLoopThreads = builder.eventLoopThreads;
+        this.wireFormat = builder.wireFormat;
+        this.outboundQueueCapacity = builder.outboundQueueCapacity;
+        this.backpressurePolicy = builder.backpressurePolicy;
+        this.sendTimeoutMillis = builder.sendTimeoutMillis;
+        this.maxWriteBatch = builder.maxWriteBatch;
+        this.writeLingerMicros = builder.writeLingerMicros;
+        this.writerThreads = builder.writerThreads;
+        this.writeTimeoutMillis = builder.writeTimeoutMillis;
+        this.statsIntervalSeconds = builder.statsIntervalSeconds;
+        this.offlineStoreDir = builder.offlineStoreDir;
+        this.offlineMessageTtlSeconds = builder.offlineMessageTtlSeconds;
+        this.offlineMailboxQuota = builder.offlineMailboxQuota;
+        this.offlineSegmentBytes = builder.offlineSegmentBytes;
+        this.historyDir = builder.historyDir;
+        this.historySegmentBytes = builder.historySegmentBytes;
+        this.historyQueueCapacity = builder.historyQueueCapacity;
+        this.historyReaderThreads = builder.historyReaderThreads;
+        this.maxHistoryPageSize = builder.maxHistoryPageSize;
+        this.deliveryWindowSize = builder.deliveryWindowSize;
+        this.metricsPort = builder.metricsPort;
+        this.maxLoggedInUsers = builder.maxLoggedInUsers;
+        this.admissionQueueCapacity = builder.admissionQueueCapacity;
+        this.admissionTimeoutSeconds = builder.admissionTimeoutSeconds;
+        this.admissionUpdateIntervalSeconds = builder.admissionUpdateIntervalSeconds;
+        this.clusterNodes = builder.clusterNodes;
+        this.nodeId = builder.nodeId;
+        this.clusterSecret = builder.clusterSecret;
+        this.clusterRequestTimeoutMillis = builder.clusterRequestTimeoutMillis;
+        this.clusterQueueCapacity = builder.clusterQueueCapacity;
+        this.sessionGraceSeconds = builder.sessionGraceSeconds;
+        this.compressionThresholdBytes = builder.compressionThresholdBytes;
+        this.idleTimeoutSeconds = builder.idleTimeoutSeconds;
+        this.pingTimeoutSeconds = builder.pingTimeoutSeconds;
+        this.rateLimits = builder.rateLimits;
+        this.userRateLimits = builder.userRateLimits;
+        this.presenceWindowMillis = builder.presenceWindowMillis;
+        this.registryDir = builder.registryDir;
+        this.registryCompactionBytes = builder.registryCompactionBytes;
+        this.fileSpoolDir = builder.fileSpoolDir;
+        this.maxFileBytes = builder.maxFileBytes;
+        this.fileChunkBytes = builder.fileChunkBytes;
+        this.fileWindowBytes = builder.fileWindowBytes;
+        this.fileTransferTimeoutSeconds = builder.fileTransferTimeoutSeconds;
+        this.searchDir = builder.searchDir;
+        this.searchQueueCapacity = builder.searchQueueCapacity;
+        this.searchFlushDocs = builder.searchFlushDocs;
+        this.searchFlushMillis = builder.searchFlushMillis;
+        this.searchMergeFactor = builder.searchMergeFactor;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public long getSendTimeoutMillis() {
+        return sendTimeoutMillis;
+    }
+
+    public int getMaxWriteBatch() {
+        return maxWriteBatch;
+    }
+
+    public long getWriteLingerMicros() {
+        return writeLingerMicros;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public int getStatsIntervalSeconds() {
+        return statsIntervalSeconds;
+    }
+
+    public String getOfflineStoreDir() {
+        return offlineStoreDir;
+    }
+
+    public long getOfflineMessageTtlSeconds() {
+        return offlineMessageTtlSeconds;
+    }
+
+    public int getOfflineMailboxQuota() {
+        return offlineMailboxQuota;
+    }
+
+    public int getOfflineSegmentBytes() {
+        return offlineSegmentBytes;
+    }
+
+    public String getHistoryDir() {
+        return historyDir;
+    }
+
+    public int getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    public int getHistoryQueueCapacity() {
+        return historyQueueCapacity;
+    }
+
+    public int getHistoryReaderThreads() {
+        return historyReaderThreads;
+    }
+
+    public int getMaxHistoryPageSize() {
+        return maxHistoryPageSize;
+    }
+
+    public int getDeliveryWindowSize() {
+        return deliveryWindowSize;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public int getMaxLoggedInUsers() {
+        return maxLoggedInUsers;
+    }
+
+    public int getAdmissionQueueCapacity() {
+        return admissionQueueCapacity;
+    }
+
+    public long getAdmissionTimeoutSeconds() {
+        return admissionTimeoutSeconds;
+    }
+
+    public int getAdmissionUpdateIntervalSeconds() {
+        return admissionUpdateIntervalSeconds;
+    }
+
+    public String getClusterNodes() {
+        return clusterNodes;
+    }
+
+    /**
+     * @return the {@code host:port} cluster addresses of every node, indexed by
+     *         node id, or none if the server runs on its own.
+     */
+    public String[] getClusterNodeList() {
+        return getClusterNodeList(clusterNodes);
+    }
+
+    private static String[] getClusterNodeList(String clusterNodes) {
+        if (clusterNodes == null || clusterNodes.trim().isEmpty())
+            return new String[0];
+        String[] nodes = clusterNodes.split(",");
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = nodes[i].trim();
+        return nodes;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return what nodes introduce themselves to each other with, to keep
+     *         anyone else from linking up as a node.
+     */
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public long getClusterRequestTimeoutMillis() {
+        return clusterRequestTimeoutMillis;
+    }
+
+    public int getClusterQueueCapacity() {
+        return clusterQueueCapacity;
+    }
+
+    /**
+     * @return how long the session of a client which lost its connection is
+     *         held for it to resume, or 0 if sessions cannot be resumed.
+     */
+    public long getSessionGraceSeconds() {
+        return sessionGraceSeconds;
+    }
+
+    /**
+     * @return the length from which frame bodies are compressed for clients
+     *         which accept it, or 0 if they are never compressed.
+     */
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    /**
+     * @return how long a client may send nothing before it is pinged, or 0 if
+     *         idle connections are kept.
+     */
+    public long getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    /**
+     * @return how long a pinged client has to send anything before its
+     *         connection is closed.
+     */
+    public long getPingTimeoutSeconds() {
+        return pingTimeoutSeconds;
+    }
+
+    /**
+     * @return the rates at which each connection may send requests.
+     */
+    public RateLimits getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * @return the rates at which each user may send requests, over whichever
+     *         connections.
+     */
+    public RateLimits getUserRateLimits() {
+        return userRateLimits;
+    }
+
+    /**
+     * @return how long presence changes are gathered before they are pushed to
+     *         subscribers, or 0 if presence cannot be subscribed to.
+     */
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    public String getRegistryDir() {
+        return registryDir;
+    }
+
+    /**
+     * @return how large the registry's log may grow before it is compacted
+     *         into a snapshot.
+     */
+    public long getRegistryCompactionBytes() {
+        return registryCompactionBytes;
+    }
+
+    /**
+     * @return where files are spooled on their way between users.
+     */
+    public String getFileSpoolDir() {
+        return fileSpoolDir;
+    }
+
+    /**
+     * @return the largest file users may send each other, or 0 if they cannot
+     *         send files.
+     */
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * @return the length of the frames files are relayed in, header included.
+     */
+    public int getFileChunkBytes() {
+        return fileChunkBytes;
+    }
+
+    /**
+     * @return how many bytes of a file may be unacknowledged at a time, on
+     *         the way to the server and on the way from it.
+     */
+    public int getFileWindowBytes() {
+        return fileWindowBytes;
+    }
+
+    /**
+     * @return how long a file transfer may go without progress before it is
+     *         cancelled, waiting to be accepted included.
+     */
+    public long getFileTransferTimeoutSeconds() {
+        return fileTransferTimeoutSeconds;
+    }
+
+    /**
+     * @return where every user's search index is kept.
+     */
+    public String getSearchDir() {
+        return searchDir;
+    }
+
+    /**
+     * @return how many texts may wait to be indexed, or 0 if history cannot
+     *         be searched.
+     */
+    public int getSearchQueueCapacity() {
+        return searchQueueCapacity;
+    }
+
+    /**
+     * @return how many texts of a user are indexed in memory before they are
+     *         written out as a segment.
+     */
+    public int getSearchFlushDocs() {
+        return searchFlushDocs;
+    }
+
+    /**
+     * @return how long texts may be indexed in memory only, before they are
+     *         written out however few they are.
+     */
+    public long getSearchFlushMillis() {
+        return searchFlushMillis;
+    }
+
+    /**
+     * @return how many segments of about the same size a user may have
+     *         before they are merged into one.
+     */
+    public int getSearchMergeFactor() {
+        return searchMergeFactor;
+    }
+
+    public static ServerConfig fromSystemProperties(int port) {
+        Builder builder = new Builder().withPort(port);
+        builder.withExecutionMode(getEnum(EXECUTION_MODE_PROPERTY, builder.executionMode));
+        builder.withEventLoopThreads(
+                Integer.getInteger(EVENT_LOOP_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        builder.withWireFormat(WireFormat.fromSystemProperties());
+        builder.withOutboundQueueCapacity(
+                Integer.getInteger(OUTBOUND_QUEUE_CAPACITY_PROPERTY, builder.outboundQueueCapacity));
+        builder.withBackpressurePolicy(getEnum(BACKPRESSURE_POLICY_PROPERTY, builder.backpressurePolicy));
+        builder.withSendTimeoutMillis(Long.getLong(SEND_TIMEOUT_MILLIS_PROPERTY, builder.sendTimeoutMillis));
+        builder.withMaxWriteBatch(Integer.getInteger(MAX_WRITE_BATCH_PROPERTY, builder.maxWriteBatch));
+        builder.withWriteLingerMicros(Long.getLong(WRITE_LINGER_MICROS_PROPERTY, builder.writeLingerMicros));
+        builder.withWriterThreads(Integer.getInteger(WRITER_THREADS_PROPERTY, builder.writerThreads));
+        builder.withWriteTimeoutMillis(Long.getLong(WRITE_TIMEOUT_MILLIS_PROPERTY, builder.writeTimeoutMillis));
+        builder.withStatsIntervalSeconds(
+                Integer.getInteger(STATS_INTERVAL_SECONDS_PROPERTY, builder.statsIntervalSeconds));
+        builder.withOfflineStoreDir(System.getProperty(OFFLINE_STORE_DIR_PROPERTY, builder.offlineStoreDir));
+        builder.withOfflineMessageTtlSeconds(
+                Long.getLong(OFFLINE_MESSAGE_TTL_SECONDS_PROPERTY, builder.offlineMessageTtlSeconds));
+        builder.withOfflineMailboxQuota(
+                Integer.getInteger(OFFLINE_MAILBOX_QUOTA_PROPERTY, builder.offlineMailboxQuota));
+        builder.withOfflineSegmentBytes(
+                Integer.getInteger(OFFLINE_SEGMENT_BYTES_PROPERTY, builder.offlineSegmentBytes));
+        builder.withHistoryDir(System.getProperty(HISTORY_DIR_PROPERTY, builder.historyDir));
+        builder.withHistorySegmentBytes(
+                Integer.getInteger(HISTORY_SEGMENT_BYTES_PROPERTY, builder.historySegmentBytes));
+        builder.withHistoryQueueCapacity(
+                Integer.getInteger(HISTORY_QUEUE_CAPACITY_PROPERTY, builder.historyQueueCapacity));
+        builder.withHistoryReaderThreads(
+                Integer.getInteger(HISTORY_READER_THREADS_PROPERTY, builder.historyReaderThreads));
+        builder.withMaxHistoryPageSize(
+                Integer.getInteger(MAX_HISTORY_PAGE_SIZE_PROPERTY, builder.maxHistoryPageSize));
+        builder.withDeliveryWindowSize(
+                Integer.getInteger(DELIVERY_WINDOW_SIZE_PROPERTY, builder.deliveryWindowSize));
+        builder.withMetricsPort(Integer.getInteger(METRICS_PORT_PROPERTY, builder.metricsPort));
+        builder.withMaxLoggedInUsers(Integer.getInteger(MAX_LOGGED_IN_USERS_PROPERTY, builder.maxLoggedInUsers));
+        builder.withAdmissionQueueCapacity(
+                Integer.getInteger(ADMISSION_QUEUE_CAPACITY_PROPERTY, builder.admissionQueueCapacity));
+        builder.withAdmissionTimeoutSeconds(
+                Long.getLong(ADMISSION_TIMEOUT_SECONDS_PROPERTY, builder.admissionTimeoutSeconds));
+        builder.withAdmissionUpdateIntervalSeconds(Integer.getInteger(ADMISSION_UPDATE_INTERVAL_SECONDS_PROPERTY,
+                builder.admissionUpdateIntervalSeconds));
+        builder.withClusterNodes(System.getProperty(CLUSTER_NODES_PROPERTY, builder.clusterNodes));
+        builder.withNodeId(Integer.getInteger(NODE_ID_PROPERTY, builder.nodeId));
+        builder.withClusterSecret(System.getProperty(CLUSTER_SECRET_PROPERTY, builder.clusterSecret));
+        builder.withClusterRequestTimeoutMillis(
+                Long.getLong(CLUSTER_REQUEST_TIMEOUT_MILLIS_PROPERTY, builder.clusterRequestTimeoutMillis));
+        builder.withClusterQueueCapacity(
+                Integer.getInteger(CLUSTER_QUEUE_CAPACITY_PROPERTY, builder.clusterQueueCapacity));
+        builder.withSessionGraceSeconds(Long.getLong(SESSION_GRACE_SECONDS_PROPERTY, builder.sessionGraceSeconds));
+        builder.withCompressionThresholdBytes(
+                Integer.getInteger(COMPRESSION_THRESHOLD_BYTES_PROPERTY, builder.compressionThresholdBytes));
+        builder.withIdleTimeoutSeconds(Long.getLong(IDLE_TIMEOUT_SECONDS_PROPERTY, builder.idleTimeoutSeconds));
+        builder.withPingTimeoutSeconds(Long.getLong(PING_TIMEOUT_SECONDS_PROPERTY, builder.pingTimeoutSeconds));
+        builder.withRateLimits(RateLimits.parse(System.getProperty(RATE_LIMITS_PROPERTY)));
+        builder.withUserRateLimits(RateLimits.parse(System.getProperty(USER_RATE_LIMITS_PROPERTY)));
+        builder.withPresenceWindowMillis(Long.getLong(PRESENCE_WINDOW_MILLIS_PROPERTY, builder.presenceWindowMillis));
+        builder.withRegistryDir(System.getProperty(REGISTRY_DIR_PROPERTY, builder.registryDir));
+        builder.withRegistryCompactionBytes(
+                Long.getLong(REGISTRY_COMPACTION_BYTES_PROPERTY, builder.registryCompactionBytes));
+        builder.withFileSpoolDir(System.getProperty(FILE_SPOOL_DIR_PROPERTY, builder.fileSpoolDir));
+        builder.withMaxFileBytes(Long.getLong(MAX_FILE_BYTES_PROPERTY, builder.maxFileBytes));
+        builder.withFileChunkBytes(Integer.getInteger(FILE_CHUNK_BYTES_PROPERTY, builder.fileChunkBytes));
+        builder.withFileWindowBytes(Integer.getInteger(FILE_WINDOW_BYTES_PROPERTY, builder.fileWindowBytes));
+        builder.withFileTransferTimeoutSeconds(
+                Long.getLong(FILE_TRANSFER_TIMEOUT_SECONDS_PROPERTY, builder.fileTransferTimeoutSeconds));
+        builder.withSearchDir(System.getProperty(SEARCH_DIR_PROPERTY, builder.searchDir));
+        builder.withSearchQueueCapacity(
+                Integer.getInteger(SEARCH_QUEUE_CAPACITY_PROPERTY, builder.searchQueueCapacity));
+        builder.withSearchFlushDocs(Integer.getInteger(SEARCH_FLUSH_DOCS_PROPERTY, builder.searchFlushDocs));
+        builder.withSearchFlushMillis(Long.getLong(SEARCH_FLUSH_MILLIS_PROPERTY, builder.searchFlushMillis));
+        builder.withSearchMergeFactor(
+                Integer.getInteger(SEARCH_MERGE_FACTOR_PROPERTY, builder.searchMergeFactor));
+        return builder.build();
+    }
+
+    private static <E extends Enum<E>> E getEnum(String property, E defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+    }
+
+    public static class Builder {
+        private int port;
+        private ExecutionMode executionMode = ExecutionMode.THREAD;
+        private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+        private WireFormat wireFormat = WireFormat.BINARY_FRAMES;
+        private int outboundQueueCapacity = 1024;
+        private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+        private long sendTimeoutMillis = 1000L;
+        private int maxWriteBatch = 64;
+        private long writeLingerMicros = 0L;
+        private int writerThreads = 2 * Runtime.getRuntime().availableProcessors();
+        private long writeTimeoutMillis = 10000L;
+        private int statsIntervalSeconds = 60;
+        private String offlineStoreDir = "offline-messages";
+        private long offlineMessageTtlSeconds = 7L * 24 * 60 * 60;
+        private int offlineMailboxQuota = 1000;
+        private int offlineSegmentBytes = 1 << 20;
+        private String historyDir = "history";
+        private int historySegmentBytes = 8 << 20;
+        private int historyQueueCapacity = 16384;
+        private int historyReaderThreads = 4;
+        private int maxHistoryPageSize = 100;
+        private int deliveryWindowSize = 256;
+        private int metricsPort = 0;
+        private int maxLoggedInUsers = Constants.MAX_USERS_SUPPORTED;
+        private int admissionQueueCapacity = 10000;
+        private long admissionTimeoutSeconds = 300L;
+        private int admissionUpdateIntervalSeconds = 5;
+        private String clusterNodes = "";
+        private int nodeId = 0;
+        private String clusterSecret;
+        private long clusterRequestTimeoutMillis = 5000L;
+        private int clusterQueueCapacity = 65536;
+        private long sessionGraceSeconds = 60L;
+        private int compressionThresholdBytes = Constants.DEFAULT_COMPRESSION_THRESHOLD;
+        private long idleTimeoutSeconds = 60L;
+        private long pingTimeoutSeconds = 10L;
+        private RateLimits rateLimits = RateLimits.NONE;
+        private RateLimits userRateLimits = RateLimits.NONE;
+        private long presenceWindowMillis = 100L;
+        private String registryDir = "registry";
+        private long registryCompactionBytes = 64L * 1024 * 1024;
+        private String fileSpoolDir = "files";
+        private long maxFileBytes = 4L * 1024 * 1024 * 1024;
+        private int fileChunkBytes = 64 * 1024;
+        private int fileWindowBytes = 1024 * 1024;
+        private long fileTransferTimeoutSeconds = 60L;
+        private String searchDir = "search";
+        private int searchQueueCapacity = 16384;
+        private int searchFlushDocs = 4096;
+        private long searchFlushMillis = 10000;
+        private int searchMergeFactor = 8;
+
+        public Builder withPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder withExecutionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public Builder withEventLoopThreads(int eventLoopThreads) {
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder withWireFormat(WireFormat wireFormat) {
+            this.wireFormat = wireFormat;
+            return this;
+        }
+
+        public Builder withOutboundQueueCapacity(int outboundQueueCapacity) {
+            this.outboundQueueCapacity = outboundQueueCapacity;
+            return this;
+        }
+
+        public Builder withBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
+        public Builder withSendTimeoutMillis(long sendTimeoutMillis) {
+            this.sendTimeoutMillis = sendTimeoutMillis;
+            return this;
+        }
+
+        public Builder withMaxWriteBatch(int maxWriteBatch) {
+            this.maxWriteBatch = maxWriteBatch;
+            return this;
+        }
+
+        public Builder withWriteLingerMicros(long writeLingerMicros) {
+            this.writeLingerMicros = writeLingerMicros;
+            return this;
+        }
+
+        public Builder withWriterThreads(int writerThreads) {
+            this.writerThreads = writerThreads;
+            return this;
+        }
+
+        public Builder withWriteTimeoutMillis(long writeTimeoutMillis) {
+            this.writeTimeoutMillis = writeTimeoutMillis;
+            return this;
+        }
+
+        public Builder withStatsIntervalSeconds(int statsIntervalSeconds) {
+            this.statsIntervalSeconds = statsIntervalSeconds;
+            return this;
+        }
+
+        public Builder withOfflineStoreDir(String offlineStoreDir) {
+            this.offlineStoreDir = offlineStoreDir;
+            return this;
+        }
+
+        public Builder withOfflineMessageTtlSeconds(long offlineMessageTtlSeconds) {
+            this.offlineMessageTtlSeconds = offlineMessageTtlSeconds;
+            return this;
+        }
+
+        public Builder withOfflineMailboxQuota(int offlineMailboxQuota) {
+            this.offlineMailboxQuota = offlineMailboxQuota;
+            return this;
+        }
+
+        public Builder withOfflineSegmentBytes(int offlineSegmentBytes) {
+            this.offlineSegmentBytes = offlineSegmentBytes;
+            return this;
+        }
+
+        public Builder withHistoryDir(String historyDir) {
+            this.historyDir = historyDir;
+            return this;
+        }
+
+        public Builder withHistorySegmentBytes(int historySegmentBytes) {
+            this.historySegmentBytes = historySegmentBytes;
+            return this;
+        }
+
+        public Builder withHistoryQueueCapacity(int historyQueueCapacity) {
+            this.historyQueueCapacity = historyQueueCapacity;
+            return this;
+        }
+
+        public Builder withHistoryReaderThreads(int historyReaderThreads) {
+            this.historyReaderThreads = historyReaderThreads;
+            return this;
+        }
+
+        public Builder withMaxHistoryPageSize(int maxHistoryPageSize) {
+            this.maxHistoryPageSize = maxHistoryPageSize;
+            return this;
+        }
+
+        public Builder withDeliveryWindowSize(int deliveryWindowSize) {
+            this.deliveryWindowSize = deliveryWindowSize;
+            return this;
+        }
+
+        public Builder withMetricsPort(int metricsPort) {
+            this.metricsPort = metricsPort;
+            return this;
+        }
+
+        public Builder withMaxLoggedInUsers(int maxLoggedInUsers) {
+            this.maxLoggedInUsers = maxLoggedInUsers;
+            return this;
+        }
+
+        public Builder withAdmissionQueueCapacity(int admissionQueueCapacity) {
+            this.admissionQueueCapacity = admissionQueueCapacity;
+            return this;
+        }
+
+        public Builder withAdmissionTimeoutSeconds(long admissionTimeoutSeconds) {
+            this.admissionTimeoutSeconds = admissionTimeoutSeconds;
+            return this;
+        }
+
+        public Builder withAdmissionUpdateIntervalSeconds(int admissionUpdateIntervalSeconds) {
+            this.admissionUpdateIntervalSeconds = admissionUpdateIntervalSeconds;
+            return this;
+        }
+
+        public Builder withClusterNodes(String clusterNodes) {
+            this.clusterNodes = clusterNodes;
+            return this;
+        }
+
+        public Builder withNodeId(int nodeId) {
+            this.nodeId = nodeId;
+            return this;
+        }
+
+        public Builder withClusterSecret(String clusterSecret) {
+            this.clusterSecret = clusterSecret;
+            return this;
+        }
+
+        public Builder withClusterRequestTimeoutMillis(long clusterRequestTimeoutMillis) {
+            this.clusterRequestTimeoutMillis = clusterRequestTimeoutMillis;
+            return this;
+        }
+
+        public Builder withClusterQueueCapacity(int clusterQueueCapacity) {
+            this.clusterQueueCapacity = clusterQueueCapacity;
+            return this;
+        }
+
+        public Builder withSessionGraceSeconds(long sessionGraceSeconds) {
+            this.sessionGraceSeconds = sessionGraceSeconds;
+            return this;
+        }
+
+        public Builder withCompressionThresholdBytes(int compressionThresholdBytes) {
+            this.compressionThresholdBytes = compressionThresholdBytes;
+            return this;
+        }
+
+        public Builder withIdleTimeoutSeconds(long idleTimeoutSeconds) {
+            this.idleTimeoutSeconds = idleTimeoutSeconds;
+            return this;
+        }
+
+        public Builder withPingTimeoutSeconds(long pingTimeoutSeconds) {
+            this.pingTimeoutSeconds = pingTimeoutSeconds;
+            return this;
+        }
+
+        public Builder withRateLimits(RateLimits rateLimits) {
+            this.rateLimits = rateLimits;
+            return this;
+        }
+
+        public Builder withUserRateLimits(RateLimits userRateLimits) {
+            this.userRateLimits = userRateLimits;
+            return this;
+        }
+
+        public Builder withPresenceWindowMillis(long presenceWindowMillis) {
+            this.presenceWindowMillis = presenceWindowMillis;
+            return this;
+        }
+
+        public Builder withRegistryDir(String registryDir) {
+            this.registryDir = registryDir;
+            return this;
+        }
+
+        public Builder withRegistryCompactionBytes(long registryCompactionBytes) {
+            this.registryCompactionBytes = registryCompactionBytes;
+            return this;
+        }
+
+        public Builder withFileSpoolDir(String fileSpoolDir) {
+            this.fileSpoolDir = fileSpoolDir;
+            return this;
+        }
+
+        public Builder withMaxFileBytes(long maxFileBytes) {
+            this.maxFileBytes = maxFileBytes;
+            return this;
+        }
+
+        public Builder withFileChunkBytes(int fileChunkBytes) {
+            this.fileChunkBytes = fileChunkBytes;
+            return this;
+        }
+
+        public Builder withFileWindowBytes(int fileWindowBytes) {
+            this.fileWindowBytes = fileWindowBytes;
+            return this;
+        }
+
+        public Builder withFileTransferTimeoutSeconds(long fileTransferTimeoutSeconds) {
+            this.fileTransferTimeoutSeconds = fileTransferTimeoutSeconds;
+            return this;
+        }
+
+        public Builder withSearchDir(String searchDir) {
+            this.searchDir = searchDir;
+            return this;
+        }
+
+        public Builder withSearchQueueCapacity(int searchQueueCapacity) {
+            this.searchQueueCapacity = searchQueueCapacity;
+            return this;
+        }
+
+        public Builder withSearchFlushDocs(int searchFlushDocs) {
+            this.searchFlushDocs = searchFlushDocs;
+            return this;
+        }
+
+        public Builder withSearchFlushMillis(long searchFlushMillis) {
+            this.searchFlushMillis = searchFlushMillis;
+            return this;
+        }
+
+        public Builder withSearchMergeFactor(int searchMergeFactor) {
+            this.searchMergeFactor = searchMergeFactor;
+            return this;
+        }
+
+        public ServerConfig build() {
+            if (eventLoopThreads < 1)
+                throw new IllegalArgumentException("At least one event loop thread is required");
+            if (executionMode == ExecutionMode.REACTOR && !wireFormat.isFramed())
+                throw new IllegalArgumentException("Reactor mode requires a framed wire format");
+            if (outboundQueueCapacity < 1)
+                throw new IllegalArgumentException("Outbound queue capacity must be positive");
+            if (maxWriteBatch < 1)
+                throw new IllegalArgumentException("Write batches must hold at least one message");
+            if (writeLingerMicros < 0)
+                throw new IllegalArgumentException("Write linger must not be negative");
+            if (writerThreads < 1)
+                throw new IllegalArgumentException("At least one writer thread is required");
+            if (writeTimeoutMillis < 1)
+                throw new IllegalArgumentException("Write timeout must be positive");
+            if (offlineMessageTtlSeconds < 1)
+                throw new IllegalArgumentException("Offline message TTL must be positive");
+            if (offlineMailboxQuota < 1)
+                throw new IllegalArgumentException("Offline mailbox quota must be positive");
+            if (offlineSegmentBytes < 4096)
+                throw new IllegalArgumentException("Offline segments must be at least 4096 bytes");
+            if (historySegmentBytes < 4096)
+                throw new IllegalArgumentException("History segments must be at least 4096 bytes");
+            if (historyQueueCapacity < 1)
+                throw new IllegalArgumentException("History queue capacity must be positive");
+            if (historyReaderThreads < 1)
+                throw new IllegalArgumentException("At least one history reader thread is required");
+            if (maxHistoryPageSize < 1 || maxHistoryPageSize >= outboundQueueCapacity)
+                throw new IllegalArgumentException("History pages must be smaller than the outbound queue");
+            if (deliveryWindowSize < 1)
+                throw new IllegalArgumentException("Delivery window must hold at least one text");
+            if (metricsPort < 0 || metricsPort > 65535)
+                throw new IllegalArgumentException("Metrics port must be between 0 and 65535");
+            if (maxLoggedInUsers < 1)
+                throw new IllegalArgumentException("At least one user must be able to log in");
+            if (admissionQueueCapacity < 0)
+                throw new IllegalArgumentException("Admission queue capacity must not be negative");
+            if (admissionTimeoutSeconds < 1)
+                throw new IllegalArgumentException("Admission timeout must be positive");
+            if (admissionUpdateIntervalSeconds < 1)
+                throw new IllegalArgumentException("Admission update interval must be positive");
+            int clusterSize = getClusterNodeList(clusterNodes).length;
+            if (clusterSize > 0 && (nodeId < 0 || nodeId >= clusterSize))
+                throw new IllegalArgumentException("Node id must index the cluster node list");
+            if (clusterSize > 0 && (clusterSecret == null || clusterSecret.isEmpty()))
+                throw new IllegalArgumentException("Cluster nodes must share a secret");
+            if (clusterRequestTimeoutMillis < 1)
+                throw new IllegalArgumentException("Cluster request timeout must be positive");
+            if (clusterQueueCapacity < 1)
+                throw new IllegalArgumentException("Cluster queue capacity must be positive");
+            if (sessionGraceSeconds < 0)
+                throw new IllegalArgumentException("Session grace period must not be negative");
+            if (compressionThresholdBytes < 0)
+                throw new IllegalArgumentException("Compression threshold must not be negative");
+            if (idleTimeoutSeconds < 0)
+                throw new IllegalArgumentException("Idle timeout must not be negative");
+            if (pingTimeoutSeconds < 1)
+                throw new IllegalArgumentException("Ping timeout must be positive");
+            if (presenceWindowMillis < 0)
+                throw new IllegalArgumentException("Presence window must not be negative");
+            if (registryCompactionBytes < 1)
+                throw new IllegalArgumentException("Registry compaction size must be positive");
+            if (maxFileBytes < 0)
+                throw new IllegalArgumentException("Maximum file size must not be negative");
+            if (fileChunkBytes <= Frames.FILE_DATA_HEADER_LENGTH || fileChunkBytes > Constants.MAX_FRAME_LENGTH)
+                throw new IllegalArgumentException("File chunks must hold data and fit in a frame");
+            if (fileWindowBytes < fileChunkBytes)
+                throw new IllegalArgumentException("File window must hold at least one chunk");
+            if (fileTransferTimeoutSeconds < 1)
+                throw new IllegalArgumentException("File transfer timeout must be positive");
+            if (searchQueueCapacity < 0)
+                throw new IllegalArgumentException("Search queue capacity must not be negative");
+            if (searchFlushDocs < 1)
+                throw new IllegalArgumentException("Search segments must hold at least one text");
+            if (searchFlushMillis < 1)
+                throw new IllegalArgumentException("Search flush interval must be positive");
+            if (searchMergeFactor < 2)
+                throw new IllegalArgumentException("At least two search segments must be merged at a time");
+            if (executionMode == ExecutionMode.VIRTUAL && !VirtualThreads.isSupported())
+                throw new IllegalArgumentException("Virtual mode requires JDK 21 or later");
+            return new ServerConfig(this);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.transport.MessageTransport;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Connection over a blocking {@link MessageTransport}. With virtual threads,
+ * the outbound queue is drained by a dedicated writer thread, created by the
+ * same factory as the listener thread, so a slow client only ever stalls its
+ * own writer. With platform threads, it is drained by a shared
+ * {@link WriterPool} instead, one batch at a time.
+ */
+public class BlockingConnection extends ClientConnection {
+    private static Logger logger = LoggerFactory.getLogger(BlockingConnection.class);
+
+    private final MessageTransport transport;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final AtomicBoolean isWriteScheduled = new AtomicBoolean(false);
+    private final Runnable writeBatch = new Runnable() {
+        public void run() {
+            writeQueuedBatch();
+        }
+    };
+    private Thread writerThread;
+    private WriterPool writerPool;
+
+    public BlockingConnection(MessageTransport transport, ServerConfig config, ServerMetrics metrics) {
+        super(config, metrics);
+        this.transport = transport;
+    }
+
+    public Message receive() throws IOException {
+        return transport.readMessage();
+    }
+
+    public void startWriter(ThreadFactory threadFactory) {
+        writerThread = threadFactory.newThread(new Runnable() {
+            public void run() {
+                writeQueuedMessages();
+            }
+        });
+        writerThread.start();
+    }
+
+    /**
+     * Leaves writing to the pool from now on.
+     */
+    public void useWriterPool(WriterPool writerPool) {
+        this.writerPool = writerPool;
+        onMessageQueued();
+    }
+
+    @Override
+    public boolean enableCompression(int threshold) {
+        return transport.enableCompression(threshold);
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true))
+            return;
+        metrics.recordConnectionClosed();
+        if (writerThread != null)
+            writerThread.interrupt();
+        outboundQueue.clear();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed.get();
+    }
+
+    @Override
+    protected void onMessageQueued() {
+        if (writerPool != null && !outboundQueue.isEmpty() && isWriteScheduled.compareAndSet(false, true))
+            writerPool.execute(writeBatch);
+    }
+
+    @Override
+    protected boolean canBlock() {
+        return true;
+    }
+
+    private void writeQueuedMessages() {
+        List<Message> batch = new ArrayList<>(maxWriteBatch);
+        try {
+            while (!isClosed.get()) {
+                takeBatch(batch);
+                transport.writeMessages(batch);
+                writeStats.recordFlush(batch.size());
+                for (Message message : batch)
+                    metrics.recordSent(message);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!isClosed.get()) {
+                logger.error(e.getMessage(), e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is queued, up to a batch, on a pooled writer. Lingering
+     * would hold up the other connections, so it is not done here.
+     */
+    private void writeQueuedBatch() {
+        List<Message> batch = new ArrayList<>(maxWriteBatch);
+        outboundQueue.drainTo(batch, maxWriteBatch);
+        try {
+            if (!batch.isEmpty() && !isClosed.get()) {
+                writerPool.writeStarted(this);
+                try {
+                    transport.writeMessages(batch);
+                } finally {
+                    writerPool.writeFinished(this);
+                }
+                writeStats.recordFlush(batch.size());
+                for (Message message : batch)
+                    metrics.recordSent(message);
+            }
+        } catch (IOException e) {
+            if (!isClosed.get()) {
+                logger.error(e.getMessage(), e);
+                close();
+            }
+            return;
+        } finally {
+            isWriteScheduled.set(false);
+        }
+        // Queued while the batch was written, or too many for one batch.
+        onMessageQueued();
+    }
+
+    /**
+     * Waits for at least one message, then takes whatever else is ready, waiting
+     * up to the linger time for the batch to fill up.
+     */
+    private void takeBatch(List<Message> batch) throws InterruptedException {
+        batch.add(outboundQueue.take());
+        outboundQueue.drainTo(batch, maxWriteBatch - batch.size());
+        if (writeLingerNanos == 0)
+            return;
+        long deadline = System.nanoTime() + writeLingerNanos;
+        while (batch.size() < maxWriteBatch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return;
+            Message message = outboundQueue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (message == null)
+                return;
+            batch.add(message);
+            outboundQueue.drainTo(batch, maxWriteBatch - batch.size());
+        }
+    }
+}
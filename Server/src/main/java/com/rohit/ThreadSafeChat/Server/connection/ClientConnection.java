@@ -0,0 +1,270 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.BackpressurePolicy;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Server side end of a client socket, independent of how the socket is driven.
+ * Outgoing messages go through a bounded queue drained by a single writer, so
+ * callers never wait on the socket and messages reach it in queueing order.
+ * The writer drains up to {@code maxWriteBatch} ready messages at a time,
+ * optionally lingering for more, and writes them out with a single flush.
+ * Private texts stay in a {@link DeliveryWindow} until the client acknowledges
+ * them.
+ */
+public abstract class ClientConnection {
+    private static Logger logger = LoggerFactory.getLogger(ClientConnection.class);
+    private static final AtomicLong nextConnectionId = new AtomicLong(1);
+
+    protected final BlockingQueue<Message> outboundQueue;
+    protected final int maxWriteBatch;
+    protected final long writeLingerNanos;
+    protected final ServerMetrics metrics;
+    protected final WriteStats writeStats;
+    private final DeliveryWindow deliveryWindow;
+    private final BackpressurePolicy backpressurePolicy;
+    private final long sendTimeoutMillis;
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final long connectionId = nextConnectionId.getAndIncrement();
+    private volatile String userId;
+    private volatile String queuedUserId;
+    private volatile String sessionToken;
+    private volatile long lastActivityNanos = System.nanoTime();
+    private volatile TokenBuckets tokenBuckets;
+
+    protected ClientConnection(ServerConfig config, ServerMetrics metrics) {
+        this.outboundQueue = new ArrayBlockingQueue<Message>(config.getOutboundQueueCapacity());
+        this.maxWriteBatch = config.getMaxWriteBatch();
+        this.writeLingerNanos = TimeUnit.MICROSECONDS.toNanos(config.getWriteLingerMicros());
+        this.metrics = metrics;
+        this.writeStats = metrics.getWriteStats();
+        this.backpressurePolicy = config.getBackpressurePolicy();
+        this.sendTimeoutMillis = config.getSendTimeoutMillis();
+        this.deliveryWindow = new DeliveryWindow(config.getDeliveryWindowSize());
+        metrics.recordConnectionOpened();
+    }
+
+    /**
+     * @return an id no other connection of this process has.
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * @return the user logged in over this connection, or {@code null}.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * @return the user waiting in the admission queue to log in over this
+     *         connection, or {@code null}.
+     */
+    public String getQueuedUserId() {
+        return queuedUserId;
+    }
+
+    public void setQueuedUserId(String queuedUserId) {
+        this.queuedUserId = queuedUserId;
+    }
+
+    /**
+     * @return the token the user logged in over this connection can resume its
+     *         session with, or {@code null}.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Notes that the client has just been heard from.
+     */
+    public void recordActivity() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} the client was last heard from.
+     */
+    public long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    /**
+     * @return the buckets this connection's requests are limited by, or
+     *         {@code null}.
+     */
+    public TokenBuckets getTokenBuckets() {
+        return tokenBuckets;
+    }
+
+    public void setTokenBuckets(TokenBuckets tokenBuckets) {
+        this.tokenBuckets = tokenBuckets;
+    }
+
+    public DeliveryWindow getDeliveryWindow() {
+        return deliveryWindow;
+    }
+
+    /**
+     * Queues a response to one of this client's own requests. If the queue is
+     * full the caller waits for room where it is allowed to, otherwise the
+     * client has stopped reading and is disconnected.
+     */
+    public void send(Message message) {
+        if (isClosed())
+            return;
+        boolean isTracked = DeliveryWindow.isTracked(message);
+        if (isTracked)
+            deliveryWindow.add(message, false);
+        if (outboundQueue.offer(message)) {
+            onMessageQueued();
+            return;
+        }
+        if (canBlock()) {
+            try {
+                outboundQueue.put(message);
+                onMessageQueued();
+            } catch (InterruptedException e) {
+                if (isTracked)
+                    deliveryWindow.remove(message);
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        logger.warn("Disconnecting {} as it stopped reading responses", userId);
+        close();
+    }
+
+    /**
+     * Queues a message routed from another client, applying the configured
+     * {@link BackpressurePolicy} if the queue is full. Private texts are also
+     * rejected while the delivery window is full.
+     * 
+     * @return {@code false} if the message was rejected and the sender should be
+     *         told the receiver is busy.
+     */
+    public boolean deliver(Message message) {
+        if (isClosed())
+            return false;
+        boolean isTracked = DeliveryWindow.isTracked(message);
+        if (isTracked && !deliveryWindow.add(message, true))
+            return false;
+        if (enqueue(message))
+            return true;
+        if (isTracked)
+            deliveryWindow.remove(message);
+        return false;
+    }
+
+    private boolean enqueue(Message message) {
+        if (outboundQueue.offer(message)) {
+            onMessageQueued();
+            return true;
+        }
+        switch (backpressurePolicy) {
+        case DROP:
+            droppedMessages.incrementAndGet();
+            return true;
+        case BLOCK:
+            if (canBlock()) {
+                try {
+                    if (outboundQueue.offer(message, sendTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        onMessageQueued();
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #deliver(Message)}, but never waits for queue space. Used for
+     * fan-out, where one slow receiver must not hold up the others.
+     * 
+     * @return {@code false} if the message was rejected.
+     */
+    public boolean tryDeliver(Message message) {
+        if (isClosed())
+            return false;
+        if (outboundQueue.offer(message)) {
+            onMessageQueued();
+            return true;
+        }
+        if (backpressurePolicy == BackpressurePolicy.DROP) {
+            droppedMessages.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Queues a chunk of a file relayed to the client if there is room, whatever
+     * the {@link BackpressurePolicy}: a file missing a chunk is of no use.
+     *
+     * @return {@code false} if the queue is full.
+     */
+    public boolean offerChunk(Message chunk) {
+        if (isClosed() || !outboundQueue.offer(chunk))
+            return false;
+        onMessageQueued();
+        return true;
+    }
+
+    /**
+     * @return number of routed messages discarded under
+     *         {@link BackpressurePolicy#DROP}.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Compresses the frames of at least {@code threshold} bytes sent from now
+     * on. The client must have accepted compressed frames.
+     * 
+     * @return {@code false} if this connection cannot compress.
+     */
+    public boolean enableCompression(int threshold) {
+        return false;
+    }
+
+    public abstract void close();
+
+    public abstract boolean isClosed();
+
+    /**
+     * Wakes the writer up after a message has been queued.
+     */
+    protected abstract void onMessageQueued();
+
+    /**
+     * @return {@code true} if the calling thread may wait for queue space.
+     */
+    protected abstract boolean canBlock();
+}
@@ -0,0 +1,128 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+
+/**
+ * Texts queued for a connection which its client has not acknowledged yet,
+ * grouped by conversation. Clients acknowledge cumulatively, one sequence
+ * number per conversation covering every text up to it, so a window of many
+ * texts costs only an occasional ack instead of a round trip per text.
+ */
+public class DeliveryWindow {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Deque<Message>> unacknowledged = new HashMap<String, Deque<Message>>();
+    private final int capacity;
+    private int size;
+
+    public DeliveryWindow(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return {@code true} if the message is a numbered private text, which the
+     *         client has to acknowledge.
+     */
+    public static boolean isTracked(Message message) {
+        return message.getSequenceNumber() != null && message.getSenderId() != null
+                && message.getMessageType() == MessageType.RECEIVE_TEXT;
+    }
+
+    /**
+     * Tracks a text which is about to be queued.
+     *
+     * @param bounded whether to refuse the text once the window is full.
+     * @return {@code false} if the window is full.
+     */
+    boolean add(Message message, boolean bounded) {
+        lock.lock();
+        try {
+            if (bounded && size >= capacity)
+                return false;
+            Deque<Message> texts = unacknowledged.get(message.getSenderId());
+            if (texts == null) {
+                texts = new ArrayDeque<Message>();
+                unacknowledged.put(message.getSenderId(), texts);
+            }
+            texts.addLast(message);
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops tracking a text which could not be queued after all.
+     */
+    void remove(Message message) {
+        lock.lock();
+        try {
+            Deque<Message> texts = unacknowledged.get(message.getSenderId());
+            if (texts != null && texts.removeLastOccurrence(message))
+                size--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets every text of the conversation with {@code peerId} numbered up to
+     * and including {@code sequenceNumber}.
+     */
+    public void acknowledge(String peerId, long sequenceNumber) {
+        lock.lock();
+        try {
+            Deque<Message> texts = unacknowledged.get(peerId);
+            if (texts == null)
+                return;
+            Iterator<Message> iterator = texts.iterator();
+            while (iterator.hasNext() && iterator.next().getSequenceNumber() <= sequenceNumber) {
+                iterator.remove();
+                size--;
+            }
+            if (texts.isEmpty())
+                unacknowledged.remove(peerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the window.
+     *
+     * @return the texts that were never acknowledged, in sequence order within
+     *         each conversation.
+     */
+    public List<Message> drain() {
+        lock.lock();
+        try {
+            List<Message> texts = new ArrayList<Message>(size);
+            for (Deque<Message> conversation : unacknowledged.values())
+                texts.addAll(conversation);
+            unacknowledged.clear();
+            size = 0;
+            return texts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.util.TimerWheel;
+
+/**
+ * Closes connections whose client has gone silent, such as half-open ones
+ * whose peer vanished without a FIN. A client which has sent nothing for
+ * {@code idleTimeoutSeconds} is sent a {@code PING}; if nothing at all arrives
+ * within {@code pingTimeoutSeconds} after that, its connection is closed and
+ * handled like any other that went away.
+ *
+ * Every connection has one timeout in a {@link TimerWheel}, advanced by a
+ * single daemon thread. Reading a message only stamps the connection, so the
+ * hot path never touches the wheel; a timeout falling due while the client has
+ * been active is just moved to when the client will have been idle long
+ * enough. Closed connections drop out the next time their timeout falls due.
+ */
+public class IdleReaper {
+    private static Logger logger = LoggerFactory.getLogger(IdleReaper.class);
+    private static final int WHEEL_BUCKETS = 512;
+    private static final long TICK_MILLIS = 100;
+
+    /**
+     * The reaper's view of a connection, only ever touched by its thread.
+     */
+    private static final class Watch {
+        private final ClientConnection connection;
+        private boolean isPinged;
+
+        private Watch(ClientConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final ServerMetrics metrics;
+    private final long idleNanos;
+    private final long pingTimeoutNanos;
+    private final TimerWheel<Watch> wheel;
+    private final TimerWheel.Task<Watch> check = new TimerWheel.Task<Watch>() {
+        public long expired(Watch watch, long nowNanos) {
+            return checkIdle(watch, nowNanos);
+        }
+    };
+
+    public IdleReaper(ServerConfig config, ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(config.getIdleTimeoutSeconds());
+        this.pingTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getPingTimeoutSeconds());
+        this.wheel = new TimerWheel<Watch>(WHEEL_BUCKETS, TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS),
+                System.nanoTime());
+    }
+
+    /**
+     * @return a started reaper, or {@code null} if idle connections are kept.
+     */
+    public static IdleReaper open(ServerConfig config, ServerMetrics metrics) {
+        if (config.getIdleTimeoutSeconds() <= 0)
+            return null;
+        IdleReaper reaper = new IdleReaper(config, metrics);
+        reaper.start();
+        return reaper;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                advance();
+            }
+        }, "idle-reaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching a connection. Thread-safe.
+     */
+    public void watch(ClientConnection connection) {
+        connection.recordActivity();
+        wheel.schedule(new Watch(connection), idleNanos);
+    }
+
+    private void advance() {
+        long tickMillis = TimeUnit.NANOSECONDS.toMillis(wheel.getTickNanos());
+        while (true) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                wheel.advance(System.nanoTime(), check);
+            } catch (RuntimeException e) {
+                logger.error("Could not check for idle connections", e);
+            }
+        }
+    }
+
+    private long checkIdle(Watch watch, long nowNanos) {
+        ClientConnection connection = watch.connection;
+        if (connection.isClosed())
+            return -1;
+        long idleFor = nowNanos - connection.getLastActivityNanos();
+        if (idleFor < idleNanos) {
+            watch.isPinged = false;
+            return idleNanos - idleFor;
+        }
+        if (!watch.isPinged) {
+            // Never waits for queue space: a client too far behind to take the
+            // ping will not answer it either.
+            watch.isPinged = true;
+            connection.tryDeliver(new Message.Builder().withMessageType(MessageType.PING).build());
+            return pingTimeoutNanos;
+        }
+        logger.info("Closing connection of {} which was idle for {} s", connection.getUserId(),
+                TimeUnit.NANOSECONDS.toSeconds(idleFor));
+        metrics.recordIdleConnectionReaped();
+        connection.close();
+        return -1;
+    }
+}
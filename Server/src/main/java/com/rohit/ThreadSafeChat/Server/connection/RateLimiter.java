@@ -0,0 +1,80 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.RateLimits;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+
+/**
+ * Throttles requests of the types given {@link RateLimits}, with separate
+ * {@link TokenBuckets} per connection and per user. Connection buckets also
+ * cover whatever is sent before logging in. User buckets are kept for as
+ * long as the server runs, so logging in again over a new connection does not
+ * refill them.
+ *
+ * Only the requests of this node's own clients are limited; those forwarded
+ * by other nodes of a cluster were limited where they came from.
+ */
+public class RateLimiter {
+    private static Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+
+    private final RateLimits connectionLimits;
+    private final RateLimits userLimits;
+    private final ConcurrentMap<String, TokenBuckets> userBuckets = new ConcurrentHashMap<String, TokenBuckets>();
+
+    public RateLimiter(RateLimits connectionLimits, RateLimits userLimits) {
+        this.connectionLimits = connectionLimits;
+        this.userLimits = userLimits;
+    }
+
+    /**
+     * @return a limiter, or {@code null} if no request is limited.
+     */
+    public static RateLimiter open(ServerConfig config) {
+        if (config.getRateLimits().isEmpty() && config.getUserRateLimits().isEmpty())
+            return null;
+        logger.info("Limiting requests per connection to [{}] and per user to [{}]", config.getRateLimits(),
+                config.getUserRateLimits());
+        return new RateLimiter(config.getRateLimits(), config.getUserRateLimits());
+    }
+
+    /**
+     * Gives a new client connection its buckets. Requests over connections
+     * without any, such as those standing in for clients of other nodes, are
+     * never limited.
+     */
+    public void watch(ClientConnection connection) {
+        connection.setTokenBuckets(new TokenBuckets(connectionLimits));
+    }
+
+    /**
+     * Takes a token for the request from the connection's bucket, then from the
+     * bucket of the user logged in over it.
+     *
+     * @return {@code false} if either bucket is empty.
+     */
+    public boolean tryAcquire(MessageType type, ClientConnection connection) {
+        long now = System.nanoTime();
+        TokenBuckets buckets = connection.getTokenBuckets();
+        if (buckets == null)
+            return true;
+        if (!buckets.tryAcquire(type, now))
+            return false;
+        String userId = connection.getUserId();
+        if (userId == null || userLimits.slotOf(type) < 0)
+            return true;
+        buckets = userBuckets.get(userId);
+        if (buckets == null) {
+            TokenBuckets created = new TokenBuckets(userLimits);
+            buckets = userBuckets.putIfAbsent(userId, created);
+            if (buckets == null)
+                buckets = created;
+        }
+        return buckets.tryAcquire(type, now);
+    }
+}
@@ -0,0 +1,148 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Stand-in for a client which lost its connection while logged in, holding
+ * its place until it resumes the session or the grace period is over. It takes
+ * over the texts the client never acknowledged, and buffers whatever is routed
+ * to the user meanwhile instead of writing it anywhere.
+ *
+ * At most half an outbound queue is held, so that replaying it cannot overflow
+ * the queue of the connection resuming the session; beyond that, messages are
+ * refused as if the client were not keeping up. Once the session has been
+ * resumed, whatever is still routed here is passed on to the new connection.
+ * Handing over takes the lock, so nothing passed on can overtake the replay.
+ */
+public class SuspendedSession extends ClientConnection {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final List<Message> unacknowledgedTexts;
+    private final int capacity;
+    private ClientConnection successor;
+
+    /**
+     * Takes the place of a connection which has gone away, along with the
+     * texts its client never acknowledged.
+     */
+    public SuspendedSession(ServerConfig config, ServerMetrics metrics, ClientConnection connection) {
+        super(config, metrics);
+        setUserId(connection.getUserId());
+        setSessionToken(connection.getSessionToken());
+        this.unacknowledgedTexts = connection.getDeliveryWindow().drain();
+        this.capacity = config.getOutboundQueueCapacity() / 2;
+    }
+
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Hands the session over to the connection resuming it. Must be called
+     * with the lock held, which has to be kept until the returned messages
+     * have been queued on that connection.
+     *
+     * @return the unacknowledged texts followed by everything buffered since,
+     *         in the order they are to be replayed.
+     */
+    public List<Message> resume(ClientConnection successor) {
+        this.successor = successor;
+        List<Message> messages = new ArrayList<Message>(unacknowledgedTexts);
+        unacknowledgedTexts.clear();
+        outboundQueue.drainTo(messages);
+        getDeliveryWindow().drain();
+        return messages;
+    }
+
+    /**
+     * Closes the session for good once the grace period is over.
+     *
+     * @return the private texts it held, which have to be stored to be
+     *         delivered on the next login.
+     */
+    public List<Message> end() {
+        close();
+        lock.lock();
+        try {
+            List<Message> texts = new ArrayList<Message>(unacknowledgedTexts);
+            unacknowledgedTexts.clear();
+            texts.addAll(getDeliveryWindow().drain());
+            outboundQueue.clear();
+            return texts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void send(Message message) {
+        lock.lock();
+        try {
+            if (successor != null)
+                successor.send(message);
+            else if (!isFull())
+                super.send(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deliver(Message message) {
+        lock.lock();
+        try {
+            if (successor != null)
+                return successor.deliver(message);
+            return !isFull() && super.deliver(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean tryDeliver(Message message) {
+        lock.lock();
+        try {
+            if (successor != null)
+                return successor.tryDeliver(message);
+            return !isFull() && super.tryDeliver(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFull() {
+        return unacknowledgedTexts.size() + outboundQueue.size() >= capacity;
+    }
+
+    @Override
+    public void close() {
+        if (isClosed.compareAndSet(false, true))
+            metrics.recordConnectionClosed();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed.get();
+    }
+
+    @Override
+    protected void onMessageQueued() {
+    }
+
+    @Override
+    protected boolean canBlock() {
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.RateLimits;
+
+/**
+ * One token bucket per limited {@link MessageType}. Each bucket is kept as a
+ * single long, the time at which it will be full again, which is how the
+ * generic cell rate algorithm expresses a token bucket: taking a token
+ * pushes that time one interval further, and is refused once it would be
+ * more than a burst ahead of now. A request costs one compare-and-set and
+ * allocates nothing, and the buckets are safe to share between threads.
+ */
+public class TokenBuckets {
+    private final RateLimits limits;
+    private final AtomicLongArray fullAtNanos;
+
+    public TokenBuckets(RateLimits limits) {
+        this.limits = limits;
+        this.fullAtNanos = new AtomicLongArray(limits.size());
+        // Every bucket starts out full, whatever the origin of nanoTime.
+        for (int i = 0; i < limits.size(); i++)
+            fullAtNanos.set(i, Long.MIN_VALUE);
+    }
+
+    /**
+     * Takes a token for a request of the type, if it has a bucket.
+     *
+     * @return {@code false} if the bucket is empty, in which case nothing was
+     *         taken.
+     */
+    public boolean tryAcquire(MessageType type, long nowNanos) {
+        int slot = limits.slotOf(type);
+        if (slot < 0)
+            return true;
+        long intervalNanos = limits.getIntervalNanos(slot);
+        long toleranceNanos = limits.getToleranceNanos(slot);
+        while (true) {
+            long fullAt = fullAtNanos.get(slot);
+            long next = Math.max(fullAt, nowNanos) + intervalNanos;
+            if (next - nowNanos - intervalNanos > toleranceNanos)
+                return false;
+            if (fullAtNanos.compareAndSet(slot, fullAt, next))
+                return true;
+        }
+    }
+}
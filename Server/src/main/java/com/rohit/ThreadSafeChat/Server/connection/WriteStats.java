@@ -0,0 +1,53 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server wide counts of socket flushes and of the messages coalesced into each
+ * of them. Recording is lock-free and allocation-free.
+ */
+public class WriteStats {
+    /** Buckets hold flushes of 1, 2-3, 4-7, ... messages; the last is open ended. */
+    private static final int BUCKETS = 8;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final AtomicLongArray batchSizes = new AtomicLongArray(BUCKETS);
+
+    public void recordFlush(int messagesInFlush) {
+        if (messagesInFlush <= 0)
+            return;
+        flushes.increment();
+        messages.add(messagesInFlush);
+        int bucket = Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(messagesInFlush));
+        batchSizes.incrementAndGet(bucket);
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    public double getMessagesPerFlush() {
+        long flushCount = flushes.sum();
+        return flushCount == 0 ? 0 : (double) messages.sum() / flushCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("flushes=%d messages=%d messagesPerFlush=%.2f batches=[", getFlushes(),
+                getMessages(), getMessagesPerFlush()));
+        for (int i = 0; i < BUCKETS; i++) {
+            if (i > 0)
+                builder.append(' ');
+            builder.append(i == BUCKETS - 1 ? (1 << i) + "+" : String.valueOf(1 << i)).append(':')
+                    .append(batchSizes.get(i));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.rohit.ThreadSafeChat.Server.connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+
+/**
+ * A few writer threads shared by every {@link BlockingConnection} in thread
+ * mode, where a writer thread per connection would double the platform
+ * threads. A connection with messages queued is scheduled once, writes a
+ * single batch and goes to the back of the line if more are waiting, so busy
+ * connections take turns.
+ *
+ * Writes are blocking, so a client which stops reading would keep a shared
+ * writer waiting on its full socket buffer. A watchdog thread closes any
+ * connection whose write has taken longer than {@code writeTimeoutMillis},
+ * which fails the write and frees the writer.
+ */
+public class WriterPool {
+    private static Logger logger = LoggerFactory.getLogger(WriterPool.class);
+
+    private final ExecutorService writers;
+    private final long writeTimeoutNanos;
+    private final ConcurrentMap<BlockingConnection, Long> writeStartNanos =
+            new ConcurrentHashMap<BlockingConnection, Long>();
+
+    public WriterPool(int threads, long writeTimeoutMillis) {
+        final AtomicInteger nextWriter = new AtomicInteger(0);
+        this.writers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "connection-writer-" + nextWriter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        final long checkMillis = Math.max(writeTimeoutMillis / 4, 1);
+        Thread watchdog = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(checkMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    closeStalled(System.nanoTime());
+                }
+            }
+        }, "writer-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    public static WriterPool open(ServerConfig config) {
+        return new WriterPool(config.getWriterThreads(), config.getWriteTimeoutMillis());
+    }
+
+    void execute(Runnable write) {
+        writers.execute(write);
+    }
+
+    void writeStarted(BlockingConnection connection) {
+        writeStartNanos.put(connection, System.nanoTime());
+    }
+
+    void writeFinished(BlockingConnection connection) {
+        writeStartNanos.remove(connection);
+    }
+
+    private void closeStalled(long nowNanos) {
+        for (Map.Entry<BlockingConnection, Long> write : writeStartNanos.entrySet()) {
+            if (nowNanos - write.getValue() < writeTimeoutNanos)
+                continue;
+            BlockingConnection connection = write.getKey();
+            writeStartNanos.remove(connection, write.getValue());
+            logger.warn("Disconnecting {} as a write to it took over {} ms", connection.getUserId(),
+                    TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos));
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,1413 @@
+package com.rohit.ThreadSafeChat.Server.handler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.EncodedMessage;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.FileChunk;
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+import com.rohit.ThreadSafeChat.Server.cluster.ClusterNode;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.connection.IdleReaper;
+import com.rohit.ThreadSafeChat.Server.connection.RateLimiter;
+import com.rohit.ThreadSafeChat.Server.connection.SuspendedSession;
+import com.rohit.ThreadSafeChat.Server.exception.InvalidRequestMessageException;
+import com.rohit.ThreadSafeChat.Server.history.HistoryStore;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.model.Conversation;
+import com.rohit.ThreadSafeChat.Server.model.PendingLogin;
+import com.rohit.ThreadSafeChat.Server.model.Room;
+import com.rohit.ThreadSafeChat.Server.model.User;
+import com.rohit.ThreadSafeChat.Server.registry.AdmissionQueue;
+import com.rohit.ThreadSafeChat.Server.registry.ConversationRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.LoginResult;
+import com.rohit.ThreadSafeChat.Server.registry.PresenceRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.RoomRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.SessionRegistry;
+import com.rohit.ThreadSafeChat.Server.registry.TransferRegistry;
+import com.rohit.ThreadSafeChat.Server.search.SearchIndex;
+import com.rohit.ThreadSafeChat.Server.registry.UserRegistry;
+import com.rohit.ThreadSafeChat.Server.store.OfflineMessageStore;
+import com.rohit.ThreadSafeChat.Server.store.RegistrationStore;
+import com.rohit.ThreadSafeChat.Server.util.ResponseMessages;
+
+/**
+ * Thread-safe registration, login, logoff and text routing logic shared by
+ * every {@link ClientConnection}, whichever way the connections are driven.
+ * Users stay registered once they are, and an optional
+ * {@link RegistrationStore} keeps them across restarts.
+ * All shared state lives in the lock-free {@link UserRegistry}, so routing a
+ * text never waits for logins or for messages to other users. Texts for
+ * users who are not logged in are kept in an optional
+ * {@link OfflineMessageStore} and handed over on their next login. Texts to a
+ * room are encoded once and the same bytes are queued for every member.
+ * Private texts are recorded in an optional {@link HistoryStore} off the send
+ * path, and read back a page at a time. An optional {@link SearchIndex}
+ * indexes them off the send path too, and finds them again by their words.
+ *
+ * Every text is timestamped, and numbered within its conversation or room.
+ * Receivers acknowledge private texts cumulatively per conversation; texts
+ * still unacknowledged when a connection goes away are stored again and
+ * redelivered on the next login.
+ *
+ * While the server is full, logins wait in an {@link AdmissionQueue} and are
+ * admitted first come, first served as other users leave.
+ *
+ * With a {@link SessionRegistry}, every login comes with a resumption token.
+ * The session of a client which loses its connection is then held for a grace
+ * period, keeping its login, its rooms and whatever is routed to it, until the
+ * client resumes it with the token over a new connection.
+ *
+ * Requests are counted by type, and the time taken to route texts and to wait
+ * for and hold conversation locks is recorded in the {@link ServerMetrics}.
+ *
+ * Clients can subscribe to the presence of other users. Logins and logoffs
+ * only mark their user in the {@link PresenceRegistry}, which pushes the
+ * changes to subscribers a window later from its own thread.
+ *
+ * Files are relayed between users through a {@link TransferRegistry}, which
+ * spools them to disk and passes them on at the pace the receiver takes them.
+ * Both users have to be connected to the same server.
+ *
+ * As part of a cluster, requests owned by another node are forwarded to it by
+ * the {@link ClusterNode}, and texts to users homed on another node are routed
+ * there.
+ * 
+ * @author Rohit Mazumder (mazumder.rohit7@gmail.com)
+ */
+public class RequestHandler {
+    private static Logger logger = LoggerFactory.getLogger(RequestHandler.class);
+
+    private final UserRegistry userRegistry;
+    private final RoomRegistry roomRegistry;
+    private final ConversationRegistry conversationRegistry = new ConversationRegistry();
+    private final OfflineMessageStore offlineMessageStore;
+    private final MessageCodec fanOutCodec;
+    private final HistoryStore historyStore;
+    private final int maxHistoryPageSize;
+    private final ServerMetrics metrics;
+    private final AdmissionQueue admissionQueue;
+    private final ClusterNode clusterNode;
+    private final SessionRegistry sessionRegistry;
+    private final int compressionThreshold;
+    private final IdleReaper idleReaper;
+    private final RateLimiter rateLimiter;
+    private final PresenceRegistry presenceRegistry;
+    private final RegistrationStore registrationStore;
+    private final TransferRegistry transferRegistry;
+    private final SearchIndex searchIndex;
+
+    public RequestHandler() {
+        this(new Builder());
+    }
+
+    public RequestHandler(UserRegistry userRegistry) {
+        this(new Builder().withUserRegistry(userRegistry));
+    }
+
+    private RequestHandler(Builder builder) {
+        this.userRegistry = builder.userRegistry;
+        this.roomRegistry = builder.roomRegistry;
+        this.offlineMessageStore = builder.offlineMessageStore;
+        this.fanOutCodec = builder.fanOutCodec;
+        this.historyStore = builder.historyStore;
+        this.maxHistoryPageSize = builder.maxHistoryPageSize;
+        this.metrics = builder.metrics;
+        this.clusterNode = builder.clusterNode;
+        this.sessionRegistry = builder.sessionRegistry;
+        this.compressionThreshold = builder.compressionThreshold;
+        this.idleReaper = builder.idleReaper;
+        this.rateLimiter = builder.rateLimiter;
+        this.presenceRegistry = builder.presenceRegistry;
+        this.registrationStore = builder.registrationStore;
+        this.transferRegistry = builder.transferRegistry;
+        this.searchIndex = builder.searchIndex;
+        this.admissionQueue = new AdmissionQueue(userRegistry, builder.admissionQueueCapacity,
+                builder.admissionTimeoutMillis, builder.admissionUpdateIntervalMillis, new AdmissionListener());
+        metrics.registerGauge("users_registered", new ServerMetrics.Gauge() {
+            public long read() {
+                return userRegistry.getNumberOfRegisteredUsers();
+            }
+        });
+        metrics.registerGauge("users_logged_in", new ServerMetrics.Gauge() {
+            public long read() {
+                return userRegistry.getNumberOfLoggedInUsers();
+            }
+        });
+        metrics.registerGauge("logins_waiting", new ServerMetrics.Gauge() {
+            public long read() {
+                return admissionQueue.size();
+            }
+        });
+        if (sessionRegistry != null) {
+            sessionRegistry.start(new SessionListener());
+            metrics.registerGauge("sessions_suspended", new ServerMetrics.Gauge() {
+                public long read() {
+                    return sessionRegistry.size();
+                }
+            });
+        }
+        if (transferRegistry != null) {
+            metrics.registerGauge("file_transfers", new ServerMetrics.Gauge() {
+                public long read() {
+                    return transferRegistry.size();
+                }
+            });
+        }
+    }
+
+    public UserRegistry getUserRegistry() {
+        return userRegistry;
+    }
+
+    public RoomRegistry getRoomRegistry() {
+        return roomRegistry;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void processMessage(Message message, ClientConnection connection) throws InvalidRequestMessageException {
+        if (message.getMessageType() == null)
+            throw new InvalidRequestMessageException();
+        connection.recordActivity();
+        if (rateLimiter != null && !rateLimiter.tryAcquire(message.getMessageType(), connection)) {
+            throttle(message, connection);
+            return;
+        }
+        if (clusterNode != null && clusterNode.forward(message, connection))
+            return;
+        metrics.recordReceived(message);
+        long startTime = System.nanoTime();
+        switch (message.getMessageType()) {
+        case USER_REGISTRATION_REQUEST:
+            processUserRegistrationRequest(message, connection);
+            break;
+        case USER_LOGIN_REQUEST:
+            processLoginRequest(message, connection);
+            break;
+        case USER_LOGOFF_REQUEST:
+            processLogoffRequest(message, connection);
+            break;
+        case SEND_TEXT_REQUEST:
+            processSendTextRequest(message, connection);
+            metrics.recordRouting(System.nanoTime() - startTime);
+            break;
+        case ROOM_CREATE_REQUEST:
+            processRoomCreateRequest(message, connection);
+            break;
+        case ROOM_JOIN_REQUEST:
+            processRoomJoinRequest(message, connection);
+            break;
+        case ROOM_LEAVE_REQUEST:
+            processRoomLeaveRequest(message, connection);
+            break;
+        case SEND_ROOM_TEXT_REQUEST:
+            processSendRoomTextRequest(message, connection);
+            metrics.recordRouting(System.nanoTime() - startTime);
+            break;
+        case HISTORY_REQUEST:
+            processHistoryRequest(message, connection);
+            break;
+        case SEARCH_REQUEST:
+            processSearchRequest(message, connection);
+            break;
+        case DELIVERY_ACK:
+            processDeliveryAck(message, connection);
+            break;
+        case SESSION_RESUME_REQUEST:
+            processSessionResumeRequest(message, connection);
+            break;
+        case CAPABILITIES_REQUEST:
+            processCapabilitiesRequest(message, connection);
+            break;
+        case PRESENCE_SUBSCRIBE_REQUEST:
+            processPresenceSubscribeRequest(message, connection);
+            break;
+        case PRESENCE_UNSUBSCRIBE_REQUEST:
+            processPresenceUnsubscribeRequest(message, connection);
+            break;
+        case FILE_OFFER_REQUEST:
+            processFileOfferRequest(message, connection);
+            break;
+        case FILE_ACCEPT_REQUEST:
+            processFileAcceptRequest(message, connection);
+            break;
+        case FILE_CANCEL_REQUEST:
+            processFileCancelRequest(message, connection);
+            break;
+        case FILE_DATA:
+            // Neither chunks nor their acknowledgements are answered.
+            if (transferRegistry != null && message instanceof FileChunk)
+                transferRegistry.receive((FileChunk) message, connection);
+            break;
+        case FILE_ACK:
+            if (transferRegistry != null)
+                transferRegistry.acknowledge(message, connection);
+            break;
+        case PING:
+            Message pong = newResponse(MessageType.PONG, message);
+            pong.setStatus(Status.OK);
+            connection.send(pong);
+            break;
+        case PONG:
+            // Only ever sent to show the client is still there.
+            break;
+        default:
+            throw new InvalidRequestMessageException();
+        }
+    }
+
+    /**
+     * Registers the user straight away, but with a {@link RegistrationStore}
+     * only answers once the registration is saved, from the store's writer.
+     */
+    private void processUserRegistrationRequest(Message message, final ClientConnection connection) {
+        final String userId = message.getSenderId();
+        final Message registrationResponse = newResponse(MessageType.REGISTRATION_RESPONSE, message);
+
+        if (userId == null || userId.isEmpty()
+                || !(registrationStore == null ? userRegistry.register(userId) : userRegistry.reserve(userId))) {
+            registrationResponse.setText(String.format(ResponseMessages.USER_ALREADY_REGISTERED, userId));
+            registrationResponse.setStatus(Status.INVALID_REQUEST);
+        } else if (registrationStore != null) {
+            // Confirmed on the writer thread before it moves on to a new log
+            // generation, so the snapshot of the older ones includes the user.
+            registrationStore.save(userId, new RegistrationStore.Callback() {
+                public void completed(IOException error) {
+                    if (error == null)
+                        userRegistry.confirm(userId);
+                    else
+                        userRegistry.cancel(userId);
+                    registrationResponse.setStatus(error == null ? Status.OK : Status.INTERNAL_SERVER_ERROR);
+                    registrationResponse.setText(String.format(error == null ? ResponseMessages.REGISTRATION_SUCCESSFUL
+                            : ResponseMessages.REGISTRATION_NOT_SAVED, userId));
+                    connection.send(registrationResponse);
+                }
+            });
+            return;
+        } else {
+            registrationResponse.setStatus(Status.OK);
+            registrationResponse.setText(String.format(ResponseMessages.REGISTRATION_SUCCESSFUL, userId));
+        }
+        connection.send(registrationResponse);
+    }
+
+    private void processLoginRequest(Message message, ClientConnection connection) {
+        String userId = message.getSenderId();
+        releaseSuspendedSession(userId);
+        LoginResult result = login(userId, connection);
+        if (result == LoginResult.SERVER_FULL)
+            queueLogin(userId, connection, message.getCorrelationId());
+        else
+            respondToLogin(userId, connection, message.getCorrelationId(), result);
+    }
+
+    /**
+     * Logs the user in straight away, unless others are already waiting for a
+     * slot, in which case it has to queue behind them.
+     */
+    private LoginResult login(String userId, ClientConnection connection) {
+        if (userId == null)
+            return LoginResult.NOT_REGISTERED;
+        if (admissionQueue.isEmpty())
+            return userRegistry.login(userId, connection);
+        User user = userRegistry.get(userId);
+        if (user == null)
+            return LoginResult.NOT_REGISTERED;
+        return user.getIsLoggedIn() ? LoginResult.ALREADY_LOGGED_IN : LoginResult.SERVER_FULL;
+    }
+
+    /**
+     * Queues the login, replacing any other login the connection was waiting
+     * for. The login is only let through once the client has been told its
+     * position, so that the two responses arrive in order.
+     */
+    private void queueLogin(String userId, ClientConnection connection, Long correlationId) {
+        String previousUserId = connection.getQueuedUserId();
+        if (previousUserId != null && !previousUserId.equals(userId))
+            admissionQueue.cancel(previousUserId, connection);
+        connection.setQueuedUserId(userId);
+        int position = admissionQueue.enqueue(userId, connection);
+        Message loginResponse = newLoginResponse(userId, correlationId);
+        if (position == 0) {
+            connection.setQueuedUserId(null);
+            loginResponse.setStatus(Status.SERVER_BUSY);
+            loginResponse.setText(String.format(ResponseMessages.LOGIN_QUEUE_FULL, admissionQueue.size()));
+        } else {
+            loginResponse.setStatus(Status.REQUEST_QUEUED);
+            loginResponse.setText(String.format(ResponseMessages.LOGIN_REQUEST_QUEUED, userId, position));
+            loginResponse.setSequenceNumber((long) position);
+        }
+        connection.send(loginResponse);
+        if (position > 0)
+            admissionQueue.announced(userId, connection);
+    }
+
+    /**
+     * Answers a login and, once the response is queued, starts streaming any
+     * stored texts to the user in the background.
+     *
+     * @param correlationId of the login request, or {@code null} once the
+     *                      request has been answered as queued.
+     */
+    private void respondToLogin(String userId, ClientConnection connection, Long correlationId, LoginResult result) {
+        Message loginResponse = newLoginResponse(userId, correlationId);
+        switch (result) {
+        case OK:
+            loginResponse.setStatus(Status.OK);
+            loginResponse.setText(String.format(ResponseMessages.LOGIN_SUCCESSFUL, userId));
+            if (sessionRegistry != null) {
+                connection.setSessionToken(sessionRegistry.newToken());
+                loginResponse.setSessionToken(connection.getSessionToken());
+            }
+            break;
+        case NOT_REGISTERED:
+            loginResponse.setText(String.format(ResponseMessages.USER_ID_NOT_REGISTERED, userId));
+            loginResponse.setStatus(Status.INVALID_REQUEST);
+            break;
+        case SERVER_FULL:
+            throw new IllegalArgumentException("Full server logins have to be queued");
+        case ALREADY_LOGGED_IN:
+            loginResponse.setText(String.format(ResponseMessages.DUPLICATE_LOGIN_REQUEST, userId));
+            loginResponse.setStatus(Status.INVALID_REQUEST);
+            break;
+        }
+        connection.send(loginResponse);
+        if (result == LoginResult.OK && presenceRegistry != null)
+            presenceRegistry.changed(userId);
+        if (result == LoginResult.OK && offlineMessageStore != null)
+            offlineMessageStore.deliver(userId, connection);
+    }
+
+    private static Message newLoginResponse(String userId, Long correlationId) {
+        Message loginResponse = new Message();
+        loginResponse.setMessageType(MessageType.LOGIN_RESPONSE);
+        loginResponse.setReceiverId(userId);
+        loginResponse.setCorrelationId(correlationId);
+        return loginResponse;
+    }
+
+    /**
+     * Lets a user log in afresh while its last session is still held, which
+     * then ends as if it had expired.
+     */
+    private void releaseSuspendedSession(String userId) {
+        User user = userId == null || sessionRegistry == null ? null : userRegistry.get(userId);
+        ClientConnection current = user == null ? null : user.getConnection();
+        if (current instanceof SuspendedSession && sessionRegistry.remove((SuspendedSession) current))
+            endSuspendedSession((SuspendedSession) current);
+    }
+
+    /**
+     * Re-attaches a client to the session it held before losing its
+     * connection. The login and the rooms move over to the new connection, and
+     * everything held for the client is replayed right behind the response,
+     * followed by any stored texts. Tokens are single use; the response carries
+     * the next one.
+     */
+    private void processSessionResumeRequest(Message message, ClientConnection connection) {
+        String userId = message.getSenderId();
+        Message resumeResponse = newResponse(MessageType.SESSION_RESUME_RESPONSE, message);
+        SuspendedSession session = null;
+        if (sessionRegistry != null && userId != null && message.getSessionToken() != null
+                && connection.getUserId() == null)
+            session = sessionRegistry.take(message.getSessionToken(), userId);
+        if (session == null) {
+            resumeResponse.setStatus(Status.INVALID_REQUEST);
+            resumeResponse.setText(String.format(ResponseMessages.SESSION_NOT_RESUMABLE, userId));
+            connection.send(resumeResponse);
+            return;
+        }
+        session.lock();
+        try {
+            List<Message> held = session.resume(connection);
+            connection.setSessionToken(sessionRegistry.newToken());
+            resumeResponse.setStatus(Status.OK);
+            resumeResponse.setText(String.format(ResponseMessages.SESSION_RESUMED, userId, held.size()));
+            resumeResponse.setSessionToken(connection.getSessionToken());
+            connection.send(resumeResponse);
+            for (Message heldMessage : held)
+                connection.send(heldMessage);
+            // Only now, so that nothing routed to the new connection can
+            // overtake the replay.
+            if (!userRegistry.transfer(userId, session, connection))
+                logger.warn("Session of {} was resumed after its user had logged off", userId);
+            roomRegistry.moveAll(session, connection);
+            if (presenceRegistry != null)
+                presenceRegistry.moveAll(session, connection);
+        } finally {
+            session.unlock();
+        }
+        session.close();
+        if (offlineMessageStore != null)
+            offlineMessageStore.deliver(userId, connection);
+    }
+
+    /**
+     * Numbers the text within its conversation and routes it while holding the
+     * conversation's lock. Under the {@code BLOCK} backpressure policy the
+     * lock may be held for up to {@code sendTimeoutMillis} while the receiver's
+     * queue is full, delaying the other user's texts in the same conversation.
+     * Only the user logged in on the connection can send, as texts are kept in
+     * history under their sender. In a cluster the lock is not held while the
+     * text is on its way to another node.
+     */
+    private void processSendTextRequest(Message message, final ClientConnection connection) {
+        Message sendTextResponse = newResponse(MessageType.SEND_TEXT_RESPONSE, message);
+        message.setCorrelationId(null);
+
+        if (connection.getUserId() == null || !connection.getUserId().equals(message.getSenderId())) {
+            setNotLoggedIn(sendTextResponse, message);
+            connection.send(sendTextResponse);
+            return;
+        }
+        if (message.getReceiverId() == null) {
+            routeText(message, sendTextResponse);
+            connection.send(sendTextResponse);
+            return;
+        }
+        Conversation conversation = conversationRegistry.get(message.getSenderId(), message.getReceiverId());
+        long lockRequestTime = System.nanoTime();
+        conversation.lock();
+        long lockTime = System.nanoTime();
+        metrics.recordLockWait(lockTime - lockRequestTime);
+        try {
+            if (!conversation.isStarted())
+                conversation.startAt(historyStore == null ? 1
+                        : historyStore.getNextSequence(message.getSenderId(), message.getReceiverId()));
+            message.setSequenceNumber(conversation.getNextSequence());
+            message.setTimestamp(System.currentTimeMillis());
+            if (clusterNode != null) {
+                routeThroughCluster(message, sendTextResponse, conversation, connection);
+                return;
+            }
+            routeText(message, sendTextResponse);
+            if (sendTextResponse.getStatus() == Status.OK) {
+                conversation.advance();
+                recordText(message, sendTextResponse);
+            }
+        } catch (IOException e) {
+            logger.error("Could not read the history of " + message.getSenderId() + " with "
+                    + message.getReceiverId(), e);
+            sendTextResponse.setStatus(Status.INTERNAL_SERVER_ERROR);
+            sendTextResponse.setText(ResponseMessages.UNKNOWN_ERROR);
+        } finally {
+            long unlockTime = System.nanoTime();
+            conversation.unlock();
+            metrics.recordLockHold(unlockTime - lockTime);
+        }
+        connection.send(sendTextResponse);
+    }
+
+    /**
+     * Routes a numbered text to a receiver homed on another node without
+     * waiting for the outcome, which answers the sender once it comes back.
+     * Meanwhile the conversation's next texts get the next numbers, so a text
+     * which turns out to have failed leaves a gap. Outcomes are handled in the
+     * order the texts were numbered, keeping the history in order. Must be
+     * called with the conversation's lock held.
+     */
+    private void routeThroughCluster(final Message message, final Message sendTextResponse,
+            Conversation conversation, final ClientConnection connection) {
+        CompletableFuture<Message> outcome = clusterNode.route(message);
+        if (outcome == null) {
+            routeText(message, sendTextResponse);
+            outcome = CompletableFuture.completedFuture(sendTextResponse);
+            if (sendTextResponse.getStatus() == Status.OK)
+                conversation.advance();
+        } else {
+            conversation.advance();
+        }
+        conversation.whenRouted(outcome, new Conversation.Callback() {
+            public void routed(Message routed) {
+                sendTextResponse.setStatus(routed.getStatus());
+                sendTextResponse.setText(routed.getText());
+                if (routed.getStatus() == Status.OK)
+                    recordText(message, sendTextResponse);
+                connection.send(sendTextResponse);
+            }
+        });
+    }
+
+    /**
+     * Tells the sender the number and time of a routed text, and keeps it in
+     * the history.
+     */
+    private void recordText(Message message, Message sendTextResponse) {
+        sendTextResponse.setSequenceNumber(message.getSequenceNumber());
+        sendTextResponse.setTimestamp(message.getTimestamp());
+        if (historyStore != null)
+            historyStore.record(message);
+        if (searchIndex != null)
+            searchIndex.index(message);
+    }
+
+    private void routeText(Message message, Message sendTextResponse) {
+        User receiver = message.getReceiverId() == null ? null : userRegistry.get(message.getReceiverId());
+        ClientConnection receiverConnection = receiver == null ? null : receiver.getConnection();
+        if (receiver == null) {
+            sendTextResponse.setStatus(Status.INVALID_REQUEST);
+            sendTextResponse.setText(String.format(ResponseMessages.USER_ID_NOT_REGISTERED, message.getReceiverId()));
+        } else if (offlineMessageStore != null && hasToBeStored(message.getReceiverId(), receiverConnection)) {
+            message.setMessageType(MessageType.RECEIVE_TEXT);
+            storeText(message, sendTextResponse);
+            ClientConnection loggedInConnection = receiver.getConnection();
+            if (loggedInConnection != null && !(loggedInConnection instanceof SuspendedSession))
+                offlineMessageStore.deliver(message.getReceiverId(), loggedInConnection);
+        } else if (receiverConnection == null) {
+            sendTextResponse.setStatus(Status.INVALID_REQUEST);
+            sendTextResponse.setText(String.format(ResponseMessages.USER_ID_NOT_LOGGED_IN, message.getReceiverId()));
+        } else {
+            message.setMessageType(MessageType.RECEIVE_TEXT);
+            if (receiverConnection.deliver(message)) {
+                sendTextResponse.setStatus(Status.OK);
+                sendTextResponse
+                        .setText(String.format(ResponseMessages.TEXT_SENT_SUCCESSFUL, message.getReceiverId()));
+            } else {
+                sendTextResponse.setStatus(Status.RECEIVER_BUSY);
+                sendTextResponse.setText(String.format(ResponseMessages.RECEIVER_BUSY, message.getReceiverId()));
+            }
+        }
+    }
+
+    /**
+     * Routes a numbered text from the node of its conversation to its receiver,
+     * who is homed on this node.
+     *
+     * @return a response carrying the outcome.
+     */
+    public Message routeForwardedText(Message text) {
+        Message sendTextResponse = new Message();
+        routeText(text, sendTextResponse);
+        return sendTextResponse;
+    }
+
+    /**
+     * Texts are stored while the receiver is offline, and also while older
+     * stored texts are still being delivered to it so that they stay in order.
+     */
+    private boolean hasToBeStored(String receiverId, ClientConnection receiverConnection) {
+        try {
+            return receiverConnection == null || offlineMessageStore.hasPending(receiverId);
+        } catch (IOException e) {
+            logger.error("Could not read the offline mailbox of " + receiverId, e);
+            return receiverConnection == null;
+        }
+    }
+
+    private void storeText(Message message, Message sendTextResponse) {
+        try {
+            if (offlineMessageStore.store(message)) {
+                sendTextResponse.setStatus(Status.OK);
+                sendTextResponse
+                        .setText(String.format(ResponseMessages.TEXT_STORED_SUCCESSFUL, message.getReceiverId()));
+            } else {
+                sendTextResponse.setStatus(Status.RECEIVER_BUSY);
+                sendTextResponse.setText(String.format(ResponseMessages.OFFLINE_MAILBOX_FULL, message.getReceiverId()));
+            }
+        } catch (IOException e) {
+            logger.error("Could not store a text for " + message.getReceiverId(), e);
+            sendTextResponse.setStatus(Status.INTERNAL_SERVER_ERROR);
+            sendTextResponse.setText(ResponseMessages.UNKNOWN_ERROR);
+        }
+    }
+
+    private void processRoomCreateRequest(Message message, ClientConnection connection) {
+        String roomName = message.getReceiverId();
+        Message createResponse = newResponse(MessageType.ROOM_CREATE_RESPONSE, message);
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(createResponse, message);
+        } else if (roomName == null || roomRegistry.create(roomName) == null) {
+            createResponse.setStatus(Status.INVALID_REQUEST);
+            createResponse.setText(String.format(ResponseMessages.ROOM_ALREADY_EXISTS, roomName));
+        } else {
+            roomRegistry.join(roomRegistry.get(roomName), connection);
+            createResponse.setStatus(Status.OK);
+            createResponse.setText(String.format(ResponseMessages.ROOM_CREATED, roomName));
+        }
+        connection.send(createResponse);
+    }
+
+    private void processRoomJoinRequest(Message message, ClientConnection connection) {
+        Room room = message.getReceiverId() == null ? null : roomRegistry.get(message.getReceiverId());
+        Message joinResponse = newResponse(MessageType.ROOM_JOIN_RESPONSE, message);
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(joinResponse, message);
+        } else if (room == null) {
+            joinResponse.setStatus(Status.INVALID_REQUEST);
+            joinResponse.setText(String.format(ResponseMessages.ROOM_NOT_FOUND, message.getReceiverId()));
+        } else if (!roomRegistry.join(room, connection)) {
+            joinResponse.setStatus(Status.INVALID_REQUEST);
+            joinResponse.setText(String.format(ResponseMessages.ROOM_ALREADY_JOINED, room.getName()));
+        } else {
+            joinResponse.setStatus(Status.OK);
+            joinResponse.setText(String.format(ResponseMessages.ROOM_JOINED, room.getName()));
+        }
+        connection.send(joinResponse);
+    }
+
+    private void processRoomLeaveRequest(Message message, ClientConnection connection) {
+        Room room = message.getReceiverId() == null ? null : roomRegistry.get(message.getReceiverId());
+        Message leaveResponse = newResponse(MessageType.ROOM_LEAVE_RESPONSE, message);
+        if (room == null) {
+            leaveResponse.setStatus(Status.INVALID_REQUEST);
+            leaveResponse.setText(String.format(ResponseMessages.ROOM_NOT_FOUND, message.getReceiverId()));
+        } else if (!roomRegistry.leave(room, connection)) {
+            leaveResponse.setStatus(Status.INVALID_REQUEST);
+            leaveResponse.setText(String.format(ResponseMessages.NOT_A_ROOM_MEMBER, room.getName()));
+        } else {
+            leaveResponse.setStatus(Status.OK);
+            leaveResponse.setText(String.format(ResponseMessages.ROOM_LEFT, room.getName()));
+        }
+        connection.send(leaveResponse);
+    }
+
+    /**
+     * Queues one shared, already encoded copy of the text for every other
+     * member. Members whose queue is full miss the text rather than holding up
+     * the rest of the room.
+     */
+    private void processSendRoomTextRequest(Message message, ClientConnection connection) {
+        Room room = message.getReceiverId() == null ? null : roomRegistry.get(message.getReceiverId());
+        Message sendTextResponse = newResponse(MessageType.SEND_ROOM_TEXT_RESPONSE, message);
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(sendTextResponse, message);
+        } else if (room == null) {
+            sendTextResponse.setStatus(Status.INVALID_REQUEST);
+            sendTextResponse.setText(String.format(ResponseMessages.ROOM_NOT_FOUND, message.getReceiverId()));
+        } else if (!room.isMember(connection)) {
+            sendTextResponse.setStatus(Status.INVALID_REQUEST);
+            sendTextResponse.setText(String.format(ResponseMessages.NOT_A_ROOM_MEMBER, room.getName()));
+        } else {
+            Message roomText = new Message.Builder().withMessageType(MessageType.RECEIVE_ROOM_TEXT)
+                    .withSenderId(connection.getUserId()).withReceiverId(room.getName()).withText(message.getText())
+                    .withSequenceNumber(room.nextSequence()).withTimestamp(System.currentTimeMillis()).build();
+            try {
+                if (fanOutCodec != null)
+                    roomText = EncodedMessage.encode(roomText, fanOutCodec);
+                int delivered = 0;
+                for (ClientConnection member : room.getMembers()) {
+                    if (member != connection && member.tryDeliver(roomText))
+                        delivered++;
+                }
+                sendTextResponse.setStatus(Status.OK);
+                sendTextResponse.setText(String.format(ResponseMessages.ROOM_TEXT_SENT, delivered, room.getName()));
+            } catch (IOException e) {
+                logger.error("Could not encode a text for room " + room.getName(), e);
+                sendTextResponse.setStatus(Status.INTERNAL_SERVER_ERROR);
+                sendTextResponse.setText(ResponseMessages.UNKNOWN_ERROR);
+            }
+        }
+        connection.send(sendTextResponse);
+    }
+
+    /**
+     * Streams a page of the conversation with another user straight from the
+     * history files to the connection, followed by a response carrying the
+     * lowest sequence number sent, from where the next page can be asked for.
+     * The files are read on a history reader thread rather than the calling
+     * one, which may be an event loop.
+     */
+    private void processHistoryRequest(Message message, final ClientConnection connection) {
+        final Message historyResponse = newResponse(MessageType.HISTORY_RESPONSE, message);
+        final String userId = connection.getUserId();
+        final String peerId = message.getReceiverId();
+        final Long beforeSequence = message.getSequenceNumber();
+        Integer pageSize = message.getPageSize();
+        if (userId == null) {
+            setNotLoggedIn(historyResponse, message);
+        } else if (historyStore == null || peerId == null || (pageSize != null && pageSize < 1)) {
+            historyResponse.setStatus(Status.INVALID_REQUEST);
+            historyResponse.setText(ResponseMessages.INVALID_HISTORY_REQUEST);
+        } else {
+            final int count = pageSize == null ? maxHistoryPageSize : Math.min(pageSize, maxHistoryPageSize);
+            if (historyStore.executeRead(new Runnable() {
+                public void run() {
+                    readHistory(userId, peerId, beforeSequence, count, historyResponse, connection);
+                }
+            }))
+                return;
+            setHistoryBusy(historyResponse);
+        }
+        connection.send(historyResponse);
+    }
+
+    /**
+     * Streams a page of history to the client and answers its request, on a
+     * history reader thread.
+     */
+    private void readHistory(String userId, String peerId, Long beforeSequence, int count,
+            Message historyResponse, final ClientConnection connection) {
+        final long[] lowestSequence = { 0 };
+        try {
+            int sent = historyStore.read(userId, peerId, beforeSequence, count, new HistoryStore.Visitor() {
+                public void visit(Message entry) {
+                    if (lowestSequence[0] == 0)
+                        lowestSequence[0] = entry.getSequenceNumber();
+                    connection.send(entry);
+                }
+            });
+            historyResponse.setStatus(Status.OK);
+            historyResponse.setText(String.format(ResponseMessages.HISTORY_SENT, sent, peerId));
+            if (sent > 0)
+                historyResponse.setSequenceNumber(lowestSequence[0]);
+        } catch (IOException e) {
+            logger.error("Could not read the history of " + userId + " with " + peerId, e);
+            historyResponse.setStatus(Status.INTERNAL_SERVER_ERROR);
+            historyResponse.setText(ResponseMessages.UNKNOWN_ERROR);
+        }
+        connection.send(historyResponse);
+    }
+
+    private void setHistoryBusy(Message response) {
+        response.setStatus(Status.SERVER_BUSY);
+        response.setText(ResponseMessages.HISTORY_BUSY);
+    }
+
+    /**
+     * Sends a page of the texts of the user holding every word of the query,
+     * best first, each read back from the history, followed by a response
+     * carrying the offset of the next page if there is one. Texts which have
+     * not made it to the history yet are left out of the page. Like history
+     * reads, searches run on a history reader thread.
+     */
+    private void processSearchRequest(Message message, final ClientConnection connection) {
+        final Message searchResponse = newResponse(MessageType.SEARCH_RESPONSE, message);
+        final String userId = connection.getUserId();
+        final String query = message.getText();
+        Integer pageSize = message.getPageSize();
+        Long offset = message.getSequenceNumber();
+        if (userId == null) {
+            setNotLoggedIn(searchResponse, message);
+        } else if (searchIndex == null || historyStore == null) {
+            searchResponse.setStatus(Status.INVALID_REQUEST);
+            searchResponse.setText(ResponseMessages.SEARCH_NOT_AVAILABLE);
+        } else if (query == null || query.trim().isEmpty() || (pageSize != null && pageSize < 1)
+                || (offset != null && (offset < 0 || offset > Integer.MAX_VALUE - maxHistoryPageSize))) {
+            searchResponse.setStatus(Status.INVALID_REQUEST);
+            searchResponse.setText(ResponseMessages.INVALID_SEARCH_REQUEST);
+        } else {
+            final int from = offset == null ? 0 : offset.intValue();
+            final int count = pageSize == null ? maxHistoryPageSize : Math.min(pageSize, maxHistoryPageSize);
+            if (historyStore.executeRead(new Runnable() {
+                public void run() {
+                    search(userId, query, from, count, searchResponse, connection);
+                }
+            }))
+                return;
+            setHistoryBusy(searchResponse);
+        }
+        connection.send(searchResponse);
+    }
+
+    /**
+     * Streams a page of search results to the client and answers its request,
+     * on a history reader thread.
+     */
+    private void search(final String userId, String query, int from, int count, Message searchResponse,
+            final ClientConnection connection) {
+        final int[] sent = { 0 };
+        try {
+            int found = searchIndex.search(userId, query, from, count, new SearchIndex.Visitor() {
+                public void visit(String peerId, long sequence) {
+                    try {
+                        Message entry = historyStore.get(userId, peerId, sequence);
+                        if (entry == null)
+                            return;
+                        entry.setMessageType(MessageType.SEARCH_RESULT);
+                        connection.send(entry);
+                        sent[0]++;
+                    } catch (IOException e) {
+                        logger.error("Could not read the history of " + userId + " with " + peerId, e);
+                    }
+                }
+            });
+            searchResponse.setStatus(Status.OK);
+            searchResponse.setText(String.format(ResponseMessages.SEARCH_SENT, sent[0], found, query));
+            if (from + count < found)
+                searchResponse.setSequenceNumber((long) (from + count));
+        } catch (IOException e) {
+            logger.error("Could not search the texts of " + userId, e);
+            searchResponse.setStatus(Status.INTERNAL_SERVER_ERROR);
+            searchResponse.setText(ResponseMessages.UNKNOWN_ERROR);
+        }
+        connection.send(searchResponse);
+    }
+
+    /**
+     * Forgets the texts of a conversation the client has received, up to the
+     * acknowledged sequence number. Acks are not answered.
+     */
+    private void processDeliveryAck(Message message, ClientConnection connection) {
+        if (message.getReceiverId() != null && message.getSequenceNumber() != null)
+            connection.getDeliveryWindow().acknowledge(message.getReceiverId(), message.getSequenceNumber());
+    }
+
+    /**
+     * Refuses a request over its rate limit. Requests which are never answered
+     * are just dropped.
+     */
+    private void throttle(Message message, ClientConnection connection) {
+        metrics.recordThrottled(message);
+        MessageType responseType = message.getMessageType().getResponseType();
+        if (responseType == null)
+            return;
+        Message response = newResponse(responseType, message);
+        response.setStatus(Status.THROTTLED);
+        response.setText(String.format(ResponseMessages.REQUEST_THROTTLED, message.getMessageType()));
+        connection.send(response);
+    }
+
+    /**
+     * Answers with the capabilities the client offered which this connection
+     * makes use of from now on, separated by commas. Anything the server does
+     * not know of is left out, so clients can offer more than it supports.
+     */
+    private void processCapabilitiesRequest(Message message, ClientConnection connection) {
+        List<String> accepted = new ArrayList<String>();
+        String offered = message.getText() == null ? "" : message.getText();
+        for (String capability : offered.split(",")) {
+            if (Frames.DEFLATE.equals(capability.trim()) && connection.enableCompression(compressionThreshold))
+                accepted.add(Frames.DEFLATE);
+        }
+        Message response = newResponse(MessageType.CAPABILITIES_RESPONSE, message);
+        response.setStatus(Status.OK);
+        response.setText(String.join(",", accepted));
+        connection.send(response);
+    }
+
+    /**
+     * Subscribes the client to the presence of another user, and tells it
+     * right behind the response whether that user is logged in now. Changes
+     * are pushed from then on, until it unsubscribes or logs off.
+     */
+    private void processPresenceSubscribeRequest(Message message, ClientConnection connection) {
+        String userId = message.getReceiverId();
+        Message response = newResponse(MessageType.PRESENCE_SUBSCRIBE_RESPONSE, message);
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(response, message);
+        } else if (presenceRegistry == null) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(ResponseMessages.PRESENCE_DISABLED);
+        } else if (userId == null || userRegistry.get(userId) == null) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.USER_ID_NOT_REGISTERED, userId));
+        } else if (!presenceRegistry.subscribe(userId, connection)) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.PRESENCE_ALREADY_SUBSCRIBED, userId));
+        } else {
+            response.setStatus(Status.OK);
+            response.setText(String.format(ResponseMessages.PRESENCE_SUBSCRIBED, userId));
+        }
+        connection.send(response);
+        if (response.getStatus() == Status.OK)
+            presenceRegistry.sendPresence(userId, connection);
+    }
+
+    private void processPresenceUnsubscribeRequest(Message message, ClientConnection connection) {
+        String userId = message.getReceiverId();
+        Message response = newResponse(MessageType.PRESENCE_UNSUBSCRIBE_RESPONSE, message);
+        if (presenceRegistry == null || userId == null || !presenceRegistry.unsubscribe(userId, connection)) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.PRESENCE_NOT_SUBSCRIBED, userId));
+        } else {
+            response.setStatus(Status.OK);
+            response.setText(String.format(ResponseMessages.PRESENCE_UNSUBSCRIBED, userId));
+        }
+        connection.send(response);
+    }
+
+    /**
+     * Offers a file to another user, who has to be logged in to this server.
+     * The response carries the id of the transfer and the window the file may
+     * be uploaded in, which the client starts doing right away.
+     */
+    private void processFileOfferRequest(Message message, ClientConnection connection) {
+        String receiverId = message.getReceiverId();
+        Long fileSize = message.getByteCount();
+        Message response = newResponse(MessageType.FILE_OFFER_RESPONSE, message);
+        User receiver = receiverId == null ? null : userRegistry.get(receiverId);
+        ClientConnection receiverConnection = receiver == null ? null : receiver.getConnection();
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(response, message);
+        } else if (transferRegistry == null) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(ResponseMessages.FILES_DISABLED);
+        } else if (receiverId == null || message.getText() == null || message.getText().isEmpty()
+                || fileSize == null || fileSize < 0) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(ResponseMessages.INVALID_FILE_OFFER);
+        } else if (fileSize > transferRegistry.getMaxFileBytes()) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.FILE_TOO_LARGE, transferRegistry.getMaxFileBytes()));
+        } else if (clusterNode != null
+                && (!clusterNode.isHome(receiverId) || !clusterNode.isConnectedHere(receiverConnection))) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.FILE_RECEIVER_ELSEWHERE, receiverId));
+        } else if (receiver == null) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.USER_ID_NOT_REGISTERED, receiverId));
+        } else if (receiverConnection == null || receiverConnection instanceof SuspendedSession) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.USER_ID_NOT_LOGGED_IN, receiverId));
+        } else {
+            try {
+                Long transferId = transferRegistry.offer(connection, receiverConnection, message.getText(),
+                        fileSize);
+                if (transferId == null) {
+                    response.setStatus(Status.RECEIVER_BUSY);
+                    response.setText(String.format(ResponseMessages.RECEIVER_BUSY, receiverId));
+                } else {
+                    response.setStatus(Status.OK);
+                    response.setText(String.format(ResponseMessages.FILE_OFFERED, message.getText(), receiverId,
+                            transferId));
+                    response.setTransferId(transferId);
+                    response.setByteCount((long) transferRegistry.getWindowBytes());
+                }
+            } catch (IOException e) {
+                logger.error("Could not spool a file for " + receiverId, e);
+                response.setStatus(Status.INTERNAL_SERVER_ERROR);
+                response.setText(ResponseMessages.UNKNOWN_ERROR);
+            }
+        }
+        connection.send(response);
+        // An empty file has nothing to upload, so it is all spooled already.
+        if (response.getStatus() == Status.OK && fileSize == 0)
+            connection.send(new Message.Builder().withMessageType(MessageType.FILE_ACK)
+                    .withReceiverId(connection.getUserId()).withTransferId(response.getTransferId()).withByteCount(0L)
+                    .build());
+    }
+
+    /**
+     * Accepts a file offered to the client. The response carries the window
+     * the client acknowledges the file in, and the file follows right behind
+     * it.
+     */
+    private void processFileAcceptRequest(Message message, ClientConnection connection) {
+        Long transferId = message.getTransferId();
+        Message response = newResponse(MessageType.FILE_ACCEPT_RESPONSE, message);
+        response.setTransferId(transferId);
+        if (connection.getUserId() == null) {
+            setNotLoggedIn(response, message);
+        } else if (transferRegistry == null) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(ResponseMessages.FILES_DISABLED);
+        } else {
+            response.setStatus(Status.OK);
+            response.setText(String.format(ResponseMessages.FILE_ACCEPTED, transferId));
+            response.setByteCount((long) transferRegistry.getWindowBytes());
+            // Sent by the registry, ahead of the file.
+            if (transferId != null && transferRegistry.accept(transferId, connection, response))
+                return;
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.FILE_NOT_WAITING, transferId));
+            response.setByteCount(null);
+        }
+        connection.send(response);
+    }
+
+    private void processFileCancelRequest(Message message, ClientConnection connection) {
+        Long transferId = message.getTransferId();
+        Message response = newResponse(MessageType.FILE_CANCEL_RESPONSE, message);
+        response.setTransferId(transferId);
+        if (transferRegistry == null || transferId == null || !transferRegistry.cancel(transferId, connection)) {
+            response.setStatus(Status.INVALID_REQUEST);
+            response.setText(String.format(ResponseMessages.FILE_TRANSFER_NOT_FOUND, transferId));
+        } else {
+            response.setStatus(Status.OK);
+            response.setText(String.format(ResponseMessages.FILE_TRANSFER_CANCELLED, transferId));
+        }
+        connection.send(response);
+    }
+
+    private static Message newResponse(MessageType messageType, Message request) {
+        Message response = new Message();
+        response.setMessageType(messageType);
+        response.setReceiverId(request.getSenderId());
+        response.setCorrelationId(request.getCorrelationId());
+        return response;
+    }
+
+    private static void setNotLoggedIn(Message response, Message request) {
+        response.setStatus(Status.INVALID_REQUEST);
+        response.setText(String.format(ResponseMessages.USER_ID_NOT_LOGGED_IN, request.getSenderId()));
+    }
+
+    private void processLogoffRequest(Message logoffRequest, ClientConnection connection) {
+        String userId = logoffRequest.getSenderId();
+        Message logoffResponse = newResponse(MessageType.LOGOFF_RESPONSE, logoffRequest);
+
+        if (userId == null || userRegistry.get(userId) == null) {
+            logoffResponse.setStatus(Status.INVALID_REQUEST);
+            logoffResponse.setText(String.format(ResponseMessages.USER_ID_NOT_REGISTERED, userId));
+        } else if (!userRegistry.logoff(userId, connection)) {
+            logoffResponse.setStatus(Status.INVALID_REQUEST);
+            logoffResponse.setText(String.format(ResponseMessages.USER_ID_NOT_LOGGED_IN, userId));
+        } else {
+            leaveAll(connection);
+            if (presenceRegistry != null)
+                presenceRegistry.changed(userId);
+            if (clusterNode != null)
+                clusterNode.loggedOff(connection);
+            logoffResponse.setStatus(Status.OK);
+            logoffResponse.setText(String.format(ResponseMessages.LOGOFF_SUCCESSFUL, userId));
+        }
+        connection.send(logoffResponse);
+        if (logoffResponse.getStatus() == Status.OK)
+            admissionQueue.admit();
+    }
+
+    /**
+     * Takes a connection out of its rooms and presence subscriptions and
+     * cancels its file transfers, as when its user logs off, also when that
+     * happened on another node.
+     */
+    public void leaveAll(ClientConnection connection) {
+        roomRegistry.leaveAll(connection);
+        if (transferRegistry != null)
+            transferRegistry.cancelAll(connection);
+        if (presenceRegistry != null)
+            presenceRegistry.unsubscribeAll(connection);
+    }
+
+    /**
+     * Starts watching a new client connection for going idle, and gives it
+     * its rate limits.
+     */
+    public void connectionOpened(ClientConnection connection) {
+        if (idleReaper != null)
+            idleReaper.watch(connection);
+        if (rateLimiter != null)
+            rateLimiter.watch(connection);
+    }
+
+    /**
+     * Releases everything held on behalf of a connection which has gone away.
+     * Must be called exactly once per connection.
+     */
+    public void connectionClosed(ClientConnection connection) {
+        // Admissions happen under the queue's lock, so once the login is
+        // cancelled it has either been admitted already or never will be.
+        String queuedUserId = connection.getQueuedUserId();
+        if (queuedUserId != null)
+            admissionQueue.cancel(queuedUserId, connection);
+        String userId = connection.getUserId();
+        // Files are not held for a session, which cannot take up a transfer.
+        if (transferRegistry != null)
+            transferRegistry.cancelAll(connection);
+        if (userId != null && connection.getSessionToken() != null && sessionRegistry != null) {
+            suspend(userId, connection);
+        } else {
+            leaveAll(connection);
+            if (userId != null) {
+                storeUnacknowledgedTexts(userId, connection.getDeliveryWindow().drain());
+                userRegistry.logoff(userId, connection);
+                if (presenceRegistry != null)
+                    presenceRegistry.changed(userId);
+                admissionQueue.admit();
+            }
+        }
+        if (clusterNode != null)
+            clusterNode.connectionClosed(connection);
+    }
+
+    /**
+     * Holds the session of a client which lost its connection, in case it
+     * comes back: a {@link SuspendedSession} takes the connection's place as
+     * the user's login and in its rooms, along with the texts the client never
+     * acknowledged. Rooms other nodes of a cluster own are left all the same.
+     */
+    private void suspend(String userId, ClientConnection connection) {
+        SuspendedSession session = sessionRegistry.newSession(connection);
+        if (!userRegistry.transfer(userId, connection, session)) {
+            leaveAll(connection);
+            storeUnacknowledgedTexts(userId, session.end());
+            return;
+        }
+        roomRegistry.moveAll(connection, session);
+        if (presenceRegistry != null)
+            presenceRegistry.moveAll(connection, session);
+        sessionRegistry.hold(session);
+    }
+
+    /**
+     * Releases a session which is no longer held, like the connection it stood
+     * in for: the texts it held are stored and the user is logged off.
+     */
+    private void endSuspendedSession(SuspendedSession session) {
+        String userId = session.getUserId();
+        storeUnacknowledgedTexts(userId, session.end());
+        leaveAll(session);
+        userRegistry.logoff(userId, session);
+        if (presenceRegistry != null)
+            presenceRegistry.changed(userId);
+        admissionQueue.admit();
+    }
+
+    /**
+     * Puts texts the client never acknowledged back into its mailbox, at the
+     * user's home node, before the user is logged off so that newer texts get
+     * stored behind them. Without an offline store they are lost.
+     */
+    private void storeUnacknowledgedTexts(String userId, List<Message> texts) {
+        if (texts.isEmpty() || (clusterNode != null && clusterNode.store(userId, texts)))
+            return;
+        storeForwardedTexts(userId, texts);
+    }
+
+    /**
+     * Stores texts for a user homed on this node which did not reach it, also
+     * when sent back by the node the user was connected to.
+     */
+    public void storeForwardedTexts(String userId, List<Message> texts) {
+        if (offlineMessageStore == null) {
+            logger.debug("{} undelivered texts to {} are lost", texts.size(), userId);
+            return;
+        }
+        int stored = 0;
+        for (Message text : texts) {
+            try {
+                if (offlineMessageStore.store(text))
+                    stored++;
+            } catch (IOException e) {
+                logger.error("Could not store an undelivered text for " + userId, e);
+            }
+        }
+        if (stored < texts.size())
+            logger.warn("{} of {} undelivered texts to {} could not be stored", texts.size() - stored,
+                    texts.size(), userId);
+    }
+
+    /**
+     * Answers logins which waited in the admission queue. Position updates and
+     * timeouts are only offered to the connection, so a client which stopped
+     * reading cannot hold up the queue's updater thread.
+     */
+    private class AdmissionListener implements AdmissionQueue.Listener {
+        public void admitted(PendingLogin login, LoginResult result) {
+            login.getConnection().setQueuedUserId(null);
+            respondToLogin(login.getUserId(), login.getConnection(), null, result);
+        }
+
+        public void waiting(PendingLogin login, int position, long estimatedWaitMillis) {
+            Message update = newLoginResponse(login.getUserId(), null);
+            update.setStatus(Status.REQUEST_QUEUED);
+            update.setSequenceNumber((long) position);
+            update.setText(String.format(ResponseMessages.LOGIN_QUEUE_POSITION, login.getUserId(), position,
+                    estimatedWaitMillis < 0 ? "unknown"
+                            : TimeUnit.MILLISECONDS.toSeconds(estimatedWaitMillis + 999) + " seconds"));
+            login.getConnection().tryDeliver(update);
+        }
+
+        public void timedOut(PendingLogin login) {
+            login.getConnection().setQueuedUserId(null);
+            Message response = newLoginResponse(login.getUserId(), null);
+            response.setStatus(Status.SERVER_BUSY);
+            response.setText(String.format(ResponseMessages.LOGIN_QUEUE_TIMED_OUT, login.getUserId()));
+            login.getConnection().tryDeliver(response);
+        }
+    }
+
+    private class SessionListener implements SessionRegistry.Listener {
+        public void expired(SuspendedSession session) {
+            logger.debug("Session of {} expired", session.getUserId());
+            endSuspendedSession(session);
+        }
+    }
+
+    public static class Builder {
+        private UserRegistry userRegistry = new UserRegistry(Constants.MAX_USERS_SUPPORTED);
+        private RoomRegistry roomRegistry = new RoomRegistry();
+        private OfflineMessageStore offlineMessageStore;
+        private MessageCodec fanOutCodec;
+        private HistoryStore historyStore;
+        private int maxHistoryPageSize = 100;
+        private ServerMetrics metrics = new ServerMetrics();
+        private int admissionQueueCapacity = 10000;
+        private long admissionTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+        private long admissionUpdateIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+        private ClusterNode clusterNode;
+        private SessionRegistry sessionRegistry;
+        private int compressionThreshold;
+        private IdleReaper idleReaper;
+        private RateLimiter rateLimiter;
+        private PresenceRegistry presenceRegistry;
+        private RegistrationStore registrationStore;
+        private TransferRegistry transferRegistry;
+        private SearchIndex searchIndex;
+
+        public Builder withUserRegistry(UserRegistry userRegistry) {
+            this.userRegistry = userRegistry;
+            return this;
+        }
+
+        public Builder withRoomRegistry(RoomRegistry roomRegistry) {
+            this.roomRegistry = roomRegistry;
+            return this;
+        }
+
+        /**
+         * @param offlineMessageStore where texts for users who are not logged in
+         *                            are kept. Without one they are rejected.
+         */
+        public Builder withOfflineMessageStore(OfflineMessageStore offlineMessageStore) {
+            this.offlineMessageStore = offlineMessageStore;
+            return this;
+        }
+
+        /**
+         * @param fanOutCodec the codec every connection writes frames with, used to
+         *                    encode room texts once for all members. Without one
+         *                    every member encodes the text itself.
+         */
+        public Builder withFanOutCodec(MessageCodec fanOutCodec) {
+            this.fanOutCodec = fanOutCodec;
+            return this;
+        }
+
+        /**
+         * @param historyStore where private texts are recorded. Without one no
+         *                     history is kept.
+         */
+        public Builder withHistoryStore(HistoryStore historyStore) {
+            this.historyStore = historyStore;
+            return this;
+        }
+
+        public Builder withMaxHistoryPageSize(int maxHistoryPageSize) {
+            this.maxHistoryPageSize = maxHistoryPageSize;
+            return this;
+        }
+
+        public Builder withMetrics(ServerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param admissionQueueCapacity how many logins may wait while the server is
+         *                               full. Beyond that they are turned away.
+         */
+        public Builder withAdmissionQueueCapacity(int admissionQueueCapacity) {
+            this.admissionQueueCapacity = admissionQueueCapacity;
+            return this;
+        }
+
+        public Builder withAdmissionTimeoutMillis(long admissionTimeoutMillis) {
+            this.admissionTimeoutMillis = admissionTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param admissionUpdateIntervalMillis how often waiting clients are told
+         *                                      their position, and timed out logins
+         *                                      are dropped.
+         */
+        public Builder withAdmissionUpdateIntervalMillis(long admissionUpdateIntervalMillis) {
+            this.admissionUpdateIntervalMillis = admissionUpdateIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param clusterNode this server's node, if it is part of a cluster.
+         *                    It has to be started with the handler built.
+         */
+        public Builder withClusterNode(ClusterNode clusterNode) {
+            this.clusterNode = clusterNode;
+            return this;
+        }
+
+        /**
+         * @param sessionRegistry where sessions of clients which lost their
+         *                        connection are held. Without one sessions
+         *                        cannot be resumed.
+         */
+        public Builder withSessionRegistry(SessionRegistry sessionRegistry) {
+            this.sessionRegistry = sessionRegistry;
+            return this;
+        }
+
+        /**
+         * @param compressionThreshold the length from which frames are
+         *                             compressed for clients which accept it.
+         *                             Without one they are never compressed.
+         */
+        public Builder withCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+            return this;
+        }
+
+        /**
+         * @param idleReaper what closes the connections of clients which went
+         *                   silent. Without one they are kept open.
+         */
+        public Builder withIdleReaper(IdleReaper idleReaper) {
+            this.idleReaper = idleReaper;
+            return this;
+        }
+
+        /**
+         * @param rateLimiter what throttles the requests of clients. Without
+         *                    one requests are never throttled.
+         */
+        public Builder withRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param presenceRegistry where presence subscriptions are kept.
+         *                         Without one presence cannot be subscribed
+         *                         to.
+         */
+        public Builder withPresenceRegistry(PresenceRegistry presenceRegistry) {
+            this.presenceRegistry = presenceRegistry;
+            return this;
+        }
+
+        /**
+         * @param registrationStore where registrations are saved, loaded with
+         *                          those of the user registry. Without one
+         *                          they are lost on restart.
+         */
+        public Builder withRegistrationStore(RegistrationStore registrationStore) {
+            this.registrationStore = registrationStore;
+            return this;
+        }
+
+        /**
+         * @param transferRegistry where files on their way between users are
+         *                         kept. Without one files cannot be sent.
+         */
+        public Builder withTransferRegistry(TransferRegistry transferRegistry) {
+            this.transferRegistry = transferRegistry;
+            return this;
+        }
+
+        /**
+         * @param searchIndex where private texts are indexed by their words.
+         *                    Without one history cannot be searched.
+         */
+        public Builder withSearchIndex(SearchIndex searchIndex) {
+            this.searchIndex = searchIndex;
+            return this;
+        }
+
+        public RequestHandler build() {
+            return new RequestHandler(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.rohit.ThreadSafeChat.Server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.history.LogSegment.SegmentWriter;
+
+/**
+ * The texts of one conversation as a directory of {@link LogSegment}s, in
+ * increasing sequence order from 1. Numbers are assigned when a text is routed,
+ * so texts left out of the history leave gaps. Only the history writer thread appends; readers take
+ * the lock just long enough to see which segments and how many of their bytes
+ * are complete, then read them with positional reads into a small pooled
+ * buffer. Readers never hold up the writer or each other while reading, and
+ * no file is ever loaded as a whole.
+ */
+class ConversationLog {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final File directory;
+    private final int segmentBytes;
+    private final List<LogSegment> segments = new ArrayList<LogSegment>();
+    private boolean isLoaded;
+    private SegmentWriter writer;
+
+    ConversationLog(File directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Appends an encoded record, filling in the next sequence number if it has
+     * none. Must only be called by the history writer thread.
+     *
+     * @throws IOException if the record is numbered below the next sequence
+     *                     number.
+     */
+    void append(ByteBuffer record) throws IOException {
+        lock.lock();
+        try {
+            load();
+            LogSegment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            long nextSequence = tail == null ? 1 : tail.getNextSequence();
+            long sequence = record.getLong(record.position() + 4);
+            if (sequence == 0)
+                record.putLong(record.position() + 4, sequence = nextSequence);
+            else if (sequence < nextSequence)
+                throw new IOException("Text " + sequence + " is out of order, next is " + nextSequence);
+            if (tail == null || (tail.getSize() > 0 && tail.getSize() + record.remaining() > segmentBytes)) {
+                closeWriter();
+                if (!directory.isDirectory() && !directory.mkdirs())
+                    throw new IOException("Could not create " + directory);
+                tail = LogSegment.create(directory, sequence);
+                segments.add(tail);
+            }
+            if (writer == null)
+                writer = tail.openWriter();
+            tail.append(writer, record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the tail segment's files until the next append.
+     */
+    void closeWriter() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * @return one above the highest sequence number recorded.
+     */
+    long getNextSequence() throws IOException {
+        lock.lock();
+        try {
+            load();
+            return segments.isEmpty() ? 1 : segments.get(segments.size() - 1).getNextSequence();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Streams the texts numbered from {@code fromSequence} up to but excluding
+     * {@code toSequence} to the visitor, oldest first.
+     *
+     * @return the number of texts visited.
+     */
+    int read(long fromSequence, long toSequence, MessageCodec codec, BufferPool bufferPool,
+            HistoryStore.Visitor visitor) throws IOException {
+        List<LogSegment> overlapping = new ArrayList<LogSegment>();
+        List<Long> startPositions = new ArrayList<Long>();
+        List<Long> endPositions = new ArrayList<Long>();
+        lock.lock();
+        try {
+            load();
+            for (LogSegment segment : segments) {
+                if (segment.getNextSequence() > fromSequence && segment.getBaseSequence() < toSequence) {
+                    overlapping.add(segment);
+                    startPositions.add(segment.floorPosition(fromSequence));
+                    endPositions.add(segment.getSize());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        int visited = 0;
+        ByteBuffer buffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        try {
+            for (int i = 0; i < overlapping.size(); i++) {
+                Path file = overlapping.get(i).getLogFile().toPath();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long position = startPositions.get(i);
+                    long end = endPositions.get(i);
+                    while (position < end) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                        LogSegment.readFully(channel, buffer, position);
+                        buffer.flip();
+                        int consumed = 0;
+                        while (buffer.remaining() >= LogSegment.RECORD_HEADER_LENGTH) {
+                            int length = buffer.getInt(buffer.position());
+                            if (buffer.remaining() < LogSegment.RECORD_HEADER_LENGTH + length)
+                                break;
+                            long sequence = buffer.getLong(buffer.position() + 4);
+                            long timestamp = buffer.getLong(buffer.position() + 12);
+                            if (sequence >= toSequence)
+                                return visited;
+                            buffer.position(buffer.position() + LogSegment.RECORD_HEADER_LENGTH);
+                            if (sequence >= fromSequence) {
+                                ByteBuffer payload = buffer.slice();
+                                payload.limit(length);
+                                Message entry = codec.decode(payload);
+                                entry.setMessageType(MessageType.HISTORY_TEXT);
+                                entry.setSequenceNumber(sequence);
+                                entry.setTimestamp(timestamp);
+                                visitor.visit(entry);
+                                visited++;
+                            }
+                            buffer.position(buffer.position() + length);
+                            consumed += LogSegment.RECORD_HEADER_LENGTH + length;
+                        }
+                        if (consumed == 0) {
+                            int recordLength = LogSegment.RECORD_HEADER_LENGTH + buffer.getInt(0);
+                            bufferPool.release(buffer);
+                            buffer = bufferPool.acquire(recordLength);
+                        }
+                        position += consumed;
+                    }
+                }
+            }
+            return visited;
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void load() throws IOException {
+        if (isLoaded)
+            return;
+        String[] names = directory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.endsWith(LogSegment.LOG_SUFFIX))
+                    continue;
+                String baseSequence = name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length());
+                segments.add(LogSegment.recover(directory, Long.parseLong(baseSequence)));
+            }
+        }
+        isLoaded = true;
+    }
+}
@@ -0,0 +1,304 @@
+package com.rohit.ThreadSafeChat.Server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+
+/**
+ * History of every private conversation, as one append-only
+ * {@link ConversationLog} per pair of users under {@code historyDir}.
+ *
+ * Routed texts are only handed to a bounded queue on the send path; a single
+ * writer thread encodes and appends them, so recording history never adds disk
+ * latency to a send. If the writer falls behind by more than
+ * {@code historyQueueCapacity} texts, further texts are left out of the
+ * history rather than slowing senders down. Records are not forced to disk.
+ *
+ * Reads go to a few reader threads, so that a request handled on an event loop
+ * never waits on the disk.
+ */
+public class HistoryStore {
+    private static Logger logger = LoggerFactory.getLogger(HistoryStore.class);
+    private static final int MAX_OPEN_WRITERS = 128;
+    private static final int MAX_QUEUED_READS = 1024;
+
+    /**
+     * Receives the texts of a history read, oldest first.
+     */
+    public interface Visitor {
+        void visit(Message entry);
+    }
+
+    private final File rootDirectory;
+    private final int segmentBytes;
+    private final MessageCodec codec = new BinaryMessageCodec();
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final ConcurrentMap<String, ConversationLog> logs = new ConcurrentHashMap<>();
+    private final BlockingQueue<Message> pendingTexts;
+    private final AtomicLong droppedTexts = new AtomicLong(0);
+    private final ExecutorService readExecutor;
+
+    public HistoryStore(File rootDirectory, int segmentBytes, int queueCapacity, int readerThreads)
+            throws IOException {
+        if (!rootDirectory.isDirectory() && !rootDirectory.mkdirs())
+            throw new IOException("Could not create history store in " + rootDirectory);
+        this.rootDirectory = rootDirectory;
+        this.segmentBytes = segmentBytes;
+        this.pendingTexts = new ArrayBlockingQueue<Message>(queueCapacity);
+        Thread writer = new Thread(new Writer(), "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        this.readExecutor = new ThreadPoolExecutor(readerThreads, readerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_READS), new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger(0);
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "history-reader-" + threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public static HistoryStore open(ServerConfig config) throws IOException {
+        return new HistoryStore(new File(config.getHistoryDir()), config.getHistorySegmentBytes(),
+                config.getHistoryQueueCapacity(), config.getHistoryReaderThreads());
+    }
+
+    /**
+     * Runs a task which reads the history on a reader thread.
+     *
+     * @return {@code false} if too many reads are already waiting.
+     */
+    public boolean executeRead(Runnable read) {
+        try {
+            readExecutor.execute(read);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Queues a routed text for the history of its sender and receiver. Never
+     * blocks; the text must not be modified afterwards.
+     */
+    public void record(Message text) {
+        if (pendingTexts.offer(text))
+            return;
+        if (droppedTexts.incrementAndGet() % 1000 == 1)
+            logger.warn("History writer is falling behind, {} texts left out so far", droppedTexts.get());
+    }
+
+    /**
+     * Streams up to {@code pageSize} texts of the conversation between two users
+     * which come before {@code beforeSequence}, or the latest ones if that is
+     * {@code null}.
+     *
+     * Sequence numbers can have gaps, of texts left out of the history, so the
+     * range read is widened until the page is full or the start is reached.
+     *
+     * @return the number of texts visited.
+     */
+    public int read(String userId, String peerId, Long beforeSequence, int pageSize, Visitor visitor)
+            throws IOException {
+        ConversationLog log = findLog(userId, peerId);
+        if (log == null)
+            return 0;
+        long toSequence = log.getNextSequence();
+        if (beforeSequence != null)
+            toSequence = Math.min(toSequence, beforeSequence);
+        final Deque<Message> page = new ArrayDeque<Message>(pageSize);
+        long span = pageSize;
+        while (page.size() < pageSize && toSequence > 1) {
+            long fromSequence = Math.max(1, toSequence - span);
+            final List<Message> older = new ArrayList<Message>();
+            log.read(fromSequence, toSequence, codec, bufferPool, new Visitor() {
+                public void visit(Message entry) {
+                    older.add(entry);
+                }
+            });
+            for (int i = older.size() - 1; i >= 0 && page.size() < pageSize; i--)
+                page.addFirst(older.get(i));
+            toSequence = fromSequence;
+            span *= 2;
+        }
+        for (Message entry : page)
+            visitor.visit(entry);
+        return page.size();
+    }
+
+    /**
+     * @return the text of the conversation between two users numbered
+     *         {@code sequence}, or {@code null} if it is not in the history.
+     */
+    public Message get(String userId, String peerId, long sequence) throws IOException {
+        ConversationLog log = findLog(userId, peerId);
+        if (log == null)
+            return null;
+        final Message[] found = new Message[1];
+        log.read(sequence, sequence + 1, codec, bufferPool, new Visitor() {
+            public void visit(Message entry) {
+                found[0] = entry;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * @return one above the highest sequence number recorded for the
+     *         conversation between two users, or 1 if it has no history.
+     */
+    public long getNextSequence(String userId, String peerId) throws IOException {
+        ConversationLog log = findLog(userId, peerId);
+        return log == null ? 1 : log.getNextSequence();
+    }
+
+    /**
+     * @return number of texts left out of the history because the writer could
+     *         not keep up.
+     */
+    public long getDroppedTexts() {
+        return droppedTexts.get();
+    }
+
+    private ConversationLog findLog(String userId, String peerId) {
+        ConversationLog log = logs.get(conversationKey(userId, peerId));
+        if (log == null) {
+            File directory = new File(rootDirectory, conversationKey(userId, peerId));
+            if (!directory.isDirectory())
+                return null;
+            log = getOrCreateLog(userId, peerId);
+        }
+        return log;
+    }
+
+    private ConversationLog getOrCreateLog(String userId, String peerId) {
+        String key = conversationKey(userId, peerId);
+        ConversationLog log = logs.get(key);
+        if (log == null) {
+            ConversationLog created = new ConversationLog(new File(rootDirectory, key), segmentBytes);
+            log = logs.putIfAbsent(key, created);
+            if (log == null)
+                log = created;
+        }
+        return log;
+    }
+
+    /**
+     * Both users of a conversation map to the same directory name: their hex
+     * encoded ids, in order.
+     */
+    private static String conversationKey(String userId, String peerId) {
+        String first = userId.compareTo(peerId) <= 0 ? userId : peerId;
+        String second = first == userId ? peerId : userId;
+        return hex(first) + "-" + hex(second);
+    }
+
+    private static String hex(String userId) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : userId.getBytes(StandardCharsets.UTF_8))
+            builder.append(String.format("%02x", b & 0xff));
+        return builder.toString();
+    }
+
+    /**
+     * Drains queued texts into their logs, keeping the files of the most
+     * recently written conversations open.
+     */
+    private class Writer implements Runnable {
+        private final Map<ConversationLog, Boolean> openLogs = new LinkedHashMap<ConversationLog, Boolean>(16,
+                0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ConversationLog, Boolean> eldest) {
+                if (size() <= MAX_OPEN_WRITERS)
+                    return false;
+                eldest.getKey().closeWriter();
+                return true;
+            }
+        };
+        private ByteBuffer recordBuffer = bufferPool.acquire(bufferPool.getMinBufferSize());
+
+        public void run() {
+            List<Message> batch = new ArrayList<Message>();
+            while (true) {
+                try {
+                    batch.add(pendingTexts.take());
+                    pendingTexts.drainTo(batch);
+                    for (Message text : batch)
+                        append(text);
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void append(Message text) {
+            try {
+                ConversationLog log = getOrCreateLog(text.getSenderId(), text.getReceiverId());
+                log.append(encode(text));
+                openLogs.put(log, Boolean.TRUE);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not record a text from " + text.getSenderId() + " in the history", e);
+            }
+        }
+
+        /**
+         * @return the record, numbered and timestamped as the text was routed.
+         */
+        private ByteBuffer encode(Message text) throws IOException {
+            while (true) {
+                try {
+                    recordBuffer.clear();
+                    recordBuffer.position(LogSegment.RECORD_HEADER_LENGTH);
+                    codec.encode(text, recordBuffer);
+                    recordBuffer.putInt(0, recordBuffer.position() - LogSegment.RECORD_HEADER_LENGTH);
+                    Long sequence = text.getSequenceNumber();
+                    Long timestamp = text.getTimestamp();
+                    recordBuffer.putLong(4, sequence == null ? 0 : sequence);
+                    recordBuffer.putLong(12, timestamp == null ? System.currentTimeMillis() : timestamp);
+                    recordBuffer.flip();
+                    return recordBuffer;
+                } catch (BufferOverflowException e) {
+                    if (recordBuffer.capacity() >= bufferPool.getMaxBufferSize())
+                        throw new IOException("Text is too large to be recorded");
+                    int capacity = recordBuffer.capacity() * 2;
+                    bufferPool.release(recordBuffer);
+                    recordBuffer = bufferPool.acquire(capacity);
+                }
+            }
+        }
+    }
+}
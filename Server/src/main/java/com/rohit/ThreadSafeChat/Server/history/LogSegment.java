@@ -0,0 +1,221 @@
+package com.rohit.ThreadSafeChat.Server.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One file of a {@link ConversationLog}, holding increasing sequence numbers
+ * starting at its base sequence. Every record is a 4 byte payload length, an
+ * 8 byte sequence number, an 8 byte timestamp and the encoded message.
+ *
+ * A sparse index file next to it maps the sequence number of roughly every
+ * {@value #INDEX_INTERVAL_BYTES} bytes of records to the record's position, so
+ * a read only has to scan a few kilobytes to find where to start. The index
+ * is also kept in memory.
+ *
+ * Bookkeeping is guarded by the owning log's lock; appends only ever come
+ * from the history writer thread.
+ */
+class LogSegment {
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int RECORD_HEADER_LENGTH = 20;
+    static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int INDEX_ENTRY_LENGTH = 16;
+
+    private final File logFile;
+    private final File indexFile;
+    private final long baseSequence;
+    private long[] indexedSequences = new long[16];
+    private long[] indexedPositions = new long[16];
+    private int indexSize;
+    private long size;
+    private long lastIndexedPosition = -1;
+    private long nextSequence;
+
+    private LogSegment(File directory, long baseSequence) {
+        this.logFile = new File(directory, String.format("%020d%s", baseSequence, LOG_SUFFIX));
+        this.indexFile = new File(directory, String.format("%020d%s", baseSequence, INDEX_SUFFIX));
+        this.baseSequence = baseSequence;
+        this.nextSequence = baseSequence;
+    }
+
+    static LogSegment create(File directory, long baseSequence) {
+        return new LogSegment(directory, baseSequence);
+    }
+
+    /**
+     * Loads the index of an existing segment and scans the records behind its
+     * last entry, dropping a torn record left at the tail by a crash.
+     */
+    static LogSegment recover(File directory, long baseSequence) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseSequence);
+        if (segment.indexFile.exists()) {
+            try (FileChannel channel = FileChannel.open(segment.indexFile.toPath(), StandardOpenOption.READ)) {
+                int entryCount = (int) (channel.size() / INDEX_ENTRY_LENGTH);
+                ByteBuffer entries = ByteBuffer.allocate(entryCount * INDEX_ENTRY_LENGTH);
+                readFully(channel, entries, 0);
+                entries.flip();
+                while (entries.remaining() >= INDEX_ENTRY_LENGTH)
+                    segment.addIndexEntry(entries.getLong(), entries.getLong());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(segment.logFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            int entry = segment.indexSize - 1;
+            while (entry >= 0 && segment.indexedPositions[entry] >= channel.size())
+                entry--;
+            segment.indexSize = entry + 1;
+            long position = entry < 0 ? 0 : segment.indexedPositions[entry];
+            segment.nextSequence = entry < 0 ? baseSequence : segment.indexedSequences[entry];
+            segment.lastIndexedPosition = entry < 0 ? -1 : position;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            while (true) {
+                header.clear();
+                if (readFully(channel, header, position) < RECORD_HEADER_LENGTH)
+                    break;
+                int length = header.getInt(0);
+                if (length < 0 || position + RECORD_HEADER_LENGTH + length > channel.size())
+                    break;
+                segment.nextSequence = header.getLong(4) + 1;
+                position += RECORD_HEADER_LENGTH + length;
+            }
+            segment.size = position;
+            if (position < channel.size())
+                channel.truncate(position);
+        }
+        if (segment.indexFile.exists()) {
+            try (FileChannel channel = FileChannel.open(segment.indexFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate((long) segment.indexSize * INDEX_ENTRY_LENGTH);
+            }
+        }
+        return segment;
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * @return {@code true} if a new index entry has to be written for a record
+     *         starting at the current end of the segment.
+     */
+    boolean needsIndexEntry() {
+        return lastIndexedPosition < 0 || size - lastIndexedPosition >= INDEX_INTERVAL_BYTES;
+    }
+
+    /**
+     * Writes one record, and an index entry for it if one is due, through the
+     * given writer. The record's sequence number must be at least the segment's
+     * next.
+     */
+    void append(SegmentWriter writer, ByteBuffer record) throws IOException {
+        long sequence = record.getLong(record.position() + 4);
+        if (needsIndexEntry()) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+            entry.putLong(sequence).putLong(size).flip();
+            writer.writeIndexEntry(entry);
+            addIndexEntry(sequence, size);
+            lastIndexedPosition = size;
+        }
+        size += writer.writeRecord(record);
+        nextSequence = sequence + 1;
+    }
+
+    /**
+     * @return the position of the last indexed record at or before the given
+     *         sequence number, from where a scan will find it.
+     */
+    long floorPosition(long sequence) {
+        int low = 0;
+        int high = indexSize - 1;
+        long position = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexedSequences[middle] <= sequence) {
+                position = indexedPositions[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return position;
+    }
+
+    SegmentWriter openWriter() throws IOException {
+        return new SegmentWriter(FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), FileChannel.open(indexFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    private void addIndexEntry(long sequence, long position) {
+        if (indexSize == indexedSequences.length) {
+            indexedSequences = Arrays.copyOf(indexedSequences, indexSize * 2);
+            indexedPositions = Arrays.copyOf(indexedPositions, indexSize * 2);
+        }
+        indexedSequences[indexSize] = sequence;
+        indexedPositions[indexSize] = position;
+        indexSize++;
+    }
+
+    static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Open append channels of a segment's log and index files.
+     */
+    static class SegmentWriter {
+        private final FileChannel logChannel;
+        private final FileChannel indexChannel;
+
+        private SegmentWriter(FileChannel logChannel, FileChannel indexChannel) {
+            this.logChannel = logChannel;
+            this.indexChannel = indexChannel;
+        }
+
+        int writeRecord(ByteBuffer record) throws IOException {
+            int length = record.remaining();
+            while (record.hasRemaining())
+                logChannel.write(record);
+            return length;
+        }
+
+        void writeIndexEntry(ByteBuffer entry) throws IOException {
+            while (entry.hasRemaining())
+                indexChannel.write(entry);
+        }
+
+        void close() {
+            try {
+                logChannel.close();
+                indexChannel.close();
+            } catch (IOException e) {
+                // Nothing is buffered, every write has already reached the file.
+            }
+        }
+    }
+}
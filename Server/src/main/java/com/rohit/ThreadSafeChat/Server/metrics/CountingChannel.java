@@ -0,0 +1,49 @@
+package com.rohit.ThreadSafeChat.Server.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+
+import com.rohit.ThreadSafeChat.Common.io.TransferTarget;
+
+/**
+ * Passes reads and writes through to a socket's channel, adding the bytes
+ * transferred to the server's totals. File regions are handed to the socket's
+ * channel itself, so the kernel can send them without copying.
+ */
+public class CountingChannel implements ByteChannel, TransferTarget {
+    private final ByteChannel channel;
+    private final ServerMetrics metrics;
+
+    public CountingChannel(ByteChannel channel, ServerMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    public int read(ByteBuffer destination) throws IOException {
+        int read = channel.read(destination);
+        metrics.recordBytesIn(read);
+        return read;
+    }
+
+    public int write(ByteBuffer source) throws IOException {
+        int written = channel.write(source);
+        metrics.recordBytesOut(written);
+        return written;
+    }
+
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        long written = file.transferTo(position, count, channel);
+        metrics.recordBytesOut(written);
+        return written;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
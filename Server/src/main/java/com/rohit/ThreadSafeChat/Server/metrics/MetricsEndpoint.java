@@ -0,0 +1,65 @@
+package com.rohit.ThreadSafeChat.Server.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link ServerMetrics#toText()} over HTTP at {@code /metrics} on the
+ * loopback interface only, for a local scraper or {@code curl}. Requests are
+ * answered one at a time by a single daemon thread.
+ */
+public class MetricsEndpoint {
+    private static Logger logger = LoggerFactory.getLogger(MetricsEndpoint.class);
+    public static final String PATH = "/metrics";
+
+    private final HttpServer httpServer;
+
+    private MetricsEndpoint(HttpServer httpServer) {
+        this.httpServer = httpServer;
+    }
+
+    public static MetricsEndpoint start(int port, final ServerMetrics metrics) throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext(PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream output = exchange.getResponseBody()) {
+                        output.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "metrics-endpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+        httpServer.start();
+        logger.info("Serving metrics at http://{}:{}{}", httpServer.getAddress().getHostString(),
+                httpServer.getAddress().getPort(), PATH);
+        return new MetricsEndpoint(httpServer);
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+}
@@ -0,0 +1,442 @@
+package com.rohit.ThreadSafeChat.Server.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.io.CompressionStats;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.model.Status;
+import com.rohit.ThreadSafeChat.Server.connection.WriteStats;
+
+/**
+ * Server wide counters, latency histograms and gauges. Counters are striped
+ * {@link LongAdder}s indexed by enum ordinal, so recording on the hot path is
+ * lock-free and allocation-free; reading sums them up. Gauges are sampled only
+ * when the metrics are read.
+ *
+ * The metrics can be read over JMX as {@value #OBJECT_NAME}, and as plain text
+ * in the Prometheus exposition format from a {@link MetricsEndpoint}.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static Logger logger = LoggerFactory.getLogger(ServerMetrics.class);
+    public static final String OBJECT_NAME = "com.rohit.ThreadSafeChat:type=ServerMetrics";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+    /**
+     * A value owned by some other component, sampled when the metrics are read.
+     */
+    public interface Gauge {
+        long read();
+    }
+
+    private final WriteStats writeStats = new WriteStats();
+    private final CompressionStats compressionStats = new CompressionStats();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder idleConnectionsReaped = new LongAdder();
+    private final LongAdder presenceUpdates = new LongAdder();
+    private final LongAdder registryCommits = new LongAdder();
+    private final LongAdder registrationsSaved = new LongAdder();
+    private final LongAdder fileBytesSpooled = new LongAdder();
+    private final LongAdder fileBytesRelayed = new LongAdder();
+    private final LongAdder fileTransfersCompleted = new LongAdder();
+    private final LongAdder fileTransfersCancelled = new LongAdder();
+    private final LongAdder textsIndexed = new LongAdder();
+    private final LongAdder searchFlushes = new LongAdder();
+    private final LongAdder searchMerges = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder[] messagesReceived = newCounters(MessageType.values().length);
+    private final LongAdder[] messagesSent = newCounters(MessageType.values().length);
+    private final LongAdder[] requestsThrottled = newCounters(MessageType.values().length);
+    private final LongAdder[] responses = newCounters(Status.values().length);
+    private final LatencyHistogram routingLatency = new LatencyHistogram();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LatencyHistogram lockHold = new LatencyHistogram();
+    private final LatencyHistogram registryCommitLatency = new LatencyHistogram();
+    private final LatencyHistogram searchLatency = new LatencyHistogram();
+    private final LatencyHistogram searchMergeLatency = new LatencyHistogram();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+
+    private static LongAdder[] newCounters(int size) {
+        LongAdder[] counters = new LongAdder[size];
+        for (int i = 0; i < size; i++)
+            counters[i] = new LongAdder();
+        return counters;
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * @param name lower case with underscores, reported with a {@code chat_}
+     *             prefix. Replaces any gauge registered under the same name.
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void recordConnectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void recordConnectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void recordIdleConnectionReaped() {
+        idleConnectionsReaped.increment();
+    }
+
+    /**
+     * @param delivered how many subscribers were sent a presence change.
+     */
+    public void recordPresenceUpdates(int delivered) {
+        if (delivered > 0)
+            presenceUpdates.add(delivered);
+    }
+
+    /**
+     * @param registrations saved by the one disk flush.
+     */
+    public void recordRegistryCommit(int registrations, long nanos) {
+        registryCommits.increment();
+        registrationsSaved.add(registrations);
+        registryCommitLatency.record(nanos);
+    }
+
+    public void recordFileBytesSpooled(long bytes) {
+        fileBytesSpooled.add(bytes);
+    }
+
+    public void recordFileBytesRelayed(long bytes) {
+        fileBytesRelayed.add(bytes);
+    }
+
+    public void recordFileTransferCompleted() {
+        fileTransfersCompleted.increment();
+    }
+
+    public void recordFileTransferCancelled() {
+        fileTransfersCancelled.increment();
+    }
+
+    public void recordTextIndexed() {
+        textsIndexed.increment();
+    }
+
+    public void recordSearchFlush() {
+        searchFlushes.increment();
+    }
+
+    public void recordSearchMerge(long nanos) {
+        searchMerges.increment();
+        searchMergeLatency.record(nanos);
+    }
+
+    public void recordSearch(long nanos) {
+        searchLatency.record(nanos);
+    }
+
+    public void recordBytesIn(long bytes) {
+        if (bytes > 0)
+            bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        if (bytes > 0)
+            bytesOut.add(bytes);
+    }
+
+    public void recordReceived(Message message) {
+        if (message.getMessageType() != null)
+            messagesReceived[message.getMessageType().ordinal()].increment();
+    }
+
+    public void recordThrottled(Message request) {
+        requestsThrottled[request.getMessageType().ordinal()].increment();
+    }
+
+    /**
+     * Counts a message written to a client, and its status if it is a
+     * response.
+     */
+    public void recordSent(Message message) {
+        if (message.getMessageType() != null)
+            messagesSent[message.getMessageType().ordinal()].increment();
+        if (message.getStatus() != null)
+            responses[message.getStatus().ordinal()].increment();
+    }
+
+    /**
+     * @param nanos from taking a text off the socket to having queued it for
+     *              every receiver.
+     */
+    public void recordRouting(long nanos) {
+        routingLatency.record(nanos);
+    }
+
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    public void recordLockHold(long nanos) {
+        lockHold.record(nanos);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server. Failing to do so
+     * is logged and otherwise ignored.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warn("Could not register server metrics with JMX", e);
+        }
+    }
+
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    public long getIdleConnectionsReaped() {
+        return idleConnectionsReaped.sum();
+    }
+
+    public long getPresenceUpdates() {
+        return presenceUpdates.sum();
+    }
+
+    public long getRegistryCommits() {
+        return registryCommits.sum();
+    }
+
+    public long getRegistrationsSaved() {
+        return registrationsSaved.sum();
+    }
+
+    public long getFileBytesSpooled() {
+        return fileBytesSpooled.sum();
+    }
+
+    public long getFileBytesRelayed() {
+        return fileBytesRelayed.sum();
+    }
+
+    public long getFileTransfersCompleted() {
+        return fileTransfersCompleted.sum();
+    }
+
+    public long getFileTransfersCancelled() {
+        return fileTransfersCancelled.sum();
+    }
+
+    public long getTextsIndexed() {
+        return textsIndexed.sum();
+    }
+
+    public long getSearchFlushes() {
+        return searchFlushes.sum();
+    }
+
+    public long getSearchMerges() {
+        return searchMerges.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getFlushes() {
+        return writeStats.getFlushes();
+    }
+
+    public double getMessagesPerFlush() {
+        return writeStats.getMessagesPerFlush();
+    }
+
+    public Map<String, Long> getCompression() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        values.put("framesDeflated", compressionStats.getFramesDeflated());
+        values.put("framesNotDeflated", compressionStats.getFramesNotDeflated());
+        values.put("framesInflated", compressionStats.getFramesInflated());
+        values.put("bytesBeforeDeflate", compressionStats.getBytesBeforeDeflate());
+        values.put("bytesAfterDeflate", compressionStats.getBytesAfterDeflate());
+        values.put("deflateMicros", toMicros(compressionStats.getDeflateNanos()));
+        values.put("inflateMicros", toMicros(compressionStats.getInflateNanos()));
+        return values;
+    }
+
+    public double getCompressionRatio() {
+        return compressionStats.getCompressionRatio();
+    }
+
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet())
+            values.put(gauge.getKey(), gauge.getValue().read());
+        return values;
+    }
+
+    public Map<String, Long> getMessagesReceived() {
+        return sumByName(MessageType.values(), messagesReceived);
+    }
+
+    public Map<String, Long> getMessagesSent() {
+        return sumByName(MessageType.values(), messagesSent);
+    }
+
+    public Map<String, Long> getRequestsThrottled() {
+        return sumByName(MessageType.values(), requestsThrottled);
+    }
+
+    public Map<String, Long> getResponsesByStatus() {
+        return sumByName(Status.values(), responses);
+    }
+
+    public Map<String, Long> getRoutingLatencyMicros() {
+        return summarise(routingLatency.snapshot());
+    }
+
+    public Map<String, Long> getLockWaitMicros() {
+        return summarise(lockWait.snapshot());
+    }
+
+    public Map<String, Long> getLockHoldMicros() {
+        return summarise(lockHold.snapshot());
+    }
+
+    public Map<String, Long> getRegistryCommitMicros() {
+        return summarise(registryCommitLatency.snapshot());
+    }
+
+    public Map<String, Long> getSearchMicros() {
+        return summarise(searchLatency.snapshot());
+    }
+
+    public Map<String, Long> getSearchMergeMicros() {
+        return summarise(searchMergeLatency.snapshot());
+    }
+
+    private static Map<String, Long> sumByName(Enum<?>[] names, LongAdder[] counters) {
+        Map<String, Long> sums = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < names.length; i++)
+            sums.put(names[i].name(), counters[i].sum());
+        return sums;
+    }
+
+    private static Map<String, Long> summarise(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Long> summary = new LinkedHashMap<String, Long>();
+        summary.put("count", snapshot.getCount());
+        summary.put("p50", toMicros(snapshot.getValueAtPercentile(50)));
+        summary.put("p90", toMicros(snapshot.getValueAtPercentile(90)));
+        summary.put("p99", toMicros(snapshot.getValueAtPercentile(99)));
+        summary.put("p999", toMicros(snapshot.getValueAtPercentile(99.9)));
+        summary.put("max", toMicros(snapshot.getMax()));
+        return summary;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder(4096);
+        appendValue(text, "chat_connections_active", "gauge", getActiveConnections());
+        for (Map.Entry<String, Long> gauge : getGauges().entrySet())
+            appendValue(text, "chat_" + gauge.getKey(), "gauge", gauge.getValue());
+        appendValue(text, "chat_idle_connections_reaped_total", "counter", getIdleConnectionsReaped());
+        appendValue(text, "chat_presence_updates_total", "counter", getPresenceUpdates());
+        appendValue(text, "chat_registry_commits_total", "counter", getRegistryCommits());
+        appendValue(text, "chat_registrations_saved_total", "counter", getRegistrationsSaved());
+        appendValue(text, "chat_file_bytes_spooled_total", "counter", getFileBytesSpooled());
+        appendValue(text, "chat_file_bytes_relayed_total", "counter", getFileBytesRelayed());
+        appendValue(text, "chat_file_transfers_completed_total", "counter", getFileTransfersCompleted());
+        appendValue(text, "chat_file_transfers_cancelled_total", "counter", getFileTransfersCancelled());
+        appendValue(text, "chat_search_texts_indexed_total", "counter", getTextsIndexed());
+        appendValue(text, "chat_search_flushes_total", "counter", getSearchFlushes());
+        appendValue(text, "chat_search_merges_total", "counter", getSearchMerges());
+        appendValue(text, "chat_bytes_in_total", "counter", getBytesIn());
+        appendValue(text, "chat_bytes_out_total", "counter", getBytesOut());
+        appendValue(text, "chat_flushes_total", "counter", writeStats.getFlushes());
+        appendValue(text, "chat_messages_flushed_total", "counter", writeStats.getMessages());
+        appendValue(text, "chat_frames_deflated_total", "counter", compressionStats.getFramesDeflated());
+        appendValue(text, "chat_frames_not_deflated_total", "counter", compressionStats.getFramesNotDeflated());
+        appendValue(text, "chat_frames_inflated_total", "counter", compressionStats.getFramesInflated());
+        appendValue(text, "chat_deflate_bytes_before_total", "counter", compressionStats.getBytesBeforeDeflate());
+        appendValue(text, "chat_deflate_bytes_after_total", "counter", compressionStats.getBytesAfterDeflate());
+        appendSeconds(text, "chat_deflate_seconds_total", compressionStats.getDeflateNanos());
+        appendSeconds(text, "chat_inflate_seconds_total", compressionStats.getInflateNanos());
+        appendLabelled(text, "chat_messages_received_total", "type", getMessagesReceived());
+        appendLabelled(text, "chat_messages_sent_total", "type", getMessagesSent());
+        appendLabelled(text, "chat_requests_throttled_total", "type", getRequestsThrottled());
+        appendLabelled(text, "chat_responses_total", "status", getResponsesByStatus());
+        appendSummary(text, "chat_routing_latency_seconds", routingLatency.snapshot());
+        appendSummary(text, "chat_lock_wait_seconds", lockWait.snapshot());
+        appendSummary(text, "chat_lock_hold_seconds", lockHold.snapshot());
+        appendSummary(text, "chat_registry_commit_seconds", registryCommitLatency.snapshot());
+        appendSummary(text, "chat_search_seconds", searchLatency.snapshot());
+        appendSummary(text, "chat_search_merge_seconds", searchMergeLatency.snapshot());
+        return text.toString();
+    }
+
+    private static void appendValue(StringBuilder text, String name, String type, long value) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendSeconds(StringBuilder text, String name, long nanos) {
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(toSeconds(nanos)).append('\n');
+    }
+
+    private static void appendLabelled(StringBuilder text, String name, String label, Map<String, Long> values) {
+        text.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            text.append(name).append('{').append(label).append("=\"").append(value.getKey()).append("\"} ")
+                    .append(value.getValue()).append('\n');
+        }
+    }
+
+    private static void appendSummary(StringBuilder text, String name, LatencyHistogram.Snapshot snapshot) {
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            text.append(name).append("{quantile=\"").append(QUANTILES[i]).append("\"} ")
+                    .append(toSeconds(snapshot.getValueAtPercentile(PERCENTILES[i]))).append('\n');
+        }
+        text.append(name).append("_sum ").append(toSeconds(snapshot.getSum())).append('\n');
+        text.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+        String maxName = name.replace("_seconds", "_max_seconds");
+        text.append("# TYPE ").append(maxName).append(" gauge\n");
+        text.append(maxName).append(' ').append(toSeconds(snapshot.getMax())).append('\n');
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / 1e9;
+    }
+}
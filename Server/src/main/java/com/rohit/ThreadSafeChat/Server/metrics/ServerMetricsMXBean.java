@@ -0,0 +1,91 @@
+package com.rohit.ThreadSafeChat.Server.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ServerMetrics}. Latencies are summarised in microseconds
+ * as {@code count}, {@code p50}, {@code p90}, {@code p99}, {@code p999} and
+ * {@code max}.
+ */
+public interface ServerMetricsMXBean {
+    long getActiveConnections();
+
+    long getIdleConnectionsReaped();
+
+    long getPresenceUpdates();
+
+    /**
+     * @return how many times registrations were forced to disk, each time
+     *         saving all of {@link #getRegistrationsSaved()} queued up by then.
+     */
+    long getRegistryCommits();
+
+    long getRegistrationsSaved();
+
+    /**
+     * @return file bytes written to the spool as senders uploaded them.
+     */
+    long getFileBytesSpooled();
+
+    /**
+     * @return file bytes queued from the spool for receivers.
+     */
+    long getFileBytesRelayed();
+
+    long getFileTransfersCompleted();
+
+    long getFileTransfersCancelled();
+
+    /**
+     * @return texts indexed for search, each for its sender and receiver.
+     */
+    long getTextsIndexed();
+
+    /**
+     * @return search segments written out from memory.
+     */
+    long getSearchFlushes();
+
+    long getSearchMerges();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFlushes();
+
+    double getMessagesPerFlush();
+
+    /**
+     * @return counts of compressed frames and bytes, and the time spent
+     *         compressing and decompressing them.
+     */
+    Map<String, Long> getCompression();
+
+    /**
+     * @return compressed over original size of the frames sent compressed.
+     */
+    double getCompressionRatio();
+
+    Map<String, Long> getGauges();
+
+    Map<String, Long> getMessagesReceived();
+
+    Map<String, Long> getMessagesSent();
+
+    Map<String, Long> getRequestsThrottled();
+
+    Map<String, Long> getResponsesByStatus();
+
+    Map<String, Long> getRoutingLatencyMicros();
+
+    Map<String, Long> getLockWaitMicros();
+
+    Map<String, Long> getLockHoldMicros();
+
+    Map<String, Long> getRegistryCommitMicros();
+
+    Map<String, Long> getSearchMicros();
+
+    Map<String, Long> getSearchMergeMicros();
+}
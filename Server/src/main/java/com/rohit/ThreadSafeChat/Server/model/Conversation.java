@@ -0,0 +1,94 @@
+package com.rohit.ThreadSafeChat.Server.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+
+/**
+ * The private conversation between two users, numbering its texts in the order
+ * they are routed. The lock is held while a text is numbered, handed to the
+ * receiver and recorded, so texts of a conversation reach the receiver, the
+ * offline store and the history in the same order; texts between other users
+ * are never held up by it.
+ *
+ * In a cluster, the outcome of a text routed to another node comes later, and
+ * is handled without the lock, in the order the texts were numbered.
+ */
+public class Conversation {
+    private static Logger logger = LoggerFactory.getLogger(Conversation.class);
+
+    /**
+     * Told the outcome of a routed text.
+     */
+    public interface Callback {
+        void routed(Message outcome);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextSequence;
+    private CompletableFuture<Void> lastRouted = CompletableFuture.completedFuture(null);
+
+    public void lock() {
+        lock.lock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * @return {@code true} once the first sequence number has been set. Must be
+     *         called with the lock held.
+     */
+    public boolean isStarted() {
+        return nextSequence > 0;
+    }
+
+    /**
+     * Sets the number of the next text, carrying on from texts routed before a
+     * restart. Must be called with the lock held.
+     */
+    public void startAt(long nextSequence) {
+        this.nextSequence = Math.max(1, nextSequence);
+    }
+
+    /**
+     * @return the number the next text will get. Must be called with the lock
+     *         held.
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Uses up the next number, once a text numbered with it has been accepted.
+     * Must be called with the lock held.
+     */
+    public void advance() {
+        nextSequence++;
+    }
+
+    /**
+     * Tells the callback the outcome of a text once it is known and the
+     * outcomes of the texts numbered before it have been handled. Must be
+     * called with the lock held.
+     */
+    public void whenRouted(CompletableFuture<Message> outcome, final Callback callback) {
+        lastRouted = lastRouted.thenCombine(outcome, new BiFunction<Void, Message, Void>() {
+            public Void apply(Void previous, Message routed) {
+                // A failure must not stop the outcomes of later texts.
+                try {
+                    callback.routed(routed);
+                } catch (RuntimeException e) {
+                    logger.error("Could not handle the outcome of a routed text", e);
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package com.rohit.ThreadSafeChat.Server.model;
+
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+
+/**
+ * A login waiting for a free slot, and since when it has been waiting.
+ */
+public class PendingLogin {
+    private final String userId;
+    private final ClientConnection connection;
+    private final long queuedAtNanos;
+    private volatile boolean isAnnounced;
+
+    public PendingLogin(String userId, ClientConnection connection, long queuedAtNanos) {
+        this.userId = userId;
+        this.connection = connection;
+        this.queuedAtNanos = queuedAtNanos;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ClientConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the user first joined the queue.
+     */
+    public long getQueuedAtNanos() {
+        return queuedAtNanos;
+    }
+
+    /**
+     * @return {@code true} once the client has been told it is queued. Until
+     *         then the login is not admitted, so that the admission cannot
+     *         overtake that response.
+     */
+    public boolean isAnnounced() {
+        return isAnnounced;
+    }
+
+    public void setIsAnnounced(boolean isAnnounced) {
+        this.isAnnounced = isAnnounced;
+    }
+}
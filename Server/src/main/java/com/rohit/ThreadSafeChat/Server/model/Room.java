@@ -0,0 +1,61 @@
+package com.rohit.ThreadSafeChat.Server.model;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+
+/**
+ * A group chat room. Members are the connections of logged in users, kept in
+ * a concurrent set so a fan-out can iterate it while others join and leave
+ * without copying it or taking a lock. Iteration is weakly consistent: a
+ * member joining or leaving during a fan-out may or may not receive the text.
+ */
+public class Room {
+    private final String name;
+    private final Set<ClientConnection> members = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastSequence = new AtomicLong(0);
+
+    public Room(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@code false} if the connection already is a member.
+     */
+    public boolean join(ClientConnection connection) {
+        return members.add(connection);
+    }
+
+    /**
+     * @return {@code false} if the connection was not a member.
+     */
+    public boolean leave(ClientConnection connection) {
+        return members.remove(connection);
+    }
+
+    public boolean isMember(ClientConnection connection) {
+        return members.contains(connection);
+    }
+
+    public Set<ClientConnection> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * @return the number of the next text sent to the room, counting from 1.
+     */
+    public long nextSequence() {
+        return lastSequence.incrementAndGet();
+    }
+
+    public int getNumberOfMembers() {
+        return members.size();
+    }
+}
@@ -1,31 +1,50 @@
 package com.rohit.ThreadSafeChat.Server.model;
 
-import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+
+/**
+ * A registered user. The user is logged in while it is bound to a connection;
+ * binding and unbinding are compare-and-set transitions, so concurrent logins
+ * of the same user cannot both succeed.
+ */
 public class User {
-    private String userId;
-    private ObjectOutputStream objectOutputStream;
-    private boolean isLoggedIn;
+    private final String userId;
+    private final AtomicReference<ClientConnection> connection = new AtomicReference<>();
 
-    public User(String userId, ObjectOutputStream objectOutputStream) {
+    public User(String userId) {
         this.userId = userId;
-        this.objectOutputStream = objectOutputStream;
-        this.isLoggedIn = false;
     }
 
     public boolean getIsLoggedIn() {
-        return isLoggedIn;
-    }
-
-    public void setIsLoggedIn(boolean value) {
-        this.isLoggedIn = value;
+        return connection.get() != null;
     }
 
     public String getUserId() {
         return userId;
     }
 
-    public ObjectOutputStream getObjectOutputStream() {
-        return objectOutputStream;
+    /**
+     * @return the connection the user is logged in over, or {@code null}.
+     */
+    public ClientConnection getConnection() {
+        return connection.get();
+    }
+
+    public boolean login(ClientConnection connection) {
+        return this.connection.compareAndSet(null, connection);
+    }
+
+    public boolean logoff(ClientConnection connection) {
+        return this.connection.compareAndSet(connection, null);
+    }
+
+    /**
+     * Moves the login from one connection to another without the user ever
+     * being logged off in between.
+     */
+    public boolean rebind(ClientConnection from, ClientConnection to) {
+        return this.connection.compareAndSet(from, to);
     }
 }
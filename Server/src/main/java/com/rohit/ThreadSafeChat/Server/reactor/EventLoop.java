@@ -0,0 +1,196 @@
+package com.rohit.ThreadSafeChat.Server.reactor;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Single threaded selector loop. Every channel registered with a loop is only
+ * ever read, written and closed from that loop's thread; other threads hand
+ * work over through {@link #execute(Runnable)} and
+ * {@link #schedule(Runnable, long)}. Scheduled tasks run with millisecond
+ * resolution.
+ */
+public class EventLoop implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>();
+    private final ServerConfig config;
+    private final RequestHandler requestHandler;
+    private final ServerMetrics metrics;
+    private volatile Thread thread;
+    private volatile boolean isRunning = true;
+
+    public EventLoop(ServerConfig config, RequestHandler requestHandler, ServerMetrics metrics) throws IOException {
+        this.selector = Selector.open();
+        this.config = config;
+        this.requestHandler = requestHandler;
+        this.metrics = metrics;
+    }
+
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (isRunning) {
+                select();
+                runTasks();
+                runDueScheduledTasks();
+                processSelectedKeys();
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            closeAllChannels();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop())
+            selector.wakeup();
+    }
+
+    /**
+     * Runs a task on the loop once the delay has passed.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        final ScheduledTask scheduledTask = new ScheduledTask(System.nanoTime() + delayNanos, task);
+        if (inEventLoop()) {
+            scheduledTasks.add(scheduledTask);
+        } else {
+            execute(new Runnable() {
+                public void run() {
+                    scheduledTasks.add(scheduledTask);
+                }
+            });
+        }
+    }
+
+    public void register(final SocketChannel channel) {
+        execute(new Runnable() {
+            public void run() {
+                NioConnection connection = new NioConnection(channel, EventLoop.this, config, requestHandler,
+                        metrics);
+                try {
+                    channel.configureBlocking(false);
+                    connection.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                    requestHandler.connectionOpened(connection);
+                    logger.info("Registered connection from {}", channel.getRemoteAddress());
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    private void select() throws IOException {
+        // Tasks queued from the loop itself do not wake the selector up.
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            selector.select();
+            return;
+        }
+        long delayNanos = next.deadline - System.nanoTime();
+        if (delayNanos <= 0)
+            selector.selectNow();
+        else
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+    }
+
+    private void runDueScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline - now <= 0) {
+            scheduledTasks.poll();
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isReadable())
+                    connection.onReadable();
+                if (key.isValid() && key.isWritable())
+                    connection.onWritable();
+            } catch (CancelledKeyException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAllChannels() {
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).close();
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+        private final long deadline;
+        private final Runnable task;
+
+        private ScheduledTask(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        public int compareTo(ScheduledTask other) {
+            return Long.signum(deadline - other.deadline);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.rohit.ThreadSafeChat.Server.reactor;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.io.FrameReader;
+import com.rohit.ThreadSafeChat.Common.io.FrameWriter;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.exception.InvalidRequestMessageException;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+import com.rohit.ThreadSafeChat.Server.metrics.CountingChannel;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Non-blocking connection owned by a single {@link EventLoop}. Incoming bytes
+ * are split into length-prefixed frames and dispatched to the
+ * {@link RequestHandler} on the loop thread. Outgoing messages are queued by the
+ * calling thread and encoded by the loop straight into a pooled buffer when the
+ * socket can take them.
+ * 
+ * The loop thread never waits for queue space. Instead, reading from a client
+ * is paused while its own outbound queue is nearly full, so a client that
+ * stops reading stops having its requests processed.
+ */
+public class NioConnection extends ClientConnection {
+    private static Logger logger = LoggerFactory.getLogger(NioConnection.class);
+
+    private final SocketChannel channel;
+    private final ByteChannel countingChannel;
+    private final EventLoop eventLoop;
+    private final RequestHandler requestHandler;
+    private final FrameReader frameReader;
+    private final FrameWriter frameWriter;
+    private final int readPauseThreshold;
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    private SelectionKey selectionKey;
+    private boolean isReadPaused = false;
+
+    NioConnection(SocketChannel channel, EventLoop eventLoop, ServerConfig config, RequestHandler requestHandler,
+            ServerMetrics metrics) {
+        super(config, metrics);
+        this.channel = channel;
+        this.countingChannel = new CountingChannel(channel, metrics);
+        this.eventLoop = eventLoop;
+        this.requestHandler = requestHandler;
+        this.frameReader = new FrameReader(BufferPool.shared(), config.getWireFormat().getCodec(),
+                Constants.MAX_FRAME_LENGTH, metrics.getCompressionStats());
+        this.frameWriter = new FrameWriter(BufferPool.shared(), config.getWireFormat().getCodec(),
+                Constants.MAX_FRAME_LENGTH, metrics.getCompressionStats());
+        this.readPauseThreshold = Math.max(1, config.getOutboundQueueCapacity() / 4);
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return isClosed.get();
+    }
+
+    @Override
+    protected void onMessageQueued() {
+        if (!isFlushScheduled.compareAndSet(false, true))
+            return;
+        if (writeLingerNanos > 0)
+            eventLoop.schedule(flushTask, writeLingerNanos);
+        else
+            eventLoop.execute(flushTask);
+    }
+
+    @Override
+    protected boolean canBlock() {
+        return !eventLoop.inEventLoop();
+    }
+
+    /**
+     * Requests are handled on the loop thread, so this normally takes effect
+     * at once; otherwise the loop enables it before its next flush.
+     */
+    @Override
+    public boolean enableCompression(final int threshold) {
+        if (threshold <= 0)
+            return false;
+        if (eventLoop.inEventLoop()) {
+            frameWriter.enableCompression(threshold);
+        } else {
+            eventLoop.execute(new Runnable() {
+                public void run() {
+                    if (!isClosed.get())
+                        frameWriter.enableCompression(threshold);
+                }
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (eventLoop.inEventLoop()) {
+            closeNow();
+        } else {
+            eventLoop.execute(new Runnable() {
+                public void run() {
+                    closeNow();
+                }
+            });
+        }
+    }
+
+    void onReadable() {
+        try {
+            if (frameReader.readFrom(countingChannel) < 0) {
+                closeNow();
+                return;
+            }
+            while (!isClosed.get() && dispatchNextMessage()) {
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            closeNow();
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * @return {@code false} once no complete frame is left in the read buffer.
+     */
+    private boolean dispatchNextMessage() throws IOException {
+        if (outboundQueue.remainingCapacity() < readPauseThreshold) {
+            pauseReading();
+            return false;
+        }
+        Message message;
+        try {
+            message = frameReader.nextMessage();
+        } catch (MalformedMessageException e) {
+            logger.error(e.getMessage(), e);
+            return true;
+        }
+        if (message == null)
+            return false;
+        try {
+            requestHandler.processMessage(message, this);
+        } catch (InvalidRequestMessageException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Encodes up to {@code maxWriteBatch} queued messages into the write buffer
+     * and hands them to the socket in one write, until the queue is empty or
+     * the socket stops accepting bytes.
+     */
+    private void flush() {
+        if (isClosed.get())
+            return;
+        try {
+            while (true) {
+                int batched = 0;
+                Message message;
+                while (batched < maxWriteBatch && (message = outboundQueue.peek()) != null) {
+                    if (!appendFrame(message))
+                        break;
+                    batched++;
+                }
+                writeStats.recordFlush(batched);
+                if (!frameWriter.flushTo(countingChannel)) {
+                    selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (!outboundQueue.isEmpty())
+                    continue;
+                selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+                isFlushScheduled.set(false);
+                if (isReadPaused)
+                    resumeReading();
+                // A sender may have queued a message after the queue was seen empty.
+                if (outboundQueue.isEmpty() || !isFlushScheduled.compareAndSet(false, true))
+                    return;
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            closeNow();
+        }
+    }
+
+    /**
+     * @return {@code false} if the message has to wait for pending frames to be
+     *         written out first.
+     */
+    private boolean appendFrame(Message message) {
+        try {
+            if (!frameWriter.append(message))
+                return false;
+            metrics.recordSent(message);
+        } catch (IOException e) {
+            logger.error("Dropping message which cannot be encoded", e);
+        }
+        outboundQueue.poll();
+        return true;
+    }
+
+    private void pauseReading() {
+        isReadPaused = true;
+        selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * Re-enables reading and dispatches the frames which were already buffered
+     * when reading was paused.
+     */
+    private void resumeReading() throws IOException {
+        isReadPaused = false;
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+        while (!isClosed.get() && !isReadPaused && dispatchNextMessage()) {
+        }
+    }
+
+    private void closeNow() {
+        if (!isClosed.compareAndSet(false, true))
+            return;
+        metrics.recordConnectionClosed();
+        try {
+            if (selectionKey != null)
+                selectionKey.cancel();
+            channel.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            outboundQueue.clear();
+            frameReader.release();
+            frameWriter.release();
+            requestHandler.connectionClosed(this);
+        }
+    }
+}
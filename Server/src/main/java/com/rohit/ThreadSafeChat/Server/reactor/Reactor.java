@@ -0,0 +1,66 @@
+package com.rohit.ThreadSafeChat.Server.reactor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.handler.RequestHandler;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.util.ServerSockets;
+
+/**
+ * Accepts client sockets on the calling thread and spreads them round-robin
+ * over a fixed pool of {@link EventLoop}s.
+ */
+public class Reactor {
+    private static Logger logger = LoggerFactory.getLogger(Reactor.class);
+
+    private final ServerConfig config;
+    private final EventLoop[] eventLoops;
+    private final Thread[] eventLoopThreads;
+    private int nextEventLoop = 0;
+
+    public Reactor(ServerConfig config, RequestHandler requestHandler, ServerMetrics metrics) throws IOException {
+        int numberOfEventLoops = config.getEventLoopThreads();
+        this.config = config;
+        this.eventLoops = new EventLoop[numberOfEventLoops];
+        this.eventLoopThreads = new Thread[numberOfEventLoops];
+        for (int i = 0; i < numberOfEventLoops; i++) {
+            eventLoops[i] = new EventLoop(config, requestHandler, metrics);
+            eventLoopThreads[i] = new Thread(eventLoops[i], "event-loop-" + i);
+        }
+    }
+
+    public void serve() throws IOException {
+        for (Thread thread : eventLoopThreads)
+            thread.start();
+
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        try {
+            serverSocketChannel.bind(new InetSocketAddress(config.getPort()));
+            logger.info("Server Socket established successfully with {} event loops!", eventLoops.length);
+            while (true) {
+                SocketChannel channel = ServerSockets.accept(serverSocketChannel);
+                try {
+                    channel.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    // The client is already gone.
+                    logger.warn("Could not set up an accepted connection: {}", e.toString());
+                    channel.close();
+                    continue;
+                }
+                eventLoops[nextEventLoop].register(channel);
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            }
+        } finally {
+            serverSocketChannel.close();
+            for (EventLoop eventLoop : eventLoops)
+                eventLoop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.model.PendingLogin;
+
+/**
+ * First come, first served queue of logins waiting for a slot in the
+ * {@link UserRegistry}. Waiting logins are indexed by user id in arrival
+ * order, so joining, cancelling and admitting all take constant time however
+ * long the queue grows. A client which reconnects while its user is waiting
+ * keeps the user's place.
+ *
+ * Logins are admitted under the queue's lock, so that a login and the
+ * cancellation of its connection cannot interleave; listener callbacks always
+ * run after the lock is released. A single daemon thread, started with the
+ * first queued login, times out logins which waited too long and tells the
+ * others their position and estimated wait every update interval.
+ */
+public class AdmissionQueue {
+    private static Logger logger = LoggerFactory.getLogger(AdmissionQueue.class);
+
+    /**
+     * Told what happens to queued logins.
+     */
+    public interface Listener {
+        /**
+         * @param result of logging the user in; never
+         *               {@link LoginResult#SERVER_FULL}.
+         */
+        void admitted(PendingLogin login, LoginResult result);
+
+        /**
+         * @param estimatedWaitMillis based on the recent admission rate, or -1 if
+         *                            nobody has been admitted lately.
+         */
+        void waiting(PendingLogin login, int position, long estimatedWaitMillis);
+
+        void timedOut(PendingLogin login);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, PendingLogin> waiting = new LinkedHashMap<String, PendingLogin>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final UserRegistry userRegistry;
+    private final int capacity;
+    private final long timeoutNanos;
+    private final long updateIntervalMillis;
+    private final Listener listener;
+    private long admittedLogins;
+    private ScheduledExecutorService updater;
+
+    // Only touched by the updater thread.
+    private long admittedAtLastUpdate;
+    private double admissionsPerMilli;
+
+    public AdmissionQueue(UserRegistry userRegistry, int capacity, long timeoutMillis, long updateIntervalMillis,
+            Listener listener) {
+        this.userRegistry = userRegistry;
+        this.capacity = capacity;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.updateIntervalMillis = updateIntervalMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a login behind everyone already waiting. If the user is already
+     * waiting, the new connection takes over its place instead.
+     *
+     * @return the number of logins waiting up to and including this one, which
+     *         for a user taking over its place is an upper bound, or 0 if the
+     *         queue is full.
+     */
+    public int enqueue(String userId, ClientConnection connection) {
+        lock.lock();
+        try {
+            PendingLogin earlier = waiting.get(userId);
+            if (earlier != null) {
+                waiting.put(userId, new PendingLogin(userId, connection, earlier.getQueuedAtNanos()));
+                return waiting.size();
+            }
+            if (waiting.size() >= capacity)
+                return 0;
+            waiting.put(userId, new PendingLogin(userId, connection, System.nanoTime()));
+            size.set(waiting.size());
+            if (updater == null)
+                startUpdater();
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets a queued login be admitted once its client has been told it is
+     * queued, then admits whoever can be.
+     */
+    public void announced(String userId, ClientConnection connection) {
+        lock.lock();
+        try {
+            PendingLogin pendingLogin = waiting.get(userId);
+            if (pendingLogin != null && pendingLogin.getConnection() == connection)
+                pendingLogin.setIsAnnounced(true);
+        } finally {
+            lock.unlock();
+        }
+        admit();
+    }
+
+    /**
+     * Takes the user out of the queue if it is waiting on the given connection.
+     */
+    public void cancel(String userId, ClientConnection connection) {
+        lock.lock();
+        try {
+            PendingLogin pendingLogin = waiting.get(userId);
+            if (pendingLogin != null && pendingLogin.getConnection() == connection) {
+                waiting.remove(userId);
+                size.set(waiting.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs in waiting users from the head of the queue for as long as there
+     * are free slots.
+     */
+    public void admit() {
+        if (size.get() == 0)
+            return;
+        List<PendingLogin> admitted = new ArrayList<PendingLogin>();
+        List<LoginResult> results = new ArrayList<LoginResult>();
+        lock.lock();
+        try {
+            Iterator<PendingLogin> iterator = waiting.values().iterator();
+            while (iterator.hasNext()) {
+                PendingLogin head = iterator.next();
+                if (head.getConnection().isClosed()) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!head.isAnnounced())
+                    break;
+                LoginResult result = userRegistry.login(head.getUserId(), head.getConnection());
+                if (result == LoginResult.SERVER_FULL)
+                    break;
+                iterator.remove();
+                admitted.add(head);
+                results.add(result);
+                if (result == LoginResult.OK)
+                    admittedLogins++;
+            }
+            size.set(waiting.size());
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < admitted.size(); i++)
+            listener.admitted(admitted.get(i), results.get(i));
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void startUpdater() {
+        updater = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "admission-queue");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        updater.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    update();
+                } catch (RuntimeException e) {
+                    logger.error("Could not update the admission queue", e);
+                }
+            }
+        }, updateIntervalMillis, updateIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Admits whoever can be admitted, drops logins which waited too long from
+     * the head of the queue and tells everyone left where they stand. The queue
+     * is only locked to copy it, so updating a long queue does not hold up
+     * logins and cancellations.
+     */
+    private void update() {
+        admit();
+        long now = System.nanoTime();
+        List<PendingLogin> expired = new ArrayList<PendingLogin>();
+        PendingLogin[] snapshot;
+        long admittedSoFar;
+        lock.lock();
+        try {
+            Iterator<PendingLogin> iterator = waiting.values().iterator();
+            while (iterator.hasNext()) {
+                PendingLogin head = iterator.next();
+                if (now - head.getQueuedAtNanos() < timeoutNanos)
+                    break;
+                iterator.remove();
+                expired.add(head);
+            }
+            size.set(waiting.size());
+            snapshot = waiting.values().toArray(new PendingLogin[waiting.size()]);
+            admittedSoFar = admittedLogins;
+        } finally {
+            lock.unlock();
+        }
+        for (PendingLogin pendingLogin : expired)
+            listener.timedOut(pendingLogin);
+
+        double recentRate = (double) (admittedSoFar - admittedAtLastUpdate) / updateIntervalMillis;
+        admittedAtLastUpdate = admittedSoFar;
+        admissionsPerMilli = admissionsPerMilli == 0 ? recentRate : 0.7 * admissionsPerMilli + 0.3 * recentRate;
+        for (int i = 0; i < snapshot.length; i++) {
+            if (!snapshot[i].isAnnounced())
+                continue;
+            long estimatedWaitMillis = admissionsPerMilli == 0 ? -1 : (long) ((i + 1) / admissionsPerMilli);
+            listener.waiting(snapshot[i], i + 1, estimatedWaitMillis);
+        }
+    }
+}
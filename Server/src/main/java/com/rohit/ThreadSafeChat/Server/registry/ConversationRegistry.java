@@ -0,0 +1,37 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rohit.ThreadSafeChat.Server.model.Conversation;
+
+/**
+ * The private conversations texts have been routed in, one per pair of users
+ * whichever of them sends. Conversations are kept once created.
+ */
+public class ConversationRegistry {
+    private final ConcurrentMap<String, Conversation> conversations = new ConcurrentHashMap<>();
+
+    public Conversation get(String userId, String peerId) {
+        String key = keyOf(userId, peerId);
+        Conversation conversation = conversations.get(key);
+        if (conversation == null) {
+            Conversation created = new Conversation();
+            conversation = conversations.putIfAbsent(key, created);
+            if (conversation == null)
+                conversation = created;
+        }
+        return conversation;
+    }
+
+    /**
+     * @return the same key for both users of a conversation.
+     */
+    public static String keyOf(String userId, String peerId) {
+        return userId.compareTo(peerId) <= 0 ? userId + '\0' + peerId : peerId + '\0' + userId;
+    }
+
+    public int getNumberOfConversations() {
+        return conversations.size();
+    }
+}
@@ -0,0 +1,5 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+public enum LoginResult {
+    OK, NOT_REGISTERED, SERVER_FULL, ALREADY_LOGGED_IN;
+}
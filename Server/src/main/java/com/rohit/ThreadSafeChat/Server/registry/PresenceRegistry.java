@@ -0,0 +1,266 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.EncodedMessage;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Common.util.Constants;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.model.User;
+
+/**
+ * Who is subscribed to the presence of which user, what each subscriber was
+ * last told, and the users whose presence may have changed since. Logins and
+ * logoffs only mark their user, which is a single set insertion; every
+ * {@code presenceWindowMillis} a daemon thread looks up whether each marked
+ * user is logged in now and pushes a {@code PRESENCE_UPDATE} to those
+ * subscribers it differs from what they were last told. A user who logs off
+ * and back in within a window, as clients do when reconnecting during a login
+ * storm, is not pushed at all.
+ *
+ * A new subscriber is told the user's presence right behind its subscribe
+ * response, and is left out of pushes until then, so it never gets an update
+ * before that response nor the same state twice.
+ *
+ * Each update is encoded once and the same bytes are offered to every
+ * subscriber, off the threads which log users in and off. Subscribers whose
+ * queue is full are tried again in the next window rather than holding up the
+ * others.
+ */
+public class PresenceRegistry {
+    private static Logger logger = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private final UserRegistry userRegistry;
+    private final MessageCodec fanOutCodec;
+    private final ServerMetrics metrics;
+    private final long windowMillis;
+    private final ConcurrentMap<String, ConcurrentMap<ClientConnection, Watch>> subscribers =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClientConnection, Set<String>> subscriptions = new ConcurrentHashMap<>();
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A subscription, and whether its subscriber was last told that the user
+     * is online; {@code null} until it has been told the presence at the time
+     * it subscribed. Only set once by the subscribing thread and from then on
+     * by the publishing thread.
+     */
+    private static class Watch {
+        private volatile Boolean toldOnline;
+    }
+
+    /**
+     * @param fanOutCodec the codec every connection writes frames with, or
+     *                    {@code null} to let every subscriber encode updates
+     *                    itself.
+     */
+    public PresenceRegistry(ServerConfig config, UserRegistry userRegistry, MessageCodec fanOutCodec,
+            ServerMetrics metrics) {
+        this.userRegistry = userRegistry;
+        this.fanOutCodec = fanOutCodec;
+        this.metrics = metrics;
+        this.windowMillis = config.getPresenceWindowMillis();
+    }
+
+    /**
+     * @return a started registry, or {@code null} if presence cannot be
+     *         subscribed to.
+     */
+    public static PresenceRegistry open(ServerConfig config, UserRegistry userRegistry, MessageCodec fanOutCodec,
+            ServerMetrics metrics) {
+        if (config.getPresenceWindowMillis() <= 0)
+            return null;
+        PresenceRegistry registry = new PresenceRegistry(config, userRegistry, fanOutCodec, metrics);
+        registry.start();
+        return registry;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                publish();
+            }
+        }, "presence-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Subscribes the connection, which is not pushed any changes until it has
+     * been sent {@link #sendPresence(String, ClientConnection)}.
+     *
+     * @return {@code false} if the connection already is subscribed.
+     */
+    public boolean subscribe(String userId, ClientConnection connection) {
+        return watch(userId, connection, new Watch());
+    }
+
+    /**
+     * Sends a connection which has just subscribed whether the user is logged
+     * in right now. Changes are pushed to it from then on.
+     */
+    public void sendPresence(String userId, ClientConnection connection) {
+        boolean isOnline = isLoggedIn(userId);
+        connection.send(newUpdate(userId, isOnline));
+        Map<ClientConnection, Watch> watching = subscribers.get(userId);
+        Watch watch = watching == null ? null : watching.get(connection);
+        if (watch != null)
+            watch.toldOnline = isOnline;
+    }
+
+    private boolean watch(String userId, ClientConnection connection, Watch watch) {
+        ConcurrentMap<ClientConnection, Watch> watching = subscribers.get(userId);
+        if (watching == null) {
+            ConcurrentMap<ClientConnection, Watch> created = new ConcurrentHashMap<>();
+            watching = subscribers.putIfAbsent(userId, created);
+            if (watching == null)
+                watching = created;
+        }
+        if (watching.putIfAbsent(connection, watch) != null)
+            return false;
+        Set<String> watched = subscriptions.get(connection);
+        if (watched == null) {
+            Set<String> created = ConcurrentHashMap.newKeySet();
+            watched = subscriptions.putIfAbsent(connection, created);
+            if (watched == null)
+                watched = created;
+        }
+        watched.add(userId);
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the connection was not subscribed.
+     */
+    public boolean unsubscribe(String userId, ClientConnection connection) {
+        Set<String> watched = subscriptions.get(connection);
+        if (watched != null)
+            watched.remove(userId);
+        Map<ClientConnection, Watch> watching = subscribers.get(userId);
+        return watching != null && watching.remove(connection) != null;
+    }
+
+    public void unsubscribeAll(ClientConnection connection) {
+        Set<String> watched = subscriptions.remove(connection);
+        if (watched == null)
+            return;
+        for (String userId : watched) {
+            Map<ClientConnection, Watch> watching = subscribers.get(userId);
+            if (watching != null)
+                watching.remove(connection);
+        }
+    }
+
+    /**
+     * Puts another connection in the place of this one in every subscription
+     * it holds, along with what it was last told.
+     */
+    public void moveAll(ClientConnection from, ClientConnection to) {
+        Set<String> watched = subscriptions.remove(from);
+        if (watched == null)
+            return;
+        for (String userId : watched) {
+            Map<ClientConnection, Watch> watching = subscribers.get(userId);
+            Watch watch = watching == null ? null : watching.remove(from);
+            watch(userId, to, watch == null ? new Watch() : watch);
+        }
+    }
+
+    /**
+     * Marks the user as possibly having logged in or off. Must be called once
+     * the {@link UserRegistry} has been updated.
+     */
+    public void changed(String userId) {
+        changed.add(userId);
+    }
+
+    private boolean isLoggedIn(String userId) {
+        User user = userRegistry.get(userId);
+        return user != null && user.getIsLoggedIn();
+    }
+
+    private static Message newUpdate(String userId, boolean isOnline) {
+        return new Message.Builder().withMessageType(MessageType.PRESENCE_UPDATE).withSenderId(userId)
+                .withText(isOnline ? Constants.PRESENCE_ONLINE : Constants.PRESENCE_OFFLINE)
+                .withTimestamp(System.currentTimeMillis()).build();
+    }
+
+    private void publish() {
+        while (true) {
+            try {
+                Thread.sleep(windowMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                publishChanges();
+            } catch (RuntimeException e) {
+                logger.error("Could not publish presence changes", e);
+            }
+        }
+    }
+
+    private void publishChanges() {
+        List<String> retries = new ArrayList<String>();
+        Iterator<String> marked = changed.iterator();
+        while (marked.hasNext()) {
+            String userId = marked.next();
+            // Unmarked before looking the user up, so that a change marked
+            // meanwhile is either seen now or published in the next window.
+            marked.remove();
+            Map<ClientConnection, Watch> watching = subscribers.get(userId);
+            if (watching == null || watching.isEmpty())
+                continue;
+            boolean isOnline = isLoggedIn(userId);
+            Message update = null;
+            int delivered = 0;
+            for (Map.Entry<ClientConnection, Watch> entry : watching.entrySet()) {
+                Watch watch = entry.getValue();
+                Boolean toldOnline = watch.toldOnline;
+                if (toldOnline == null) {
+                    // Not told the state it subscribed at yet.
+                    retries.add(userId);
+                    continue;
+                }
+                if (toldOnline.booleanValue() == isOnline)
+                    continue;
+                if (update == null)
+                    update = newEncodedUpdate(userId, isOnline);
+                if (entry.getKey().tryDeliver(update)) {
+                    watch.toldOnline = isOnline;
+                    delivered++;
+                } else {
+                    retries.add(userId);
+                }
+            }
+            if (update != null)
+                metrics.recordPresenceUpdates(delivered);
+        }
+        changed.addAll(retries);
+    }
+
+    private Message newEncodedUpdate(String userId, boolean isOnline) {
+        Message update = newUpdate(userId, isOnline);
+        try {
+            if (fanOutCodec != null)
+                update = EncodedMessage.encode(update, fanOutCodec);
+        } catch (IOException e) {
+            logger.error("Could not encode the presence of " + userId, e);
+        }
+        return update;
+    }
+}
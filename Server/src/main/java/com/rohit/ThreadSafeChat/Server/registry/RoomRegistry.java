@@ -0,0 +1,87 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.model.Room;
+
+/**
+ * Group chat rooms and the rooms every connection has joined, so that a
+ * connection can leave all of them at once when its user logs off. Rooms are
+ * kept once created.
+ */
+public class RoomRegistry {
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClientConnection, Set<Room>> joinedRooms = new ConcurrentHashMap<>();
+
+    /**
+     * @return the new room, or {@code null} if the name is already taken.
+     */
+    public Room create(String name) {
+        Room room = new Room(name);
+        return rooms.putIfAbsent(name, room) == null ? room : null;
+    }
+
+    /**
+     * @return the room, or {@code null}.
+     */
+    public Room get(String name) {
+        return rooms.get(name);
+    }
+
+    /**
+     * @return {@code false} if the connection already is a member.
+     */
+    public boolean join(Room room, ClientConnection connection) {
+        if (!room.join(connection))
+            return false;
+        Set<Room> joined = joinedRooms.get(connection);
+        if (joined == null) {
+            Set<Room> created = ConcurrentHashMap.newKeySet();
+            joined = joinedRooms.putIfAbsent(connection, created);
+            if (joined == null)
+                joined = created;
+        }
+        joined.add(room);
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the connection was not a member.
+     */
+    public boolean leave(Room room, ClientConnection connection) {
+        Set<Room> joined = joinedRooms.get(connection);
+        if (joined != null)
+            joined.remove(room);
+        return room.leave(connection);
+    }
+
+    public void leaveAll(ClientConnection connection) {
+        Set<Room> joined = joinedRooms.remove(connection);
+        if (joined == null)
+            return;
+        for (Room room : joined)
+            room.leave(connection);
+    }
+
+    /**
+     * Puts another connection in the place of this one in every room it has
+     * joined. It leaves each room before the other joins, so a text sent to the
+     * room meanwhile may reach neither but never both.
+     */
+    public void moveAll(ClientConnection from, ClientConnection to) {
+        Set<Room> joined = joinedRooms.remove(from);
+        if (joined == null)
+            return;
+        for (Room room : joined) {
+            room.leave(from);
+            join(room, to);
+        }
+    }
+
+    public int getNumberOfRooms() {
+        return rooms.size();
+    }
+}
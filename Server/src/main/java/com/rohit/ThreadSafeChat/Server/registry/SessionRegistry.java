@@ -0,0 +1,157 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.connection.SuspendedSession;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Sessions held for clients which lost their connection, by the resumption
+ * token they were given at login. Tokens are random and single use. A held
+ * session ends in exactly one way: it is taken to be resumed, removed for a
+ * fresh login of its user, or expires after {@code sessionGraceSeconds}; only
+ * whoever gets it out of the registry deals with it.
+ *
+ * Expiries run on a single daemon thread, started with the first held session.
+ */
+public class SessionRegistry {
+    private static Logger logger = LoggerFactory.getLogger(SessionRegistry.class);
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * Told about sessions whose grace period is over.
+     */
+    public interface Listener {
+        void expired(SuspendedSession session);
+    }
+
+    private final ConcurrentMap<String, SuspendedSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SuspendedSession, ScheduledFuture<?>> expiries = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ServerConfig config;
+    private final ServerMetrics metrics;
+    private final long graceMillis;
+    private volatile Listener listener;
+    private ScheduledThreadPoolExecutor expirer;
+
+    public SessionRegistry(ServerConfig config, ServerMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.graceMillis = TimeUnit.SECONDS.toMillis(config.getSessionGraceSeconds());
+    }
+
+    /**
+     * @return a registry, or {@code null} if sessions are not to be resumed.
+     */
+    public static SessionRegistry open(ServerConfig config, ServerMetrics metrics) {
+        return config.getSessionGraceSeconds() > 0 ? new SessionRegistry(config, metrics) : null;
+    }
+
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return a new token, which cannot be guessed from any other.
+     */
+    public String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @return a session to take the place of a connection which has gone away.
+     *         It is only held once passed to {@link #hold(SuspendedSession)}.
+     */
+    public SuspendedSession newSession(ClientConnection connection) {
+        return new SuspendedSession(config, metrics, connection);
+    }
+
+    /**
+     * Holds the session under its token until the grace period is over.
+     */
+    public void hold(final SuspendedSession session) {
+        sessions.put(session.getSessionToken(), session);
+        ScheduledFuture<?> expiry = getExpirer().schedule(new Runnable() {
+            public void run() {
+                expiries.remove(session);
+                if (!sessions.remove(session.getSessionToken(), session))
+                    return;
+                try {
+                    listener.expired(session);
+                } catch (RuntimeException e) {
+                    logger.error("Could not end the session of " + session.getUserId(), e);
+                }
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS);
+        expiries.put(session, expiry);
+    }
+
+    /**
+     * Takes the session held under the token, if it is the user's.
+     *
+     * @return the session, or {@code null}.
+     */
+    public SuspendedSession take(String sessionToken, String userId) {
+        SuspendedSession session = sessions.get(sessionToken);
+        if (session == null || !userId.equals(session.getUserId()) || !remove(session))
+            return null;
+        return session;
+    }
+
+    /**
+     * Stops holding the session.
+     *
+     * @return {@code false} if it was not held any more.
+     */
+    public boolean remove(SuspendedSession session) {
+        if (!sessions.remove(session.getSessionToken(), session))
+            return false;
+        ScheduledFuture<?> expiry = expiries.remove(session);
+        if (expiry != null)
+            expiry.cancel(false);
+        return true;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Most sessions are resumed well within the grace period, so cancelled
+     * expiries are dropped at once rather than left to pile up.
+     */
+    private ScheduledThreadPoolExecutor getExpirer() {
+        lock.lock();
+        try {
+            if (expirer == null) {
+                expirer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "session-expiry");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                expirer.setRemoveOnCancelPolicy(true);
+            }
+            return expirer;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.io.FileChunk;
+import com.rohit.ThreadSafeChat.Common.io.Frames;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Common.model.MessageType;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.util.ResponseMessages;
+
+/**
+ * Files on their way from one user to another, spooled to disk in between.
+ * The sender uploads a file as soon as its offer is answered, and every chunk
+ * is written to a spool file of the transfer's own on the thread reading the
+ * sender's connection. Once the receiver has accepted, what has been spooled
+ * is relayed as {@link FileChunk}s naming regions of the spool file, which
+ * the receiver's writer hands from the file to the socket without copying
+ * them through the heap. Memory use does not grow with the size of a file.
+ *
+ * Both legs are flow controlled per transfer: at most {@code fileWindowBytes}
+ * may be unacknowledged, by the server to the sender as chunks are spooled
+ * and by the receiver to the server as it writes them. A transfer never has
+ * more than a window queued for its receiver, so texts queued behind its
+ * chunks wait for that much data at most.
+ *
+ * A chunk finding the receiver's queue full is queued again by a daemon
+ * thread, which also cancels transfers making no progress for
+ * {@code fileTransferTimeoutSeconds}. Transfers are cancelled when either
+ * side goes away, and do not survive a restart.
+ */
+public class TransferRegistry {
+    private static Logger logger = LoggerFactory.getLogger(TransferRegistry.class);
+    private static final long SWEEP_MILLIS = 250;
+    private static final String SPOOL_SUFFIX = ".part";
+
+    private static final class Transfer {
+        private final long transferId;
+        private final String senderId;
+        private final String receiverId;
+        private final String fileName;
+        private final long fileSize;
+        private final Path spoolPath;
+        private final FileChannel spool;
+        private final ClientConnection sender;
+        private final ClientConnection offeredTo;
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastProgressNanos = System.nanoTime();
+        /** Bytes spooled, only ever advanced by the sender's reader. */
+        private volatile long received;
+        /** Bytes acknowledged to the sender, only touched by its reader. */
+        private long receivedAcknowledged;
+        /** Set once, with the lock held. */
+        private volatile ClientConnection receiver;
+        // The rest is guarded by the lock.
+        private long relayed;
+        private long acknowledged;
+        private boolean isStalled;
+        private boolean isFinished;
+
+        private Transfer(long transferId, ClientConnection sender, ClientConnection offeredTo, String fileName,
+                long fileSize, Path spoolPath, FileChannel spool) {
+            this.transferId = transferId;
+            this.senderId = sender.getUserId();
+            this.receiverId = offeredTo.getUserId();
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.spoolPath = spoolPath;
+            this.spool = spool;
+            this.sender = sender;
+            this.offeredTo = offeredTo;
+        }
+    }
+
+    private final File spoolDirectory;
+    private final long maxFileBytes;
+    private final int chunkDataBytes;
+    private final int windowBytes;
+    private final long timeoutNanos;
+    private final ServerMetrics metrics;
+    private final ConcurrentMap<Long, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicLong nextTransferId = new AtomicLong(1);
+
+    public TransferRegistry(ServerConfig config, ServerMetrics metrics) throws IOException {
+        this.spoolDirectory = new File(config.getFileSpoolDir());
+        if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs())
+            throw new IOException("Could not create file spool in " + spoolDirectory);
+        this.maxFileBytes = config.getMaxFileBytes();
+        this.chunkDataBytes = config.getFileChunkBytes() - Frames.FILE_DATA_HEADER_LENGTH;
+        this.windowBytes = config.getFileWindowBytes();
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(config.getFileTransferTimeoutSeconds());
+        this.metrics = metrics;
+        File[] leftovers = spoolDirectory.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (leftover.getName().endsWith(SPOOL_SUFFIX) && !leftover.delete())
+                    logger.warn("Could not delete {} left over from an earlier run", leftover);
+            }
+        }
+    }
+
+    /**
+     * @return a started registry, or {@code null} if users cannot send files,
+     *         which takes a framed wire format.
+     */
+    public static TransferRegistry open(ServerConfig config, ServerMetrics metrics) throws IOException {
+        if (config.getMaxFileBytes() <= 0 || !config.getWireFormat().isFramed())
+            return null;
+        TransferRegistry registry = new TransferRegistry(config, metrics);
+        registry.start();
+        return registry;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, "file-transfer-sweeper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * @return how many bytes of a transfer may be unacknowledged at a time.
+     */
+    public int getWindowBytes() {
+        return windowBytes;
+    }
+
+    /**
+     * @return the number of transfers under way.
+     */
+    public int size() {
+        return transfers.size();
+    }
+
+    /**
+     * Starts a transfer and offers the file to the receiver, who is told the
+     * transfer's id to accept it by.
+     *
+     * @return the id of the transfer, or {@code null} if the offer could not
+     *         be queued for the receiver.
+     */
+    public Long offer(ClientConnection sender, ClientConnection receiver, String fileName, long fileSize)
+            throws IOException {
+        long transferId = nextTransferId.getAndIncrement();
+        Path spoolPath = new File(spoolDirectory, transferId + SPOOL_SUFFIX).toPath();
+        FileChannel spool = FileChannel.open(spoolPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Transfer transfer = new Transfer(transferId, sender, receiver, fileName, fileSize, spoolPath, spool);
+        transfers.put(transferId, transfer);
+        Message offer = new Message.Builder().withMessageType(MessageType.FILE_OFFER)
+                .withSenderId(transfer.senderId).withReceiverId(transfer.receiverId).withText(fileName)
+                .withByteCount(fileSize).withTransferId(transferId).withTimestamp(System.currentTimeMillis())
+                .build();
+        if (receiver.deliver(offer))
+            return transferId;
+        close(transfer);
+        return null;
+    }
+
+    /**
+     * Hands a transfer offered to the connection's user over to it: the
+     * response is queued first, and whatever has been spooled so far is
+     * relayed right behind it.
+     *
+     * @return {@code false} if no such transfer waits for the user to accept
+     *         it, in which case the response is not queued.
+     */
+    public boolean accept(long transferId, ClientConnection receiver, Message response) {
+        Transfer transfer = transfers.get(transferId);
+        if (transfer == null || !transfer.receiverId.equals(receiver.getUserId()))
+            return false;
+        transfer.lock.lock();
+        try {
+            if (transfer.isFinished || transfer.receiver != null)
+                return false;
+            transfer.receiver = receiver;
+            transfer.lastProgressNanos = System.nanoTime();
+            receiver.send(response);
+            relay(transfer);
+        } finally {
+            transfer.lock.unlock();
+        }
+        if (transfer.fileSize == 0)
+            complete(transfer);
+        return true;
+    }
+
+    /**
+     * Cancels a transfer the connection is sending, or which is offered to
+     * its user, telling the other side.
+     *
+     * @return {@code false} if the connection has no such transfer.
+     */
+    public boolean cancel(long transferId, ClientConnection connection) {
+        Transfer transfer = transfers.get(transferId);
+        if (transfer == null || (transfer.sender != connection && !transfer.receiverId.equals(connection.getUserId())))
+            return false;
+        String userId = transfer.sender == connection ? transfer.senderId : transfer.receiverId;
+        finish(transfer, connection,
+                String.format(ResponseMessages.FILE_CANCELLED_BY_PEER, transferId, transfer.fileName, userId));
+        return true;
+    }
+
+    /**
+     * Cancels every transfer the connection is a side of, as when it goes
+     * away or its user logs off.
+     */
+    public void cancelAll(ClientConnection connection) {
+        for (Transfer transfer : transfers.values()) {
+            if (transfer.sender == connection || transfer.offeredTo == connection || transfer.receiver == connection) {
+                String userId = transfer.sender == connection ? transfer.senderId : transfer.receiverId;
+                finish(transfer, connection, String.format(ResponseMessages.FILE_PEER_GONE, transfer.transferId,
+                        transfer.fileName, userId));
+            }
+        }
+    }
+
+    /**
+     * Spools a chunk from the sender and relays it if the file has been
+     * accepted. The sender is acknowledged whenever half a window is
+     * unacknowledged, and once the whole file is spooled. Chunks of transfers
+     * which have ended are dropped; those out of turn or beyond the window
+     * fail the transfer.
+     */
+    public void receive(FileChunk chunk, ClientConnection connection) {
+        Transfer transfer = transfers.get(chunk.getTransferId());
+        if (transfer == null || transfer.sender != connection)
+            return;
+        long received = transfer.received;
+        int length = chunk.getLength();
+        if (chunk.getOffset() != received || received + length > transfer.fileSize
+                || received + length - transfer.receivedAcknowledged > windowBytes) {
+            logger.warn("Cancelling transfer {} as {} sent a chunk out of turn", transfer.transferId,
+                    transfer.senderId);
+            fail(transfer);
+            return;
+        }
+        try {
+            ByteBuffer data = chunk.getData();
+            while (data.hasRemaining())
+                transfer.spool.write(data, received + length - data.remaining());
+        } catch (IOException e) {
+            // The spool is closed under a transfer cancelled meanwhile.
+            if (transfers.containsKey(transfer.transferId)) {
+                logger.error("Could not spool transfer " + transfer.transferId, e);
+                fail(transfer);
+            }
+            return;
+        }
+        transfer.received = received + length;
+        transfer.lastProgressNanos = System.nanoTime();
+        metrics.recordFileBytesSpooled(length);
+        if (transfer.received == transfer.fileSize
+                || transfer.received - transfer.receivedAcknowledged >= windowBytes / 2) {
+            transfer.receivedAcknowledged = transfer.received;
+            connection.send(new Message.Builder().withMessageType(MessageType.FILE_ACK)
+                    .withReceiverId(transfer.senderId).withTransferId(transfer.transferId)
+                    .withByteCount(transfer.received).build());
+        }
+        transfer.lock.lock();
+        try {
+            relay(transfer);
+        } finally {
+            transfer.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the receiver's acknowledgement of the bytes it has written, and
+     * relays more or, once it has the whole file, ends the transfer. Acks of
+     * transfers which have ended are dropped; those of bytes never relayed
+     * fail the transfer.
+     */
+    public void acknowledge(Message ack, ClientConnection connection) {
+        Transfer transfer = ack.getTransferId() == null ? null : transfers.get(ack.getTransferId());
+        if (transfer == null || transfer.receiver != connection || ack.getByteCount() == null)
+            return;
+        long bytes = ack.getByteCount();
+        boolean isValid;
+        transfer.lock.lock();
+        try {
+            isValid = bytes >= transfer.acknowledged && bytes <= transfer.relayed;
+            if (isValid) {
+                transfer.acknowledged = bytes;
+                transfer.lastProgressNanos = System.nanoTime();
+                relay(transfer);
+            }
+        } finally {
+            transfer.lock.unlock();
+        }
+        if (!isValid)
+            fail(transfer);
+        else if (bytes == transfer.fileSize)
+            complete(transfer);
+    }
+
+    /**
+     * Queues chunks of what has been spooled for the receiver, as far as the
+     * window allows. The last chunk to fit may be short, so that the window
+     * fills up and the receiver acknowledges it. Must be called with the
+     * transfer's lock held.
+     */
+    private void relay(Transfer transfer) {
+        ClientConnection receiver = transfer.receiver;
+        if (receiver == null || transfer.isFinished)
+            return;
+        long received = transfer.received;
+        transfer.isStalled = false;
+        while (transfer.relayed < received) {
+            long window = windowBytes - (transfer.relayed - transfer.acknowledged);
+            int length = (int) Math.min(Math.min(chunkDataBytes, received - transfer.relayed), window);
+            if (length <= 0)
+                return;
+            if (!receiver.offerChunk(new FileChunk(transfer.transferId, transfer.spoolPath, transfer.relayed,
+                    length))) {
+                transfer.isStalled = true;
+                return;
+            }
+            transfer.relayed += length;
+            metrics.recordFileBytesRelayed(length);
+        }
+    }
+
+    private void complete(Transfer transfer) {
+        if (close(transfer))
+            metrics.recordFileTransferCompleted();
+    }
+
+    private void fail(Transfer transfer) {
+        finish(transfer, null,
+                String.format(ResponseMessages.FILE_TRANSFER_FAILED, transfer.transferId, transfer.fileName));
+    }
+
+    /**
+     * Ends a transfer before the receiver has the whole file, telling the
+     * sides which did not end it why.
+     *
+     * @param initiator the connection which ended the transfer, or
+     *                  {@code null} if the server did.
+     */
+    private void finish(Transfer transfer, ClientConnection initiator, String reason) {
+        if (!close(transfer))
+            return;
+        metrics.recordFileTransferCancelled();
+        Message cancelled = new Message.Builder().withMessageType(MessageType.FILE_CANCELLED)
+                .withTransferId(transfer.transferId).withText(reason).build();
+        if (transfer.sender != initiator)
+            transfer.sender.tryDeliver(cancelled);
+        ClientConnection receiver = transfer.receiver != null ? transfer.receiver : transfer.offeredTo;
+        if (receiver != initiator)
+            receiver.tryDeliver(cancelled);
+    }
+
+    /**
+     * Forgets a transfer and deletes its spool file. Chunks still queued are
+     * left out when their turn comes, while one already being written goes on
+     * from the open file.
+     *
+     * @return {@code false} if the transfer had already ended.
+     */
+    private boolean close(Transfer transfer) {
+        if (!transfers.remove(transfer.transferId, transfer))
+            return false;
+        transfer.lock.lock();
+        try {
+            transfer.isFinished = true;
+        } finally {
+            transfer.lock.unlock();
+        }
+        try {
+            transfer.spool.close();
+        } catch (IOException e) {
+            logger.error("Could not close the spool of transfer " + transfer.transferId, e);
+        }
+        if (!transfer.spoolPath.toFile().delete())
+            logger.warn("Could not delete the spool of transfer {}", transfer.transferId);
+        return true;
+    }
+
+    /**
+     * Cancels transfers which made no progress for too long, and queues the
+     * chunks which found their receiver's queue full once more.
+     */
+    private void sweep() {
+        while (true) {
+            try {
+                Thread.sleep(SWEEP_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Transfer transfer : transfers.values()) {
+                if (now - transfer.lastProgressNanos > timeoutNanos) {
+                    logger.info("Cancelling transfer {} which made no progress", transfer.transferId);
+                    finish(transfer, null, String.format(ResponseMessages.FILE_TRANSFER_TIMED_OUT,
+                            transfer.transferId, transfer.fileName));
+                    continue;
+                }
+                transfer.lock.lock();
+                try {
+                    if (transfer.isStalled)
+                        relay(transfer);
+                } finally {
+                    transfer.lock.unlock();
+                }
+            }
+        }
+    }
+}
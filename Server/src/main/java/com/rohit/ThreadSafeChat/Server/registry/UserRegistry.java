@@ -0,0 +1,147 @@
+package com.rohit.ThreadSafeChat.Server.registry;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+import com.rohit.ThreadSafeChat.Server.model.User;
+
+/**
+ * Registered users and their login state, without a global lock. Lookups never
+ * block, logins and logoffs only touch the user concerned, and the number of
+ * logged in users is bounded by an atomic counter. Users stay registered once
+ * they are.
+ *
+ * A registration which has to be saved first is reserved meanwhile: the user
+ * id is taken, but the user cannot log in and is left out of
+ * {@link #getUserIds()} until the registration is confirmed.
+ */
+public class UserRegistry {
+    private final ConcurrentMap<String, User> registeredUsers = new ConcurrentHashMap<>();
+    private final Set<String> reservedUserIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numberOfLoggedInUsers = new AtomicInteger(0);
+    private final int maxLoggedInUsers;
+
+    public UserRegistry(int maxLoggedInUsers) {
+        this.maxLoggedInUsers = maxLoggedInUsers;
+    }
+
+    /**
+     * @return {@code false} if the user id is already taken.
+     */
+    public boolean register(String userId) {
+        return !reservedUserIds.contains(userId) && registeredUsers.putIfAbsent(userId, new User(userId)) == null;
+    }
+
+    /**
+     * Takes the user id for a registration which is yet to be saved, to be
+     * followed by either {@link #confirm(String)} or {@link #cancel(String)}.
+     *
+     * @return {@code false} if the user id is already taken.
+     */
+    public boolean reserve(String userId) {
+        if (!reservedUserIds.add(userId))
+            return false;
+        if (registeredUsers.containsKey(userId)) {
+            reservedUserIds.remove(userId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers a reserved user, once its registration has been saved.
+     */
+    public void confirm(String userId) {
+        registeredUsers.putIfAbsent(userId, new User(userId));
+        reservedUserIds.remove(userId);
+    }
+
+    /**
+     * Frees a reserved user id whose registration could not be saved.
+     */
+    public void cancel(String userId) {
+        reservedUserIds.remove(userId);
+    }
+
+    /**
+     * @return the registered user, or {@code null}.
+     */
+    public User get(String userId) {
+        return registeredUsers.get(userId);
+    }
+
+    public LoginResult login(String userId, ClientConnection connection) {
+        User user = registeredUsers.get(userId);
+        if (user == null)
+            return LoginResult.NOT_REGISTERED;
+        if (!tryAcquireLoginSlot())
+            return LoginResult.SERVER_FULL;
+        if (!user.login(connection)) {
+            numberOfLoggedInUsers.decrementAndGet();
+            return LoginResult.ALREADY_LOGGED_IN;
+        }
+        connection.setUserId(userId);
+        return LoginResult.OK;
+    }
+
+    /**
+     * Logs the user off if it is logged in over the given connection.
+     * 
+     * @return {@code false} if it was not.
+     */
+    public boolean logoff(String userId, ClientConnection connection) {
+        User user = registeredUsers.get(userId);
+        if (user == null || !user.logoff(connection))
+            return false;
+        numberOfLoggedInUsers.decrementAndGet();
+        connection.setUserId(null);
+        return true;
+    }
+
+    /**
+     * Moves the user's login over to another connection, keeping its slot.
+     *
+     * @return {@code false} if it was not logged in over {@code from}.
+     */
+    public boolean transfer(String userId, ClientConnection from, ClientConnection to) {
+        User user = registeredUsers.get(userId);
+        if (user == null || !user.rebind(from, to))
+            return false;
+        to.setUserId(userId);
+        return true;
+    }
+
+    /**
+     * @return a live view of every registered user id, which can be iterated
+     *         while users register. Reserved user ids are not in it.
+     */
+    public Set<String> getUserIds() {
+        return Collections.unmodifiableSet(registeredUsers.keySet());
+    }
+
+    public int getNumberOfRegisteredUsers() {
+        return registeredUsers.size();
+    }
+
+    public int getNumberOfLoggedInUsers() {
+        return numberOfLoggedInUsers.get();
+    }
+
+    public int getMaxLoggedInUsers() {
+        return maxLoggedInUsers;
+    }
+
+    private boolean tryAcquireLoginSlot() {
+        while (true) {
+            int current = numberOfLoggedInUsers.get();
+            if (current >= maxLoggedInUsers)
+                return false;
+            if (numberOfLoggedInUsers.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable file of a {@link UserIndex}, holding the inverted index of a
+ * run of texts numbered from 0 in the order they were routed:
+ *
+ * <pre>
+ * texts      | 12 bytes each: sequence number and peer
+ * postings   | per term, its texts as varint gaps, each followed by the term's varint frequency
+ * dictionary | per term in order: term, text count, last text, postings position and length
+ * peers      | the users the texts were exchanged with
+ * blocks     | the first term and dictionary position of every {@value #BLOCK_TERMS} terms
+ * footer     | dictionary, peers and blocks positions, text count and a magic number
+ * </pre>
+ *
+ * Only the peers and blocks are kept in memory. A lookup binary searches the
+ * blocks and then reads one block of the dictionary and the term's postings
+ * with positional reads, so a segment holds no file handle between searches.
+ *
+ * Segments are reference counted: one a search is reading stays on disk until
+ * the search is done, even if it has been merged away meanwhile.
+ */
+class IndexSegment {
+    static final String SUFFIX = ".seg";
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final int DOC_LENGTH = 12;
+    private static final int BLOCK_TERMS = 64;
+    private static final int FOOTER_LENGTH = 32;
+    private static final int MAGIC = 0x53454731;
+
+    /**
+     * Where the postings of a term are, as found in the dictionary.
+     */
+    static class TermInfo {
+        final int docCount;
+        final int lastDoc;
+        final long position;
+        final int length;
+
+        TermInfo(int docCount, int lastDoc, long position, int length) {
+            this.docCount = docCount;
+            this.lastDoc = lastDoc;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    private final File file;
+    private final long generation;
+    private final int docCount;
+    private final long dictionaryPosition;
+    private final long peersPosition;
+    private final String[] peers;
+    private final String[] blockTerms;
+    private final long[] blockPositions;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private IndexSegment(File file, long generation, int docCount, long dictionaryPosition, long peersPosition,
+            String[] peers, String[] blockTerms, long[] blockPositions) {
+        this.file = file;
+        this.generation = generation;
+        this.docCount = docCount;
+        this.dictionaryPosition = dictionaryPosition;
+        this.peersPosition = peersPosition;
+        this.peers = peers;
+        this.blockTerms = blockTerms;
+        this.blockPositions = blockPositions;
+    }
+
+    static File fileOf(File directory, long generation) {
+        return new File(directory, String.format("%020d%s", generation, SUFFIX));
+    }
+
+    /**
+     * Loads the peers and blocks of an existing segment.
+     *
+     * @throws IOException if it cannot be read, or was never completely
+     *         written.
+     */
+    static IndexSegment open(File directory, long generation) throws IOException {
+        File file = fileOf(directory, generation);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_LENGTH)
+                throw new IOException(file + " is too short to be a search segment");
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_LENGTH);
+            readFully(channel, footer, size - FOOTER_LENGTH);
+            footer.flip();
+            long dictionaryPosition = footer.getLong();
+            long peersPosition = footer.getLong();
+            long blocksPosition = footer.getLong();
+            int docCount = footer.getInt();
+            if (footer.getInt() != MAGIC || docCount < 0 || (long) docCount * DOC_LENGTH > dictionaryPosition
+                    || dictionaryPosition > peersPosition || peersPosition > blocksPosition
+                    || blocksPosition > size - FOOTER_LENGTH)
+                throw new IOException(file + " is not a complete search segment");
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - FOOTER_LENGTH - peersPosition));
+            readFully(channel, tail, peersPosition);
+            tail.flip();
+            String[] peers = new String[readVarInt(tail)];
+            for (int i = 0; i < peers.length; i++)
+                peers[i] = readString(tail, readVarInt(tail));
+            tail.position((int) (blocksPosition - peersPosition));
+            int blockCount = readVarInt(tail);
+            String[] blockTerms = new String[blockCount];
+            long[] blockPositions = new long[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockTerms[i] = readString(tail, readVarInt(tail));
+                blockPositions[i] = dictionaryPosition + readVarLong(tail);
+            }
+            return new IndexSegment(file, generation, docCount, dictionaryPosition, peersPosition, peers,
+                    blockTerms, blockPositions);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    /**
+     * Writes out the texts indexed in memory.
+     */
+    static IndexSegment write(File directory, long generation, MemorySegment memory) throws IOException {
+        Writer writer = new Writer(directory, generation);
+        try {
+            SegmentOutput output = writer.output;
+            for (int doc = 0; doc < memory.size(); doc++) {
+                output.writeLong(memory.getSequence(doc));
+                output.writeInt(memory.getPeerIndex(doc));
+            }
+            for (String term : memory.getSortedTerms()) {
+                Postings postings = memory.getPostings(term);
+                long position = output.position();
+                int previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    output.writeVarLong(postings.docs[i] - previous);
+                    output.writeVarLong(postings.frequencies[i]);
+                    previous = postings.docs[i];
+                }
+                writer.addTerm(term, postings.size, previous, position, output.position() - position);
+            }
+            return writer.finish(memory.size(), memory.getPeers());
+        } catch (IOException | RuntimeException e) {
+            writer.abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the texts of adjacent segments out as one, numbering the texts of
+     * each input after those of the inputs before it.
+     *
+     * Since the numbers of an input's texts all move up by the same amount,
+     * only the first gap of each input's postings of a term has to be
+     * decoded; the rest are copied as they are.
+     */
+    static IndexSegment merge(File directory, long generation, List<IndexSegment> inputs) throws IOException {
+        Writer writer = new Writer(directory, generation);
+        List<FileChannel> channels = new ArrayList<FileChannel>(inputs.size());
+        try {
+            SegmentOutput output = writer.output;
+            Map<String, Integer> peerIndexes = new LinkedHashMap<String, Integer>();
+            int[] docBases = new int[inputs.size()];
+            int docCount = 0;
+            PriorityQueue<DictionaryCursor> cursors = new PriorityQueue<DictionaryCursor>(inputs.size(),
+                    new Comparator<DictionaryCursor>() {
+                        public int compare(DictionaryCursor a, DictionaryCursor b) {
+                            int comparison = a.term.compareTo(b.term);
+                            return comparison != 0 ? comparison : Integer.compare(a.input, b.input);
+                        }
+                    });
+            for (int i = 0; i < inputs.size(); i++) {
+                IndexSegment input = inputs.get(i);
+                FileChannel channel = FileChannel.open(input.file.toPath(), StandardOpenOption.READ);
+                channels.add(channel);
+                int[] peerMap = new int[input.peers.length];
+                for (int peer = 0; peer < peerMap.length; peer++) {
+                    Integer index = peerIndexes.get(input.peers[peer]);
+                    if (index == null) {
+                        index = peerIndexes.size();
+                        peerIndexes.put(input.peers[peer], index);
+                    }
+                    peerMap[peer] = index;
+                }
+                SegmentInput docs = new SegmentInput(channel, 0, (long) input.docCount * DOC_LENGTH);
+                for (int doc = 0; doc < input.docCount; doc++) {
+                    output.writeLong(docs.readLong());
+                    output.writeInt(peerMap[docs.readInt()]);
+                }
+                docBases[i] = docCount;
+                docCount += input.docCount;
+                DictionaryCursor cursor = new DictionaryCursor(i, input, channel);
+                if (cursor.next())
+                    cursors.add(cursor);
+            }
+            while (!cursors.isEmpty()) {
+                String term = cursors.peek().term;
+                long position = output.position();
+                int termDocCount = 0;
+                int lastDoc = 0;
+                while (!cursors.isEmpty() && cursors.peek().term.equals(term)) {
+                    DictionaryCursor cursor = cursors.poll();
+                    SegmentInput postings = cursor.postings;
+                    int firstDoc = postings.readVarInt();
+                    output.writeVarLong(docBases[cursor.input] + firstDoc - lastDoc);
+                    postings.copyTo(output, cursor.info.length - varLongLength(firstDoc));
+                    termDocCount += cursor.info.docCount;
+                    lastDoc = docBases[cursor.input] + cursor.info.lastDoc;
+                    if (cursor.next())
+                        cursors.add(cursor);
+                }
+                writer.addTerm(term, termDocCount, lastDoc, position, output.position() - position);
+            }
+            return writer.finish(docCount, new ArrayList<String>(peerIndexes.keySet()));
+        } catch (IOException | RuntimeException e) {
+            writer.abandon();
+            throw e;
+        } finally {
+            for (FileChannel channel : channels)
+                channel.close();
+        }
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * @return where the postings of a term are, or {@code null} if it occurs
+     *         in none of the texts.
+     */
+    TermInfo lookup(FileChannel channel, String term) throws IOException {
+        int block = Arrays.binarySearch(blockTerms, term);
+        if (block < 0)
+            block = -block - 2;
+        if (block < 0)
+            return null;
+        long end = block + 1 < blockPositions.length ? blockPositions[block + 1] : peersPosition;
+        ByteBuffer entries = ByteBuffer.allocate((int) (end - blockPositions[block]));
+        readFully(channel, entries, blockPositions[block]);
+        entries.flip();
+        while (entries.hasRemaining()) {
+            int comparison = readString(entries, readVarInt(entries)).compareTo(term);
+            if (comparison > 0)
+                return null;
+            int termDocCount = readVarInt(entries);
+            int lastDoc = readVarInt(entries);
+            long position = readVarLong(entries);
+            int length = readVarInt(entries);
+            if (comparison == 0)
+                return new TermInfo(termDocCount, lastDoc, position, length);
+        }
+        return null;
+    }
+
+    Postings readPostings(FileChannel channel, TermInfo info) throws IOException {
+        ByteBuffer encoded = ByteBuffer.allocate(info.length);
+        readFully(channel, encoded, info.position);
+        encoded.flip();
+        Postings postings = new Postings(info.docCount);
+        int doc = 0;
+        while (encoded.hasRemaining()) {
+            doc += readVarInt(encoded);
+            postings.add(doc, readVarInt(encoded));
+        }
+        return postings;
+    }
+
+    /**
+     * Visits the peer and sequence number of a text.
+     */
+    void visitDoc(FileChannel channel, int doc, SearchIndex.Visitor visitor) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(DOC_LENGTH);
+        readFully(channel, entry, (long) doc * DOC_LENGTH);
+        entry.flip();
+        long sequence = entry.getLong();
+        visitor.visit(peers[entry.getInt()], sequence);
+    }
+
+    FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Keeps the file on disk until {@link #release()} is called.
+     */
+    void acquire() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0)
+            file.delete();
+    }
+
+    /**
+     * Deletes the file once no search is reading it any more.
+     */
+    void retire() {
+        release();
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Variable length integer out of range");
+        return (int) value;
+    }
+
+    static String readString(ByteBuffer buffer, int length) {
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int varLongLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Search segment ends early");
+            position += read;
+        }
+    }
+
+    /**
+     * Walks the dictionary of a merge input in order, and its postings with
+     * it, since they were written in the same order.
+     */
+    private static class DictionaryCursor {
+        private final int input;
+        private final SegmentInput dictionary;
+        private final SegmentInput postings;
+        private String term;
+        private TermInfo info;
+
+        DictionaryCursor(int input, IndexSegment segment, FileChannel channel) {
+            this.input = input;
+            this.dictionary = new SegmentInput(channel, segment.dictionaryPosition, segment.peersPosition);
+            this.postings = new SegmentInput(channel, (long) segment.docCount * DOC_LENGTH,
+                    segment.dictionaryPosition);
+        }
+
+        boolean next() throws IOException {
+            if (!dictionary.hasRemaining())
+                return false;
+            term = dictionary.readString();
+            info = new TermInfo(dictionary.readVarInt(), dictionary.readVarInt(), dictionary.readVarLong(),
+                    dictionary.readVarInt());
+            return true;
+        }
+    }
+
+    /**
+     * Writes a new segment: texts and postings straight into its file, and the
+     * dictionary into a file of its own, appended once all postings are in.
+     */
+    private static class Writer {
+        private final File file;
+        private final File dictionaryFile;
+        private final long generation;
+        private final SegmentOutput output;
+        private final SegmentOutput dictionary;
+        private final List<String> blockTerms = new ArrayList<String>();
+        private final List<Long> blockPositions = new ArrayList<Long>();
+        private int termCount;
+
+        Writer(File directory, long generation) throws IOException {
+            this.file = fileOf(directory, generation);
+            this.dictionaryFile = new File(directory, String.format("%020d%s", generation, DICTIONARY_SUFFIX));
+            this.generation = generation;
+            this.output = new SegmentOutput(file);
+            SegmentOutput dictionary = null;
+            try {
+                dictionary = new SegmentOutput(dictionaryFile);
+            } finally {
+                if (dictionary == null)
+                    output.close();
+            }
+            this.dictionary = dictionary;
+        }
+
+        void addTerm(String term, int docCount, int lastDoc, long position, long length) throws IOException {
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Postings of " + term + " are too large");
+            if (termCount++ % BLOCK_TERMS == 0) {
+                blockTerms.add(term);
+                blockPositions.add(dictionary.position());
+            }
+            dictionary.writeString(term);
+            dictionary.writeVarLong(docCount);
+            dictionary.writeVarLong(lastDoc);
+            dictionary.writeVarLong(position);
+            dictionary.writeVarLong(length);
+        }
+
+        IndexSegment finish(int docCount, List<String> peers) throws IOException {
+            dictionary.close();
+            long dictionaryPosition = output.position();
+            try (FileChannel channel = FileChannel.open(dictionaryFile.toPath(), StandardOpenOption.READ)) {
+                output.transferFrom(channel, 0, channel.size());
+            }
+            dictionaryFile.delete();
+            long peersPosition = output.position();
+            output.writeVarLong(peers.size());
+            for (String peer : peers)
+                output.writeString(peer);
+            long blocksPosition = output.position();
+            output.writeVarLong(blockTerms.size());
+            long[] positions = new long[blockTerms.size()];
+            for (int i = 0; i < positions.length; i++) {
+                output.writeString(blockTerms.get(i));
+                output.writeVarLong(blockPositions.get(i));
+                positions[i] = dictionaryPosition + blockPositions.get(i);
+            }
+            output.writeLong(dictionaryPosition);
+            output.writeLong(peersPosition);
+            output.writeLong(blocksPosition);
+            output.writeInt(docCount);
+            output.writeInt(MAGIC);
+            output.close();
+            return new IndexSegment(file, generation, docCount, dictionaryPosition, peersPosition,
+                    peers.toArray(new String[peers.size()]), blockTerms.toArray(new String[blockTerms.size()]),
+                    positions);
+        }
+
+        void abandon() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Deleted below either way.
+            }
+            try {
+                dictionary.close();
+            } catch (IOException e) {
+                // Deleted below either way.
+            }
+            file.delete();
+            dictionaryFile.delete();
+        }
+    }
+}
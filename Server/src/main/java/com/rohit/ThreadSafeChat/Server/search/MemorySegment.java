@@ -0,0 +1,108 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The newest texts of a user, indexed in memory so they can be searched at
+ * once, until there are enough of them or they are old enough to be written
+ * out as an {@link IndexSegment}.
+ *
+ * Only the indexer thread adds texts, with the owning index's lock held,
+ * which searches also hold while reading it.
+ */
+class MemorySegment {
+    private final Map<String, Postings> postings = new HashMap<String, Postings>();
+    private final List<String> peers = new ArrayList<String>();
+    private final Map<String, Integer> peerIndexes = new HashMap<String, Integer>();
+    private final long createdNanos = System.nanoTime();
+    private long[] sequences = new long[64];
+    private int[] docPeers = new int[64];
+    private int size;
+
+    void add(String peerId, long sequence, Map<String, Integer> termFrequencies) {
+        Integer peer = peerIndexes.get(peerId);
+        if (peer == null) {
+            peer = peers.size();
+            peers.add(peerId);
+            peerIndexes.put(peerId, peer);
+        }
+        if (size == sequences.length) {
+            sequences = Arrays.copyOf(sequences, size * 2);
+            docPeers = Arrays.copyOf(docPeers, size * 2);
+        }
+        sequences[size] = sequence;
+        docPeers[size] = peer;
+        for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+            Postings termPostings = postings.get(entry.getKey());
+            if (termPostings == null) {
+                termPostings = new Postings(4);
+                postings.put(entry.getKey(), termPostings);
+            }
+            termPostings.add(size, entry.getValue());
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of texts indexed.
+     */
+    int size() {
+        return size;
+    }
+
+    long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * @return the texts a term occurs in, or {@code null} if it does not occur.
+     */
+    Postings getPostings(String term) {
+        return postings.get(term);
+    }
+
+    /**
+     * @return a copy of the texts a term occurs in so far, or {@code null} if
+     *         it does not occur.
+     */
+    Postings copyPostings(String term) {
+        Postings termPostings = postings.get(term);
+        if (termPostings == null)
+            return null;
+        Postings copy = new Postings(termPostings.size);
+        System.arraycopy(termPostings.docs, 0, copy.docs, 0, termPostings.size);
+        System.arraycopy(termPostings.frequencies, 0, copy.frequencies, 0, termPostings.size);
+        copy.size = termPostings.size;
+        return copy;
+    }
+
+    List<String> getSortedTerms() {
+        List<String> terms = new ArrayList<String>(postings.keySet());
+        Collections.sort(terms);
+        return terms;
+    }
+
+    long getSequence(int doc) {
+        return sequences[doc];
+    }
+
+    int getPeerIndex(int doc) {
+        return docPeers[doc];
+    }
+
+    /**
+     * Visits the peer and sequence number of a text.
+     */
+    void visitDoc(int doc, SearchIndex.Visitor visitor) {
+        visitor.visit(peers.get(docPeers[doc]), sequences[doc]);
+    }
+
+    List<String> getPeers() {
+        return peers;
+    }
+}
@@ -0,0 +1,37 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.util.Arrays;
+
+/**
+ * The texts of a segment a term occurs in, by ascending number, and how often
+ * it occurs in each.
+ */
+class Postings {
+    int[] docs;
+    int[] frequencies;
+    int size;
+
+    Postings(int capacity) {
+        this.docs = new int[Math.max(capacity, 1)];
+        this.frequencies = new int[docs.length];
+    }
+
+    void add(int doc, int frequency) {
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, size * 2);
+            frequencies = Arrays.copyOf(frequencies, size * 2);
+        }
+        docs[size] = doc;
+        frequencies[size] = frequency;
+        size++;
+    }
+
+    /**
+     * @return the frequency of the term in a text, or 0 if it does not occur
+     *         in it.
+     */
+    int frequencyOf(int doc) {
+        int index = Arrays.binarySearch(docs, 0, size, doc);
+        return index < 0 ? 0 : frequencies[index];
+    }
+}
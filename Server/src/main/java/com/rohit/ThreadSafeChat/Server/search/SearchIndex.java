@@ -0,0 +1,277 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+
+/**
+ * Full-text search over the private texts of every user, as one
+ * {@link UserIndex} per user under {@code searchDir}.
+ *
+ * Routed texts are queued next to their history record and indexed by a
+ * single thread, for their sender and their receiver alike, so indexing never
+ * adds to a send. If the indexer falls behind by more than
+ * {@code searchQueueCapacity} texts, further texts are left out of search
+ * rather than slowing senders down.
+ *
+ * A user's newest texts can be searched in memory at once, and are written
+ * out as a segment of compressed posting lists once there are
+ * {@code searchFlushDocs} of them or the oldest has waited
+ * {@code searchFlushMillis}. A second thread merges every
+ * {@code searchMergeFactor} adjacent segments of about the same size, so the
+ * number of segments a search reads only grows with the logarithm of the
+ * texts indexed, and the indexer never waits for a merge. Nothing is forced to
+ * disk.
+ */
+public class SearchIndex {
+    private static Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    /**
+     * Receives the texts found by a search, best first.
+     */
+    public interface Visitor {
+        void visit(String peerId, long sequence);
+    }
+
+    private final File rootDirectory;
+    private final int flushDocs;
+    private final long flushNanos;
+    private final int mergeFactor;
+    private final ServerMetrics metrics;
+    private final ConcurrentMap<String, UserIndex> indexes = new ConcurrentHashMap<>();
+    private final ReentrantLock openLock = new ReentrantLock();
+    private final BlockingQueue<Message> pendingTexts;
+    private final BlockingQueue<UserIndex> pendingMerges = new LinkedBlockingQueue<UserIndex>();
+    private final Set<UserIndex> scheduledMerges = ConcurrentHashMap.newKeySet();
+    private final AtomicLong droppedTexts = new AtomicLong(0);
+
+    public SearchIndex(ServerConfig config, ServerMetrics metrics) throws IOException {
+        this.rootDirectory = new File(config.getSearchDir());
+        if (!rootDirectory.isDirectory() && !rootDirectory.mkdirs())
+            throw new IOException("Could not create search index in " + rootDirectory);
+        this.flushDocs = config.getSearchFlushDocs();
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(config.getSearchFlushMillis());
+        this.mergeFactor = config.getSearchMergeFactor();
+        this.metrics = metrics;
+        this.pendingTexts = new ArrayBlockingQueue<Message>(config.getSearchQueueCapacity());
+        Thread indexer = new Thread(new Indexer(), "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        Thread merger = new Thread(new Merger(), "search-merger");
+        merger.setDaemon(true);
+        merger.start();
+    }
+
+    /**
+     * @return the search index, or {@code null} if history cannot be searched.
+     */
+    public static SearchIndex open(ServerConfig config, ServerMetrics metrics) throws IOException {
+        if (config.getSearchQueueCapacity() == 0)
+            return null;
+        return new SearchIndex(config, metrics);
+    }
+
+    /**
+     * Queues a routed text to be indexed for its sender and receiver. Never
+     * blocks; the text must not be modified afterwards.
+     */
+    public void index(Message text) {
+        if (pendingTexts.offer(text))
+            return;
+        if (droppedTexts.incrementAndGet() % 1000 == 1)
+            logger.warn("Search indexer is falling behind, {} texts left out so far", droppedTexts.get());
+    }
+
+    /**
+     * Finds the texts of a user holding every word of a query, best first, and
+     * newest first among equally good ones.
+     *
+     * @return the number of texts found, of which those ranked from
+     *         {@code offset} on, up to {@code count}, are visited.
+     */
+    public int search(String userId, String query, int offset, int count, Visitor visitor) throws IOException {
+        List<String> terms = new ArrayList<String>(Tokenizer.termFrequencies(query).keySet());
+        if (terms.isEmpty())
+            return 0;
+        UserIndex index = indexes.get(userId);
+        if (index == null) {
+            if (!directoryOf(userId).isDirectory())
+                return 0;
+            index = getOrOpen(userId);
+        }
+        long startNanos = System.nanoTime();
+        int found = index.search(terms, offset, count, visitor);
+        metrics.recordSearch(System.nanoTime() - startNanos);
+        return found;
+    }
+
+    /**
+     * @return number of texts left out of search because the indexer could
+     *         not keep up.
+     */
+    public long getDroppedTexts() {
+        return droppedTexts.get();
+    }
+
+    /**
+     * Opening an index deletes the files its manifest does not name, so only
+     * one thread may open each.
+     */
+    private UserIndex getOrOpen(String userId) throws IOException {
+        UserIndex index = indexes.get(userId);
+        if (index != null)
+            return index;
+        openLock.lock();
+        try {
+            index = indexes.get(userId);
+            if (index == null) {
+                index = UserIndex.open(directoryOf(userId), flushDocs, mergeFactor);
+                indexes.put(userId, index);
+            }
+            return index;
+        } finally {
+            openLock.unlock();
+        }
+    }
+
+    private File directoryOf(String userId) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : userId.getBytes(StandardCharsets.UTF_8))
+            builder.append(String.format("%02x", b & 0xff));
+        return new File(rootDirectory, builder.toString());
+    }
+
+    private void scheduleMerge(UserIndex index) {
+        if (scheduledMerges.add(index))
+            pendingMerges.add(index);
+    }
+
+    /**
+     * Drains queued texts into the memory segments of their users, and writes
+     * those out once full or old enough, oldest first.
+     */
+    private class Indexer implements Runnable {
+        private final Map<UserIndex, Boolean> unflushed = new LinkedHashMap<UserIndex, Boolean>();
+
+        public void run() {
+            List<Message> batch = new ArrayList<Message>();
+            while (true) {
+                try {
+                    Message text = pendingTexts.poll(nanosUntilFlush(), TimeUnit.NANOSECONDS);
+                    if (text != null) {
+                        batch.add(text);
+                        pendingTexts.drainTo(batch);
+                        for (Message each : batch)
+                            index(each);
+                    }
+                    flushExpired();
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void index(Message text) {
+            Map<String, Integer> termFrequencies = Tokenizer.termFrequencies(text.getText());
+            if (termFrequencies.isEmpty())
+                return;
+            index(text.getSenderId(), text.getReceiverId(), text.getSequenceNumber(), termFrequencies);
+            if (!text.getReceiverId().equals(text.getSenderId()))
+                index(text.getReceiverId(), text.getSenderId(), text.getSequenceNumber(), termFrequencies);
+            metrics.recordTextIndexed();
+        }
+
+        private void index(String userId, String peerId, long sequence, Map<String, Integer> termFrequencies) {
+            try {
+                UserIndex index = getOrOpen(userId);
+                index.add(peerId, sequence, termFrequencies);
+                if (index.getMemoryDocs() >= flushDocs) {
+                    unflushed.remove(index);
+                    flush(index);
+                } else if (!unflushed.containsKey(index)) {
+                    unflushed.put(index, Boolean.TRUE);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not index a text for " + userId, e);
+            }
+        }
+
+        private long nanosUntilFlush() {
+            if (unflushed.isEmpty())
+                return flushNanos;
+            UserIndex oldest = unflushed.keySet().iterator().next();
+            return Math.max(0, oldest.getMemoryCreatedNanos() + flushNanos - System.nanoTime());
+        }
+
+        private void flushExpired() {
+            long now = System.nanoTime();
+            Iterator<UserIndex> oldestFirst = unflushed.keySet().iterator();
+            while (oldestFirst.hasNext()) {
+                UserIndex index = oldestFirst.next();
+                if (index.getMemoryCreatedNanos() + flushNanos - now > 0)
+                    return;
+                oldestFirst.remove();
+                flush(index);
+            }
+        }
+
+        private void flush(UserIndex index) {
+            try {
+                if (index.flush())
+                    scheduleMerge(index);
+                metrics.recordSearchFlush();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not write out a search segment, its texts are left out of search", e);
+            }
+        }
+    }
+
+    /**
+     * Merges the segments of users as they pile up, one user at a time.
+     */
+    private class Merger implements Runnable {
+        public void run() {
+            while (true) {
+                UserIndex index;
+                try {
+                    index = pendingMerges.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                scheduledMerges.remove(index);
+                try {
+                    long startNanos = System.nanoTime();
+                    while (index.merge()) {
+                        metrics.recordSearchMerge(System.nanoTime() - startNanos);
+                        startNanos = System.nanoTime();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Could not merge search segments", e);
+                }
+            }
+        }
+    }
+}
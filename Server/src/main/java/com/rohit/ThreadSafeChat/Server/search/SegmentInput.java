@@ -0,0 +1,86 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reads of a region of a segment file through a heap buffer, as a
+ * merge walks the texts, dictionary and postings of each of its inputs in
+ * order.
+ */
+class SegmentInput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final long end;
+    private long position;
+
+    SegmentInput(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.end = end;
+        this.position = start;
+        buffer.flip();
+    }
+
+    boolean hasRemaining() {
+        return buffer.hasRemaining() || position < end;
+    }
+
+    long readVarLong() throws IOException {
+        fill(10);
+        return IndexSegment.readVarLong(buffer);
+    }
+
+    int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    long readLong() throws IOException {
+        fill(8);
+        return buffer.getLong();
+    }
+
+    int readInt() throws IOException {
+        fill(4);
+        return buffer.getInt();
+    }
+
+    String readString() throws IOException {
+        int length = readVarInt();
+        fill(length);
+        return IndexSegment.readString(buffer, length);
+    }
+
+    /**
+     * Copies the next {@code count} bytes to {@code output}, leaving the
+     * buffer behind once it is drained.
+     */
+    void copyTo(SegmentOutput output, long count) throws IOException {
+        int buffered = (int) Math.min(buffer.remaining(), count);
+        output.write(buffer, buffered);
+        count -= buffered;
+        if (count > 0) {
+            if (count > end - position)
+                throw new EOFException("Segment ends early");
+            output.transferFrom(channel, position, count);
+            position += count;
+        }
+    }
+
+    private void fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes || position == end)
+            return;
+        buffer.compact();
+        buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), end - position));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("Segment ends early");
+            position += read;
+        }
+        buffer.flip();
+    }
+}
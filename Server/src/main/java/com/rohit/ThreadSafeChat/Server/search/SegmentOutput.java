@@ -0,0 +1,110 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential writes to a new segment file through a heap buffer. Counts and
+ * positions are written as variable length integers: 7 bits a byte, low bits
+ * first, with the high bit set on every byte but the last.
+ */
+class SegmentOutput implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long flushed;
+
+    SegmentOutput(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    long position() {
+        return flushed + buffer.position();
+    }
+
+    void writeVarLong(long value) throws IOException {
+        ensureRemaining(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    void writeLong(long value) throws IOException {
+        ensureRemaining(8);
+        buffer.putLong(value);
+    }
+
+    void writeInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        write(ByteBuffer.wrap(bytes), bytes.length);
+    }
+
+    /**
+     * Writes {@code count} bytes from {@code source}, advancing it.
+     */
+    void write(ByteBuffer source, int count) throws IOException {
+        int limit = source.limit();
+        int end = source.position() + count;
+        while (source.position() < end) {
+            if (!buffer.hasRemaining())
+                flush();
+            source.limit(Math.min(end, source.position() + buffer.remaining()));
+            buffer.put(source);
+        }
+        source.limit(limit);
+    }
+
+    /**
+     * Appends a region of another file, copied by the kernel from file to file.
+     */
+    void transferFrom(FileChannel source, long position, long count) throws IOException {
+        flush();
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, channel);
+            if (transferred <= 0)
+                throw new EOFException("Source file ends early");
+            position += transferred;
+            count -= transferred;
+            flushed += transferred;
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            flushed += channel.write(buffer);
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+}
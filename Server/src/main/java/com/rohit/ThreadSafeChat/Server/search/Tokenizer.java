@@ -0,0 +1,51 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Splits texts and queries alike into terms: runs of letters and digits,
+ * lower cased. Runs longer than {@value #MAX_TERM_LENGTH} characters are more
+ * likely links or noise than words anyone searches for, and are left out.
+ */
+final class Tokenizer {
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @return how often each term occurs in the text, in order of first
+     *         occurrence.
+     */
+    static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new LinkedHashMap<String, Integer>();
+        if (text == null)
+            return frequencies;
+        int start = -1;
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0)
+                    start = i;
+            } else if (start >= 0) {
+                addTerm(frequencies, text.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0)
+            addTerm(frequencies, text.substring(start));
+        return frequencies;
+    }
+
+    private static void addTerm(Map<String, Integer> frequencies, String word) {
+        if (word.length() > MAX_TERM_LENGTH)
+            return;
+        String term = word.toLowerCase(Locale.ROOT);
+        Integer frequency = frequencies.get(term);
+        frequencies.put(term, frequency == null ? 1 : frequency + 1);
+    }
+}
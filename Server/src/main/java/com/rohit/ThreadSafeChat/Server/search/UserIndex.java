@@ -0,0 +1,459 @@
+package com.rohit.ThreadSafeChat.Server.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The search index of one user's texts, in a directory of its own: the
+ * {@link IndexSegment}s named in a manifest, oldest first, and a
+ * {@link MemorySegment} of the newest texts. Merges only ever combine adjacent
+ * segments, so the order of segments and of the texts in each is the order
+ * the texts were routed in, and equally ranked hits come newest first.
+ *
+ * The indexer thread adds texts and writes out the memory segment, and the
+ * merger thread replaces runs of segments by their merge. Both swap in the new
+ * list of segments under the lock, which a search only holds to take a
+ * snapshot of them and of the memory segment.
+ */
+class UserIndex {
+    private static Logger logger = LoggerFactory.getLogger(UserIndex.class);
+    private static final String MANIFEST = "segments";
+    private static final String MANIFEST_TEMPORARY = "segments.tmp";
+
+    /**
+     * A text found by a search.
+     */
+    private static class Hit {
+        private final double score;
+        private final int source;
+        private final int doc;
+        private String peerId;
+        private long sequence;
+
+        Hit(double score, int source, int doc) {
+            this.score = score;
+            this.source = source;
+            this.doc = doc;
+        }
+    }
+
+    /**
+     * Ranks by score, then newest first.
+     */
+    private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+        public int compare(Hit a, Hit b) {
+            int comparison = Double.compare(a.score, b.score);
+            if (comparison == 0)
+                comparison = Integer.compare(a.source, b.source);
+            return comparison != 0 ? comparison : Integer.compare(a.doc, b.doc);
+        }
+    };
+
+    private final File directory;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<IndexSegment> segments;
+    private MemorySegment memory;
+    private long nextGeneration;
+
+    private UserIndex(File directory, int flushDocs, int mergeFactor, List<IndexSegment> segments,
+            long nextGeneration) {
+        this.directory = directory;
+        this.flushDocs = flushDocs;
+        this.mergeFactor = mergeFactor;
+        this.segments = segments;
+        this.nextGeneration = nextGeneration;
+    }
+
+    /**
+     * Loads the segments named in the manifest, and deletes every other file:
+     * segments written after the manifest was last replaced, and whatever a
+     * crash left half written. A segment that cannot be loaded is dropped, and
+     * its texts with it.
+     */
+    static UserIndex open(File directory, int flushDocs, int mergeFactor) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create search index in " + directory);
+        List<IndexSegment> segments = new ArrayList<IndexSegment>();
+        Set<String> liveFiles = new HashSet<String>();
+        liveFiles.add(MANIFEST);
+        long nextGeneration = 0;
+        File manifest = new File(directory, MANIFEST);
+        if (manifest.exists()) {
+            for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isEmpty())
+                    continue;
+                long generation;
+                try {
+                    generation = Long.parseLong(line);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed search manifest " + manifest, e);
+                }
+                nextGeneration = Math.max(nextGeneration, generation + 1);
+                try {
+                    segments.add(IndexSegment.open(directory, generation));
+                    liveFiles.add(IndexSegment.fileOf(directory, generation).getName());
+                } catch (IOException e) {
+                    logger.warn("Dropping search segment {} of {}: {}", generation, directory, e.getMessage());
+                }
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!liveFiles.contains(file.getName()))
+                    file.delete();
+            }
+        }
+        return new UserIndex(directory, flushDocs, mergeFactor, segments, nextGeneration);
+    }
+
+    /**
+     * Indexes a text in memory. Only called by the indexer thread.
+     */
+    void add(String peerId, long sequence, Map<String, Integer> termFrequencies) {
+        lock.lock();
+        try {
+            if (memory == null)
+                memory = new MemorySegment();
+            memory.add(peerId, sequence, termFrequencies);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of texts indexed in memory only.
+     */
+    int getMemoryDocs() {
+        lock.lock();
+        try {
+            return memory == null ? 0 : memory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return when the first of the texts indexed in memory only was added,
+     *         on the {@link System#nanoTime()} clock.
+     */
+    long getMemoryCreatedNanos() {
+        lock.lock();
+        try {
+            return memory == null ? System.nanoTime() : memory.getCreatedNanos();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the texts indexed in memory out as a new segment. They can be
+     * searched in memory meanwhile; if the segment cannot be written they are
+     * dropped, so a failing disk does not keep them in memory for good.
+     * Only called by the indexer thread.
+     *
+     * @return whether there are segments to merge now.
+     */
+    boolean flush() throws IOException {
+        MemorySegment flushed;
+        long generation;
+        lock.lock();
+        try {
+            flushed = memory;
+            if (flushed == null)
+                return false;
+            generation = nextGeneration++;
+        } finally {
+            lock.unlock();
+        }
+        IndexSegment segment;
+        try {
+            segment = IndexSegment.write(directory, generation, flushed);
+        } catch (IOException | RuntimeException e) {
+            dropMemory();
+            throw e;
+        }
+        lock.lock();
+        try {
+            List<IndexSegment> updated = new ArrayList<IndexSegment>(segments);
+            updated.add(segment);
+            publish(updated);
+            return selectMerge(updated) != null;
+        } catch (IOException | RuntimeException e) {
+            segment.retire();
+            throw e;
+        } finally {
+            memory = null;
+            lock.unlock();
+        }
+    }
+
+    private void dropMemory() {
+        lock.lock();
+        try {
+            memory = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merges one run of adjacent segments, if there is one to merge. Only
+     * called by the merger thread.
+     *
+     * @return whether segments were merged.
+     */
+    boolean merge() throws IOException {
+        List<IndexSegment> inputs;
+        long generation;
+        lock.lock();
+        try {
+            inputs = selectMerge(segments);
+            if (inputs == null)
+                return false;
+            generation = nextGeneration++;
+        } finally {
+            lock.unlock();
+        }
+        IndexSegment merged = IndexSegment.merge(directory, generation, inputs);
+        lock.lock();
+        try {
+            List<IndexSegment> updated = new ArrayList<IndexSegment>(segments);
+            int first = updated.indexOf(inputs.get(0));
+            updated.subList(first, first + inputs.size()).clear();
+            updated.add(first, merged);
+            publish(updated);
+        } catch (IOException | RuntimeException e) {
+            merged.retire();
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+        for (IndexSegment input : inputs)
+            input.retire();
+        return true;
+    }
+
+    /**
+     * Finds the texts holding every one of the terms, ranked by the sum over
+     * the terms of {@code (1 + log tf) * log(1 + N / df)}: how often a text
+     * holds the term, dampened, weighted by how rare the term is among the
+     * user's texts.
+     *
+     * @return the number of texts found, of which those ranked from
+     *         {@code offset} on, up to {@code count}, are visited best first.
+     */
+    int search(List<String> terms, int offset, int count, SearchIndex.Visitor visitor) throws IOException {
+        List<IndexSegment> snapshot;
+        MemorySegment memorySnapshot;
+        Postings[] memoryPostings = new Postings[terms.size()];
+        long[] termDocCounts = new long[terms.size()];
+        long docCount = 0;
+        lock.lock();
+        try {
+            snapshot = segments;
+            for (IndexSegment segment : snapshot)
+                segment.acquire();
+            memorySnapshot = memory;
+            if (memorySnapshot != null) {
+                docCount += memorySnapshot.size();
+                for (int t = 0; t < terms.size(); t++) {
+                    memoryPostings[t] = memorySnapshot.copyPostings(terms.get(t));
+                    if (memoryPostings[t] != null)
+                        termDocCounts[t] += memoryPostings[t].size;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        FileChannel[] channels = new FileChannel[snapshot.size()];
+        try {
+            IndexSegment.TermInfo[][] termInfos = new IndexSegment.TermInfo[snapshot.size()][terms.size()];
+            for (int s = 0; s < snapshot.size(); s++) {
+                IndexSegment segment = snapshot.get(s);
+                channels[s] = segment.openChannel();
+                docCount += segment.getDocCount();
+                for (int t = 0; t < terms.size(); t++) {
+                    termInfos[s][t] = segment.lookup(channels[s], terms.get(t));
+                    if (termInfos[s][t] != null)
+                        termDocCounts[t] += termInfos[s][t].docCount;
+                }
+            }
+            double[] weights = new double[terms.size()];
+            for (int t = 0; t < terms.size(); t++) {
+                if (termDocCounts[t] == 0)
+                    return 0;
+                weights[t] = Math.log(1 + (double) docCount / termDocCounts[t]);
+            }
+
+            int limit = offset + count;
+            PriorityQueue<Hit> best = new PriorityQueue<Hit>(Math.min(limit, 1024) + 1, WORST_FIRST);
+            int found = 0;
+            for (int s = 0; s < snapshot.size(); s++) {
+                Postings[] postings = readPostings(snapshot.get(s), channels[s], termInfos[s]);
+                if (postings != null)
+                    found += rank(s, postings, weights, best, limit);
+            }
+            if (!Arrays.asList(memoryPostings).contains(null))
+                found += rank(snapshot.size(), memoryPostings, weights, best, limit);
+
+            List<Hit> page = new ArrayList<Hit>(best);
+            Collections.sort(page, Collections.reverseOrder(WORST_FIRST));
+            page = page.subList(Math.min(offset, page.size()), page.size());
+            for (final Hit hit : page) {
+                SearchIndex.Visitor resolver = new SearchIndex.Visitor() {
+                    public void visit(String peerId, long sequence) {
+                        hit.peerId = peerId;
+                        hit.sequence = sequence;
+                    }
+                };
+                if (hit.source < snapshot.size()) {
+                    snapshot.get(hit.source).visitDoc(channels[hit.source], hit.doc, resolver);
+                } else {
+                    lock.lock();
+                    try {
+                        memorySnapshot.visitDoc(hit.doc, resolver);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            for (Hit hit : page)
+                visitor.visit(hit.peerId, hit.sequence);
+            return found;
+        } finally {
+            for (int s = 0; s < snapshot.size(); s++) {
+                if (channels[s] != null)
+                    channels[s].close();
+                snapshot.get(s).release();
+            }
+        }
+    }
+
+    /**
+     * @return the postings of every term in a segment, or {@code null} if one
+     *         of them does not occur in it.
+     */
+    private static Postings[] readPostings(IndexSegment segment, FileChannel channel,
+            IndexSegment.TermInfo[] termInfos) throws IOException {
+        Postings[] postings = new Postings[termInfos.length];
+        for (int t = 0; t < termInfos.length; t++) {
+            if (termInfos[t] == null)
+                return null;
+        }
+        for (int t = 0; t < termInfos.length; t++)
+            postings[t] = segment.readPostings(channel, termInfos[t]);
+        return postings;
+    }
+
+    /**
+     * Scores the texts of one segment holding every term, keeping the best
+     * {@code limit} hits so far.
+     *
+     * @return the number of texts holding every term.
+     */
+    private static int rank(int source, Postings[] postings, double[] weights, PriorityQueue<Hit> best,
+            int limit) {
+        int rarest = 0;
+        for (int t = 1; t < postings.length; t++) {
+            if (postings[t].size < postings[rarest].size)
+                rarest = t;
+        }
+        Postings candidates = postings[rarest];
+        int found = 0;
+        candidates: for (int i = 0; i < candidates.size; i++) {
+            int doc = candidates.docs[i];
+            double score = 0;
+            for (int t = 0; t < postings.length; t++) {
+                int frequency = t == rarest ? candidates.frequencies[i] : postings[t].frequencyOf(doc);
+                if (frequency == 0)
+                    continue candidates;
+                score += (1 + Math.log(frequency)) * weights[t];
+            }
+            found++;
+            Hit hit = new Hit(score, source, doc);
+            if (best.size() < limit) {
+                best.add(hit);
+            } else if (limit > 0 && WORST_FIRST.compare(hit, best.peek()) > 0) {
+                best.poll();
+                best.add(hit);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes the manifest of a new list of segments and makes it the current
+     * one. Called with the lock held.
+     */
+    private void publish(List<IndexSegment> updated) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        for (IndexSegment segment : updated)
+            manifest.append(segment.getGeneration()).append('\n');
+        File temporary = new File(directory, MANIFEST_TEMPORARY);
+        Files.write(temporary.toPath(), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        segments = updated;
+    }
+
+    /**
+     * Keeps levels from increasing from the oldest segment to the newest, so a
+     * user has fewer than {@code mergeFactor} segments of each level. A segment
+     * of a higher level than the one before it, as a full flush behind one
+     * written out early, is merged with the smaller segments before it.
+     * Otherwise the first run of {@code mergeFactor} adjacent segments of the
+     * same level is merged.
+     *
+     * @return the run of segments to merge, or {@code null} if there is none.
+     */
+    private List<IndexSegment> selectMerge(List<IndexSegment> candidates) {
+        for (int i = 1; i < candidates.size(); i++) {
+            int level = level(candidates.get(i));
+            if (level > level(candidates.get(i - 1))) {
+                int runStart = i - 1;
+                while (runStart > 0 && level(candidates.get(runStart - 1)) < level)
+                    runStart--;
+                return new ArrayList<IndexSegment>(candidates.subList(runStart, i + 1));
+            }
+        }
+        int runStart = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (level(candidates.get(i)) != level(candidates.get(runStart)))
+                runStart = i;
+            if (i - runStart + 1 == mergeFactor)
+                return new ArrayList<IndexSegment>(candidates.subList(runStart, i + 1));
+        }
+        return null;
+    }
+
+    /**
+     * @return 0 for segments of fewer than {@code flushDocs} texts, and one
+     *         more for every {@code mergeFactor} times as many.
+     */
+    private int level(IndexSegment segment) {
+        int level = 0;
+        for (long bound = flushDocs; segment.getDocCount() >= bound; bound *= mergeFactor)
+            level++;
+        return level;
+    }
+}
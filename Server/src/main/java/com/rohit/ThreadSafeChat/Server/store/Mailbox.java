@@ -0,0 +1,213 @@
+package com.rohit.ThreadSafeChat.Server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.exception.MalformedMessageException;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+
+/**
+ * Messages stored for one user, as a directory of {@link Segment}s which are
+ * appended to at the tail and consumed from the head. The lock only guards
+ * the segment bookkeeping: mapping, decoding and queueing messages for the
+ * user happen outside of it, so senders are never held up by a delivery.
+ */
+class Mailbox {
+    private static Logger logger = LoggerFactory.getLogger(Mailbox.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final File directory;
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private boolean isLoaded;
+    private boolean isDelivering;
+    private int unreadMessages;
+
+    Mailbox(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return {@code true} if messages are waiting or being delivered, in which
+     *         case new messages have to be stored behind them to keep the order.
+     */
+    boolean hasPending() throws IOException {
+        lock.lock();
+        try {
+            load();
+            return unreadMessages > 0 || isDelivering;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {@code false} if the mailbox is over quota even after dropping
+     *         expired segments.
+     */
+    boolean append(ByteBuffer record, long storedAtMillis, int quota, int segmentBytes, long expiredBeforeMillis)
+            throws IOException {
+        lock.lock();
+        try {
+            load();
+            if (unreadMessages >= quota) {
+                dropExpiredSegments(expiredBeforeMillis);
+                if (unreadMessages >= quota)
+                    return false;
+            }
+            Segment tail = segments.peekLast();
+            if (tail == null || (tail.getSize() > 0 && tail.getSize() + record.remaining() > segmentBytes)) {
+                if (tail != null)
+                    tail.seal();
+                if (!directory.isDirectory() && !directory.mkdirs())
+                    throw new IOException("Could not create " + directory);
+                tail = Segment.create(directory, tail == null ? 0 : tail.getIndex() + 1);
+                segments.addLast(tail);
+            }
+            tail.append(record, storedAtMillis);
+            unreadMessages++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Claims the mailbox for delivery.
+     *
+     * @return {@code false} if there is nothing to deliver or another delivery
+     *         is already running and will pick up new messages.
+     */
+    boolean startDelivery() throws IOException {
+        lock.lock();
+        try {
+            load();
+            if (isDelivering || unreadMessages == 0)
+                return false;
+            isDelivering = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Streams every stored message to the connection, oldest first, skipping
+     * those stored before {@code expiredBeforeMillis}. Must only be called after
+     * a successful {@link #startDelivery()}. Stops early if the connection goes
+     * away, leaving the rest for the next login.
+     */
+    void deliverTo(ClientConnection connection, MessageCodec codec, long expiredBeforeMillis) throws IOException {
+        try {
+            while (!connection.isClosed()) {
+                Segment segment;
+                MappedByteBuffer unread;
+                lock.lock();
+                try {
+                    segment = nextUnreadSegment();
+                    if (segment == null) {
+                        deleteAll();
+                        return;
+                    }
+                    unread = segment.mapUnread();
+                } finally {
+                    lock.unlock();
+                }
+                int recordCount = 0;
+                int delivered = 0;
+                while (unread.hasRemaining() && !connection.isClosed()) {
+                    int length = unread.getInt();
+                    long storedAtMillis = unread.getLong();
+                    ByteBuffer payload = unread.slice();
+                    payload.limit(length);
+                    unread.position(unread.position() + length);
+                    recordCount++;
+                    if (storedAtMillis < expiredBeforeMillis)
+                        continue;
+                    try {
+                        connection.send(codec.decode(payload));
+                        delivered++;
+                    } catch (MalformedMessageException e) {
+                        logger.error("Skipping unreadable stored message in " + directory, e);
+                    }
+                }
+                lock.lock();
+                try {
+                    segment.markRead(unread.position(), recordCount);
+                    unreadMessages -= recordCount;
+                } finally {
+                    lock.unlock();
+                }
+                logger.debug("Delivered {} of {} stored messages from {}", delivered, recordCount, directory);
+            }
+        } finally {
+            lock.lock();
+            try {
+                isDelivering = false;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Segment nextUnreadSegment() throws IOException {
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            if (!head.isFullyRead())
+                return head;
+            if (head == segments.peekLast())
+                return null;
+            segments.pollFirst().delete();
+        }
+        return null;
+    }
+
+    private void dropExpiredSegments(long expiredBeforeMillis) throws IOException {
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment == segments.peekLast() || segment.getNewestStoredAtMillis() >= expiredBeforeMillis)
+                break;
+            if (isDelivering && segment == segments.peekFirst())
+                continue;
+            unreadMessages -= segment.getUnreadRecords();
+            segment.delete();
+            iterator.remove();
+        }
+    }
+
+    private void deleteAll() throws IOException {
+        for (Segment segment : segments)
+            segment.delete();
+        segments.clear();
+        unreadMessages = 0;
+        directory.delete();
+    }
+
+    private void load() throws IOException {
+        if (isLoaded)
+            return;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.getName().endsWith(Segment.SUFFIX))
+                    continue;
+                Segment segment = Segment.recover(file);
+                segments.addLast(segment);
+                unreadMessages += segment.getUnreadRecords();
+            }
+        }
+        isLoaded = true;
+    }
+}
@@ -0,0 +1,182 @@
+package com.rohit.ThreadSafeChat.Server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Common.codec.BinaryMessageCodec;
+import com.rohit.ThreadSafeChat.Common.codec.MessageCodec;
+import com.rohit.ThreadSafeChat.Common.io.BufferPool;
+import com.rohit.ThreadSafeChat.Common.model.Message;
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.connection.ClientConnection;
+
+/**
+ * Disk backed mailboxes for texts sent to users who are not logged in. Each
+ * user gets an append-only directory of segment files under
+ * {@code offlineStoreDir}; stored texts expire after
+ * {@code offlineMessageTtlSeconds} and at most {@code offlineMailboxQuota}
+ * are kept per user. On login the whole backlog is streamed, in order, to the
+ * new connection on a delivery thread, so neither the login nor the registry
+ * waits for it.
+ *
+ * Records are not forced to disk after every append, a crash may lose the most
+ * recent ones. Delivered records are only forgotten once the whole mailbox has
+ * been drained, so a restart in the middle of a delivery may repeat some.
+ */
+public class OfflineMessageStore {
+    private static Logger logger = LoggerFactory.getLogger(OfflineMessageStore.class);
+
+    private final File rootDirectory;
+    private final long ttlMillis;
+    private final int quota;
+    private final int segmentBytes;
+    private final MessageCodec codec = new BinaryMessageCodec();
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService deliveryExecutor;
+
+    public OfflineMessageStore(File rootDirectory, long ttlSeconds, int quota, int segmentBytes) throws IOException {
+        if (!rootDirectory.isDirectory() && !rootDirectory.mkdirs())
+            throw new IOException("Could not create offline message store in " + rootDirectory);
+        this.rootDirectory = rootDirectory;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.quota = quota;
+        this.segmentBytes = segmentBytes;
+        this.deliveryExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "offline-delivery-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        File[] directories = rootDirectory.listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                if (directory.isDirectory() && directory.getName().matches("([0-9a-f]{2})+"))
+                    mailboxes.put(decodeUserId(directory.getName()), new Mailbox(directory));
+            }
+        }
+        logger.info("Offline message store in {} holds mailboxes for {} users", rootDirectory, mailboxes.size());
+    }
+
+    public static OfflineMessageStore open(ServerConfig config) throws IOException {
+        return new OfflineMessageStore(new File(config.getOfflineStoreDir()), config.getOfflineMessageTtlSeconds(),
+                config.getOfflineMailboxQuota(), config.getOfflineSegmentBytes());
+    }
+
+    /**
+     * @return {@code true} if texts for the user are waiting to be delivered.
+     *         Newer texts must then be stored as well, behind them.
+     */
+    public boolean hasPending(String userId) throws IOException {
+        Mailbox mailbox = mailboxes.get(userId);
+        return mailbox != null && mailbox.hasPending();
+    }
+
+    /**
+     * Appends a text to the mailbox of its receiver.
+     *
+     * @return {@code false} if the mailbox is full.
+     * @throws IOException if the text is too large or could not be written.
+     */
+    public boolean store(Message message) throws IOException {
+        long now = System.currentTimeMillis();
+        ByteBuffer record = encode(message, now);
+        try {
+            return getOrCreateMailbox(message.getReceiverId()).append(record, now, quota, segmentBytes,
+                    now - ttlMillis);
+        } finally {
+            bufferPool.release(record);
+        }
+    }
+
+    /**
+     * Starts streaming the stored texts of a user to its connection unless that
+     * is already under way.
+     */
+    public void deliver(final String userId, final ClientConnection connection) {
+        final Mailbox mailbox = mailboxes.get(userId);
+        try {
+            if (mailbox == null || !mailbox.startDelivery())
+                return;
+        } catch (IOException e) {
+            logger.error("Could not open the offline mailbox of " + userId, e);
+            return;
+        }
+        deliveryExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    mailbox.deliverTo(connection, codec, System.currentTimeMillis() - ttlMillis);
+                } catch (IOException e) {
+                    logger.error("Offline delivery to " + userId + " failed", e);
+                }
+            }
+        });
+    }
+
+    private Mailbox getOrCreateMailbox(String userId) {
+        Mailbox mailbox = mailboxes.get(userId);
+        if (mailbox == null) {
+            Mailbox created = new Mailbox(new File(rootDirectory, encodeUserId(userId)));
+            mailbox = mailboxes.putIfAbsent(userId, created);
+            if (mailbox == null)
+                mailbox = created;
+        }
+        return mailbox;
+    }
+
+    private ByteBuffer encode(Message message, long storedAtMillis) throws IOException {
+        int capacity = bufferPool.getMinBufferSize();
+        while (true) {
+            ByteBuffer buffer = bufferPool.acquire(capacity);
+            try {
+                buffer.position(Segment.RECORD_HEADER_LENGTH);
+                codec.encode(message, buffer);
+                buffer.putInt(0, buffer.position() - Segment.RECORD_HEADER_LENGTH);
+                buffer.putLong(4, storedAtMillis);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                bufferPool.release(buffer);
+                if (buffer.capacity() >= bufferPool.getMaxBufferSize())
+                    throw new IOException("Message is too large to be stored");
+                capacity = buffer.capacity() * 2;
+            } catch (IOException | RuntimeException e) {
+                bufferPool.release(buffer);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * User ids are hex encoded so that any id maps to a safe directory name.
+     */
+    private static String encodeUserId(String userId) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : userId.getBytes(StandardCharsets.UTF_8))
+            builder.append(String.format("%02x", b & 0xff));
+        return builder.toString();
+    }
+
+    private static String decodeUserId(String directoryName) {
+        byte[] bytes = new byte[directoryName.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(directoryName.substring(2 * i, 2 * i + 2), 16);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,417 @@
+package com.rohit.ThreadSafeChat.Server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rohit.ThreadSafeChat.Server.config.ServerConfig;
+import com.rohit.ThreadSafeChat.Server.metrics.ServerMetrics;
+import com.rohit.ThreadSafeChat.Server.registry.UserRegistry;
+
+/**
+ * Keeps registrations across restarts, under {@code registryDir}, as a
+ * write-ahead log and a compacted snapshot. Every file belongs to a
+ * generation: a snapshot holds every user registered in the logs of earlier
+ * generations, so a restart loads the latest snapshot through a memory
+ * mapping and only replays the logs written since.
+ *
+ * A single writer thread appends registrations to the log. Whatever queued up
+ * while it was forcing the last batch to disk is written and forced with one
+ * call, and only then are the registrations answered, so a burst of them costs
+ * one disk flush rather than one each. Once the log outgrows
+ * {@code registryCompactionBytes} the writer moves on to a new generation, and
+ * a snapshot of the registry is written in the background, after which the
+ * older files are deleted.
+ *
+ * A log record is a 2 byte length, a CRC32 of the user id and the user id in
+ * UTF-8; replay stops at the first record which does not check out, and cuts
+ * the log there. Snapshots are a 4 byte magic number, an 8 byte user count and
+ * records without the CRC, written to a temporary file which is only renamed
+ * into place once forced to disk.
+ */
+public class RegistrationStore {
+    private static Logger logger = LoggerFactory.getLogger(RegistrationStore.class);
+    static final String LOG_SUFFIX = ".wal";
+    static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int SNAPSHOT_MAGIC = 0x43525331;
+    private static final int SNAPSHOT_HEADER_LENGTH = 12;
+    private static final int LOG_HEADER_LENGTH = 6;
+    private static final int MAX_USER_ID_BYTES = 0xffff;
+    private static final long MAX_MAPPING_BYTES = 1 << 30;
+
+    /**
+     * Told on the writer thread once a registration is on disk.
+     */
+    public interface Callback {
+        /**
+         * @param error why the registration could not be saved, or
+         *              {@code null} if it was.
+         */
+        void completed(IOException error);
+    }
+
+    private static final class Pending {
+        private final byte[] userId;
+        private final Callback callback;
+
+        private Pending(byte[] userId, Callback callback) {
+            this.userId = userId;
+            this.callback = callback;
+        }
+    }
+
+    private final File directory;
+    private final long compactionBytes;
+    private final UserRegistry userRegistry;
+    private final ServerMetrics metrics;
+    private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<Pending>();
+    private final AtomicBoolean isSnapshotting = new AtomicBoolean(false);
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer batchBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private FileChannel log;
+    private long generation;
+    private long logSize;
+
+    /**
+     * Loads every registration kept in the directory into the registry.
+     */
+    public RegistrationStore(File directory, long compactionBytes, UserRegistry userRegistry, ServerMetrics metrics)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create registry store in " + directory);
+        this.directory = directory;
+        this.compactionBytes = compactionBytes;
+        this.userRegistry = userRegistry;
+        this.metrics = metrics;
+        long replayedBytes = load();
+        // Too much to replay on the next start as well: snapshot it.
+        if (replayedBytes >= compactionBytes)
+            generation++;
+        log = openLog(generation);
+        if (replayedBytes >= compactionBytes)
+            startSnapshot(generation);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "registry-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static RegistrationStore open(ServerConfig config, UserRegistry userRegistry, ServerMetrics metrics)
+            throws IOException {
+        return new RegistrationStore(new File(config.getRegistryDir()), config.getRegistryCompactionBytes(),
+                userRegistry, metrics);
+    }
+
+    /**
+     * Queues a registration to be saved. Never blocks; the callback is told
+     * once it is on disk, or right away if the user id is too long to be kept.
+     */
+    public void save(String userId, Callback callback) {
+        byte[] bytes = userId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_USER_ID_BYTES)
+            callback.completed(new IOException("User id must be between 1 and " + MAX_USER_ID_BYTES + " bytes"));
+        else
+            pending.add(new Pending(bytes, callback));
+    }
+
+    /**
+     * Loads the latest snapshot, replays the logs written since and deletes
+     * everything older. Appends go on to the latest log.
+     *
+     * @return the number of log bytes replayed.
+     */
+    private long load() throws IOException {
+        long startNanos = System.nanoTime();
+        TreeMap<Long, File> logs = new TreeMap<Long, File>();
+        TreeMap<Long, File> snapshots = new TreeMap<Long, File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TEMPORARY_SUFFIX))
+                    delete(file);
+                else if (name.matches("[0-9]{20}\\" + LOG_SUFFIX))
+                    logs.put(Long.parseLong(name.substring(0, 20)), file);
+                else if (name.matches("[0-9]{20}\\" + SNAPSHOT_SUFFIX))
+                    snapshots.put(Long.parseLong(name.substring(0, 20)), file);
+            }
+        }
+        long snapshotGeneration = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        long fromSnapshot = snapshots.isEmpty() ? 0 : loadSnapshot(snapshots.lastEntry().getValue());
+        long fromLogs = 0;
+        long replayedBytes = 0;
+        for (File file : logs.tailMap(snapshotGeneration, true).values()) {
+            replayedBytes += file.length();
+            fromLogs += replayLog(file);
+        }
+        deleteOlderThan(snapshotGeneration);
+        generation = Math.max(Math.max(snapshotGeneration, 1), logs.isEmpty() ? 0 : logs.lastKey());
+        logger.info("Loaded {} users from the registry snapshot and {} from {} log bytes in {} ms", fromSnapshot,
+                fromLogs, replayedBytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return replayedBytes;
+    }
+
+    /**
+     * Reads the snapshot through read-only mappings of up to a gigabyte,
+     * each starting at a record.
+     */
+    private long loadSnapshot(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SNAPSHOT_HEADER_LENGTH)
+                throw new IOException("Registry snapshot " + file + " is truncated");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_LENGTH);
+            if (header.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException(file + " is not a registry snapshot");
+            long count = header.getLong();
+            long loaded = 0;
+            long position = SNAPSHOT_HEADER_LENGTH;
+            byte[] bytes = new byte[MAX_USER_ID_BYTES];
+            while (position < size) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(size - position, MAX_MAPPING_BYTES));
+                int start = mapped.position();
+                while (mapped.remaining() >= 2) {
+                    int length = mapped.getShort(mapped.position()) & 0xffff;
+                    if (mapped.remaining() < 2 + length)
+                        break;
+                    mapped.position(mapped.position() + 2);
+                    mapped.get(bytes, 0, length);
+                    userRegistry.register(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                    loaded++;
+                }
+                if (mapped.position() == start)
+                    throw new IOException("Registry snapshot " + file + " is truncated");
+                position += mapped.position();
+            }
+            if (loaded != count)
+                throw new IOException("Registry snapshot " + file + " holds " + loaded + " of " + count + " users");
+            return loaded;
+        }
+    }
+
+    /**
+     * @return the number of users the log registered which the snapshot did
+     *         not hold yet.
+     */
+    private long replayLog(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long replayed = 0;
+            long position = 0;
+            byte[] bytes = new byte[MAX_USER_ID_BYTES];
+            while (position < size) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(size - position, MAX_MAPPING_BYTES));
+                boolean isLast = position + mapped.limit() == size;
+                boolean isTorn = false;
+                while (mapped.remaining() >= LOG_HEADER_LENGTH) {
+                    int length = mapped.getShort(mapped.position()) & 0xffff;
+                    if (mapped.remaining() < LOG_HEADER_LENGTH + length)
+                        break;
+                    int checksum = mapped.getInt(mapped.position() + 2);
+                    mapped.position(mapped.position() + LOG_HEADER_LENGTH);
+                    mapped.get(bytes, 0, length);
+                    crc.reset();
+                    crc.update(bytes, 0, length);
+                    if (length == 0 || (int) crc.getValue() != checksum) {
+                        mapped.position(mapped.position() - LOG_HEADER_LENGTH - length);
+                        isTorn = true;
+                        break;
+                    }
+                    if (userRegistry.register(new String(bytes, 0, length, StandardCharsets.UTF_8)))
+                        replayed++;
+                }
+                position += mapped.position();
+                if (isTorn || (isLast && mapped.hasRemaining())) {
+                    logger.warn("Cutting {} torn bytes off the end of {}", size - position, file);
+                    channel.truncate(position);
+                    break;
+                }
+            }
+            return replayed;
+        }
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        FileChannel channel = FileChannel.open(fileOf(logGeneration, LOG_SUFFIX).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        logSize = channel.size();
+        return channel;
+    }
+
+    private void write() {
+        List<Pending> batch = new ArrayList<Pending>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+            IOException error = null;
+            long startNanos = System.nanoTime();
+            try {
+                append(batch);
+                metrics.recordRegistryCommit(batch.size(), System.nanoTime() - startNanos);
+            } catch (IOException e) {
+                logger.error("Could not save " + batch.size() + " registrations", e);
+                error = e;
+            }
+            for (Pending registration : batch) {
+                try {
+                    registration.callback.completed(error);
+                } catch (RuntimeException e) {
+                    logger.error("Could not answer a registration", e);
+                }
+            }
+            batch.clear();
+            if (error == null && logSize >= compactionBytes && !isSnapshotting.get())
+                roll();
+        }
+    }
+
+    /**
+     * Writes the whole batch and forces it to disk once.
+     */
+    private void append(List<Pending> batch) throws IOException {
+        int length = 0;
+        for (Pending registration : batch)
+            length += LOG_HEADER_LENGTH + registration.userId.length;
+        if (batchBuffer.capacity() < length)
+            batchBuffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length - 1) << 1);
+        batchBuffer.clear();
+        for (Pending registration : batch) {
+            crc.reset();
+            crc.update(registration.userId, 0, registration.userId.length);
+            batchBuffer.putShort((short) registration.userId.length);
+            batchBuffer.putInt((int) crc.getValue());
+            batchBuffer.put(registration.userId);
+        }
+        batchBuffer.flip();
+        while (batchBuffer.hasRemaining())
+            log.write(batchBuffer);
+        log.force(false);
+        logSize += length;
+    }
+
+    /**
+     * Moves on to the next generation's log, and snapshots everything the
+     * earlier ones registered.
+     */
+    private void roll() {
+        try {
+            FileChannel next = openLog(generation + 1);
+            log.close();
+            log = next;
+            generation++;
+            startSnapshot(generation);
+        } catch (IOException e) {
+            logger.error("Could not start registry log generation " + (generation + 1), e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the registry in the background. Everything in the
+     * logs of earlier generations is already in the registry, so the snapshot
+     * covers them even though registrations keep coming meanwhile.
+     */
+    private void startSnapshot(final long snapshotGeneration) {
+        if (!isSnapshotting.compareAndSet(false, true))
+            return;
+        Thread snapshotter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    writeSnapshot(snapshotGeneration);
+                    deleteOlderThan(snapshotGeneration);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Could not write registry snapshot " + snapshotGeneration, e);
+                } finally {
+                    isSnapshotting.set(false);
+                }
+            }
+        }, "registry-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    private void writeSnapshot(long snapshotGeneration) throws IOException {
+        long startNanos = System.nanoTime();
+        File temporary = fileOf(snapshotGeneration, SNAPSHOT_SUFFIX + TEMPORARY_SUFFIX);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(0);
+            for (String userId : userRegistry.getUserIds()) {
+                byte[] bytes = userId.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 2 + bytes.length) {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putShort((short) bytes.length).put(bytes);
+                count++;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putLong(count).flip();
+            channel.write(header, 4);
+            channel.force(true);
+        }
+        Files.move(temporary.toPath(), fileOf(snapshotGeneration, SNAPSHOT_SUFFIX).toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote a registry snapshot of {} users in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Deletes the logs and snapshots a snapshot of the given generation makes
+     * obsolete.
+     */
+    private void deleteOlderThan(long snapshotGeneration) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if ((name.matches("[0-9]{20}\\" + LOG_SUFFIX) || name.matches("[0-9]{20}\\" + SNAPSHOT_SUFFIX))
+                    && Long.parseLong(name.substring(0, 20)) < snapshotGeneration)
+                delete(file);
+        }
+    }
+
+    private File fileOf(long fileGeneration, String suffix) {
+        return new File(directory, String.format("%020d%s", fileGeneration, suffix));
+    }
+
+    private static void delete(File file) throws IOException {
+        if (!file.delete() && file.exists())
+            throw new IOException("Could not delete " + file);
+    }
+}
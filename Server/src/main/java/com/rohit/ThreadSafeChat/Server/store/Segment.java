@@ -0,0 +1,141 @@
+package com.rohit.ThreadSafeChat.Server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One append-only file of a {@link Mailbox}. Every record is a 4 byte payload
+ * length, an 8 byte store timestamp and the encoded message. Records are read
+ * back through a read-only memory mapping.
+ *
+ * Guarded by the owning mailbox's lock.
+ */
+class Segment {
+    static final String SUFFIX = ".seg";
+    static final int RECORD_HEADER_LENGTH = 12;
+
+    private final File file;
+    private final long index;
+    private FileChannel appendChannel;
+    private long size;
+    private long readPosition;
+    private int records;
+    private int consumedRecords;
+    private long newestStoredAtMillis;
+
+    private Segment(File file, long index) {
+        this.file = file;
+        this.index = index;
+    }
+
+    static Segment create(File directory, long index) throws IOException {
+        Segment segment = new Segment(new File(directory, String.format("%020d%s", index, SUFFIX)), index);
+        segment.openForAppend();
+        return segment;
+    }
+
+    /**
+     * Scans an existing segment, dropping a torn record left behind at its tail
+     * by a crash.
+     */
+    static Segment recover(File file) throws IOException {
+        String name = file.getName();
+        Segment segment = new Segment(file, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+        MappedByteBuffer mapped = map(file, 0, file.length());
+        while (mapped.remaining() >= RECORD_HEADER_LENGTH) {
+            int length = mapped.getInt(mapped.position());
+            if (length < 0 || length > mapped.remaining() - RECORD_HEADER_LENGTH)
+                break;
+            segment.newestStoredAtMillis = Math.max(segment.newestStoredAtMillis,
+                    mapped.getLong(mapped.position() + 4));
+            mapped.position(mapped.position() + RECORD_HEADER_LENGTH + length);
+            segment.records++;
+        }
+        segment.size = mapped.position();
+        if (segment.size < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(segment.size);
+            }
+        }
+        return segment;
+    }
+
+    static MappedByteBuffer map(File file, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+    }
+
+    long getIndex() {
+        return index;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getReadPosition() {
+        return readPosition;
+    }
+
+    int getUnreadRecords() {
+        return records - consumedRecords;
+    }
+
+    long getNewestStoredAtMillis() {
+        return newestStoredAtMillis;
+    }
+
+    boolean isFullyRead() {
+        return readPosition == size;
+    }
+
+    /**
+     * Writes a whole record, header included, at the end of the segment.
+     */
+    void append(ByteBuffer record, long storedAtMillis) throws IOException {
+        if (appendChannel == null)
+            openForAppend();
+        int length = record.remaining();
+        while (record.hasRemaining())
+            appendChannel.write(record);
+        size += length;
+        records++;
+        newestStoredAtMillis = Math.max(newestStoredAtMillis, storedAtMillis);
+    }
+
+    /**
+     * @return a read-only view of the records between the read position and the
+     *         current end of the segment.
+     */
+    MappedByteBuffer mapUnread() throws IOException {
+        return map(file, readPosition, size - readPosition);
+    }
+
+    void markRead(long bytes, int recordCount) {
+        readPosition += bytes;
+        consumedRecords += recordCount;
+    }
+
+    void seal() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+            appendChannel = null;
+        }
+    }
+
+    void delete() throws IOException {
+        seal();
+        if (!file.delete() && file.exists())
+            throw new IOException("Could not delete " + file);
+    }
+
+    private void openForAppend() throws IOException {
+        appendChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+}
@@ -6,13 +6,60 @@ public class ResponseMessages {
 	
     public static final String LOGIN_SUCCESSFUL = "User %s has been successfully logged in :)";
     public static final String DUPLICATE_LOGIN_REQUEST = "Another user with username %s already exists";
-    public static final String LOGIN_REQUEST_QUEUED = "Server is presently full. The request for login of %s has been queued.";
+    public static final String LOGIN_REQUEST_QUEUED = "Server is presently full. The request for login of %s has been queued at position %d.";
+    public static final String LOGIN_QUEUE_POSITION = "Login of %s is at position %d in the queue, estimated wait %s";
+    public static final String LOGIN_QUEUE_FULL = "Server is presently full and %d logins are already waiting, try again later";
+    public static final String LOGIN_QUEUE_TIMED_OUT = "Login of %s timed out waiting in the queue, try again later";
+    public static final String SESSION_RESUMED = "Session of %s has been resumed, %d held messages follow";
+    public static final String SESSION_NOT_RESUMABLE = "No session of %s can be resumed with this token, log in again";
 
     public static final String TEXT_SENT_SUCCESSFUL = "Text has been delivered successfully to %s :)";
+    public static final String TEXT_STORED_SUCCESSFUL = "Text for %s has been stored until they log in";
+    public static final String OFFLINE_MAILBOX_FULL = "Too many texts are waiting for %s, try again later";
+    public static final String RECEIVER_BUSY = "User %s is not keeping up with incoming messages, try again later";
+
+    public static final String ROOM_CREATED = "Room %s has been created";
+    public static final String ROOM_ALREADY_EXISTS = "Room %s already exists";
+    public static final String ROOM_NOT_FOUND = "Room %s does not exist";
+    public static final String ROOM_JOINED = "You have joined room %s";
+    public static final String ROOM_ALREADY_JOINED = "You already are a member of room %s";
+    public static final String ROOM_LEFT = "You have left room %s";
+    public static final String NOT_A_ROOM_MEMBER = "You are not a member of room %s";
+    public static final String ROOM_TEXT_SENT = "Text has been delivered to %d members of room %s";
+
+    public static final String HISTORY_SENT = "%d texts of your conversation with %s have been sent";
+    public static final String INVALID_HISTORY_REQUEST = "History requests need a user id and a positive page size";
+    public static final String SEARCH_SENT = "%d of %d texts matching \"%s\" have been sent";
+    public static final String INVALID_SEARCH_REQUEST = "Search requests need some words, a positive page size and an offset of at least 0";
+    public static final String SEARCH_NOT_AVAILABLE = "History cannot be searched on this server";
+    public static final String HISTORY_BUSY = "Too many history reads are waiting, try again later";
+
+    public static final String PRESENCE_SUBSCRIBED = "You will be told when %s logs in or off";
+    public static final String PRESENCE_ALREADY_SUBSCRIBED = "You already are subscribed to the presence of %s";
+    public static final String PRESENCE_UNSUBSCRIBED = "You will no longer be told when %s logs in or off";
+    public static final String PRESENCE_NOT_SUBSCRIBED = "You are not subscribed to the presence of %s";
+    public static final String PRESENCE_DISABLED = "Presence cannot be subscribed to on this server";
+
+    public static final String FILE_OFFERED = "File %s has been offered to %s as transfer %d";
+    public static final String FILE_ACCEPTED = "Transfer %d has been accepted";
+    public static final String FILE_NOT_WAITING = "No file transfer %d is waiting to be accepted by you";
+    public static final String FILE_TRANSFER_CANCELLED = "Transfer %d has been cancelled";
+    public static final String FILE_TRANSFER_NOT_FOUND = "You have no file transfer %d";
+    public static final String FILE_CANCELLED_BY_PEER = "Transfer %d of %s has been cancelled by %s";
+    public static final String FILE_PEER_GONE = "Transfer %d of %s has been cancelled as %s went away";
+    public static final String FILE_TRANSFER_TIMED_OUT = "Transfer %d of %s made no progress and has been cancelled";
+    public static final String FILE_TRANSFER_FAILED = "Transfer %d of %s failed and has been cancelled";
+    public static final String INVALID_FILE_OFFER = "File offers need a receiver, a file name and a size";
+    public static final String FILE_TOO_LARGE = "Files may be at most %d bytes";
+    public static final String FILE_RECEIVER_ELSEWHERE = "Files cannot reach %s, who is connected to another server";
+    public static final String FILES_DISABLED = "Files cannot be sent on this server";
 
     public static final String USER_ID_NOT_LOGGED_IN = "User Id %s is currently not logged in";
     public static final String USER_ID_NOT_REGISTERED = "User Id %s is not registered";
 
+    public static final String REGISTRATION_NOT_SAVED = "Registration of %s could not be saved, try again";
     public static final String UNKNOWN_ERROR = "Unknown Error Occured";
+    public static final String REQUEST_THROTTLED = "Too many %s requests, slow down and try again";
+    public static final String NODE_UNAVAILABLE = "The server responsible for %s cannot be reached, try again later";
     public static final String LOGOFF_SUCCESSFUL = "User %s has been successfully logged off";
 }
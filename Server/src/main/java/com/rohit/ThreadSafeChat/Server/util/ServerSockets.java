@@ -0,0 +1,48 @@
+package com.rohit.ThreadSafeChat.Server.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts client sockets without letting a failure to accept one, typically
+ * running out of file descriptors under a flood of clients, take the whole
+ * server down.
+ */
+public class ServerSockets {
+    private static Logger logger = LoggerFactory.getLogger(ServerSockets.class);
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private ServerSockets() {
+    }
+
+    /**
+     * Accepts the next client socket, logging failures and trying again after
+     * a short pause. Clients wait in the listen backlog meanwhile.
+     *
+     * @throws IOException only once the server socket has been closed, or the
+     *                     calling thread is interrupted while pausing.
+     */
+    public static SocketChannel accept(ServerSocketChannel serverSocketChannel) throws IOException {
+        while (true) {
+            try {
+                return serverSocketChannel.accept();
+            } catch (IOException e) {
+                if (!serverSocketChannel.isOpen())
+                    throw e;
+                logger.warn("Could not accept a connection, trying again in {} ms: {}", ACCEPT_BACKOFF_MILLIS,
+                        e.toString());
+            }
+            try {
+                Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to accept connections");
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.rohit.ThreadSafeChat.Server.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel: a ring of buckets, one per tick, each holding the
+ * timeouts due in that tick. Scheduling and expiring a timeout are O(1);
+ * deadlines further out than one turn of the wheel wait in their bucket for
+ * the turns still to go. Advancing the wheel visits only the buckets of the
+ * ticks which have passed, so the cost of a tick does not grow with the
+ * number of timeouts pending, only with the number falling due.
+ *
+ * Any thread may schedule. The wheel itself is owned by the thread which
+ * advances it, and new timeouts are handed over through a lock-free queue,
+ * taken in at the start of each advance.
+ */
+public class TimerWheel<T> {
+
+    /**
+     * Called on the advancing thread for every timeout falling due.
+     */
+    public interface Task<T> {
+        /**
+         * @return nanoseconds until the item is due again, or a negative
+         *         value to drop it.
+         */
+        long expired(T item, long nowNanos);
+    }
+
+    private static final class Timeout<T> {
+        private final T item;
+        private final long delayNanos;
+        private long deadlineTick;
+        private Timeout<T> next;
+
+        private Timeout(T item, long delayNanos) {
+            this.item = item;
+            this.delayNanos = delayNanos;
+        }
+    }
+
+    private final Timeout<T>[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Queue<Timeout<T>> scheduled = new ConcurrentLinkedQueue<Timeout<T>>();
+    private long tick = 0;
+
+    /**
+     * @param buckets rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(int buckets, long tickNanos, long nowNanos) {
+        int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Schedules the item to be passed to the task once the delay is over,
+     * give or take a tick. Thread-safe.
+     */
+    public void schedule(T item, long delayNanos) {
+        scheduled.add(new Timeout<T>(item, delayNanos));
+    }
+
+    /**
+     * Runs the task for every timeout due up to now. Must only ever be called
+     * from one thread.
+     *
+     * @return the number of timeouts which fell due.
+     */
+    public int advance(long nowNanos, Task<T> task) {
+        long lastTick = (nowNanos - startNanos) / tickNanos;
+        Timeout<T> timeout;
+        while ((timeout = scheduled.poll()) != null)
+            insert(timeout, timeout.delayNanos);
+        int expired = 0;
+        while (tick < lastTick) {
+            tick++;
+            expired += expireBucket(nowNanos, task);
+        }
+        return expired;
+    }
+
+    private int expireBucket(long nowNanos, Task<T> task) {
+        int index = (int) (tick & mask);
+        Timeout<T> timeout = buckets[index];
+        buckets[index] = null;
+        Timeout<T> remaining = null;
+        int expired = 0;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            if (timeout.deadlineTick > tick) {
+                // Due in a later turn of the wheel.
+                timeout.next = remaining;
+                remaining = timeout;
+            } else {
+                expired++;
+                long delayNanos = task.expired(timeout.item, nowNanos);
+                if (delayNanos >= 0)
+                    insert(timeout, delayNanos);
+            }
+            timeout = next;
+        }
+        while (remaining != null) {
+            Timeout<T> next = remaining.next;
+            remaining.next = buckets[index];
+            buckets[index] = remaining;
+            remaining = next;
+        }
+        return expired;
+    }
+
+    /**
+     * Timeouts are never due earlier than the next tick, so one rescheduled
+     * while its bucket is being expired is not seen again in the same pass.
+     */
+    private void insert(Timeout<T> timeout, long delayNanos) {
+        timeout.deadlineTick = tick + Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        int index = (int) (timeout.deadlineTick & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+    }
+}
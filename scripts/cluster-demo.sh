@@ -0,0 +1,113 @@
+#!/usr/bin/env bash
+#
+# Starts a cluster of several nodes on this machine and runs the load
+# generator against all of them at once. Users are spread over the nodes in
+# turn, so most texts are forwarded to their conversation's node and routed on
+# to the receiver's home, which delivers them to the node the receiver is
+# connected to. Prints the generator's summary and exits non-zero unless every
+# user logged in and no request failed.
+#
+# Build first with: mvn -B package -DskipTests
+#
+# Settings come from the environment:
+#   NODES        number of nodes (default 3)
+#   MODE         execution mode of every node (default THREAD)
+#   CONNECTIONS  simulated users across the cluster (default 300)
+#   SEND_RATE    texts per second across all users (default 500)
+#   DURATION     seconds of load, the first 5 of them warmup (default 20)
+#   PORT         client port of node 0, node i listens on PORT + i (default 7000)
+#   CLUSTER_PORT cluster port of node 0, node i links on CLUSTER_PORT + i (default 7100)
+#
+# Each node keeps its files and log in a scratch directory, which is kept if
+# the run fails.
+
+set -u
+
+cd "$(dirname "$0")/.."
+NODES=${NODES:-3}
+MODE=${MODE:-THREAD}
+CONNECTIONS=${CONNECTIONS:-300}
+SEND_RATE=${SEND_RATE:-500}
+DURATION=${DURATION:-20}
+PORT=${PORT:-7000}
+CLUSTER_PORT=${CLUSTER_PORT:-7100}
+SERVER_JAR=$PWD/Server/target/Server-0.0.1-SNAPSHOT-jar-with-dependencies.jar
+LOAD_JAR=$PWD/LoadGenerator/target/LoadGenerator-0.0.1-SNAPSHOT-jar-with-dependencies.jar
+
+for jar in "$SERVER_JAR" "$LOAD_JAR"; do
+    if [ ! -f "$jar" ]; then
+        echo "Missing $jar, build with: mvn -B package -DskipTests" >&2
+        exit 1
+    fi
+done
+
+SCRATCH=$(mktemp -d)
+SECRET=$(od -An -N16 -tx1 /dev/urandom | tr -d ' \n')
+pids=()
+
+stop_nodes() {
+    for pid in "${pids[@]}"; do
+        kill "$pid" 2> /dev/null
+    done
+    for pid in "${pids[@]}"; do
+        wait "$pid" 2> /dev/null
+    done
+}
+trap stop_nodes EXIT
+
+wait_for_port() {
+    for _ in $(seq 1 50); do
+        if (exec 3<>"/dev/tcp/127.0.0.1/$1") 2>/dev/null; then
+            return 0
+        fi
+        sleep 0.2
+    done
+    return 1
+}
+
+cluster_nodes=""
+client_ports=""
+for i in $(seq 0 $((NODES - 1))); do
+    cluster_nodes=$cluster_nodes${cluster_nodes:+,}127.0.0.1:$((CLUSTER_PORT + i))
+    client_ports=$client_ports${client_ports:+,}$((PORT + i))
+done
+
+for i in $(seq 0 $((NODES - 1))); do
+    mkdir -p "$SCRATCH/node$i"
+    (cd "$SCRATCH/node$i" && exec java -Dchat.server.mode="$MODE" -Dchat.server.clusterNodes="$cluster_nodes" \
+        -Dchat.server.nodeId="$i" -Dchat.server.clusterSecret="$SECRET" \
+        -Dchat.server.maxLoggedInUsers="$CONNECTIONS" -jar "$SERVER_JAR" $((PORT + i)) > server.log 2>&1) &
+    pids+=($!)
+done
+for i in $(seq 0 $((NODES - 1))); do
+    if ! wait_for_port $((PORT + i)); then
+        echo "Node $i did not start, see $SCRATCH/node$i/server.log" >&2
+        trap - EXIT
+        stop_nodes
+        exit 1
+    fi
+done
+
+# Every node links to every other one; wait for all links to be up.
+for _ in $(seq 1 50); do
+    up=$(cat "$SCRATCH"/node*/server.log | grep -c 'Cluster link to node [0-9]* is up')
+    [ "$up" -ge $((NODES * (NODES - 1))) ] && break
+    sleep 0.2
+done
+echo "$NODES nodes up with $up cluster links, logs in $SCRATCH"
+
+timeout $((DURATION + 120)) java -Dchat.load.connections="$CONNECTIONS" -Dchat.load.sendRate="$SEND_RATE" \
+    -Dchat.load.durationSeconds="$DURATION" -Dchat.load.warmupSeconds=5 \
+    -jar "$LOAD_JAR" 127.0.0.1 "$client_ports" > "$SCRATCH/load.log" 2>&1
+status=$?
+
+grep -E 'Logged in|Sent [0-9]+ texts in|Delivered|latency over' "$SCRATCH/load.log" | sed 's/^.* - //' \
+    || tail -n 20 "$SCRATCH/load.log"
+failed=$(grep -o '[0-9]* failed$' "$SCRATCH/load.log" | tail -n 1 | grep -o '^[0-9]*')
+if [ "$status" -ne 0 ] || [ "${failed:-1}" -ne 0 ]; then
+    echo "Cluster run failed, logs kept in $SCRATCH" >&2
+    exit 1
+fi
+trap - EXIT
+stop_nodes
+rm -rf "$SCRATCH"
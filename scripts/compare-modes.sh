@@ -0,0 +1,125 @@
+#!/usr/bin/env bash
+#
+# Compares the server's execution modes under the load generator. For every
+# mode and connection count it starts a fresh server with a fixed heap, lets
+# the generator log that many users in and send texts between them at a fixed
+# rate, and prints one row of results per run. Runs on a loaded machine vary,
+# so each is repeated.
+#
+# Build first with: mvn -B package -DskipTests
+#
+# Settings come from the environment:
+#   MODES        execution modes to compare (default "THREAD REACTOR"; add VIRTUAL
+#                on JDK 21)
+#   CONNECTIONS  connection counts to step through (default "250 500 1000 1500 2000 4000")
+#   SEND_RATE    texts per second across all users (default 500)
+#   DURATION     seconds per run, the first 5 of them warmup (default 20)
+#   HEAP         server heap, as -Xms and -Xmx (default 256m)
+#   PORT         server port (default 7900)
+#   RUNS         runs per mode and connection count (default 3)
+#
+# A connection count is sustained if every user logged in, no request failed,
+# the whole send rate got through and the p99 response latency stayed below
+# P99_LIMIT_MS (default 100).
+
+set -u
+
+cd "$(dirname "$0")/.."
+MODES=${MODES:-"THREAD REACTOR"}
+CONNECTIONS=${CONNECTIONS:-"250 500 1000 1500 2000 4000"}
+SEND_RATE=${SEND_RATE:-500}
+DURATION=${DURATION:-20}
+HEAP=${HEAP:-256m}
+PORT=${PORT:-7900}
+RUNS=${RUNS:-3}
+P99_LIMIT_MS=${P99_LIMIT_MS:-100}
+SERVER_JAR=$PWD/Server/target/Server-0.0.1-SNAPSHOT-jar-with-dependencies.jar
+LOAD_JAR=$PWD/LoadGenerator/target/LoadGenerator-0.0.1-SNAPSHOT-jar-with-dependencies.jar
+
+for jar in "$SERVER_JAR" "$LOAD_JAR"; do
+    if [ ! -f "$jar" ]; then
+        echo "Missing $jar, build with: mvn -B package -DskipTests" >&2
+        exit 1
+    fi
+done
+
+# Everything a run writes, from registrations to logs, goes to a scratch
+# directory, so that every run starts from an empty server.
+SCRATCH=$(mktemp -d)
+trap 'rm -rf "$SCRATCH"' EXIT
+
+wait_for_port() {
+    for _ in $(seq 1 50); do
+        if (exec 3<>"/dev/tcp/127.0.0.1/$PORT") 2>/dev/null; then
+            return 0
+        fi
+        sleep 0.2
+    done
+    return 1
+}
+
+# Records the peak resident memory, in KiB, and thread count of a process
+# until it exits or the file "stop" appears next to the output.
+sample_peaks() {
+    local pid=$1 out=$2 rss=0 threads=0
+    while [ ! -f "$out.stop" ] && [ -d "/proc/$pid" ]; do
+        read -r now_rss now_threads < <(awk '/^VmRSS:/ { r = $2 } /^Threads:/ { t = $2 } END { print r, t }' \
+            "/proc/$pid/status" 2> /dev/null)
+        [ "${now_rss:-0}" -gt "$rss" ] && rss=$now_rss
+        [ "${now_threads:-0}" -gt "$threads" ] && threads=$now_threads
+        echo "$rss $threads" > "$out"
+        sleep 1
+    done
+}
+
+# Prints the first number following a pattern in the generator's output.
+number_after() {
+    grep -o "$1[0-9.]*" "$2" | head -n 1 | grep -o '[0-9.]*$'
+}
+
+printf '%-8s %6s %3s %9s %7s %8s %12s %12s %13s %8s %s\n' mode conns run "sent/s" ok failed \
+    "resp p99 ms" "e2e p99 ms" "peak rss MiB" threads verdict
+for mode in $MODES; do
+    for connections in $CONNECTIONS; do
+        for attempt in $(seq 1 "$RUNS"); do
+            run=$SCRATCH/$mode-$connections-$attempt
+            mkdir -p "$run"
+            (cd "$run" && exec java -Xms"$HEAP" -Xmx"$HEAP" -Dchat.server.mode="$mode" \
+                -Dchat.server.maxLoggedInUsers="$connections" -jar "$SERVER_JAR" "$PORT" > server.log 2>&1) &
+            server=$!
+            if ! wait_for_port; then
+                echo "$mode server did not start, see below" >&2
+                cat "$run/server.log" >&2
+                kill "$server" 2> /dev/null
+                exit 1
+            fi
+            sample_peaks "$server" "$run/peaks" &
+            sampler=$!
+            timeout $((DURATION + 120)) java -Dchat.load.connections="$connections" \
+                -Dchat.load.sendRate="$SEND_RATE" -Dchat.load.durationSeconds="$DURATION" \
+                -Dchat.load.warmupSeconds=5 -jar "$LOAD_JAR" 127.0.0.1 "$PORT" > "$run/load.log" 2>&1
+            touch "$run/peaks.stop"
+            wait "$sampler"
+            read -r rss_kib threads < "$run/peaks"
+            kill "$server" 2> /dev/null
+            wait "$server" 2> /dev/null
+
+            summary=$run/load.log
+            sent=$(grep -o '([0-9]*/s): ' "$summary" | head -n 1 | grep -o '[0-9]*')
+            ok=$(number_after 's): ' "$summary")
+            failed=$(grep -o '[0-9]* failed$' "$summary" | tail -n 1 | grep -o '^[0-9]*')
+            response_p99=$(grep 'Response latency' "$summary" | grep -o 'p99 [0-9.]*' | head -n 1 | cut -d' ' -f2)
+            delivery_p99=$(grep 'End-to-end latency' "$summary" | grep -o 'p99 [0-9.]*' | head -n 1 | cut -d' ' -f2)
+            verdict=sustained
+            if [ -z "$response_p99" ]; then
+                verdict="failed: $(grep -m 1 -E 'Exception|Too few' "$summary" | cut -c1-60)"
+            elif [ "${failed:-1}" -ne 0 ] || [ "${sent:-0}" -lt $((SEND_RATE * 98 / 100)) ] \
+                || awk -v p99="$response_p99" -v limit="$P99_LIMIT_MS" 'BEGIN { exit !(p99 >= limit) }'; then
+                verdict=overloaded
+            fi
+            printf '%-8s %6s %3s %9s %7s %8s %12s %12s %13s %8s %s\n' "$mode" "$connections" "$attempt" "${sent:--}" \
+                "${ok:--}" "${failed:--}" "${response_p99:--}" "${delivery_p99:--}" $((rss_kib / 1024)) \
+                "${threads:--}" "$verdict"
+        done
+    done
+done